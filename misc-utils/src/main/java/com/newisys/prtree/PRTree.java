@@ -237,6 +237,10 @@ public class PRTree extends BinaryTreeImpl {
 		PRNode cur = (PRNode) root;
 		while (true) {
 			if (cur instanceof PointNode) {
+				// accumulate covering intervals in path to lower bound, which
+				// include those spanning the whole query interval
+				result.addAll(cur.getCoveredBy());
+
 				PointNode curPoint = (PointNode) cur;
 				if (value < curPoint.value) {
 					cur = (PRNode) curPoint.left;
@@ -26,6 +26,13 @@ public class LongArrayLongArray implements LongArray {
         v = new long[size];
     }
 
+    /**
+     * Wraps an array of longs, least significant first, without copying it.
+     */
+    public LongArrayLongArray(long[] _v) {
+        v = _v;
+    }
+
 	public long get(int index) {
 		return v[index];
 	}
@@ -0,0 +1,173 @@
+/*
+ * Misc-Utils - Miscellaneous Utility Classes
+ * Copyright (C) 2007 Newisys, Inc. or its licensors, as applicable.
+ * Java is a registered trademark of Sun Microsystems, Inc. in the U.S. or
+ * other countries.
+ *
+ * Licensed under the Open Software License version 3.0 (the "License"); you
+ * may not use this file except in compliance with the License. You should
+ * have received a copy of the License along with this software; if not, you
+ * may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/osl-3.0.php
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.newisys.util.collection;
+
+/**
+ * Maps int keys to values without boxing the keys or allocating an entry
+ * per mapping. The table is open-addressed with linear probing: keys and
+ * values are kept in parallel arrays, and a null value marks an empty
+ * slot, so null values cannot be stored. Removal shifts the following
+ * entries of the probe sequence back, so no deleted markers are needed.
+ * @param <V> the value type
+ */
+public final class IntHashMap<V>
+{
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private int[] keys;
+    private Object[] values;
+    private int size;
+
+    /**
+     * Constructs an empty map.
+     */
+    public IntHashMap()
+    {
+        keys = new int[INITIAL_CAPACITY];
+        values = new Object[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Returns the value mapped to the given key, or null if there is none.
+     * @param key the key
+     * @return the value, or null
+     */
+    @SuppressWarnings("unchecked")
+    public V get(int key)
+    {
+        int mask = values.length - 1;
+        for (int i = slot(key, mask);; i = (i + 1) & mask)
+        {
+            Object value = values[i];
+            if (value == null || keys[i] == key) return (V) value;
+        }
+    }
+
+    /**
+     * Maps a key to a value, replacing any value already mapped to it.
+     * @param key the key
+     * @param value the value, which must not be null
+     */
+    public void put(int key, V value)
+    {
+        assert (value != null);
+        int mask = values.length - 1;
+        int i = slot(key, mask);
+        while (values[i] != null)
+        {
+            if (keys[i] == key)
+            {
+                values[i] = value;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        values[i] = value;
+
+        // keep the table at most two thirds full
+        if (++size * 3 > values.length * 2)
+        {
+            rehash(values.length * 2);
+        }
+    }
+
+    /**
+     * Removes the mapping of the given key.
+     * @param key the key
+     * @return the removed value, or null if there was none
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(int key)
+    {
+        int mask = values.length - 1;
+        int i = slot(key, mask);
+        while (true)
+        {
+            if (values[i] == null) return null;
+            if (keys[i] == key) break;
+            i = (i + 1) & mask;
+        }
+        Object removed = values[i];
+
+        // move back any later entry whose probe sequence passes the hole
+        int hole = i;
+        for (int j = (i + 1) & mask; values[j] != null; j = (j + 1) & mask)
+        {
+            int home = slot(keys[j], mask);
+            if (((j - home) & mask) >= ((j - hole) & mask))
+            {
+                keys[hole] = keys[j];
+                values[hole] = values[j];
+                hole = j;
+            }
+        }
+        values[hole] = null;
+        --size;
+        return (V) removed;
+    }
+
+    /**
+     * Returns the number of mappings.
+     * @return the number of mappings
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Removes all mappings, releasing the table's storage.
+     */
+    public void clear()
+    {
+        keys = new int[INITIAL_CAPACITY];
+        values = new Object[INITIAL_CAPACITY];
+        size = 0;
+    }
+
+    private void rehash(int capacity)
+    {
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new int[capacity];
+        values = new Object[capacity];
+        int mask = capacity - 1;
+        for (int i = 0; i < oldValues.length; ++i)
+        {
+            if (oldValues[i] != null)
+            {
+                int j = slot(oldKeys[i], mask);
+                while (values[j] != null)
+                {
+                    j = (j + 1) & mask;
+                }
+                keys[j] = oldKeys[i];
+                values[j] = oldValues[i];
+            }
+        }
+    }
+
+    private static int slot(int key, int mask)
+    {
+        // keys are often sequential IDs; spread them over the table
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+}
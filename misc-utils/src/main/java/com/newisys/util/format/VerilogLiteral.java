@@ -0,0 +1,279 @@
+/*
+ * Misc-Utils - Miscellaneous Utility Classes
+ * Copyright (C) 2007 Newisys, Inc. or its licensors, as applicable.
+ * Java is a registered trademark of Sun Microsystems, Inc. in the U.S. or
+ * other countries.
+ *
+ * Licensed under the Open Software License version 3.0 (the "License"); you
+ * may not use this file except in compliance with the License. You should
+ * have received a copy of the License along with this software; if not, you
+ * may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/osl-3.0.php
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.newisys.util.format;
+
+import com.newisys.util.bitvector.LongArrayLongArray;
+import com.newisys.util.bitvector.SimpleBitVector;
+
+/**
+ * Parses Verilog-style integer literals, such as <code>40'h1f00</code>,
+ * <code>4'b1010</code>, <code>16'd300</code> or <code>'o17</code>, in a
+ * single pass over a range of characters and without creating any
+ * intermediate strings. The radix letter may be upper or lower case and may
+ * be preceded by an 's' (signed) flag, which is ignored. Digits may be
+ * separated by underscores. A plain run of decimal digits is accepted as an
+ * unsized decimal literal. X and Z digits are not supported.
+ * <p>
+ * As in Verilog, a value with more digits than its size is truncated to
+ * its size. Literals of any size can be parsed to a {@link SimpleBitVector};
+ * {@link #parseLong} returns the low 64 bits, which is the whole value for
+ * literals whose size is 64 or less.
+ */
+public final class VerilogLiteral
+{
+    private VerilogLiteral()
+    {
+    }
+
+    /**
+     * Returns the value of a literal, truncated to its low 64 bits.
+     *
+     * @param s the literal
+     * @return the low 64 bits of the value
+     * @throws NumberFormatException if <code>s</code> is not a valid literal
+     */
+    public static long parseLong(CharSequence s)
+    {
+        return parseLong(s, 0, s.length());
+    }
+
+    /**
+     * Returns the value of a literal within a range of a character
+     * sequence, truncated to its low 64 bits.
+     *
+     * @param s the character sequence
+     * @param start the index of the first character of the literal
+     * @param end the index after the last character of the literal
+     * @return the low 64 bits of the value
+     * @throws NumberFormatException if the range is not a valid literal
+     */
+    public static long parseLong(CharSequence s, int start, int end)
+    {
+        int tick = findTick(s, start, end);
+        int size = parseSize(s, start, tick);
+        int radix = tick >= 0 ? parseRadix(s, start, tick, end) : 10;
+        int pos = tick >= 0 ? skipRadix(s, tick) : start;
+
+        long value = 0;
+        boolean empty = true;
+        for (; pos < end; ++pos) {
+            char c = s.charAt(pos);
+            if (c == '_' && !empty) {
+                continue;
+            }
+            int digit = digit(c, radix);
+            if (digit < 0) {
+                throw invalid(s, start, end);
+            }
+            // wraps modulo 2^64, leaving exactly the low 64 bits
+            value = value * radix + digit;
+            empty = false;
+        }
+        if (empty) {
+            throw invalid(s, start, end);
+        }
+        if (size > 0 && size < 64) {
+            value &= (1L << size) - 1;
+        }
+        return value;
+    }
+
+    /**
+     * Returns the size of a literal, or -1 if it is unsized. Only the size
+     * is checked; the rest of the literal is not validated.
+     *
+     * @param s the character sequence
+     * @param start the index of the first character of the literal
+     * @param end the index after the last character of the literal
+     * @return the size in bits, or -1
+     * @throws NumberFormatException if the size is not valid
+     */
+    public static int getSize(CharSequence s, int start, int end)
+    {
+        return parseSize(s, start, findTick(s, start, end));
+    }
+
+    /**
+     * Returns the value of a literal of any size as a bit vector. The
+     * vector has the size of the literal, or for unsized literals, the
+     * smallest multiple of 64 bits that holds the value.
+     *
+     * @param s the character sequence
+     * @param start the index of the first character of the literal
+     * @param end the index after the last character of the literal
+     * @return the value
+     * @throws NumberFormatException if the range is not a valid literal
+     */
+    public static SimpleBitVector parseBitVector(
+        CharSequence s,
+        int start,
+        int end)
+    {
+        int tick = findTick(s, start, end);
+        int size = parseSize(s, start, tick);
+        int radix = tick >= 0 ? parseRadix(s, start, tick, end) : 10;
+        int pos = tick >= 0 ? skipRadix(s, tick) : start;
+
+        // little-endian words of the value, multiplied up digit by digit
+        long[] words = new long[size > 0 ? (size + 63) >>> 6 : 1];
+        int wordCount = 1;
+        boolean empty = true;
+        for (; pos < end; ++pos) {
+            char c = s.charAt(pos);
+            if (c == '_' && !empty) {
+                continue;
+            }
+            int digit = digit(c, radix);
+            if (digit < 0) {
+                throw invalid(s, start, end);
+            }
+            long carry = digit;
+            for (int i = 0; i < wordCount; ++i) {
+                long w = words[i];
+                long lo = (w & 0xFFFFFFFFL) * radix + carry;
+                long hi = (w >>> 32) * radix + (lo >>> 32);
+                words[i] = (hi << 32) | (lo & 0xFFFFFFFFL);
+                carry = hi >>> 32;
+            }
+            if (carry != 0) {
+                if (wordCount == words.length) {
+                    if (size > 0) {
+                        // excess digits are truncated to the size
+                        continue;
+                    }
+                    long[] newWords = new long[wordCount * 2];
+                    System.arraycopy(words, 0, newWords, 0, wordCount);
+                    words = newWords;
+                }
+                words[wordCount++] = carry;
+            }
+            empty = false;
+        }
+        if (empty) {
+            throw invalid(s, start, end);
+        }
+
+        int bits;
+        if (size > 0) {
+            bits = size;
+            if ((size & 63) != 0) {
+                words[words.length - 1] &= (1L << (size & 63)) - 1;
+            }
+        } else {
+            bits = wordCount * 64;
+            if (wordCount < words.length) {
+                long[] newWords = new long[wordCount];
+                System.arraycopy(words, 0, newWords, 0, wordCount);
+                words = newWords;
+            }
+        }
+        return new SimpleBitVector(bits, new LongArrayLongArray(words));
+    }
+
+    private static int findTick(CharSequence s, int start, int end)
+    {
+        for (int i = start; i < end; ++i) {
+            char c = s.charAt(i);
+            if (c == '\'') {
+                return i;
+            }
+            if (c < '0' || c > '9') {
+                break;
+            }
+        }
+        return -1;
+    }
+
+    private static int parseSize(CharSequence s, int start, int tick)
+    {
+        if (tick <= start) {
+            return -1;
+        }
+        int size = 0;
+        for (int i = start; i < tick; ++i) {
+            size = size * 10 + (s.charAt(i) - '0');
+            if (size > 0xFFFFFF) {
+                throw invalid(s, start, tick);
+            }
+        }
+        if (size == 0) {
+            throw invalid(s, start, tick);
+        }
+        return size;
+    }
+
+    private static int parseRadix(
+        CharSequence s,
+        int start,
+        int tick,
+        int end)
+    {
+        int i = tick + 1;
+        if (i < end && (s.charAt(i) == 's' || s.charAt(i) == 'S')) {
+            ++i;
+        }
+        if (i < end) {
+            switch (s.charAt(i)) {
+                case 'b':
+                case 'B':
+                    return 2;
+                case 'o':
+                case 'O':
+                    return 8;
+                case 'd':
+                case 'D':
+                    return 10;
+                case 'h':
+                case 'H':
+                    return 16;
+            }
+        }
+        throw invalid(s, start, end);
+    }
+
+    private static int skipRadix(CharSequence s, int tick)
+    {
+        char c = s.charAt(tick + 1);
+        return (c == 's' || c == 'S') ? tick + 3 : tick + 2;
+    }
+
+    private static int digit(char c, int radix)
+    {
+        int digit;
+        if (c >= '0' && c <= '9') {
+            digit = c - '0';
+        } else if (c >= 'a' && c <= 'f') {
+            digit = c - 'a' + 10;
+        } else if (c >= 'A' && c <= 'F') {
+            digit = c - 'A' + 10;
+        } else {
+            return -1;
+        }
+        return digit < radix ? digit : -1;
+    }
+
+    private static NumberFormatException invalid(
+        CharSequence s,
+        int start,
+        int end)
+    {
+        return new NumberFormatException("Invalid Verilog literal: "
+            + s.subSequence(start, end));
+    }
+}
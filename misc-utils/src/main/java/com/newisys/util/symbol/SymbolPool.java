@@ -0,0 +1,396 @@
+/*
+ * Misc-Utils - Miscellaneous Utility Classes
+ * Copyright (C) 2007 Newisys, Inc. or its licensors, as applicable.
+ * Java is a registered trademark of Sun Microsystems, Inc. in the U.S. or
+ * other countries.
+ *
+ * Licensed under the Open Software License version 3.0 (the "License"); you
+ * may not use this file except in compliance with the License. You should
+ * have received a copy of the License along with this software; if not, you
+ * may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/osl-3.0.php
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.newisys.util.symbol;
+
+/**
+ * Interning pool that maps each distinct string to a single canonical String
+ * instance and a dense integer ID, assigned in order of first appearance
+ * starting at 0. Strings can be looked up directly from a range of a
+ * character buffer or sequence, so that a recurring string is only
+ * materialized the first time it is seen.
+ * <p>
+ * The pool keeps counts of lookups and hits, from which it estimates the
+ * number of bytes saved by sharing canonical instances. This class is not
+ * thread-safe.
+ */
+public final class SymbolPool
+{
+    /**
+     * Estimated heap size of a String object, excluding its character array.
+     */
+    private static final int STRING_OVERHEAD = 24;
+
+    /**
+     * Estimated heap size of an empty character array.
+     */
+    private static final int ARRAY_OVERHEAD = 16;
+
+    /**
+     * Canonical strings, indexed by ID.
+     */
+    private String[] strings;
+
+    /**
+     * Spread hash codes of the canonical strings, indexed by ID.
+     */
+    private int[] hashes;
+
+    /**
+     * Open-addressing hash table of IDs plus one; zero marks an empty slot.
+     */
+    private int[] slots;
+
+    /**
+     * Number of strings in the pool.
+     */
+    private int size;
+
+    private long lookupCount;
+    private long hitCount;
+    private long bytesSaved;
+
+    /**
+     * Creates an empty pool.
+     */
+    public SymbolPool()
+    {
+        this(64);
+    }
+
+    /**
+     * Creates an empty pool with room for the given number of strings before
+     * it needs to grow.
+     *
+     * @param expectedSize the expected number of distinct strings
+     */
+    public SymbolPool(int expectedSize)
+    {
+        int capacity = 16;
+        while (capacity < expectedSize) {
+            capacity <<= 1;
+        }
+        strings = new String[capacity];
+        hashes = new int[capacity];
+        slots = new int[capacity * 2];
+    }
+
+    /**
+     * Returns the canonical instance of the given string, adding the string
+     * to the pool if it is not already present.
+     *
+     * @param s the string to intern, or null
+     * @return the canonical instance equal to <code>s</code>, or null if
+     *      <code>s</code> is null
+     */
+    public String intern(String s)
+    {
+        if (s == null) {
+            return null;
+        }
+        // look up first: adding a string may replace the array
+        int id = lookup(s, 0, s.length(), s);
+        return strings[id];
+    }
+
+    /**
+     * Returns the canonical instance of the string formed by a range of a
+     * character sequence, adding it to the pool if it is not already present.
+     *
+     * @param seq the character sequence
+     * @param start the index of the first character
+     * @param end the index after the last character
+     * @return the canonical string
+     */
+    public String intern(CharSequence seq, int start, int end)
+    {
+        int id = lookup(seq, start, end, null);
+        return strings[id];
+    }
+
+    /**
+     * Returns the canonical instance of the string formed by a range of a
+     * character array, adding it to the pool if it is not already present.
+     *
+     * @param buf the character array
+     * @param start the index of the first character
+     * @param end the index after the last character
+     * @return the canonical string
+     */
+    public String intern(char[] buf, int start, int end)
+    {
+        int id = lookup(buf, start, end);
+        return strings[id];
+    }
+
+    /**
+     * Returns the ID of the given string, adding the string to the pool if it
+     * is not already present.
+     *
+     * @param s the string
+     * @return the ID of <code>s</code>
+     */
+    public int getId(String s)
+    {
+        return lookup(s, 0, s.length(), s);
+    }
+
+    /**
+     * Returns the ID of the string formed by a range of a character sequence,
+     * adding it to the pool if it is not already present.
+     *
+     * @param seq the character sequence
+     * @param start the index of the first character
+     * @param end the index after the last character
+     * @return the ID of the string
+     */
+    public int getId(CharSequence seq, int start, int end)
+    {
+        return lookup(seq, start, end, null);
+    }
+
+    /**
+     * Returns the ID of the string formed by a range of a character array,
+     * adding it to the pool if it is not already present.
+     *
+     * @param buf the character array
+     * @param start the index of the first character
+     * @param end the index after the last character
+     * @return the ID of the string
+     */
+    public int getId(char[] buf, int start, int end)
+    {
+        return lookup(buf, start, end);
+    }
+
+    /**
+     * Returns the canonical string with the given ID.
+     *
+     * @param id a string ID returned by this pool
+     * @return the canonical string
+     * @throws IndexOutOfBoundsException if <code>id</code> was not assigned
+     *      by this pool
+     */
+    public String getString(int id)
+    {
+        if (id < 0 || id >= size) {
+            throw new IndexOutOfBoundsException("Invalid symbol ID: " + id);
+        }
+        return strings[id];
+    }
+
+    /**
+     * Returns the number of distinct strings in the pool. IDs range from 0 to
+     * one less than this value.
+     *
+     * @return the number of strings in the pool
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Returns the number of lookups performed by the intern and getId
+     * methods.
+     *
+     * @return the number of lookups
+     */
+    public long getLookupCount()
+    {
+        return lookupCount;
+    }
+
+    /**
+     * Returns the number of lookups that found a string already in the pool.
+     *
+     * @return the number of hits
+     */
+    public long getHitCount()
+    {
+        return hitCount;
+    }
+
+    /**
+     * Returns the fraction of lookups that found a string already in the
+     * pool.
+     *
+     * @return the hit rate, from 0.0 to 1.0
+     */
+    public double getHitRate()
+    {
+        return lookupCount > 0 ? (double) hitCount / lookupCount : 0.0;
+    }
+
+    /**
+     * Returns an estimate of the heap bytes saved by sharing canonical
+     * instances: the size of the String and character array that each hit
+     * would otherwise have kept.
+     *
+     * @return the estimated number of bytes saved
+     */
+    public long getBytesSaved()
+    {
+        return bytesSaved;
+    }
+
+    /**
+     * Resets the lookup statistics, leaving the pool contents unchanged.
+     */
+    public void resetStatistics()
+    {
+        lookupCount = 0;
+        hitCount = 0;
+        bytesSaved = 0;
+    }
+
+    public String toString()
+    {
+        return "SymbolPool(" + size + " symbols, " + lookupCount
+            + " lookups, " + Math.round(getHitRate() * 1000) / 10.0
+            + "% hits, ~" + bytesSaved + " bytes saved)";
+    }
+
+    private int lookup(CharSequence seq, int start, int end, String s)
+    {
+        ++lookupCount;
+        int h = 0;
+        for (int i = start; i < end; ++i) {
+            h = 31 * h + seq.charAt(i);
+        }
+        h = spread(h);
+
+        int mask = slots.length - 1;
+        int i = h & mask;
+        int slot;
+        while ((slot = slots[i]) != 0) {
+            int id = slot - 1;
+            if (hashes[id] == h && regionEquals(strings[id], seq, start, end)) {
+                hit(end - start);
+                return id;
+            }
+            i = (i + 1) & mask;
+        }
+
+        if (s == null) {
+            s = seq.subSequence(start, end).toString();
+        }
+        return add(s, h, i);
+    }
+
+    private int lookup(char[] buf, int start, int end)
+    {
+        ++lookupCount;
+        int h = 0;
+        for (int i = start; i < end; ++i) {
+            h = 31 * h + buf[i];
+        }
+        h = spread(h);
+
+        int mask = slots.length - 1;
+        int i = h & mask;
+        int slot;
+        while ((slot = slots[i]) != 0) {
+            int id = slot - 1;
+            if (hashes[id] == h && regionEquals(strings[id], buf, start, end)) {
+                hit(end - start);
+                return id;
+            }
+            i = (i + 1) & mask;
+        }
+
+        return add(new String(buf, start, end - start), h, i);
+    }
+
+    private static int spread(int h)
+    {
+        // String.hashCode() is weak in the low bits used for linear probing
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean regionEquals(
+        String s,
+        CharSequence seq,
+        int start,
+        int end)
+    {
+        int len = end - start;
+        if (s.length() != len) {
+            return false;
+        }
+        for (int i = 0; i < len; ++i) {
+            if (s.charAt(i) != seq.charAt(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean regionEquals(String s, char[] buf, int start, int end)
+    {
+        int len = end - start;
+        if (s.length() != len) {
+            return false;
+        }
+        for (int i = 0; i < len; ++i) {
+            if (s.charAt(i) != buf[start + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void hit(int length)
+    {
+        ++hitCount;
+        bytesSaved += STRING_OVERHEAD + ((ARRAY_OVERHEAD + 2 * length + 7) & ~7);
+    }
+
+    private int add(String s, int h, int slot)
+    {
+        int id = size++;
+        if (id == strings.length) {
+            String[] newStrings = new String[id * 2];
+            System.arraycopy(strings, 0, newStrings, 0, id);
+            strings = newStrings;
+            int[] newHashes = new int[id * 2];
+            System.arraycopy(hashes, 0, newHashes, 0, id);
+            hashes = newHashes;
+        }
+        strings[id] = s;
+        hashes[id] = h;
+        slots[slot] = id + 1;
+        if (size * 2 > slots.length) {
+            rehash();
+        }
+        return id;
+    }
+
+    private void rehash()
+    {
+        slots = new int[slots.length * 2];
+        int mask = slots.length - 1;
+        for (int id = 0; id < size; ++id) {
+            int i = hashes[id] & mask;
+            while (slots[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            slots[i] = id + 1;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Misc-Utils - Miscellaneous Utility Classes
+ * Copyright (C) 2007 Newisys, Inc. or its licensors, as applicable.
+ * Java is a registered trademark of Sun Microsystems, Inc. in the U.S. or
+ * other countries.
+ *
+ * Licensed under the Open Software License version 3.0 (the "License"); you
+ * may not use this file except in compliance with the License. You should
+ * have received a copy of the License along with this software; if not, you
+ * may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/osl-3.0.php
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.newisys.prtree;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class PRTreeQueryTest
+{
+    @Test
+    public void testSpanningInterval()
+    {
+        // the long interval has no endpoint within the query, and is only
+        // found through the coverage of the nodes above the query
+        PRTree tree = new PRTree();
+        List<Interval> intervals = new ArrayList<Interval>();
+        intervals.add(new SimpleInterval(0, 1000));
+        for (int i = 0; i < 100; ++i)
+        {
+            intervals.add(new SimpleInterval(i * 10, i * 10 + 1));
+        }
+        for (int i = 0; i < intervals.size(); ++i)
+        {
+            tree.add(intervals.get(i));
+        }
+        checkQuery(tree, intervals, 500, 505);
+        checkQuery(tree, intervals, 500, 500);
+        checkQuery(tree, intervals, 503, 507);
+    }
+
+    @Test
+    public void testRandomQueries()
+    {
+        Random random = new Random(1);
+        PRTree tree = new PRTree();
+        List<Interval> intervals = new ArrayList<Interval>();
+        for (int i = 0; i < 2000; ++i)
+        {
+            long low = random.nextInt(10000);
+            long high = low + (i % 10 == 0 ? random.nextInt(2000)
+                : random.nextInt(10));
+            Interval interval = new SimpleInterval(low, high);
+            intervals.add(interval);
+            tree.add(interval);
+        }
+        for (int i = 0; i < 2000; ++i)
+        {
+            long from = random.nextInt(12000) - 1000;
+            long to = from + random.nextInt(i % 2 == 0 ? 20 : 2000);
+            checkQuery(tree, intervals, from, to);
+            checkPoint(tree, intervals, from);
+        }
+    }
+
+    private static void checkQuery(
+        PRTree tree,
+        List<Interval> intervals,
+        long from,
+        long to)
+    {
+        Set<Interval> expected = new HashSet<Interval>();
+        for (int i = 0; i < intervals.size(); ++i)
+        {
+            Interval interval = intervals.get(i);
+            if (interval.getLowerBound() <= to
+                && interval.getUpperBound() >= from)
+            {
+                expected.add(interval);
+            }
+        }
+        assertEquals(from + "-" + to, expected, tree.queryInterval(
+            new SimpleInterval(from, to)));
+    }
+
+    private static void checkPoint(
+        PRTree tree,
+        List<Interval> intervals,
+        long value)
+    {
+        Set<Interval> expected = new HashSet<Interval>();
+        for (int i = 0; i < intervals.size(); ++i)
+        {
+            Interval interval = intervals.get(i);
+            if (interval.getLowerBound() <= value
+                && interval.getUpperBound() >= value)
+            {
+                expected.add(interval);
+            }
+        }
+        assertEquals(String.valueOf(value), expected, tree.queryPoint(value));
+    }
+}
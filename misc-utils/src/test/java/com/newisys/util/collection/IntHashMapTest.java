@@ -0,0 +1,150 @@
+/*
+ * Misc-Utils - Miscellaneous Utility Classes
+ * Copyright (C) 2007 Newisys, Inc. or its licensors, as applicable.
+ * Java is a registered trademark of Sun Microsystems, Inc. in the U.S. or
+ * other countries.
+ *
+ * Licensed under the Open Software License version 3.0 (the "License"); you
+ * may not use this file except in compliance with the License. You should
+ * have received a copy of the License along with this software; if not, you
+ * may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/osl-3.0.php
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.newisys.util.collection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class IntHashMapTest
+{
+    @Test
+    public void testPutGetRemove()
+    {
+        IntHashMap<String> table = new IntHashMap<String>();
+        assertNull(table.get(1));
+        String a = "a";
+        String b = "b";
+        table.put(1, a);
+        table.put(-7, b);
+        assertEquals(2, table.size());
+        assertSame(a, table.get(1));
+        assertSame(b, table.get(-7));
+        assertNull(table.get(2));
+
+        String a2 = "a2";
+        table.put(1, a2);
+        assertEquals(2, table.size());
+        assertSame(a2, table.get(1));
+
+        assertSame(a2, table.remove(1));
+        assertNull(table.remove(1));
+        assertNull(table.get(1));
+        assertSame(b, table.get(-7));
+        assertEquals(1, table.size());
+
+        table.clear();
+        assertEquals(0, table.size());
+        assertNull(table.get(-7));
+    }
+
+    @Test
+    public void testExtremeIds()
+    {
+        IntHashMap<String> table = new IntHashMap<String>();
+        int[] ids = { 0, -1, Integer.MIN_VALUE, Integer.MAX_VALUE };
+        for (int i = 0; i < ids.length; ++i)
+        {
+            table.put(ids[i], String.valueOf(ids[i]));
+        }
+        for (int i = 0; i < ids.length; ++i)
+        {
+            assertEquals(String.valueOf(ids[i]), table.get(ids[i]));
+        }
+    }
+
+    @Test
+    public void testGrowth()
+    {
+        // sequential keys, as IDs usually are, through several rehashes
+        IntHashMap<String> table = new IntHashMap<String>();
+        for (int i = 0; i < 10000; ++i)
+        {
+            table.put(i, String.valueOf(i));
+        }
+        assertEquals(10000, table.size());
+        for (int i = 0; i < 10000; ++i)
+        {
+            assertEquals(String.valueOf(i), table.get(i));
+        }
+        assertNull(table.get(10000));
+    }
+
+    @Test
+    public void testRandomOperations()
+    {
+        // a small key range keeps the table full of colliding probe
+        // sequences, so removals must shift entries back across clusters
+        // and the end of the table
+        checkAgainstMap(new Random(1), 700, 200000);
+        checkAgainstMap(new Random(2), 5000, 200000);
+    }
+
+    private void checkAgainstMap(Random random, int idRange, int operations)
+    {
+        IntHashMap<String> table = new IntHashMap<String>();
+        Map<Integer, String> expected = new HashMap<Integer, String>();
+        for (int op = 0; op < operations; ++op)
+        {
+            int id = random.nextInt(idRange);
+            Integer key = Integer.valueOf(id);
+            if (random.nextInt(3) == 0)
+            {
+                assertSame(expected.remove(key), table.remove(id));
+            }
+            else
+            {
+                String value = "v" + op;
+                expected.put(key, value);
+                table.put(id, value);
+            }
+            assertEquals(expected.size(), table.size());
+            if (op % 1000 == 0)
+            {
+                checkContents(expected, table, idRange);
+            }
+        }
+        checkContents(expected, table, idRange);
+    }
+
+    private void checkContents(
+        Map<Integer, String> expected,
+        IntHashMap<String> table,
+        int idRange)
+    {
+        for (int i = 0; i < idRange; ++i)
+        {
+            int id = i;
+            assertSame(expected.get(Integer.valueOf(id)), table.get(id));
+        }
+        Iterator<Map.Entry<Integer, String>> i = expected.entrySet().iterator();
+        while (i.hasNext())
+        {
+            Map.Entry<Integer, String> entry = i.next();
+            assertSame(entry.getValue(), table.get(entry.getKey().intValue()));
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Misc-Utils - Miscellaneous Utility Classes
+ * Copyright (C) 2007 Newisys, Inc. or its licensors, as applicable.
+ * Java is a registered trademark of Sun Microsystems, Inc. in the U.S. or
+ * other countries.
+ *
+ * Licensed under the Open Software License version 3.0 (the "License"); you
+ * may not use this file except in compliance with the License. You should
+ * have received a copy of the License along with this software; if not, you
+ * may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/osl-3.0.php
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.newisys.util.format;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.newisys.util.bitvector.SimpleBitVector;
+
+public class VerilogLiteralTest
+{
+    private static final String[] INVALID = { "", "8'", "8'h", "8'x1",
+        "8'b102", "0'h1", "'h", "h12", "8'h_1", "8'hz", "12a", "8'sh",
+        "99999999'h1" };
+
+    @Test
+    public void testParseLong()
+    {
+        assertEquals(0x1f00L, VerilogLiteral.parseLong("40'h1f00"));
+        assertEquals(10, VerilogLiteral.parseLong("4'b1010"));
+        assertEquals(300, VerilogLiteral.parseLong("16'd300"));
+        assertEquals(15, VerilogLiteral.parseLong("'o17"));
+        assertEquals(12345, VerilogLiteral.parseLong("12345"));
+        assertEquals(255, VerilogLiteral.parseLong("8'HfF"));
+        assertEquals(127, VerilogLiteral.parseLong("8'sh7F"));
+        assertEquals(127, VerilogLiteral.parseLong("8'SH7F"));
+        assertEquals(0xDEADBEEFL, VerilogLiteral.parseLong("32'hDEAD_BEEF"));
+        assertEquals(0x12, VerilogLiteral.parseLong("addr=8'h12;", 5, 10));
+    }
+
+    @Test
+    public void testParseLongTruncates()
+    {
+        // excess digits are truncated to the size, as in Verilog
+        assertEquals(0xf, VerilogLiteral.parseLong("4'hff"));
+        assertEquals(-1L, VerilogLiteral.parseLong("64'hFFFFFFFFFFFFFFFF"));
+        assertEquals(1, VerilogLiteral.parseLong("72'h1_0000000000000001"));
+        assertEquals(new BigInteger("123456789012345678901234567890")
+            .longValue(), VerilogLiteral.parseLong(
+            "123456789012345678901234567890"));
+    }
+
+    @Test
+    public void testInvalid()
+    {
+        for (int i = 0; i < INVALID.length; ++i)
+        {
+            try
+            {
+                VerilogLiteral.parseLong(INVALID[i]);
+                fail("Parsed " + INVALID[i]);
+            }
+            catch (NumberFormatException e)
+            {
+                // expected
+            }
+            try
+            {
+                VerilogLiteral.parseBitVector(INVALID[i], 0,
+                    INVALID[i].length());
+                fail("Parsed " + INVALID[i]);
+            }
+            catch (NumberFormatException e)
+            {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testGetSize()
+    {
+        assertEquals(40, VerilogLiteral.getSize("40'h1f00", 0, 8));
+        assertEquals(-1, VerilogLiteral.getSize("'h1", 0, 3));
+        assertEquals(-1, VerilogLiteral.getSize("12", 0, 2));
+        assertEquals(8, VerilogLiteral.getSize("x=8'b1", 2, 6));
+    }
+
+    @Test
+    public void testParseBitVector()
+    {
+        SimpleBitVector v = VerilogLiteral.parseBitVector(
+            "72'hFF_0000000000000001", 0, 23);
+        assertEquals(72, v.size());
+        assertEquals(1, v.getFieldLong(0, 63));
+        assertEquals(0xFF, v.getFieldLong(64, 71));
+
+        v = VerilogLiteral.parseBitVector("8'h1FF", 0, 6);
+        assertEquals(8, v.size());
+        assertEquals(0xFF, v.getFieldLong(0, 7));
+
+        // unsized values take whole words
+        String s = "123456789012345678901234567890";
+        v = VerilogLiteral.parseBitVector(s, 0, s.length());
+        assertEquals(128, v.size());
+        assertEquals(new BigInteger(s), toBigInteger(v));
+    }
+
+    @Test
+    public void testParseBitVectorRandom()
+    {
+        Random random = new Random(1);
+        int[] radixes = { 2, 8, 10, 16 };
+        char[] radixLetters = { 'b', 'o', 'd', 'h' };
+        for (int n = 0; n < 1000; ++n)
+        {
+            int r = random.nextInt(radixes.length);
+            BigInteger value = new BigInteger(random.nextInt(300) + 1, random);
+            int size = random.nextInt(300) + 1;
+            String literal = size + "'" + radixLetters[r]
+                + value.toString(radixes[r]);
+            BigInteger expected = value.and(BigInteger.ONE.shiftLeft(size)
+                .subtract(BigInteger.ONE));
+
+            SimpleBitVector v = VerilogLiteral.parseBitVector(literal, 0,
+                literal.length());
+            assertEquals(literal, size, v.size());
+            assertEquals(literal, expected, toBigInteger(v));
+            assertEquals(literal, expected.longValue(),
+                VerilogLiteral.parseLong(literal));
+
+            String unsized = "'" + radixLetters[r] + value.toString(radixes[r]);
+            assertEquals(unsized, value, toBigInteger(
+                VerilogLiteral.parseBitVector(unsized, 0, unsized.length())));
+        }
+    }
+
+    private static BigInteger toBigInteger(SimpleBitVector v)
+    {
+        long[] words = v.getLongArray();
+        BigInteger value = BigInteger.ZERO;
+        for (int i = words.length - 1; i >= 0; --i)
+        {
+            value = value.shiftLeft(64).or(
+                new BigInteger(Long.toHexString(words[i]), 16));
+        }
+        return value;
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Misc-Utils - Miscellaneous Utility Classes
+ * Copyright (C) 2007 Newisys, Inc. or its licensors, as applicable.
+ * Java is a registered trademark of Sun Microsystems, Inc. in the U.S. or
+ * other countries.
+ *
+ * Licensed under the Open Software License version 3.0 (the "License"); you
+ * may not use this file except in compliance with the License. You should
+ * have received a copy of the License along with this software; if not, you
+ * may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/osl-3.0.php
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.newisys.util.symbol;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+public class SymbolPoolTest
+{
+    @Test
+    public void testIdsInOrderOfFirstAppearance()
+    {
+        SymbolPool pool = new SymbolPool();
+        assertEquals(0, pool.getId("a"));
+        assertEquals(1, pool.getId("b"));
+        assertEquals(0, pool.getId("a"));
+        assertEquals(2, pool.getId(""));
+        assertEquals(3, pool.size());
+        assertEquals("a", pool.getString(0));
+        assertEquals("b", pool.getString(1));
+        assertEquals("", pool.getString(2));
+    }
+
+    @Test
+    public void testInternOverloads()
+    {
+        SymbolPool pool = new SymbolPool();
+        String first = pool.intern(new String("system.chip0"));
+        assertSame(first, pool.intern(new String("system.chip0")));
+        assertSame(first, pool.intern("[system.chip0]", 1, 13));
+        assertSame(first, pool.intern(new StringBuffer("system.chip0.x"), 0,
+            12));
+        assertSame(first, pool.intern("xsystem.chip0".toCharArray(), 1, 13));
+        assertEquals(1, pool.size());
+
+        // a new string from a range is materialized once
+        String range = pool.intern("..Cache..".toCharArray(), 2, 7);
+        assertEquals("Cache", range);
+        assertSame(range, pool.intern("Cache"));
+        assertEquals(1, pool.getId(new StringBuffer("Cache"), 0, 5));
+        assertEquals(1, pool.getId("Cache".toCharArray(), 0, 5));
+    }
+
+    @Test
+    public void testInternNull()
+    {
+        SymbolPool pool = new SymbolPool();
+        assertNull(pool.intern(null));
+        assertEquals(0, pool.size());
+    }
+
+    @Test
+    public void testGrowth()
+    {
+        // grows the arrays and table several times over the default size;
+        // each overload must return the string it added when it grows
+        SymbolPool pool = new SymbolPool();
+        for (int i = 0; i < 1000; ++i)
+        {
+            String s = "node" + i;
+            String interned;
+            switch (i % 3)
+            {
+            case 0:
+                interned = pool.intern(s);
+                break;
+            case 1:
+                interned = pool.intern((CharSequence) s, 0, s.length());
+                break;
+            default:
+                interned = pool.intern(s.toCharArray(), 0, s.length());
+                break;
+            }
+            assertEquals(s, interned);
+            assertEquals(i + 1, pool.size());
+        }
+        for (int i = 0; i < 1000; ++i)
+        {
+            String s = "node" + i;
+            assertEquals(i, pool.getId(s));
+            assertSame(pool.getString(i), pool.intern(s));
+        }
+        assertEquals(1000, pool.size());
+    }
+
+    @Test
+    public void testCollidingHashes()
+    {
+        // "Aa" and "BB" have the same hash code
+        SymbolPool pool = new SymbolPool(1);
+        assertEquals(0, pool.getId("AaAa"));
+        assertEquals(1, pool.getId("BBBB"));
+        assertEquals(2, pool.getId("AaBB"));
+        assertEquals(3, pool.getId("BBAa"));
+        assertEquals(1, pool.getId("BBBB"));
+        assertEquals(3, pool.getId("BBAa"));
+        assertEquals(4, pool.size());
+    }
+
+    @Test
+    public void testGetStringRange()
+    {
+        SymbolPool pool = new SymbolPool();
+        pool.getId("a");
+        try
+        {
+            pool.getString(1);
+            fail("Returned an unassigned ID");
+        }
+        catch (IndexOutOfBoundsException e)
+        {
+            // expected
+        }
+        try
+        {
+            pool.getString(-1);
+            fail("Returned a negative ID");
+        }
+        catch (IndexOutOfBoundsException e)
+        {
+            // expected
+        }
+    }
+
+    @Test
+    public void testStatistics()
+    {
+        SymbolPool pool = new SymbolPool();
+        pool.intern("abc");
+        pool.intern("abc");
+        pool.intern("abc".toCharArray(), 0, 3);
+        pool.getId("def");
+        assertEquals(4, pool.getLookupCount());
+        assertEquals(2, pool.getHitCount());
+        assertEquals(0.5, pool.getHitRate(), 0.0);
+        assertTrue(pool.getBytesSaved() > 0);
+
+        pool.resetStatistics();
+        assertEquals(0, pool.getLookupCount());
+        assertEquals(0, pool.getHitCount());
+        assertEquals(0.0, pool.getHitRate(), 0.0);
+        assertEquals(0, pool.getBytesSaved());
+        assertEquals(2, pool.size());
+    }
+}
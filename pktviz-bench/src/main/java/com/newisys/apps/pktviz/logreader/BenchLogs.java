@@ -0,0 +1,97 @@
+/*
+ * PacketViz packet visualization for the Java (TM) Platform
+ * Copyright (C) 2007 Newisys, Inc. or its licensors, as applicable.
+ * Java is a registered trademark of Sun Microsystems, Inc. in the U.S. or
+ * other countries.
+ *
+ * Licensed under the Open Software License version 3.0 (the "License"); you
+ * may not use this file except in compliance with the License. You should
+ * have received a copy of the License along with this software; if not, you
+ * may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/osl-3.0.php
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.newisys.apps.pktviz.logreader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Synthetic Version 4 logs for the benchmarks, written by
+ * {@link PacketLogGenerator} with its default settings, so every run
+ * measures the same input. Log files are written once to a cache directory
+ * under java.io.tmpdir and reused.
+ */
+final class BenchLogs
+{
+    private BenchLogs()
+    {
+    }
+
+    private static PacketLogGenerator createGenerator(int count)
+    {
+        PacketLogGenerator generator = new PacketLogGenerator();
+        generator.setTransactions((count + generator.getPacketsPerTransaction()
+            - 1) / generator.getPacketsPerTransaction());
+        return generator;
+    }
+
+    /**
+     * Returns the given number of records, without line terminators.
+     */
+    static String[] generateRecords(int count)
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try
+        {
+            createGenerator(count).generate(out);
+        }
+        catch (IOException e)
+        {
+            throw new RuntimeException(e);
+        }
+        String[] lines = new String(out.toByteArray()).split("\n");
+        String[] records = new String[count];
+        int recordCount = 0;
+        for (int i = 0; i < lines.length && recordCount < count; ++i)
+        {
+            if (!lines[i].startsWith("#"))
+            {
+                records[recordCount++] = lines[i];
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Returns a log file containing at least the given number of records,
+     * creating it if necessary.
+     */
+    static File getLog(int count)
+        throws IOException
+    {
+        File dir = new File(System.getProperty("java.io.tmpdir"),
+            "pktviz-bench");
+        if (!dir.isDirectory() && !dir.mkdirs())
+        {
+            throw new IOException("Cannot create " + dir);
+        }
+        File file = new File(dir, "records-" + count + ".pkt");
+        if (!file.isFile())
+        {
+            File tmpFile = new File(dir, file.getName() + ".tmp");
+            createGenerator(count).generate(tmpFile);
+            if (!tmpFile.renameTo(file))
+            {
+                throw new IOException("Cannot create " + file);
+            }
+        }
+        return file;
+    }
+}
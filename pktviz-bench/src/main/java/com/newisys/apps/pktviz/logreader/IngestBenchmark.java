@@ -0,0 +1,108 @@
+/*
+ * PacketViz packet visualization for the Java (TM) Platform
+ * Copyright (C) 2007 Newisys, Inc. or its licensors, as applicable.
+ * Java is a registered trademark of Sun Microsystems, Inc. in the U.S. or
+ * other countries.
+ *
+ * Licensed under the Open Software License version 3.0 (the "License"); you
+ * may not use this file except in compliance with the License. You should
+ * have received a copy of the License along with this software; if not, you
+ * may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/osl-3.0.php
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.newisys.apps.pktviz.logreader;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.newisys.apps.pktviz.model.PacketGraph;
+
+/**
+ * Measures loading a whole log into a graph, sequentially and in parallel.
+ * Each operation is one complete load; the <code>records</code> and
+ * <code>bytes</code> counters give the rate in records and bytes per
+ * second. Logs are generated on first use, which can take a while for the
+ * largest size, and the largest graphs need a correspondingly large heap.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx12g")
+public class IngestBenchmark
+{
+    @Param({ "100000", "1000000", "10000000" })
+    public int size;
+
+    private File log;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters
+    {
+        public long records;
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset()
+        {
+            records = 0;
+            bytes = 0;
+        }
+    }
+
+    @Setup
+    public void setup()
+        throws IOException
+    {
+        log = BenchLogs.getLog(size);
+    }
+
+    @Benchmark
+    public PacketGraph sequential(Counters counters)
+        throws IOException
+    {
+        return load(1, counters);
+    }
+
+    @Benchmark
+    public PacketGraph parallel(Counters counters)
+        throws IOException
+    {
+        return load(Runtime.getRuntime().availableProcessors(), counters);
+    }
+
+    private PacketGraph load(int threadCount, Counters counters)
+        throws IOException
+    {
+        PacketGraph graph = new PacketGraph();
+        AsyncPacketLogReader reader = new AsyncPacketLogReader(log, graph,
+            threadCount);
+        reader.fetchAll();
+        counters.records += reader.getRecordsAdded();
+        counters.bytes += reader.getBytesRead();
+        return graph;
+    }
+}
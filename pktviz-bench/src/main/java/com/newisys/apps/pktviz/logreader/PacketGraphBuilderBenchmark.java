@@ -0,0 +1,133 @@
+/*
+ * PacketViz packet visualization for the Java (TM) Platform
+ * Copyright (C) 2007 Newisys, Inc. or its licensors, as applicable.
+ * Java is a registered trademark of Sun Microsystems, Inc. in the U.S. or
+ * other countries.
+ *
+ * Licensed under the Open Software License version 3.0 (the "License"); you
+ * may not use this file except in compliance with the License. You should
+ * have received a copy of the License along with this software; if not, you
+ * may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/osl-3.0.php
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.newisys.apps.pktviz.logreader;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.newisys.apps.pktviz.model.PacketGraph;
+import com.newisys.apps.pktviz.model.PacketInfo;
+import com.newisys.apps.pktviz.model.PacketNode;
+import com.newisys.apps.pktviz.model.TxnInfo;
+import com.newisys.util.symbol.SymbolPool;
+
+/**
+ * Measures the steps that turn parsed records into graph packets, in
+ * records per second: {@link PacketGraphBuilder#addLogEntry} as a whole,
+ * and the {@link PacketInfo} constructor and
+ * {@link PacketGraphBuilder#getNode} that it calls. Run with
+ * <code>-prof gc</code> for allocation per record.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PacketGraphBuilderBenchmark
+{
+    static final int RECORDS = 64 * 1024;
+
+    private PacketLogEntry[] entries;
+    private String[] nodeNames;
+
+    // graph holding every node and transaction, for the step benchmarks
+    private PacketGraphBuilder builder;
+    private TxnInfo[] txns;
+    private PacketNode[] fromNodes;
+    private PacketNode[] toNodes;
+    private SymbolPool symbols;
+
+    @Setup
+    public void setup()
+    {
+        String[] records = BenchLogs.generateRecords(RECORDS);
+        entries = new PacketLogEntry[RECORDS];
+        nodeNames = new String[RECORDS];
+        for (int i = 0; i < RECORDS; ++i)
+        {
+            PacketLogEntry entry = new PacketLogEntry();
+            entry.version = 4;
+            entry.parseString(records[i]);
+            entries[i] = entry;
+            nodeNames[i] = (i & 1) == 0 ? entry.fromNode : entry.toNode;
+        }
+
+        builder = new PacketGraphBuilder(new PacketGraph());
+        txns = new TxnInfo[RECORDS];
+        fromNodes = new PacketNode[RECORDS];
+        toNodes = new PacketNode[RECORDS];
+        for (int i = 0; i < RECORDS; ++i)
+        {
+            txns[i] = builder.getTxn(entries[i].txnID);
+            fromNodes[i] = builder.getNode(entries[i].fromNode);
+            toNodes[i] = builder.getNode(entries[i].toNode);
+        }
+        symbols = builder.getPacketGraph().getSymbolPool();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public PacketGraph addLogEntry()
+    {
+        PacketGraph graph = new PacketGraph();
+        PacketGraphBuilder builder = new PacketGraphBuilder(graph);
+        for (int i = 0; i < RECORDS; ++i)
+        {
+            builder.addLogEntry(entries[i], i + 1);
+        }
+        return graph;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public void packetInfo(Blackhole bh)
+    {
+        for (int i = 0; i < RECORDS; ++i)
+        {
+            PacketLogEntry entry = entries[i];
+            bh.consume(new PacketInfo(txns[i], fromNodes[i], entry.sendTime,
+                toNodes[i], entry.recvTime, -1, false, (short) -1, null,
+                null, entry.packetFieldList, symbols));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public void getNode(Blackhole bh)
+    {
+        PacketGraphBuilder builder = this.builder;
+        for (int i = 0; i < RECORDS; ++i)
+        {
+            bh.consume(builder.getNode(nodeNames[i]));
+        }
+    }
+}
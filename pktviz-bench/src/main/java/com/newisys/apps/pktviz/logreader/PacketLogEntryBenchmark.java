@@ -0,0 +1,91 @@
+/*
+ * PacketViz packet visualization for the Java (TM) Platform
+ * Copyright (C) 2007 Newisys, Inc. or its licensors, as applicable.
+ * Java is a registered trademark of Sun Microsystems, Inc. in the U.S. or
+ * other countries.
+ *
+ * Licensed under the Open Software License version 3.0 (the "License"); you
+ * may not use this file except in compliance with the License. You should
+ * have received a copy of the License along with this software; if not, you
+ * may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/osl-3.0.php
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.newisys.apps.pktviz.logreader;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures record parsing by {@link PacketLogEntry}, in records per second.
+ * Run with <code>-prof gc</code> for allocation per record.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PacketLogEntryBenchmark
+{
+    static final int RECORDS = 64 * 1024;
+
+    private String[] records;
+    private char[][] recordChars;
+    private PacketLogEntry entry;
+
+    @Setup
+    public void setup()
+    {
+        records = BenchLogs.generateRecords(RECORDS);
+        recordChars = new char[RECORDS][];
+        for (int i = 0; i < RECORDS; ++i)
+        {
+            recordChars[i] = records[i].toCharArray();
+        }
+        entry = new PacketLogEntry();
+        entry.version = 4;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public void parseString(Blackhole bh)
+    {
+        PacketLogEntry entry = this.entry;
+        for (int i = 0; i < RECORDS; ++i)
+        {
+            entry.parseString(records[i]);
+            bh.consume(entry.packetFieldList);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public void parseLine(Blackhole bh)
+    {
+        PacketLogEntry entry = this.entry;
+        for (int i = 0; i < RECORDS; ++i)
+        {
+            char[] chars = recordChars[i];
+            entry.parseLine(chars, 0, chars.length);
+            bh.consume(entry.packetFieldList);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * PacketViz packet visualization for the Java (TM) Platform
+ * Copyright (C) 2007 Newisys, Inc. or its licensors, as applicable.
+ * Java is a registered trademark of Sun Microsystems, Inc. in the U.S. or
+ * other countries.
+ *
+ * Licensed under the Open Software License version 3.0 (the "License"); you
+ * may not use this file except in compliance with the License. You should
+ * have received a copy of the License along with this software; if not, you
+ * may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/osl-3.0.php
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.newisys.apps.pktviz.logreader;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.newisys.apps.pktviz.model.PacketGraph;
+
+/**
+ * Measures the heap retained by a loaded graph. Each operation loads the
+ * log and then compares the used heap after a full collection with that
+ * before loading; the <code>bytesPerPacket</code> counter reports the
+ * result of the last operation in each iteration. The timing itself
+ * includes the collections and is not meaningful.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 1, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx12g")
+public class RetainedHeapBenchmark
+{
+    @Param({ "100000", "1000000" })
+    public int size;
+
+    private File log;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Counters
+    {
+        public long bytesPerPacket;
+        public long packets;
+
+        @Setup(Level.Iteration)
+        public void reset()
+        {
+            bytesPerPacket = 0;
+            packets = 0;
+        }
+    }
+
+    @Setup
+    public void setup()
+        throws IOException
+    {
+        log = BenchLogs.getLog(size);
+    }
+
+    @Benchmark
+    public PacketGraph load(Counters counters)
+        throws IOException
+    {
+        long before = usedHeap();
+        PacketGraph graph = new PacketGraph();
+        AsyncPacketLogReader reader = new AsyncPacketLogReader(log, graph, 1);
+        reader.fetchAll();
+        long retained = usedHeap() - before;
+        long packets = graph.getPackets().size();
+        counters.packets = packets;
+        counters.bytesPerPacket = packets > 0 ? retained / packets : 0;
+        return graph;
+    }
+
+    private static long usedHeap()
+    {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; ++i)
+        {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -36,6 +36,10 @@ import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
 
 import com.newisys.apps.pktviz.model.filter.AddrFilter;
+import com.newisys.apps.pktviz.model.filter.AndFilter;
+import com.newisys.apps.pktviz.model.filter.FieldFilter;
+import com.newisys.apps.pktviz.model.filter.NodeFilter;
+import com.newisys.apps.pktviz.model.filter.OrFilter;
 import com.newisys.apps.pktviz.model.filter.PacketFilter;
 import com.newisys.apps.pktviz.model.filter.TxnIdFilter;
 import com.newisys.apps.pktviz.model.filter.TxnIdMultiFilter;
@@ -53,6 +57,7 @@ public class ControlPanelDialog
     private static final int FILTER_TXN = 1;
     private static final int FILTER_LINE = 2;
     private static final int FILTER_ADDR = 3;
+    private static final int FILTER_FIELDS = 4;
 
     private transient ViewSettings viewSettings;
 
@@ -262,7 +267,8 @@ public class ControlPanelDialog
         panelGridbag.setConstraints(attrLabel, c);
         cont.add(attrLabel);
 
-        String[] attrStrings = { "(none)", "Txn ID", "Memory Line", "Address" };
+        String[] attrStrings = { "(none)", "Txn ID", "Memory Line", "Address",
+            "Fields" };
         filterAttrCombo = new JComboBox<String>(attrStrings);
         attrLabel.setLabelFor(filterAttrCombo);
         c.gridwidth = GridBagConstraints.REMAINDER;
@@ -378,6 +384,12 @@ public class ControlPanelDialog
             filterValueField.setText(SizedIntegerFormat.format(addr, size, 16));
             filterMaskField.setText(SizedIntegerFormat.format(mask, size, 16));
         }
+        else if (filter instanceof FieldFilter || filter instanceof NodeFilter
+            || filter instanceof AndFilter || filter instanceof OrFilter)
+        {
+            filterAttrCombo.setSelectedIndex(FILTER_FIELDS);
+            filterValueField.setText(filter.toString());
+        }
     }
 
     private void filterAttrChanged()
@@ -395,6 +407,10 @@ public class ControlPanelDialog
         {
             applyFilterList();
         }
+        else if (attrIndex == FILTER_FIELDS)
+        {
+            applyFilterFields();
+        }
         else
         {
             applyFilterScalar();
@@ -427,6 +443,87 @@ public class ControlPanelDialog
         refreshFilter(filter);
     }
 
+    private static Pattern splitSemicolon = Pattern.compile(";");
+    private static Pattern splitBar = Pattern.compile("\\|");
+
+    /**
+     * Applies a filter of fields and nodes, such as
+     * "Cmd=RdBlk | Cmd=WrBlk; @from=cpu0", in which conditions separated by
+     * semicolons must all hold, and alternatives separated by bars are
+     * combined. A condition is a Version 4 field name and value, or
+     * "@from", "@to" or "@node" and a node name.
+     */
+    private void applyFilterFields()
+    {
+        String[] conditionStrings = splitSemicolon.split(filterValueField
+            .getText());
+        ArrayList<PacketFilter> conditions = new ArrayList<PacketFilter>();
+        for (String conditionString : conditionStrings)
+        {
+            if (conditionString.trim().length() == 0) continue;
+
+            String[] alternativeStrings = splitBar.split(conditionString);
+            PacketFilter[] alternatives = new PacketFilter[alternativeStrings.length];
+            for (int i = 0; i < alternativeStrings.length; ++i)
+            {
+                alternatives[i] = parseFieldFilter(alternativeStrings[i]);
+                if (alternatives[i] == null)
+                {
+                    JOptionPane.showMessageDialog(null,
+                        "Invalid filter condition: "
+                            + alternativeStrings[i].trim(), "Error",
+                        JOptionPane.ERROR_MESSAGE);
+                    return;
+                }
+            }
+            conditions.add(alternatives.length == 1 ? alternatives[0]
+                : new OrFilter(alternatives));
+        }
+
+        PacketFilter filter;
+        if (conditions.isEmpty())
+        {
+            filter = null;
+        }
+        else if (conditions.size() == 1)
+        {
+            filter = conditions.get(0);
+        }
+        else
+        {
+            filter = new AndFilter(conditions.toArray(new PacketFilter[0]));
+        }
+        refreshFilter(filter);
+    }
+
+    private static PacketFilter parseFieldFilter(String s)
+    {
+        int eq = s.indexOf('=');
+        if (eq < 0) return null;
+
+        String name = s.substring(0, eq).trim();
+        String value = s.substring(eq + 1).trim();
+        if (name.length() == 0 || value.length() == 0) return null;
+
+        if (name.equals("@from"))
+        {
+            return new NodeFilter(value, NodeFilter.FROM);
+        }
+        else if (name.equals("@to"))
+        {
+            return new NodeFilter(value, NodeFilter.TO);
+        }
+        else if (name.equals("@node"))
+        {
+            return new NodeFilter(value, NodeFilter.FROM_OR_TO);
+        }
+        else if (name.startsWith("@"))
+        {
+            return null;
+        }
+        return new FieldFilter(name, value);
+    }
+
     private void applyFilterScalar()
     {
         int attrIndex = filterAttrCombo.getSelectedIndex();
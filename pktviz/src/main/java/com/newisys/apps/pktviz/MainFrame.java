@@ -26,21 +26,36 @@ import java.awt.event.KeyEvent;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseMotionAdapter;
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.net.SocketAddress;
+import java.text.NumberFormat;
 
+import javax.swing.JButton;
+import javax.swing.JCheckBoxMenuItem;
 import javax.swing.JFileChooser;
 import javax.swing.JFrame;
+import javax.swing.JLabel;
 import javax.swing.JMenu;
 import javax.swing.JMenuBar;
 import javax.swing.JMenuItem;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.JProgressBar;
 import javax.swing.JScrollPane;
 import javax.swing.SwingUtilities;
-
-import com.newisys.apps.pktviz.logreader.PacketLogReader;
+import javax.swing.Timer;
+
+import com.newisys.apps.pktviz.logreader.AsyncPacketLogReader;
+import com.newisys.apps.pktviz.logreader.BinaryPacketLogReader;
+import com.newisys.apps.pktviz.logreader.MergedPacketLogReader;
+import com.newisys.apps.pktviz.logreader.PacketCaptureReader;
+import com.newisys.apps.pktviz.logreader.PacketLogIndex;
+import com.newisys.apps.pktviz.logreader.PagedPacketGraphSource;
+import com.newisys.apps.pktviz.model.IncrementalPacketGraphSource;
 import com.newisys.apps.pktviz.model.PacketGraph;
+import com.newisys.apps.pktviz.model.PacketGraphSource;
 import com.newisys.apps.pktviz.model.PacketInfo;
 import com.newisys.apps.pktviz.model.TxnInfo;
 import com.newisys.apps.pktviz.model.filter.PacketFilter;
@@ -51,6 +66,19 @@ import com.newisys.apps.pktviz.view.JPacketGraph;
 public class MainFrame
     extends JFrame
 {
+    // logs at least this large are parsed on all available processors
+    private static final long PARALLEL_LOAD_THRESHOLD = 64L * 1024 * 1024;
+
+    // default share of the maximum heap that a paged log may use; logs
+    // expected to need more are paged instead of loaded
+    private static final int PAGED_MEMORY_DIVISOR = 2;
+
+    // minimum interval between view updates while a log is loading
+    private static final int LOAD_REFRESH_MILLIS = 500;
+
+    // port initially offered for receiving streamed records
+    private static final int DEFAULT_LISTEN_PORT = 7531;
+
     private transient ViewSettings viewSettings;
     private transient PacketGraphViewSettingsListener viewListener;
     private JPacketGraph packetGraphView;
@@ -61,8 +89,20 @@ public class MainFrame
     private File graphFile;
     private File propsFile;
 
+    // logs merged into the open graph, if it was opened from several
+    private File[] mergedFiles;
+
     private PacketInfo highlightedPacket;
 
+    private boolean followLog;
+    private IncrementalPacketGraphSource loadingSource;
+    private File indexingFile;
+    private Timer loadTimer;
+    private long loadStartTime;
+    private JPanel loadPanel;
+    private JProgressBar loadProgressBar;
+    private JLabel loadStatusLabel;
+
     public MainFrame()
     {
         super("PacketViz");
@@ -106,16 +146,64 @@ public class MainFrame
         });
         menu.add(menuItem);
 
+        menuItem = new JMenuItem("Open Merged...", KeyEvent.VK_M);
+        menuItem.addActionListener(new ActionListener()
+        {
+            public void actionPerformed(ActionEvent event)
+            {
+                chooseMergedPacketGraph();
+            }
+        });
+        menu.add(menuItem);
+
+        menuItem = new JMenuItem("Listen...", KeyEvent.VK_L);
+        menuItem.addActionListener(new ActionListener()
+        {
+            public void actionPerformed(ActionEvent event)
+            {
+                chooseListenPort();
+            }
+        });
+        menu.add(menuItem);
+
         menuItem = new JMenuItem("Reload", KeyEvent.VK_R);
         menuItem.addActionListener(new ActionListener()
         {
             public void actionPerformed(ActionEvent event)
             {
-                openPacketGraph(graphFile);
+                if (mergedFiles != null)
+                {
+                    openMergedPacketGraph(mergedFiles);
+                }
+                else
+                {
+                    openPacketGraph(graphFile);
+                }
             }
         });
         menu.add(menuItem);
 
+        menuItem = new JMenuItem("Open Time Range...", KeyEvent.VK_T);
+        menuItem.addActionListener(new ActionListener()
+        {
+            public void actionPerformed(ActionEvent event)
+            {
+                chooseTimeRange();
+            }
+        });
+        menu.add(menuItem);
+
+        final JCheckBoxMenuItem followItem = new JCheckBoxMenuItem("Follow");
+        followItem.setMnemonic(KeyEvent.VK_F);
+        followItem.addActionListener(new ActionListener()
+        {
+            public void actionPerformed(ActionEvent event)
+            {
+                setFollowLog(followItem.isSelected());
+            }
+        });
+        menu.add(followItem);
+
         menuItem = new JMenuItem("Close", KeyEvent.VK_C);
         menuItem.addActionListener(new ActionListener()
         {
@@ -185,6 +273,20 @@ public class MainFrame
             }
         });
         menu.add(menuItem);
+
+        menu.addSeparator();
+
+        final JCheckBoxMenuItem autoScrollItem = new JCheckBoxMenuItem(
+            "Auto-scroll");
+        autoScrollItem.setMnemonic(KeyEvent.VK_A);
+        autoScrollItem.addActionListener(new ActionListener()
+        {
+            public void actionPerformed(ActionEvent event)
+            {
+                packetGraphView.setAutoScroll(autoScrollItem.isSelected());
+            }
+        });
+        menu.add(autoScrollItem);
     }
 
     public ControlPanelDialog getControlPanelDialog()
@@ -208,6 +310,123 @@ public class MainFrame
         }
     }
 
+    /**
+     * Opens several logs, such as one per agent, merged by receive time.
+     */
+    public void chooseMergedPacketGraph()
+    {
+        File defaultFile = getDefaultPathFile();
+        JFileChooser fc = new JFileChooser(defaultFile);
+        fc.setMultiSelectionEnabled(true);
+        if (fc.showOpenDialog(this) == JFileChooser.APPROVE_OPTION)
+        {
+            File[] files = fc.getSelectedFiles();
+            if (files.length == 1)
+            {
+                openPacketGraph(files[0]);
+            }
+            else if (files.length > 1)
+            {
+                openMergedPacketGraph(files);
+            }
+        }
+    }
+
+    /**
+     * Asks for a local port on which to receive records streamed by a
+     * simulator or {@link com.newisys.apps.pktviz.logreader.PacketLogSender}.
+     */
+    public void chooseListenPort()
+    {
+        String value = JOptionPane.showInputDialog(this,
+            "Port to receive records on (0 for any free port):",
+            String.valueOf(DEFAULT_LISTEN_PORT));
+        if (value == null) return;
+        try
+        {
+            listenPacketGraph(Integer.parseInt(value.trim()));
+        }
+        catch (NumberFormatException e)
+        {
+            JOptionPane.showMessageDialog(this, "Invalid port: " + value,
+                "Error", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    /**
+     * Opens an empty graph and adds the records received on the given port
+     * of the loopback address as they arrive.
+     */
+    public void listenPacketGraph(int port)
+    {
+        closePacketGraph();
+        try
+        {
+            PacketGraph g = createPacketGraph();
+            AsyncPacketLogReader source = new AsyncPacketLogReader(port, g);
+            source.setGraphProperties(viewSettings.getGraphProps());
+
+            packetGraphView.setSource(source);
+            viewListener.setPacketGraph(g);
+            startLoad(source);
+        }
+        catch (IOException e)
+        {
+            JOptionPane.showMessageDialog(null, e.getMessage(), "Error",
+                JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    /**
+     * Reloads part of the open log, using its index to skip to the start of
+     * a time range entered by the user.
+     */
+    public void chooseTimeRange()
+    {
+        if (graphFile == null) return;
+
+        PacketLogIndex index = readIndex(graphFile);
+        if (index == null)
+        {
+            JOptionPane.showMessageDialog(this, "The log has no up-to-date "
+                + "index. Open the whole log once to build one.", "Error",
+                JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+
+        String range = JOptionPane.showInputDialog(this,
+            "Time range to load (start,end):", "Open Time Range",
+            JOptionPane.QUESTION_MESSAGE);
+        if (range == null) return;
+        int comma = range.indexOf(',');
+        try
+        {
+            long startTime = Long.parseLong(range.substring(0, comma).trim());
+            long endTime = Long.parseLong(range.substring(comma + 1).trim());
+            openPacketGraph(graphFile, index, startTime, endTime);
+        }
+        catch (RuntimeException e)
+        {
+            JOptionPane.showMessageDialog(this, "Invalid time range: " + range,
+                "Error", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    private static PacketLogIndex readIndex(File file)
+    {
+        try
+        {
+            return PacketLogIndex.read(file);
+        }
+        catch (IOException e)
+        {
+            // a damaged index is rebuilt by the next full load
+            System.err.println("Warning: Could not read log index: "
+                + e.getMessage());
+            return null;
+        }
+    }
+
     private File getDefaultPathFile()
     {
         File defaultFile;
@@ -237,6 +456,15 @@ public class MainFrame
     }
 
     public void openPacketGraph(File file)
+    {
+        openPacketGraph(file, null, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    private void openPacketGraph(
+        File file,
+        PacketLogIndex index,
+        long startTime,
+        long endTime)
     {
         closePacketGraph();
 
@@ -244,24 +472,91 @@ public class MainFrame
         {
             try
             {
-                PacketGraph g = new PacketGraph();
-                g.setPacketFilter(viewSettings.getPacketFilter());
-                g.setTimeTransform(viewSettings.getTimeTransform());
-                g.addListener(viewSettings.getPacketStyler());
-
+                PacketGraph g = createPacketGraph();
                 GraphProperties props = viewSettings.getGraphProps();
-                if (props != null)
+
+                if (index == null && BinaryPacketLogReader.isBinaryLog(file))
                 {
-                    g.addListener(props);
+                    // converted logs need no parsing, so load them directly
+                    BinaryPacketLogReader source = new BinaryPacketLogReader(
+                        file, g);
+                    source.setGraphProperties(props);
+
+                    // leave the records of large logs in the mapped file,
+                    // loading only the pages being viewed
+                    long memoryBudget = getMemoryBudget();
+                    if (source.estimateHeapBytes() > memoryBudget)
+                    {
+                        source.setMemoryBudget(memoryBudget);
+                        source.fetchAll();
+                    }
+
+                    packetGraphView.setSource(source);
+                    viewListener.setPacketGraph(g);
+                    graphFile = file;
+                    if (!source.isComplete())
+                    {
+                        startLoad(source);
+                    }
+                    return;
+                }
+                if (index == null && PacketCaptureReader.isCapture(file))
+                {
+                    // captures are decoded in place from mapped buffers
+                    PacketCaptureReader source = new PacketCaptureReader(file,
+                        g);
+                    source.setGraphProperties(props);
+
+                    packetGraphView.setSource(source);
+                    viewListener.setPacketGraph(g);
+                    graphFile = file;
+                    startLoad(source);
+                    return;
+                }
+
+                // page logs that would not fit in memory
+                long memoryBudget = getMemoryBudget();
+                if (index == null && !followLog
+                    && PagedPacketGraphSource.estimateHeapBytes(file) > memoryBudget)
+                {
+                    openPaged(file, g, props, memoryBudget);
+                    return;
+                }
+
+                // parse on all processors if the log is large, unless it
+                // is being followed, which requires sequential parsing
+                int threadCount = 1;
+                if (file.length() >= PARALLEL_LOAD_THRESHOLD && !followLog)
+                {
+                    threadCount = Runtime.getRuntime().availableProcessors();
+                }
+                AsyncPacketLogReader source;
+                if (index != null)
+                {
+                    source = new AsyncPacketLogReader(file, g, index,
+                        startTime, endTime);
                 }
+                else
+                {
+                    source = new AsyncPacketLogReader(file, g, threadCount);
 
-                PacketLogReader plr = new PacketLogReader(file, g);
-                plr.setGraphProperties(props);
-                plr.fetchAll();
+                    // index large logs so that time ranges can be opened
+                    if (threadCount > 1 && readIndex(file) == null)
+                    {
+                        source.setBuildIndex(true);
+                    }
+                }
+                source.setGraphProperties(props);
+                if (followLog)
+                {
+                    source.setFollow(true);
+                }
 
-                packetGraphView.setSource(plr);
+                packetGraphView.setSource(source);
                 viewListener.setPacketGraph(g);
                 graphFile = file;
+
+                startLoad(source);
             }
             catch (IOException e)
             {
@@ -271,11 +566,284 @@ public class MainFrame
         }
     }
 
+    private void openMergedPacketGraph(File[] files)
+    {
+        closePacketGraph();
+        try
+        {
+            PacketGraph g = createPacketGraph();
+            MergedPacketLogReader source = new MergedPacketLogReader(files, g);
+            source.setGraphProperties(viewSettings.getGraphProps());
+
+            packetGraphView.setSource(source);
+            viewListener.setPacketGraph(g);
+            mergedFiles = files;
+        }
+        catch (IOException e)
+        {
+            JOptionPane.showMessageDialog(null, e.getMessage(), "Error",
+                JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    private PacketGraph createPacketGraph()
+    {
+        PacketGraph g = new PacketGraph();
+        g.setPacketFilter(viewSettings.getPacketFilter());
+        g.setTimeTransform(viewSettings.getTimeTransform());
+        g.addListener(viewSettings.getPacketStyler());
+
+        GraphProperties props = viewSettings.getGraphProps();
+        if (props != null)
+        {
+            g.addListener(props);
+        }
+        return g;
+    }
+
+    /**
+     * Returns the estimated heap that a log may use before it is paged, which
+     * is set in bytes by the pktviz.memoryBudget system property.
+     */
+    private static long getMemoryBudget()
+    {
+        Long budget = Long.getLong("pktviz.memoryBudget");
+        return budget != null ? budget.longValue()
+            : Runtime.getRuntime().maxMemory() / PAGED_MEMORY_DIVISOR;
+    }
+
+    private void openPaged(
+        final File file,
+        PacketGraph g,
+        GraphProperties props,
+        long memoryBudget)
+    {
+        PacketLogIndex index = readIndex(file);
+        if (index != null)
+        {
+            PagedPacketGraphSource source = new PagedPacketGraphSource(file,
+                g, index, memoryBudget);
+            source.setGraphProperties(props);
+            packetGraphView.setSource(source);
+            viewListener.setPacketGraph(g);
+            graphFile = file;
+            return;
+        }
+
+        // paging needs an index; build it in the background, then reopen
+        indexingFile = file;
+        loadProgressBar.setIndeterminate(true);
+        loadStatusLabel.setText("Indexing " + file.getName());
+        loadPanel.setVisible(true);
+        Thread indexThread = new Thread(new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    PacketLogIndex.build(file, Runtime.getRuntime()
+                        .availableProcessors());
+                    SwingUtilities.invokeLater(new Runnable()
+                    {
+                        public void run()
+                        {
+                            if (indexingFile == file)
+                            {
+                                stopIndexing();
+                                openPacketGraph(file);
+                            }
+                        }
+                    });
+                }
+                catch (final Exception e)
+                {
+                    SwingUtilities.invokeLater(new Runnable()
+                    {
+                        public void run()
+                        {
+                            if (indexingFile == file)
+                            {
+                                stopIndexing();
+                                JOptionPane.showMessageDialog(MainFrame.this,
+                                    e.getMessage(), "Error",
+                                    JOptionPane.ERROR_MESSAGE);
+                            }
+                        }
+                    });
+                }
+            }
+        }, "PacketLogIndexer-" + file.getName());
+        indexThread.setDaemon(true);
+        indexThread.start();
+    }
+
+    private void stopIndexing()
+    {
+        indexingFile = null;
+        loadProgressBar.setIndeterminate(false);
+        loadPanel.setVisible(false);
+    }
+
+    /**
+     * Sets whether the open log, and any log opened later, is followed as
+     * it grows.
+     */
+    public void setFollowLog(boolean follow)
+    {
+        followLog = follow;
+        AsyncPacketLogReader loadingLog = getLoadingLog();
+        if (loadingLog != null && loadingLog.canFollow())
+        {
+            loadingLog.setFollow(follow);
+        }
+        else if (follow && graphFile != null)
+        {
+            // reload to pick up where the log has grown since
+            openPacketGraph(graphFile);
+        }
+    }
+
+    private void startLoad(IncrementalPacketGraphSource source)
+    {
+        loadingSource = source;
+        loadStartTime = System.currentTimeMillis();
+        loadProgressBar.setValue(0);
+        AsyncPacketLogReader loadingLog = getLoadingLog();
+        loadStatusLabel.setText(loadingLog != null && loadingLog.getPort() >= 0
+            ? "Listening on port " + loadingLog.getPort() : "Loading "
+                + graphFile.getName());
+        loadPanel.setVisible(true);
+        loadTimer.setDelay(LOAD_REFRESH_MILLIS);
+        loadTimer.start();
+    }
+
+    private void stopLoad()
+    {
+        loadTimer.stop();
+        loadPanel.setVisible(false);
+        loadingSource = null;
+    }
+
+    /**
+     * Returns the source being loaded if it is a text log or a port, which
+     * can be followed or stop listening, or null otherwise.
+     */
+    private AsyncPacketLogReader getLoadingLog()
+    {
+        return loadingSource instanceof AsyncPacketLogReader
+            ? (AsyncPacketLogReader) loadingSource : null;
+    }
+
+    public void cancelLoad()
+    {
+        if (indexingFile != null)
+        {
+            // the index is still written, but the log is not opened
+            stopIndexing();
+        }
+        AsyncPacketLogReader loadingLog = getLoadingLog();
+        if (loadingLog != null && loadingLog.getPort() >= 0)
+        {
+            // keep the records received so far; the load completes once
+            // they have been added
+            loadingLog.stopListening();
+        }
+        else if (loadingSource != null)
+        {
+            loadingSource.cancel();
+            stopLoad();
+            closePacketGraph();
+        }
+    }
+
+    private void updateLoad()
+    {
+        IncrementalPacketGraphSource source = loadingSource;
+        if (source == null) return;
+        AsyncPacketLogReader loadingLog = getLoadingLog();
+
+        long startTime = System.currentTimeMillis();
+        try
+        {
+            source.fetchAvailable();
+        }
+        catch (Exception e)
+        {
+            stopLoad();
+            packetGraphView.sourceUpdated();
+            JOptionPane.showMessageDialog(this, e.getMessage(), "Error",
+                JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        packetGraphView.sourceUpdated();
+
+        if (source.isComplete())
+        {
+            stopLoad();
+            return;
+        }
+
+        // each step holds up the event thread, so back off as steps grow
+        long updateTime = System.currentTimeMillis() - startTime;
+        loadTimer.setDelay((int) Math.max(LOAD_REFRESH_MILLIS, updateTime * 4));
+
+        long totalBytes = source.getTotalBytes();
+        long bytesRead = source.getBytesRead();
+        if (totalBytes > 0)
+        {
+            loadProgressBar.setValue((int) (bytesRead * 1000 / totalBytes));
+        }
+        double seconds = Math.max(1, System.currentTimeMillis()
+            - loadStartTime) / 1000.0;
+        NumberFormat nf = NumberFormat.getInstance();
+        nf.setMaximumFractionDigits(1);
+        String prefix = "";
+        if (loadingLog != null && loadingLog.isFollowing())
+        {
+            prefix = "Following: ";
+        }
+        else if (loadingLog != null && loadingLog.getPort() >= 0)
+        {
+            SocketAddress client = loadingLog.getRemoteAddress();
+            prefix = "Port " + loadingLog.getPort()
+                + (client != null ? " from " + client : ", waiting") + ": ";
+        }
+        String total = totalBytes >= 0 ? " of "
+            + nf.format(totalBytes / 1048576.0) : "";
+        loadStatusLabel.setText(prefix + nf.format(bytesRead / 1048576.0)
+            + total + " MB, "
+            + nf.format(bytesRead / 1048576.0 / seconds) + " MB/s, "
+            + nf.format(Math.round(source.getRecordsRead() / seconds))
+            + " records/s");
+    }
+
     public void closePacketGraph()
     {
+        if (indexingFile != null)
+        {
+            stopIndexing();
+        }
+        if (loadingSource != null)
+        {
+            loadingSource.cancel();
+            stopLoad();
+        }
+        PacketGraphSource source = packetGraphView.getSource();
+        if (source instanceof Closeable)
+        {
+            try
+            {
+                ((Closeable) source).close();
+            }
+            catch (IOException e)
+            {
+                // ignored
+            }
+        }
         packetGraphView.setSource(null);
         viewListener.setPacketGraph(null);
         graphFile = null;
+        mergedFiles = null;
     }
 
     public void choosePropsFile()
@@ -295,6 +863,7 @@ public class MainFrame
         if (!equal)
         {
             File saveGraphFile = graphFile;
+            File[] saveMergedFiles = mergedFiles;
             closePacketGraph();
 
             propsFile = file;
@@ -311,7 +880,14 @@ public class MainFrame
             }
             viewSettings.setGraphProps(props);
 
-            openPacketGraph(saveGraphFile);
+            if (saveMergedFiles != null)
+            {
+                openMergedPacketGraph(saveMergedFiles);
+            }
+            else
+            {
+                openPacketGraph(saveGraphFile);
+            }
         }
     }
 
@@ -339,6 +915,31 @@ public class MainFrame
         graphScrollPane.getHorizontalScrollBar().setUnitIncrement(10);
         graphScrollPane.getVerticalScrollBar().setUnitIncrement(10);
         contentPane.add(graphScrollPane, BorderLayout.CENTER);
+
+        loadPanel = new JPanel(new BorderLayout(5, 0));
+        loadProgressBar = new JProgressBar(0, 1000);
+        loadPanel.add(loadProgressBar, BorderLayout.WEST);
+        loadStatusLabel = new JLabel();
+        loadPanel.add(loadStatusLabel, BorderLayout.CENTER);
+        JButton cancelButton = new JButton("Cancel");
+        cancelButton.addActionListener(new ActionListener()
+        {
+            public void actionPerformed(ActionEvent event)
+            {
+                cancelLoad();
+            }
+        });
+        loadPanel.add(cancelButton, BorderLayout.EAST);
+        loadPanel.setVisible(false);
+        contentPane.add(loadPanel, BorderLayout.SOUTH);
+
+        loadTimer = new Timer(LOAD_REFRESH_MILLIS, new ActionListener()
+        {
+            public void actionPerformed(ActionEvent event)
+            {
+                updateLoad();
+            }
+        });
     }
 
     public class PacketPaneMouseListener
@@ -19,13 +19,12 @@
 package com.newisys.apps.pktviz;
 
 import java.awt.Color;
-import java.util.Collection;
-import java.util.Iterator;
 
 import com.newisys.apps.pktviz.model.PacketGraph;
 import com.newisys.apps.pktviz.model.PacketGraphListener;
 import com.newisys.apps.pktviz.model.PacketInfo;
 import com.newisys.apps.pktviz.model.PacketNode;
+import com.newisys.apps.pktviz.model.PacketStore;
 import com.newisys.apps.pktviz.model.TxnInfo;
 
 public class PacketStyler
@@ -146,12 +145,10 @@ public class PacketStyler
 
     public void updateAll(PacketGraph graph)
     {
-        Collection c = graph.getPackets();
-        Iterator i = c.iterator();
-        while (i.hasNext())
+        PacketStore store = graph.getStore();
+        for (int i = 0; i < store.size(); ++i)
         {
-            PacketInfo info = (PacketInfo) i.next();
-            updateStyle(info);
+            updateStyle(store.get(i));
         }
     }
 
@@ -162,10 +159,20 @@ public class PacketStyler
 
     private static Color getCmdColor(int cmd)
     {
-        int rw = (cmd >> 4) & 3;
-        int gw = (cmd >> 2) & 3;
-        int bw = (cmd >> 0) & 3;
-        return new Color(rw * 50, gw * 50, bw * 50);
+        return PALETTE[cmd];
+    }
+
+    // 4 levels each of red, green and blue, indexed by a 6-bit value
+    private static final Color[] PALETTE = new Color[64];
+    static
+    {
+        for (int cmd = 0; cmd < PALETTE.length; ++cmd)
+        {
+            int rw = (cmd >> 4) & 3;
+            int gw = (cmd >> 2) & 3;
+            int bw = (cmd >> 0) & 3;
+            PALETTE[cmd] = new Color(rw * 50, gw * 50, bw * 50);
+        }
     }
 
     private static final Color DARK_GREEN = new Color(0, 128, 0);
@@ -187,6 +194,21 @@ public class PacketStyler
         updateStyle(packet);
     }
 
+    public void packetsAdded(
+        PacketStore store,
+        int fromIndex,
+        int toIndex)
+    {
+        // the graph does not report updates to the packets of the batch
+        for (int i = fromIndex; i < toIndex; ++i)
+        {
+            if (store.isMatched(i))
+            {
+                updateStyle(store.get(i));
+            }
+        }
+    }
+
     public void packetUpdated(PacketInfo packet)
     {
         // do nothing
@@ -0,0 +1,540 @@
+/*
+ * PacketViz packet visualization for the Java (TM) Platform
+ * Copyright (C) 2007 Newisys, Inc. or its licensors, as applicable.
+ * Java is a registered trademark of Sun Microsystems, Inc. in the U.S. or
+ * other countries.
+ *
+ * Licensed under the Open Software License version 3.0 (the "License"); you
+ * may not use this file except in compliance with the License. You should
+ * have received a copy of the License along with this software; if not, you
+ * may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/osl-3.0.php
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.newisys.apps.pktviz.logreader;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import com.newisys.apps.pktviz.model.IncrementalPacketGraphSource;
+import com.newisys.apps.pktviz.model.PacketGraph;
+import com.newisys.apps.pktviz.model.filter.PacketFilter;
+import com.newisys.apps.pktviz.props.GraphProperties;
+
+/**
+ * Reads a packet log on a background thread. Records are parsed ahead into
+ * a bounded queue of batches, and added to the graph only when
+ * {@link #fetchUntil(long)}, {@link #fetchAvailable()} or
+ * {@link #fetchAll()} is called, so the graph (and any views listening to
+ * it) is only modified on the caller's thread, normally the Swing event
+ * thread. Only fetchAll() waits for the reader thread; the other fetch
+ * methods add whatever has been parsed so far.
+ * <p>
+ * Records can also be streamed to a reader from another process, such as
+ * a running simulator, over a loopback TCP port. The reader thread blocks
+ * while the queue is full, and so stops reading from the socket, so a slow
+ * consumer slows the sender down rather than losing records.
+ */
+public final class AsyncPacketLogReader
+    implements IncrementalPacketGraphSource, Closeable
+{
+    private static final int QUEUE_CAPACITY = 4;
+
+    // how often a followed log is checked for new lines
+    private static final int FOLLOW_POLL_MILLIS = 100;
+
+    // marks the end of the log, or a read failure
+    private static final PacketLogBatch END = new PacketLogBatch();
+
+    private final File file;
+    private final String name;
+    private final PacketGraphBuilder builder;
+    private final PacketLogBatchReader batchReader;
+    private final BlockingQueue<PacketLogBatch> queue;
+    private Thread readerThread;
+
+    // updated by the reader thread
+    private volatile long bytesRead;
+    private volatile long recordsRead;
+    private volatile Throwable readError;
+    private volatile boolean cancelled;
+    private volatile boolean follow;
+
+    // records received after this time are not read
+    private long endTime = Long.MAX_VALUE;
+
+    private long recordsAdded;
+    private PacketLogBatch curBatch;
+    private int curRecord;
+    private boolean doneReading;
+
+    /**
+     * Creates a reader for the given file. If <code>threadCount</code> is
+     * greater than one, the log is parsed by a
+     * {@link ParallelPacketLogReader} using that many threads.
+     */
+    public AsyncPacketLogReader(
+        File file,
+        PacketGraph packetGraph,
+        int threadCount)
+        throws FileNotFoundException
+    {
+        this.file = file;
+        this.name = file.getName();
+        this.builder = new PacketGraphBuilder(packetGraph);
+        if (threadCount > 1)
+        {
+            batchReader = new ParallelPacketLogReader(file, builder,
+                threadCount);
+        }
+        else
+        {
+            batchReader = new PacketLogReader(file, builder);
+        }
+        queue = new ArrayBlockingQueue<PacketLogBatch>(QUEUE_CAPACITY);
+    }
+
+    /**
+     * Creates a reader that uses an index to load only the packets received
+     * from <code>startTime</code> to <code>endTime</code>, plus those
+     * received after <code>endTime</code> that precede the first such packet
+     * in the log.
+     */
+    public AsyncPacketLogReader(
+        File file,
+        PacketGraph packetGraph,
+        PacketLogIndex index,
+        long startTime,
+        long endTime)
+        throws IOException
+    {
+        this.file = file;
+        this.name = file.getName();
+        this.builder = new PacketGraphBuilder(packetGraph);
+        this.endTime = endTime;
+        batchReader = new PacketLogReader(file, builder, index, startTime);
+        queue = new ArrayBlockingQueue<PacketLogBatch>(QUEUE_CAPACITY);
+    }
+
+    /**
+     * Creates a reader for records streamed to the given port of the
+     * loopback address, or to any free port if <code>port</code> is 0.
+     * Connections are accepted one after another, each sending either a
+     * Version 4 text log or the binary stream framing written by
+     * {@link PacketLogSender}. The source is complete once
+     * {@link #stopListening()} is called.
+     */
+    public AsyncPacketLogReader(int port, PacketGraph packetGraph)
+        throws IOException
+    {
+        this.file = null;
+        this.builder = new PacketGraphBuilder(packetGraph);
+        PacketLogServer server = new PacketLogServer(port, builder);
+        this.name = "port " + server.getPort();
+        batchReader = server;
+        queue = new ArrayBlockingQueue<PacketLogBatch>(QUEUE_CAPACITY);
+    }
+
+    public PacketGraph getPacketGraph()
+    {
+        return builder.getPacketGraph();
+    }
+
+    public PacketFilter getPacketFilter()
+    {
+        return builder.getPacketFilter();
+    }
+
+    public void setPacketFilter(PacketFilter packetFilter)
+    {
+        builder.setPacketFilter(packetFilter);
+    }
+
+    public GraphProperties getGraphProperties()
+    {
+        return builder.getGraphProperties();
+    }
+
+    public void setGraphProperties(GraphProperties graphProperties)
+    {
+        builder.setGraphProperties(graphProperties);
+    }
+
+    /**
+     * Starts the background reader thread. Called implicitly by the first
+     * fetch.
+     */
+    public synchronized void start()
+    {
+        if (readerThread == null)
+        {
+            readerThread = new Thread(new Runnable()
+            {
+                public void run()
+                {
+                    readLoop();
+                }
+            }, "PacketLogReader-" + name);
+            readerThread.setDaemon(true);
+            readerThread.start();
+        }
+    }
+
+    /**
+     * Stops the background reader thread. Records that have already been
+     * added to the graph remain, but no more will be added.
+     */
+    public void cancel()
+    {
+        cancelled = true;
+        if (batchReader instanceof PacketLogServer)
+        {
+            // blocked socket reads are not interrupted
+            ((PacketLogServer) batchReader).shutdown();
+        }
+        synchronized (this)
+        {
+            if (readerThread != null)
+            {
+                readerThread.interrupt();
+            }
+        }
+        queue.clear();
+        curBatch = null;
+        doneReading = true;
+    }
+
+    /**
+     * Cancels reading and releases the log. The reader thread closes the
+     * log when it stops; if it was never started, the log is closed here.
+     */
+    public void close()
+        throws IOException
+    {
+        cancel();
+        synchronized (this)
+        {
+            if (readerThread != null) return;
+        }
+        batchReader.close();
+    }
+
+    /**
+     * Returns the port on which records are received, or -1 if this reader
+     * reads a file.
+     */
+    public int getPort()
+    {
+        return batchReader instanceof PacketLogServer
+            ? ((PacketLogServer) batchReader).getPort() : -1;
+    }
+
+    /**
+     * Returns the address of the client currently sending records, or null
+     * if no client is connected or this reader reads a file.
+     */
+    public SocketAddress getRemoteAddress()
+    {
+        return batchReader instanceof PacketLogServer
+            ? ((PacketLogServer) batchReader).getRemoteAddress() : null;
+    }
+
+    /**
+     * Stops accepting records over the socket. Records already received are
+     * still added, after which the source is complete.
+     */
+    public void stopListening()
+    {
+        if (batchReader instanceof PacketLogServer)
+        {
+            ((PacketLogServer) batchReader).shutdown();
+        }
+    }
+
+    public boolean isCancelled()
+    {
+        return cancelled;
+    }
+
+    /**
+     * Returns whether this reader can follow a growing log, which requires
+     * that the log is parsed sequentially.
+     */
+    public boolean canFollow()
+    {
+        return batchReader instanceof PacketLogReader;
+    }
+
+    public boolean isFollowing()
+    {
+        return follow;
+    }
+
+    /**
+     * Sets whether the log is followed as it grows. While following, the
+     * reader thread waits for new lines at the end of the log instead of
+     * finishing, so the source does not become complete until following is
+     * turned off.
+     *
+     * @see PacketLogReader#setFollow(boolean)
+     */
+    public void setFollow(boolean follow)
+    {
+        if (!canFollow())
+        {
+            throw new IllegalStateException(
+                "Only sequentially parsed logs can be followed");
+        }
+        ((PacketLogReader) batchReader).setFollow(follow);
+        this.follow = follow;
+    }
+
+    /**
+     * Sets whether a {@link PacketLogIndex} of the log is built while it is
+     * loaded, and written to the index file once loading completes. Only
+     * logs parsed in parallel from the beginning can be indexed.
+     */
+    public void setBuildIndex(boolean buildIndex)
+    {
+        if (!(batchReader instanceof ParallelPacketLogReader))
+        {
+            throw new IllegalStateException(
+                "Only logs parsed in parallel can be indexed");
+        }
+        builder.setIndexBuilder(buildIndex ? new PacketLogIndexBuilder()
+            : null);
+    }
+
+    private void readLoop()
+    {
+        try
+        {
+            while (!cancelled)
+            {
+                PacketLogBatch batch = batchReader.readBatch();
+                if (batch == null)
+                {
+                    if (!follow) break;
+
+                    // wait for the log to grow
+                    Thread.sleep(FOLLOW_POLL_MILLIS);
+                    continue;
+                }
+                bytesRead = batchReader.getBytesRead();
+                recordsRead += batch.size;
+                queue.put(batch);
+                if (batch.error != null || isPastEnd(batch)) break;
+            }
+        }
+        catch (InterruptedException e)
+        {
+            // cancelled
+        }
+        catch (Throwable t)
+        {
+            if (!cancelled)
+            {
+                readError = t;
+            }
+        }
+        finally
+        {
+            try
+            {
+                batchReader.close();
+            }
+            catch (IOException e)
+            {
+                // ignored
+            }
+        }
+        if (!cancelled)
+        {
+            try
+            {
+                queue.put(END);
+            }
+            catch (InterruptedException e)
+            {
+                // cancelled
+            }
+        }
+    }
+
+    private boolean isPastEnd(PacketLogBatch batch)
+    {
+        for (int i = batch.size - 1; i >= 0; --i)
+        {
+            if (batch.recvTimes[i] > endTime) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the number of bytes of the log parsed so far.
+     */
+    public long getBytesRead()
+    {
+        return bytesRead;
+    }
+
+    /**
+     * Returns the size of the log in bytes, or -1 if the records are
+     * received over a socket.
+     */
+    public long getTotalBytes()
+    {
+        return file != null ? file.length() : -1;
+    }
+
+    /**
+     * Returns the number of records parsed so far, including any that have
+     * not yet been added to the graph.
+     */
+    public long getRecordsRead()
+    {
+        return recordsRead;
+    }
+
+    /**
+     * Returns the number of records added to the graph so far.
+     */
+    public long getRecordsAdded()
+    {
+        return recordsAdded;
+    }
+
+    public boolean isComplete()
+    {
+        return doneReading;
+    }
+
+    public void fetchAll()
+        throws IOException
+    {
+        fetch(Long.MAX_VALUE, true);
+    }
+
+    public void fetchUntil(long untilTime)
+        throws IOException
+    {
+        fetch(untilTime, false);
+    }
+
+    /**
+     * Adds all records parsed so far without waiting for the reader thread.
+     *
+     * @return the number of records added
+     */
+    public long fetchAvailable()
+        throws IOException
+    {
+        long before = recordsAdded;
+        fetch(Long.MAX_VALUE, false);
+        return recordsAdded - before;
+    }
+
+    private void fetch(long untilTime, boolean wait)
+        throws IOException
+    {
+        start();
+        if (doneReading || builder.getLastTimeRead() > untilTime) return;
+        if (untilTime > endTime) untilTime = endTime;
+
+        boolean added = false;
+        try
+        {
+            while (true)
+            {
+                if (curBatch == null)
+                {
+                    curBatch = wait ? queue.take() : queue.poll();
+                    if (curBatch == null) break;
+                    if (curBatch == END)
+                    {
+                        curBatch = null;
+                        finish();
+                        return;
+                    }
+                    curRecord = 0;
+                }
+
+                int startRecord = curRecord;
+                try
+                {
+                    curRecord = builder.addBatch(curBatch, curRecord,
+                        untilTime);
+                }
+                catch (RuntimeException e)
+                {
+                    cancel();
+                    throw new RuntimeException("Error on line "
+                        + builder.getLineNumber() + " of input file: "
+                        + e.getMessage(), e);
+                }
+                recordsAdded += curRecord - startRecord;
+                added |= curRecord > startRecord;
+                if (builder.getLastTimeRead() > endTime)
+                {
+                    // the reader thread stops after this batch; make room
+                    // for its end marker
+                    curBatch = null;
+                    queue.clear();
+                    finish();
+                    return;
+                }
+                if (builder.getLastTimeRead() > untilTime) break;
+                curBatch = null;
+            }
+        }
+        catch (InterruptedException e)
+        {
+            cancel();
+            throw new IOException("Interrupted while reading " + name);
+        }
+        if (added)
+        {
+            builder.packetsAddedEvent();
+        }
+    }
+
+    private void finish()
+        throws IOException
+    {
+        doneReading = true;
+        Throwable t = readError;
+        if (t != null)
+        {
+            if (t instanceof IOException) throw (IOException) t;
+            if (t instanceof RuntimeException) throw (RuntimeException) t;
+            throw new RuntimeException(t);
+        }
+        PacketLogIndexBuilder indexBuilder = builder.getIndexBuilder();
+        if (indexBuilder != null)
+        {
+            builder.setIndexBuilder(null);
+            try
+            {
+                indexBuilder.finish(file).write(
+                    PacketLogIndex.getIndexFile(file));
+            }
+            catch (IOException e)
+            {
+                // the index is optional
+                System.err.println("Warning: Could not write log index: "
+                    + e.getMessage());
+            }
+        }
+        builder.allPacketsAddedEvent();
+    }
+}
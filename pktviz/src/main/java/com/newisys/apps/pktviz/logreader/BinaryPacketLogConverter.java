@@ -0,0 +1,258 @@
+/*
+ * PacketViz packet visualization for the Java (TM) Platform
+ * Copyright (C) 2007 Newisys, Inc. or its licensors, as applicable.
+ * Java is a registered trademark of Sun Microsystems, Inc. in the U.S. or
+ * other countries.
+ *
+ * Licensed under the Open Software License version 3.0 (the "License"); you
+ * may not use this file except in compliance with the License. You should
+ * have received a copy of the License along with this software; if not, you
+ * may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/osl-3.0.php
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.newisys.apps.pktviz.logreader;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+
+import com.newisys.apps.pktviz.model.PacketInfo;
+import com.newisys.apps.pktviz.model.TextPacketFieldList;
+import com.newisys.util.symbol.SymbolPool;
+
+/**
+ * Converts a Version 4 text packet log to the binary format read by
+ * {@link BinaryPacketLogReader}, in a single pass over the input. Field
+ * data is spooled to a temporary file until the record count is known.
+ */
+public final class BinaryPacketLogConverter
+{
+    // string table; pool IDs are the string IDs in the binary log
+    private final SymbolPool strings = new SymbolPool();
+
+    private DataOutputStream recordOut;
+    private DataOutputStream fieldOut;
+    private long recordCount;
+    private long fieldsSize;
+
+    private BinaryPacketLogConverter()
+    {
+    }
+
+    /**
+     * Converts the given text log to a binary log.
+     *
+     * @return the number of records converted
+     */
+    public static long convert(File textFile, File binaryFile)
+        throws IOException
+    {
+        return new BinaryPacketLogConverter().doConvert(textFile, binaryFile);
+    }
+
+    private long doConvert(File textFile, File binaryFile)
+        throws IOException
+    {
+        LogLineReader lineReader = new LogLineReader(new InputStreamReader(
+            new FileInputStream(textFile)));
+        File fieldFile = File.createTempFile("pktfields", ".tmp",
+            binaryFile.getAbsoluteFile().getParentFile());
+        try
+        {
+            recordOut = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(binaryFile), 64 * 1024));
+            fieldOut = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(fieldFile), 64 * 1024));
+
+            // header is rewritten once the sizes are known
+            recordOut.write(new byte[BinaryPacketLogFormat.HEADER_SIZE]);
+
+            readRecords(lineReader, textFile);
+            fieldOut.close();
+            fieldOut = null;
+
+            // append field section, then string table
+            long fieldsOffset = BinaryPacketLogFormat.HEADER_SIZE
+                + recordCount * BinaryPacketLogFormat.RECORD_SIZE;
+            InputStream in = new BufferedInputStream(new FileInputStream(
+                fieldFile));
+            try
+            {
+                byte[] buf = new byte[64 * 1024];
+                int n;
+                while ((n = in.read(buf)) > 0)
+                {
+                    recordOut.write(buf, 0, n);
+                }
+            }
+            finally
+            {
+                in.close();
+            }
+            long stringsOffset = fieldsOffset + fieldsSize;
+            for (int i = 0; i < strings.size(); ++i)
+            {
+                recordOut.writeUTF(strings.getString(i));
+            }
+            recordOut.close();
+            recordOut = null;
+
+            RandomAccessFile raf = new RandomAccessFile(binaryFile, "rw");
+            try
+            {
+                raf.writeInt(BinaryPacketLogFormat.MAGIC);
+                raf.writeInt(BinaryPacketLogFormat.FORMAT_VERSION);
+                raf.writeInt(BinaryPacketLogFormat.RECORD_SIZE);
+                raf.writeInt(strings.size());
+                raf.writeLong(recordCount);
+                raf.writeLong(fieldsOffset);
+                raf.writeLong(stringsOffset);
+            }
+            finally
+            {
+                raf.close();
+            }
+            return recordCount;
+        }
+        finally
+        {
+            lineReader.close();
+            if (recordOut != null) recordOut.close();
+            if (fieldOut != null) fieldOut.close();
+            fieldFile.delete();
+        }
+    }
+
+    private void readRecords(LogLineReader lineReader, File textFile)
+        throws IOException
+    {
+        if (!lineReader.nextLine())
+        {
+            throw new IOException("Empty packet log: " + textFile);
+        }
+        if (PacketLogReader.parseVersionHeader(lineReader.getLine()) != 4)
+        {
+            throw new IOException("Only Version 4 packet logs can be converted: "
+                + textFile);
+        }
+
+        PacketLogEntry entry = new PacketLogEntry();
+        entry.version = 4;
+        long lineNumber = 1;
+        while (lineReader.nextLine())
+        {
+            ++lineNumber;
+            char[] buf = lineReader.getBuffer();
+            try
+            {
+                if (entry.parseLine(buf, lineReader.getLineStart(),
+                    lineReader.getLineEnd()))
+                {
+                    writeRecord(entry);
+                }
+            }
+            catch (RuntimeException e)
+            {
+                throw new IOException("Error parsing log record at line "
+                    + lineNumber + ": "
+                    + new String(buf, entry.recordStart, entry.recordEnd
+                        - entry.recordStart) + "\n" + e.toString());
+            }
+        }
+    }
+
+    private void writeRecord(PacketLogEntry entry)
+        throws IOException
+    {
+        // decode fields as PacketInfo would, noting Cmd and addr
+        TextPacketFieldList fields = TextPacketFieldList.parse(entry.packetFieldList);
+        int flags = 0;
+        int cmd = BinaryPacketLogFormat.NO_STRING;
+        long addr = 0;
+        long fieldsOffset = fieldsSize;
+        int fieldCount = fields.size();
+        fieldOut.writeInt(fieldCount);
+        fieldsSize += 4;
+        for (int i = 0; i < fieldCount; ++i)
+        {
+            String name = fields.getName(i);
+            String value = fields.getValue(i);
+            if (name.equals("Cmd"))
+            {
+                flags |= BinaryPacketLogFormat.FLAG_HAS_CMD;
+                cmd = getStringID(value);
+            }
+            else if (name.equals("addr"))
+            {
+                flags |= BinaryPacketLogFormat.FLAG_HAS_ADDR;
+                addr = PacketInfo.parseAddrValue(value);
+            }
+
+            fieldOut.writeInt(getStringID(name));
+            if (value != null)
+            {
+                byte[] bytes = value.getBytes(BinaryPacketLogFormat.CHARSET);
+                fieldOut.writeInt(bytes.length);
+                fieldOut.write(bytes);
+                fieldsSize += 8 + bytes.length;
+            }
+            else
+            {
+                fieldOut.writeInt(-1);
+                fieldsSize += 8;
+            }
+        }
+
+        recordOut.writeLong(entry.recvTime);
+        recordOut.writeLong(entry.sendTime);
+        recordOut.writeLong(fieldsOffset);
+        recordOut.writeLong(addr);
+        recordOut.writeInt(entry.txnID);
+        recordOut.writeInt(getStringID(entry.fromNode));
+        recordOut.writeInt(getStringID(entry.toNode));
+        recordOut.writeInt(cmd);
+        recordOut.writeInt((int) (fieldsSize - fieldsOffset));
+        recordOut.writeInt(flags);
+        ++recordCount;
+    }
+
+    private int getStringID(String s)
+    {
+        if (s == null) return BinaryPacketLogFormat.NO_STRING;
+        return strings.getId(s);
+    }
+
+    public static void main(String[] args)
+    {
+        if (args.length != 2)
+        {
+            System.err.println("Usage: BinaryPacketLogConverter <input.pkt> <output>");
+            System.exit(2);
+        }
+        try
+        {
+            long start = System.currentTimeMillis();
+            long count = convert(new File(args[0]), new File(args[1]));
+            System.out.println("Converted " + count + " records in "
+                + (System.currentTimeMillis() - start) + " ms");
+        }
+        catch (IOException e)
+        {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * PacketViz packet visualization for the Java (TM) Platform
+ * Copyright (C) 2007 Newisys, Inc. or its licensors, as applicable.
+ * Java is a registered trademark of Sun Microsystems, Inc. in the U.S. or
+ * other countries.
+ *
+ * Licensed under the Open Software License version 3.0 (the "License"); you
+ * may not use this file except in compliance with the License. You should
+ * have received a copy of the License along with this software; if not, you
+ * may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/osl-3.0.php
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.newisys.apps.pktviz.logreader;
+
+/**
+ * Layout of the binary packet log format produced by
+ * {@link BinaryPacketLogConverter}. All values are big-endian.
+ * <PRE>
+ * Header (HEADER_SIZE bytes):
+ *   int   MAGIC
+ *   int   FORMAT_VERSION
+ *   int   RECORD_SIZE
+ *   int   string count
+ *   long  record count
+ *   long  offset of field section
+ *   long  offset of string table
+ *   (zero padding)
+ *
+ * Records (RECORD_SIZE bytes each, in log order, starting at HEADER_SIZE):
+ *   long  recv time
+ *   long  send time
+ *   long  offset of fields, relative to the field section
+ *   long  address (valid if FLAG_HAS_ADDR)
+ *   int   txn ID
+ *   int   from node (string ID)
+ *   int   to node (string ID)
+ *   int   Cmd value (string ID, or NO_STRING; see FLAG_HAS_CMD)
+ *   int   length of fields in bytes
+ *   int   flags
+ *
+ * Fields (per record, in the field section):
+ *   int   field count
+ *   for each field:
+ *     int   name (string ID)
+ *     int   value length in bytes, or -1 for a flag without a value
+ *     byte  value, UTF-8
+ *
+ * String table (node names, Cmd values and field names):
+ *   for each string: Java modified UTF-8, as by DataOutput.writeUTF()
+ *
+ * Stream framing, for records sent over a socket as they are produced:
+ *   int   STREAM_MAGIC
+ *   int   FORMAT_VERSION
+ *   frames, each starting with a byte type:
+ *     FRAME_STRING: the next string ID, from 0, as by DataOutput.writeUTF()
+ *     FRAME_RECORD:
+ *       long  recv time
+ *       long  send time
+ *       int   txn ID
+ *       int   from node (string ID)
+ *       int   to node (string ID)
+ *       int   length of field list in bytes
+ *       byte  Version 4 field list ("name1=value1; name2=value2"), UTF-8
+ * </PRE>
+ */
+final class BinaryPacketLogFormat
+{
+    static final int MAGIC = 0x504B5442; // "PKTB"
+    static final int STREAM_MAGIC = 0x504B5453; // "PKTS"
+    static final int FORMAT_VERSION = 1;
+
+    static final int HEADER_SIZE = 64;
+    static final int RECORD_SIZE = 56;
+
+    // offsets within header
+    static final int H_RECORD_SIZE = 8;
+    static final int H_STRING_COUNT = 12;
+    static final int H_RECORD_COUNT = 16;
+    static final int H_FIELDS_OFFSET = 24;
+    static final int H_STRINGS_OFFSET = 32;
+
+    // offsets within record
+    static final int R_RECV_TIME = 0;
+    static final int R_SEND_TIME = 8;
+    static final int R_FIELDS_OFFSET = 16;
+    static final int R_ADDR = 24;
+    static final int R_TXN_ID = 32;
+    static final int R_FROM_NODE = 36;
+    static final int R_TO_NODE = 40;
+    static final int R_CMD = 44;
+    static final int R_FIELDS_LENGTH = 48;
+    static final int R_FLAGS = 52;
+
+    static final int FLAG_HAS_ADDR = 1;
+    static final int FLAG_HAS_CMD = 2;
+
+    static final int NO_STRING = -1;
+
+    // frame types of the stream framing
+    static final int FRAME_STRING = 1;
+    static final int FRAME_RECORD = 2;
+
+    static final String CHARSET = "UTF-8";
+
+    private BinaryPacketLogFormat()
+    {
+    }
+}
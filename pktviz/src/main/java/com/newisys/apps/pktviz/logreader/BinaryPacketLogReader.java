@@ -0,0 +1,681 @@
+/*
+ * PacketViz packet visualization for the Java (TM) Platform
+ * Copyright (C) 2007 Newisys, Inc. or its licensors, as applicable.
+ * Java is a registered trademark of Sun Microsystems, Inc. in the U.S. or
+ * other countries.
+ *
+ * Licensed under the Open Software License version 3.0 (the "License"); you
+ * may not use this file except in compliance with the License. You should
+ * have received a copy of the License along with this software; if not, you
+ * may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/osl-3.0.php
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.newisys.apps.pktviz.logreader;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.newisys.apps.pktviz.model.PacketFieldList;
+import com.newisys.apps.pktviz.model.IncrementalPacketGraphSource;
+import com.newisys.apps.pktviz.model.PacketGraph;
+import com.newisys.apps.pktviz.model.PacketInfo;
+import com.newisys.apps.pktviz.model.PacketNode;
+import com.newisys.apps.pktviz.model.PacketPager;
+import com.newisys.apps.pktviz.model.TxnInfo;
+import com.newisys.apps.pktviz.model.filter.PacketFilter;
+import com.newisys.apps.pktviz.props.GraphProperties;
+
+/**
+ * Reads a binary packet log written by {@link BinaryPacketLogConverter}.
+ * The fixed-width records are read from memory-mapped segments of the file,
+ * and nodes are resolved once per string ID, so loading involves no text
+ * parsing. Field lists are only read from the file when a packet's fields
+ * are requested, so the file remains open until {@link #close()} is called.
+ * <p>
+ * Logs whose packets would not fit in the heap can be paged by setting a
+ * memory budget. The records then stay in the mapped file, outside the
+ * heap, and packets are only created for the pages of records around the
+ * part of the graph being viewed, as {@link PagedPacketGraphSource} does
+ * for text logs. Since the records are fixed-width, pages are simply runs
+ * of records, and no index is needed.
+ */
+public final class BinaryPacketLogReader
+    implements IncrementalPacketGraphSource, Closeable
+{
+    // records per mapped segment; a mapping is limited to 2GB
+    private static final int SEGMENT_RECORDS = Integer.MAX_VALUE
+        / BinaryPacketLogFormat.RECORD_SIZE;
+
+    // records per page when paging
+    private static final int PAGE_RECORDS = 4096;
+
+    // records added per call to fetchAvailable()
+    private static final int FETCH_RECORDS = 64 * 1024;
+
+    // rough heap bytes per loaded packet, for budgeting; measured at about
+    // 900 for typical logs, including the packet's transaction and its
+    // entries in the graph's store and index
+    private static final int HEAP_BYTES_PER_PACKET = 900;
+
+    private final PacketGraphBuilder builder;
+    private FileChannel channel;
+    private final long recordCount;
+    private final long fieldsOffset;
+    private final String[] strings;
+    private final PacketNode[] nodes;
+
+    // mapped on first use
+    private MappedByteBuffer[] segments;
+    private long nextRecord;
+    private boolean doneReading;
+
+    // set if the log is paged
+    private RecordPager pager;
+
+    public BinaryPacketLogReader(File file, PacketGraph packetGraph)
+        throws IOException
+    {
+        builder = new PacketGraphBuilder(packetGraph);
+        channel = new FileInputStream(file).getChannel();
+        try
+        {
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                Math.min(channel.size(), BinaryPacketLogFormat.HEADER_SIZE));
+            if (header.limit() < BinaryPacketLogFormat.HEADER_SIZE
+                || header.getInt(0) != BinaryPacketLogFormat.MAGIC)
+            {
+                throw new IOException("Not a binary packet log: " + file);
+            }
+            if (header.getInt(4) != BinaryPacketLogFormat.FORMAT_VERSION
+                || header.getInt(BinaryPacketLogFormat.H_RECORD_SIZE) != BinaryPacketLogFormat.RECORD_SIZE)
+            {
+                throw new IOException("Unsupported binary packet log format: "
+                    + file);
+            }
+            int stringCount = header.getInt(BinaryPacketLogFormat.H_STRING_COUNT);
+            recordCount = header.getLong(BinaryPacketLogFormat.H_RECORD_COUNT);
+            fieldsOffset = header.getLong(BinaryPacketLogFormat.H_FIELDS_OFFSET);
+            long stringsOffset = header.getLong(BinaryPacketLogFormat.H_STRINGS_OFFSET);
+
+            strings = new String[stringCount];
+            channel.position(stringsOffset);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Channels.newInputStream(channel), 64 * 1024));
+            for (int i = 0; i < stringCount; ++i)
+            {
+                strings[i] = in.readUTF();
+            }
+            nodes = new PacketNode[stringCount];
+            segments = new MappedByteBuffer[(int) ((recordCount
+                + SEGMENT_RECORDS - 1) / SEGMENT_RECORDS)];
+        }
+        catch (IOException e)
+        {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns true if the given file starts with the binary log signature.
+     */
+    public static boolean isBinaryLog(File file)
+        throws IOException
+    {
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try
+        {
+            return file.length() >= BinaryPacketLogFormat.HEADER_SIZE
+                && in.readInt() == BinaryPacketLogFormat.MAGIC;
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    public PacketGraph getPacketGraph()
+    {
+        return builder.getPacketGraph();
+    }
+
+    public PacketFilter getPacketFilter()
+    {
+        return builder.getPacketFilter();
+    }
+
+    public void setPacketFilter(PacketFilter packetFilter)
+    {
+        builder.setPacketFilter(packetFilter);
+    }
+
+    public GraphProperties getGraphProperties()
+    {
+        return builder.getGraphProperties();
+    }
+
+    public void setGraphProperties(GraphProperties graphProperties)
+    {
+        builder.setGraphProperties(graphProperties);
+    }
+
+    public long getRecordCount()
+    {
+        return recordCount;
+    }
+
+    /**
+     * Returns a rough estimate of the heap needed to load all of the log.
+     */
+    public long estimateHeapBytes()
+    {
+        return recordCount * HEAP_BYTES_PER_PACKET;
+    }
+
+    /**
+     * Pages the log into the graph, keeping the estimated heap used by the
+     * loaded pages within the given budget, apart from the pages needed by
+     * the current search. This reads the send and receive times of all
+     * records, and must be called before any packets are fetched.
+     */
+    public void setMemoryBudget(long memoryBudget)
+        throws IOException
+    {
+        if (nextRecord > 0 || pager != null)
+        {
+            throw new IllegalStateException("Packets have already been fetched");
+        }
+        pager = new RecordPager(memoryBudget);
+        builder.getPacketGraph().setPager(pager);
+    }
+
+    /**
+     * Returns whether the log is paged.
+     */
+    public boolean isPaged()
+    {
+        return pager != null;
+    }
+
+    /**
+     * Returns the number of pages currently in memory, or 0 if the log is
+     * not paged.
+     */
+    public int getResidentPageCount()
+    {
+        return pager != null ? pager.residentPages.size() : 0;
+    }
+
+    /**
+     * Returns true if all records have been read, or if the log is paged,
+     * since pages are then loaded as the graph is searched.
+     */
+    public boolean isComplete()
+    {
+        return doneReading || pager != null;
+    }
+
+    /**
+     * Reads all records, or if the log is paged, loads the first page so
+     * the graph has packets to scale the view by.
+     */
+    public void fetchAll()
+        throws IOException
+    {
+        fetchUntil(Long.MAX_VALUE);
+    }
+
+    public void fetchUntil(long untilTime)
+        throws IOException
+    {
+        if (pager != null)
+        {
+            long time = Math.max(Math.min(untilTime, pager.getLastTime()),
+                pager.getFirstTime());
+            pager.loadPackets(time, time);
+            return;
+        }
+        if (doneReading || builder.getLastTimeRead() > untilTime) return;
+
+        while (nextRecord < recordCount)
+        {
+            long index = nextRecord++;
+            addRecord(builder, getSegment(index), getRecordPosition(index));
+            if (builder.getLastTimeRead() > untilTime)
+            {
+                builder.flushPackets();
+                return;
+            }
+        }
+        finishReading();
+    }
+
+    /**
+     * Adds the next {@link #FETCH_RECORDS} records. Does nothing if the log
+     * is paged.
+     */
+    public long fetchAvailable()
+        throws IOException
+    {
+        if (doneReading || pager != null) return 0;
+
+        long firstRecord = nextRecord;
+        long endRecord = Math.min(recordCount, nextRecord + FETCH_RECORDS);
+        while (nextRecord < endRecord)
+        {
+            long index = nextRecord++;
+            addRecord(builder, getSegment(index), getRecordPosition(index));
+        }
+        if (nextRecord < recordCount)
+        {
+            builder.packetsAddedEvent();
+        }
+        else
+        {
+            finishReading();
+        }
+        return nextRecord - firstRecord;
+    }
+
+    private void finishReading()
+    {
+        Arrays.fill(segments, null);
+        builder.allPacketsAddedEvent();
+        doneReading = true;
+    }
+
+    /**
+     * Returns the number of bytes of records read so far, including the
+     * header.
+     */
+    public long getBytesRead()
+    {
+        return BinaryPacketLogFormat.HEADER_SIZE + nextRecord
+            * BinaryPacketLogFormat.RECORD_SIZE;
+    }
+
+    /**
+     * Returns the number of bytes of the header and records, but not of the
+     * field lists and strings, which are read as they are needed.
+     */
+    public long getTotalBytes()
+    {
+        return BinaryPacketLogFormat.HEADER_SIZE + recordCount
+            * BinaryPacketLogFormat.RECORD_SIZE;
+    }
+
+    public long getRecordsRead()
+    {
+        return nextRecord;
+    }
+
+    /**
+     * Stops reading records. The file stays open for the field lists of the
+     * packets already added.
+     */
+    public void cancel()
+    {
+        Arrays.fill(segments, null);
+        doneReading = true;
+    }
+
+    /**
+     * Returns the mapped segment containing a record.
+     */
+    private ByteBuffer getSegment(long index)
+        throws IOException
+    {
+        int segmentIndex = (int) (index / SEGMENT_RECORDS);
+        MappedByteBuffer segment = segments[segmentIndex];
+        if (segment == null)
+        {
+            if (channel == null)
+            {
+                throw new IOException("Binary packet log has been closed");
+            }
+            long start = (long) segmentIndex * SEGMENT_RECORDS;
+            long count = Math.min(SEGMENT_RECORDS, recordCount - start);
+            segment = segments[segmentIndex] = channel.map(
+                FileChannel.MapMode.READ_ONLY,
+                BinaryPacketLogFormat.HEADER_SIZE + start
+                    * BinaryPacketLogFormat.RECORD_SIZE, count
+                    * BinaryPacketLogFormat.RECORD_SIZE);
+        }
+        return segment;
+    }
+
+    /**
+     * Returns the position of a record within its segment.
+     */
+    private static int getRecordPosition(long index)
+    {
+        return (int) (index % SEGMENT_RECORDS)
+            * BinaryPacketLogFormat.RECORD_SIZE;
+    }
+
+    private void addRecord(PacketGraphBuilder builder, ByteBuffer buf, int pos)
+    {
+        long recvTime = buf.getLong(pos + BinaryPacketLogFormat.R_RECV_TIME);
+        long sendTime = buf.getLong(pos + BinaryPacketLogFormat.R_SEND_TIME);
+        int flags = buf.getInt(pos + BinaryPacketLogFormat.R_FLAGS);
+        TxnInfo txn = builder.getTxn(buf.getInt(pos
+            + BinaryPacketLogFormat.R_TXN_ID));
+        PacketNode fromNode = getNode(buf.getInt(pos
+            + BinaryPacketLogFormat.R_FROM_NODE));
+        PacketNode toNode = getNode(buf.getInt(pos
+            + BinaryPacketLogFormat.R_TO_NODE));
+        if (sendTime < 0) sendTime = recvTime;
+
+        String packetName = null;
+        if (txn != null)
+        {
+            if ((flags & BinaryPacketLogFormat.FLAG_HAS_CMD) != 0)
+            {
+                packetName = getString(buf.getInt(pos
+                    + BinaryPacketLogFormat.R_CMD));
+                txn.setPacketName(packetName);
+            }
+            if ((flags & BinaryPacketLogFormat.FLAG_HAS_ADDR) != 0)
+            {
+                txn.setAddrValue(buf.getLong(pos + BinaryPacketLogFormat.R_ADDR));
+            }
+        }
+
+        PacketFieldList fields = new BinaryFieldList(buf.getLong(pos
+            + BinaryPacketLogFormat.R_FIELDS_OFFSET), buf.getInt(pos
+            + BinaryPacketLogFormat.R_FIELDS_LENGTH));
+        builder.addPacket(new PacketInfo(txn, fromNode, sendTime, toNode,
+            recvTime, packetName, fields));
+    }
+
+    private PacketNode getNode(int id)
+    {
+        PacketNode node = nodes[id];
+        if (node == null)
+        {
+            node = nodes[id] = builder.getNode(strings[id]);
+        }
+        return node;
+    }
+
+    private String getString(int id)
+    {
+        return id != BinaryPacketLogFormat.NO_STRING ? strings[id] : null;
+    }
+
+    public void close()
+        throws IOException
+    {
+        Arrays.fill(segments, null);
+        if (channel != null)
+        {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    /**
+     * Pages the records of the log into the graph. Each page is built with
+     * its own transactions, so the transactions of evicted pages are
+     * released with their packets.
+     */
+    private final class RecordPager
+        implements PacketPager
+    {
+        private final long memoryBudget;
+
+        // earliest send time and latest receive time of each page
+        private final long[] pageFirstTimes;
+        private final long[] pageLastTimes;
+        private final long firstTime;
+        private final long lastTime;
+
+        // packets of each resident page, least recently used first
+        private final Map<Integer, List<PacketInfo>> residentPages = new LinkedHashMap<Integer, List<PacketInfo>>(
+            16, 0.75f, true);
+        private long residentBytes;
+
+        public RecordPager(long memoryBudget)
+            throws IOException
+        {
+            this.memoryBudget = memoryBudget;
+            int pageCount = (int) ((recordCount + PAGE_RECORDS - 1) / PAGE_RECORDS);
+            pageFirstTimes = new long[pageCount];
+            pageLastTimes = new long[pageCount];
+            long first = Long.MAX_VALUE;
+            long last = Long.MIN_VALUE;
+            for (int page = 0; page < pageCount; ++page)
+            {
+                long pageFirst = Long.MAX_VALUE;
+                long pageLast = Long.MIN_VALUE;
+                long end = getPageEnd(page);
+                for (long index = getPageStart(page); index < end; ++index)
+                {
+                    ByteBuffer buf = getSegment(index);
+                    int pos = getRecordPosition(index);
+                    long recvTime = buf.getLong(pos
+                        + BinaryPacketLogFormat.R_RECV_TIME);
+                    long sendTime = buf.getLong(pos
+                        + BinaryPacketLogFormat.R_SEND_TIME);
+                    if (sendTime < 0) sendTime = recvTime;
+                    if (sendTime < pageFirst) pageFirst = sendTime;
+                    if (recvTime > pageLast) pageLast = recvTime;
+                }
+                pageFirstTimes[page] = pageFirst;
+                pageLastTimes[page] = pageLast;
+                if (pageFirst < first) first = pageFirst;
+                if (pageLast > last) last = pageLast;
+            }
+            firstTime = pageCount > 0 ? first : 0;
+            lastTime = pageCount > 0 ? last : 0;
+        }
+
+        private long getPageStart(int page)
+        {
+            return (long) page * PAGE_RECORDS;
+        }
+
+        private long getPageEnd(int page)
+        {
+            return Math.min(getPageStart(page) + PAGE_RECORDS, recordCount);
+        }
+
+        private long getPageBytes(int page)
+        {
+            return (getPageEnd(page) - getPageStart(page))
+                * HEAP_BYTES_PER_PACKET;
+        }
+
+        public long getFirstTime()
+        {
+            return firstTime;
+        }
+
+        public long getLastTime()
+        {
+            return lastTime;
+        }
+
+        public void loadPackets(long fromTime, long toTime)
+        {
+            PacketGraph packetGraph = builder.getPacketGraph();
+            List<Integer> needed = new ArrayList<Integer>();
+            for (int i = 0; i < pageFirstTimes.length; ++i)
+            {
+                if (pageFirstTimes[i] <= toTime && pageLastTimes[i] >= fromTime)
+                {
+                    needed.add(Integer.valueOf(i));
+                }
+            }
+
+            boolean added = false;
+            for (Integer page : needed)
+            {
+                // get() also marks resident pages as recently used
+                if (residentPages.get(page) == null)
+                {
+                    added |= loadPage(page.intValue());
+                }
+            }
+
+            // evict least recently used pages that are not needed
+            List<PacketInfo> evicted = new ArrayList<PacketInfo>();
+            Iterator<Map.Entry<Integer, List<PacketInfo>>> i = residentPages.entrySet().iterator();
+            while (residentBytes > memoryBudget && i.hasNext())
+            {
+                Map.Entry<Integer, List<PacketInfo>> entry = i.next();
+                if (needed.contains(entry.getKey())) continue;
+
+                evicted.addAll(entry.getValue());
+                residentBytes -= getPageBytes(entry.getKey().intValue());
+                i.remove();
+            }
+            packetGraph.removePackets(evicted);
+
+            // pages may be loaded out of order, so re-index the resident pages
+            if (added || !evicted.isEmpty())
+            {
+                packetGraph.allPacketsAddedEvent();
+            }
+        }
+
+        private boolean loadPage(int page)
+        {
+            PacketGraph packetGraph = builder.getPacketGraph();
+            PacketGraphBuilder pageBuilder = new PacketGraphBuilder(packetGraph);
+            pageBuilder.setPacketFilter(builder.getPacketFilter());
+            pageBuilder.setGraphProperties(builder.getGraphProperties());
+            List<PacketInfo> packets = new ArrayList<PacketInfo>();
+            pageBuilder.setAddedPackets(packets);
+            try
+            {
+                long end = getPageEnd(page);
+                for (long index = getPageStart(page); index < end; ++index)
+                {
+                    addRecord(pageBuilder, getSegment(index),
+                        getRecordPosition(index));
+                }
+                pageBuilder.flushPackets();
+            }
+            catch (IOException e)
+            {
+                // leave the page out, and try again on the next search
+                System.err.println("Warning: Could not load page " + page
+                    + " of binary packet log: " + e.getMessage());
+                packetGraph.removePackets(packets);
+                return false;
+            }
+
+            residentPages.put(Integer.valueOf(page), packets);
+            residentBytes += getPageBytes(page);
+            return true;
+        }
+    }
+
+    /**
+     * Field list of one record, read from the file and decoded on first
+     * use.
+     */
+    private final class BinaryFieldList
+        implements PacketFieldList
+    {
+        private final long offset;
+        private final int length;
+        private String[] names;
+        private String[] values;
+
+        public BinaryFieldList(long offset, int length)
+        {
+            this.offset = offset;
+            this.length = length;
+        }
+
+        private void decode()
+        {
+            if (names != null) return;
+
+            ByteBuffer buf = ByteBuffer.allocate(length);
+            try
+            {
+                if (channel == null)
+                {
+                    throw new IOException("Binary packet log has been closed");
+                }
+                long pos = fieldsOffset + offset;
+                while (buf.hasRemaining())
+                {
+                    if (channel.read(buf, pos + buf.position()) < 0)
+                    {
+                        throw new IOException("Unexpected end of binary packet log");
+                    }
+                }
+                buf.flip();
+
+                int count = buf.getInt();
+                String[] newNames = new String[count];
+                String[] newValues = new String[count];
+                for (int i = 0; i < count; ++i)
+                {
+                    newNames[i] = strings[buf.getInt()];
+                    int valueLength = buf.getInt();
+                    if (valueLength >= 0)
+                    {
+                        newValues[i] = new String(buf.array(), buf.position(),
+                            valueLength, BinaryPacketLogFormat.CHARSET);
+                        buf.position(buf.position() + valueLength);
+                    }
+                }
+                values = newValues;
+                names = newNames;
+            }
+            catch (UnsupportedEncodingException e)
+            {
+                throw new RuntimeException(e);
+            }
+            catch (IOException e)
+            {
+                throw new RuntimeException("Error reading packet fields: "
+                    + e.getMessage());
+            }
+        }
+
+        public int size()
+        {
+            decode();
+            return names.length;
+        }
+
+        public String getName(int index)
+        {
+            decode();
+            return names[index];
+        }
+
+        public String getValue(int index)
+        {
+            decode();
+            return values[index];
+        }
+    }
+}
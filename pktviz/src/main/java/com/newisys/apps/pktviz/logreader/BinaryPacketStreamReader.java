@@ -0,0 +1,145 @@
+/*
+ * PacketViz packet visualization for the Java (TM) Platform
+ * Copyright (C) 2007 Newisys, Inc. or its licensors, as applicable.
+ * Java is a registered trademark of Sun Microsystems, Inc. in the U.S. or
+ * other countries.
+ *
+ * Licensed under the Open Software License version 3.0 (the "License"); you
+ * may not use this file except in compliance with the License. You should
+ * have received a copy of the License along with this software; if not, you
+ * may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/osl-3.0.php
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.newisys.apps.pktviz.logreader;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.common.io.CountingInputStream;
+
+/**
+ * Parses records sent in the stream framing of
+ * {@link BinaryPacketLogFormat} into batches. Node names are sent once and
+ * then referred to by ID, and times are sent as binary values, so only the
+ * field lists are decoded from text. A batch is returned as soon as no more
+ * input is ready, so records are not held back waiting for a full batch.
+ */
+final class BinaryPacketStreamReader
+    implements PacketLogBatchReader
+{
+    // records per batch returned by readBatch()
+    private static final int BATCH_SIZE = 16 * 1024;
+
+    private final CountingInputStream countingStream;
+    private final DataInputStream in;
+    private final List<String> strings = new ArrayList<String>();
+    private final PacketLogEntry entry = new PacketLogEntry();
+    private byte[] fieldBytes = new byte[256];
+    private long recordNumber;
+
+    /**
+     * Creates a reader for a stream positioned after its magic number and
+     * format version.
+     */
+    public BinaryPacketStreamReader(InputStream in)
+    {
+        countingStream = new CountingInputStream(in);
+        this.in = new DataInputStream(countingStream);
+        entry.version = 4;
+        entry.fieldsRead = 6;
+    }
+
+    public PacketLogBatch readBatch()
+        throws IOException
+    {
+        PacketLogBatch batch = new PacketLogBatch();
+        batch.baseLineNumber = recordNumber;
+
+        while (batch.size < BATCH_SIZE)
+        {
+            if (batch.size > 0 && in.available() == 0) break;
+
+            int type = in.read();
+            if (type < 0) break;
+            try
+            {
+                if (type == BinaryPacketLogFormat.FRAME_STRING)
+                {
+                    strings.add(in.readUTF());
+                }
+                else if (type == BinaryPacketLogFormat.FRAME_RECORD)
+                {
+                    readRecord();
+                    ++recordNumber;
+                    batch.add(entry, (int) (recordNumber - batch.baseLineNumber));
+                }
+                else
+                {
+                    throw new IOException("Invalid frame type " + type
+                        + " after record " + recordNumber);
+                }
+            }
+            catch (EOFException e)
+            {
+                throw new IOException("Record stream ended within a frame");
+            }
+        }
+        batch.lineCount = (int) (recordNumber - batch.baseLineNumber);
+        return batch.size > 0 ? batch : null;
+    }
+
+    private void readRecord()
+        throws IOException
+    {
+        entry.recvTime = in.readLong();
+        entry.sendTime = in.readLong();
+        entry.txnID = in.readInt();
+        entry.fromNode = getString(in.readInt());
+        entry.toNode = getString(in.readInt());
+        int length = in.readInt();
+        if (length < 0)
+        {
+            throw new IOException("Invalid field list length " + length
+                + " in record " + (recordNumber + 1));
+        }
+        if (length > fieldBytes.length)
+        {
+            fieldBytes = new byte[Math.max(length, fieldBytes.length * 2)];
+        }
+        in.readFully(fieldBytes, 0, length);
+        entry.packetFieldList = new String(fieldBytes, 0, length,
+            BinaryPacketLogFormat.CHARSET);
+    }
+
+    private String getString(int id)
+        throws IOException
+    {
+        if (id < 0 || id >= strings.size())
+        {
+            throw new IOException("Undefined string ID " + id
+                + " in record " + (recordNumber + 1));
+        }
+        return strings.get(id);
+    }
+
+    public long getBytesRead()
+    {
+        return countingStream.getCount();
+    }
+
+    public void close()
+        throws IOException
+    {
+        in.close();
+    }
+}
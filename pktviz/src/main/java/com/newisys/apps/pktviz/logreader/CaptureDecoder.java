@@ -0,0 +1,557 @@
+/*
+ * PacketViz packet visualization for the Java (TM) Platform
+ * Copyright (C) 2007 Newisys, Inc. or its licensors, as applicable.
+ * Java is a registered trademark of Sun Microsystems, Inc. in the U.S. or
+ * other countries.
+ *
+ * Licensed under the Open Software License version 3.0 (the "License"); you
+ * may not use this file except in compliance with the License. You should
+ * have received a copy of the License along with this software; if not, you
+ * may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/osl-3.0.php
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.newisys.apps.pktviz.logreader;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Locates the link, network and transport headers of a captured frame,
+ * reading them in place from a buffer. After {@link #decode} the offsets of
+ * the recognized headers are available, and the endpoints and a short
+ * packet name can be extracted without allocating. Header fields are only
+ * formatted as strings by {@link #getFields}. All header fields are read in
+ * network byte order, whatever the order of the buffer.
+ */
+final class CaptureDecoder
+{
+    // link-layer header types, from the tcpdump.org registry
+    static final int LINKTYPE_NULL = 0;
+    static final int LINKTYPE_ETHERNET = 1;
+    static final int LINKTYPE_RAW = 101;
+    static final int LINKTYPE_LOOP = 108;
+    static final int LINKTYPE_LINUX_SLL = 113;
+    static final int LINKTYPE_IPV4 = 228;
+    static final int LINKTYPE_IPV6 = 229;
+    static final int LINKTYPE_LINUX_SLL2 = 276;
+
+    static final int ETHERTYPE_IPV4 = 0x0800;
+    static final int ETHERTYPE_ARP = 0x0806;
+    static final int ETHERTYPE_VLAN = 0x8100;
+    static final int ETHERTYPE_IPV6 = 0x86DD;
+    static final int ETHERTYPE_QINQ = 0x88A8;
+
+    static final int IPPROTO_ICMP = 1;
+    static final int IPPROTO_TCP = 6;
+    static final int IPPROTO_UDP = 17;
+    static final int IPPROTO_ICMPV6 = 58;
+    static final int IPPROTO_SCTP = 132;
+
+    static final int TCP_FIN = 0x01;
+    static final int TCP_SYN = 0x02;
+    static final int TCP_RST = 0x04;
+    static final int TCP_ACK = 0x10;
+
+    // endpoint kinds
+    static final int ENDPOINT_MAC = 1;
+    static final int ENDPOINT_IPV4 = 4;
+    static final int ENDPOINT_IPV6 = 6;
+
+    private ByteBuffer buf;
+    private int end;
+
+    // absolute positions within buf of each header, or -1 if absent or
+    // not captured
+    private int ethOffset;
+    private int vlanID;
+    private int etherType;
+    private int ipOffset;
+    private int ipVersion;
+    private int protocol;
+    private int l4Offset;
+
+    /**
+     * Decodes the headers of a frame.
+     *
+     * @param buf the buffer containing the frame
+     * @param start the position of the frame within the buffer
+     * @param length the number of bytes captured
+     * @param linkType the link-layer header type of the frame
+     * @return false if neither an Ethernet nor an IP header was found, so
+     *         the frame has no endpoints
+     */
+    boolean decode(ByteBuffer buf, int start, int length, int linkType)
+    {
+        this.buf = buf;
+        end = start + length;
+        ethOffset = -1;
+        vlanID = -1;
+        etherType = -1;
+        ipOffset = -1;
+        ipVersion = 0;
+        protocol = -1;
+        l4Offset = -1;
+
+        int pos;
+        switch (linkType)
+        {
+            case LINKTYPE_ETHERNET:
+                if (start + 14 > end) return false;
+                ethOffset = start;
+                etherType = u16(start + 12);
+                pos = start + 14;
+                while ((etherType == ETHERTYPE_VLAN || etherType == ETHERTYPE_QINQ)
+                    && pos + 4 <= end)
+                {
+                    if (vlanID < 0) vlanID = u16(pos) & 0xFFF;
+                    etherType = u16(pos + 2);
+                    pos += 4;
+                }
+                break;
+            case LINKTYPE_LINUX_SLL:
+                if (start + 16 > end) return false;
+                etherType = u16(start + 14);
+                pos = start + 16;
+                break;
+            case LINKTYPE_LINUX_SLL2:
+                if (start + 20 > end) return false;
+                etherType = u16(start);
+                pos = start + 20;
+                break;
+            case LINKTYPE_NULL:
+            case LINKTYPE_LOOP:
+                // the address family is in host order; use the IP version
+                pos = start + 4;
+                break;
+            case LINKTYPE_RAW:
+            case LINKTYPE_IPV4:
+            case LINKTYPE_IPV6:
+                pos = start;
+                break;
+            default:
+                return false;
+        }
+
+        if (etherType < 0 && pos < end)
+        {
+            int version = u8(pos) >>> 4;
+            etherType = version == 4 ? ETHERTYPE_IPV4
+                : version == 6 ? ETHERTYPE_IPV6 : -1;
+        }
+        if (etherType == ETHERTYPE_IPV4)
+        {
+            decodeIPv4(pos);
+        }
+        else if (etherType == ETHERTYPE_IPV6)
+        {
+            decodeIPv6(pos);
+        }
+        return ipOffset >= 0 || ethOffset >= 0;
+    }
+
+    private void decodeIPv4(int pos)
+    {
+        if (pos + 20 > end || u8(pos) >>> 4 != 4) return;
+        ipOffset = pos;
+        ipVersion = 4;
+        protocol = u8(pos + 9);
+
+        // only the first fragment carries the transport header
+        int headerLength = (u8(pos) & 0xF) * 4;
+        if ((u16(pos + 6) & 0x1FFF) == 0 && pos + headerLength < end)
+        {
+            l4Offset = pos + headerLength;
+        }
+    }
+
+    private void decodeIPv6(int pos)
+    {
+        if (pos + 40 > end || u8(pos) >>> 4 != 6) return;
+        ipOffset = pos;
+        ipVersion = 6;
+        int next = u8(pos + 6);
+        pos += 40;
+
+        // skip hop-by-hop, routing and destination options headers
+        while ((next == 0 || next == 43 || next == 60) && pos + 8 <= end)
+        {
+            int length = (u8(pos + 1) + 1) * 8;
+            next = u8(pos);
+            pos += length;
+        }
+        protocol = next;
+        if (pos < end) l4Offset = pos;
+    }
+
+    /**
+     * Returns whether ports were captured for the transport protocol.
+     */
+    private boolean hasPorts()
+    {
+        return (protocol == IPPROTO_TCP || protocol == IPPROTO_UDP
+            || protocol == IPPROTO_SCTP)
+            && l4Offset >= 0 && l4Offset + 4 <= end;
+    }
+
+    /**
+     * Returns the TCP flags of the frame, or 0 if it is not a TCP segment.
+     */
+    int getTcpFlags()
+    {
+        if (protocol != IPPROTO_TCP || l4Offset < 0 || l4Offset + 14 > end)
+        {
+            return 0;
+        }
+        return u8(l4Offset + 13);
+    }
+
+    /**
+     * Returns a name for the frame based on its protocol, such as
+     * "TCP SYN" or "ARP".
+     */
+    String getPacketName()
+    {
+        if (ipOffset < 0)
+        {
+            return etherType == ETHERTYPE_ARP ? "ARP" : "Ethernet";
+        }
+        switch (protocol)
+        {
+            case IPPROTO_TCP:
+                int flags = getTcpFlags();
+                if ((flags & TCP_RST) != 0) return "TCP RST";
+                if ((flags & TCP_SYN) != 0)
+                {
+                    return (flags & TCP_ACK) != 0 ? "TCP SYN-ACK" : "TCP SYN";
+                }
+                if ((flags & TCP_FIN) != 0) return "TCP FIN";
+                return "TCP";
+            case IPPROTO_UDP:
+                return "UDP";
+            case IPPROTO_SCTP:
+                return "SCTP";
+            case IPPROTO_ICMP:
+                return "ICMP";
+            case IPPROTO_ICMPV6:
+                return "ICMPv6";
+            default:
+                return ipVersion == 4 ? "IPv4" : "IPv6";
+        }
+    }
+
+    /**
+     * Stores the source or destination endpoint of the frame: its IP
+     * address and port if it has them, or otherwise its MAC address.
+     */
+    void getEndpoint(boolean source, Endpoint endpoint)
+    {
+        int port = -1;
+        if (hasPorts())
+        {
+            port = u16(source ? l4Offset : l4Offset + 2);
+        }
+        if (ipVersion == 4)
+        {
+            endpoint.set(ENDPOINT_IPV4, 0, u32(ipOffset + (source ? 12 : 16)),
+                port >= 0 ? protocol : 0, port);
+        }
+        else if (ipVersion == 6)
+        {
+            int addr = ipOffset + (source ? 8 : 24);
+            endpoint.set(ENDPOINT_IPV6, u64(addr), u64(addr + 8),
+                port >= 0 ? protocol : 0, port);
+        }
+        else
+        {
+            int addr = ethOffset + (source ? 6 : 0);
+            endpoint.set(ENDPOINT_MAC, 0, ((long) u16(addr) << 32)
+                | u32(addr + 2), 0, -1);
+        }
+    }
+
+    /**
+     * Appends the names and values of the decoded header fields to the
+     * given lists.
+     */
+    void getFields(List<String> names, List<String> values)
+    {
+        if (ethOffset >= 0)
+        {
+            add(names, values, "eth.dst", formatMac(ethOffset));
+            add(names, values, "eth.src", formatMac(ethOffset + 6));
+        }
+        if (vlanID >= 0)
+        {
+            add(names, values, "vlan.id", Integer.toString(vlanID));
+        }
+        if (etherType >= 0)
+        {
+            add(names, values, "eth.type", formatHex(etherType, 4));
+        }
+        if (ipVersion == 4)
+        {
+            Endpoint e = new Endpoint();
+            add(names, values, "ip.len", Integer.toString(u16(ipOffset + 2)));
+            add(names, values, "ip.id", formatHex(u16(ipOffset + 4), 4));
+            add(names, values, "ip.ttl", Integer.toString(u8(ipOffset + 8)));
+            add(names, values, "ip.proto", Integer.toString(protocol));
+            e.set(ENDPOINT_IPV4, 0, u32(ipOffset + 12), 0, -1);
+            add(names, values, "ip.src", e.getName());
+            e.set(ENDPOINT_IPV4, 0, u32(ipOffset + 16), 0, -1);
+            add(names, values, "ip.dst", e.getName());
+        }
+        else if (ipVersion == 6)
+        {
+            Endpoint e = new Endpoint();
+            add(names, values, "ipv6.flow", formatHex(
+                (int) (u32(ipOffset) & 0xFFFFF), 5));
+            add(names, values, "ipv6.plen", Integer.toString(u16(ipOffset + 4)));
+            add(names, values, "ipv6.hlim", Integer.toString(u8(ipOffset + 7)));
+            add(names, values, "ipv6.nxt", Integer.toString(protocol));
+            e.set(ENDPOINT_IPV6, u64(ipOffset + 8), u64(ipOffset + 16), 0, -1);
+            add(names, values, "ipv6.src", e.getName());
+            e.set(ENDPOINT_IPV6, u64(ipOffset + 24), u64(ipOffset + 32), 0, -1);
+            add(names, values, "ipv6.dst", e.getName());
+        }
+        if (l4Offset < 0) return;
+
+        if (protocol == IPPROTO_TCP && l4Offset + 20 <= end)
+        {
+            add(names, values, "tcp.srcport", Integer.toString(u16(l4Offset)));
+            add(names, values, "tcp.dstport", Integer.toString(u16(l4Offset + 2)));
+            add(names, values, "tcp.seq", Long.toString(u32(l4Offset + 4)));
+            add(names, values, "tcp.ack", Long.toString(u32(l4Offset + 8)));
+            add(names, values, "tcp.flags", formatTcpFlags(u8(l4Offset + 13)));
+            add(names, values, "tcp.window", Integer.toString(u16(l4Offset + 14)));
+        }
+        else if (protocol == IPPROTO_UDP && l4Offset + 8 <= end)
+        {
+            add(names, values, "udp.srcport", Integer.toString(u16(l4Offset)));
+            add(names, values, "udp.dstport", Integer.toString(u16(l4Offset + 2)));
+            add(names, values, "udp.length", Integer.toString(u16(l4Offset + 4)));
+        }
+        else if (protocol == IPPROTO_SCTP && l4Offset + 12 <= end)
+        {
+            add(names, values, "sctp.srcport", Integer.toString(u16(l4Offset)));
+            add(names, values, "sctp.dstport", Integer.toString(u16(l4Offset + 2)));
+            add(names, values, "sctp.verification_tag",
+                formatHex((int) u32(l4Offset + 4), 8));
+        }
+        else if ((protocol == IPPROTO_ICMP || protocol == IPPROTO_ICMPV6)
+            && l4Offset + 4 <= end)
+        {
+            String prefix = protocol == IPPROTO_ICMP ? "icmp." : "icmpv6.";
+            add(names, values, prefix + "type", Integer.toString(u8(l4Offset)));
+            add(names, values, prefix + "code", Integer.toString(u8(l4Offset + 1)));
+        }
+    }
+
+    private static void add(
+        List<String> names,
+        List<String> values,
+        String name,
+        String value)
+    {
+        names.add(name);
+        values.add(value);
+    }
+
+    private String formatMac(int pos)
+    {
+        Endpoint e = new Endpoint();
+        e.set(ENDPOINT_MAC, 0, ((long) u16(pos) << 32) | u32(pos + 2), 0, -1);
+        return e.getName();
+    }
+
+    private static String formatHex(int value, int digits)
+    {
+        String hex = Integer.toHexString(value);
+        StringBuilder sb = new StringBuilder(digits + 2);
+        sb.append("0x");
+        for (int i = hex.length(); i < digits; ++i)
+        {
+            sb.append('0');
+        }
+        return sb.append(hex).toString();
+    }
+
+    private static String formatTcpFlags(int flags)
+    {
+        final String names = "FSRPAUEC";
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < names.length(); ++i)
+        {
+            if ((flags & (1 << i)) != 0)
+            {
+                if (sb.length() > 0) sb.append(',');
+                sb.append(names.charAt(i));
+            }
+        }
+        return sb.toString();
+    }
+
+    private int u8(int pos)
+    {
+        return buf.get(pos) & 0xFF;
+    }
+
+    private int u16(int pos)
+    {
+        return (u8(pos) << 8) | u8(pos + 1);
+    }
+
+    private long u32(int pos)
+    {
+        return ((long) u16(pos) << 16) | u16(pos + 2);
+    }
+
+    private long u64(int pos)
+    {
+        return (u32(pos) << 32) | u32(pos + 4);
+    }
+
+    /**
+     * The address, and port if any, of one end of a frame. Endpoints are
+     * compared by value, so a reused instance can be used to look up
+     * endpoints seen before.
+     */
+    static final class Endpoint
+    {
+        private static final long HASH_MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+        private int kind;
+        private long high;
+        private long low;
+        private int protocol;
+        private int port;
+
+        void set(int kind, long high, long low, int protocol, int port)
+        {
+            this.kind = kind;
+            this.high = high;
+            this.low = low;
+            this.protocol = protocol;
+            this.port = port;
+        }
+
+        Endpoint copy()
+        {
+            Endpoint e = new Endpoint();
+            e.set(kind, high, low, protocol, port);
+            return e;
+        }
+
+        /**
+         * Returns the node name of the endpoint. The port is a child of
+         * its address, as in "10.0.0.1.tcp80", so IPv4 addresses also
+         * form a hierarchy by octet.
+         */
+        String getName()
+        {
+            StringBuilder sb = new StringBuilder(48);
+            switch (kind)
+            {
+                case ENDPOINT_MAC:
+                    for (int i = 40; i >= 0; i -= 8)
+                    {
+                        int b = (int) (low >>> i) & 0xFF;
+                        if (i < 40) sb.append(':');
+                        sb.append(Character.forDigit(b >>> 4, 16));
+                        sb.append(Character.forDigit(b & 0xF, 16));
+                    }
+                    break;
+                case ENDPOINT_IPV4:
+                    for (int i = 24; i >= 0; i -= 8)
+                    {
+                        if (i < 24) sb.append('.');
+                        sb.append((low >>> i) & 0xFF);
+                    }
+                    break;
+                case ENDPOINT_IPV6:
+                    appendIPv6(sb);
+                    break;
+            }
+            if (port >= 0)
+            {
+                sb.append('.');
+                switch (protocol)
+                {
+                    case IPPROTO_TCP:
+                        sb.append("tcp");
+                        break;
+                    case IPPROTO_UDP:
+                        sb.append("udp");
+                        break;
+                    case IPPROTO_SCTP:
+                        sb.append("sctp");
+                        break;
+                }
+                sb.append(port);
+            }
+            return sb.toString();
+        }
+
+        private void appendIPv6(StringBuilder sb)
+        {
+            int[] groups = new int[8];
+            for (int i = 0; i < 8; ++i)
+            {
+                long word = i < 4 ? high : low;
+                groups[i] = (int) (word >>> ((3 - (i & 3)) * 16)) & 0xFFFF;
+            }
+
+            // the longest run of two or more zero groups is written as "::"
+            int bestStart = -1;
+            int bestLength = 1;
+            for (int i = 0; i < 8;)
+            {
+                int j = i;
+                while (j < 8 && groups[j] == 0)
+                {
+                    ++j;
+                }
+                if (j - i > bestLength)
+                {
+                    bestStart = i;
+                    bestLength = j - i;
+                }
+                i = j > i ? j : i + 1;
+            }
+
+            for (int i = 0; i < 8; ++i)
+            {
+                if (i == bestStart)
+                {
+                    sb.append("::");
+                    i += bestLength - 1;
+                    continue;
+                }
+                if (i > 0 && i != bestStart + bestLength) sb.append(':');
+                sb.append(Integer.toHexString(groups[i]));
+            }
+        }
+
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof Endpoint)) return false;
+            Endpoint e = (Endpoint) obj;
+            return kind == e.kind && high == e.high && low == e.low
+                && protocol == e.protocol && port == e.port;
+        }
+
+        public int hashCode()
+        {
+            // addresses and ports differ in their low bits, so each part is
+            // spread over the whole word before the next is mixed in
+            long h = high * HASH_MULTIPLIER ^ low;
+            h = h * HASH_MULTIPLIER ^ ((kind << 24) ^ (protocol << 16) ^ port);
+            return (int) ((h * HASH_MULTIPLIER) >>> 32);
+        }
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * PacketViz packet visualization for the Java (TM) Platform
+ * Copyright (C) 2007 Newisys, Inc. or its licensors, as applicable.
+ * Java is a registered trademark of Sun Microsystems, Inc. in the U.S. or
+ * other countries.
+ *
+ * Licensed under the Open Software License version 3.0 (the "License"); you
+ * may not use this file except in compliance with the License. You should
+ * have received a copy of the License along with this software; if not, you
+ * may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/osl-3.0.php
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.newisys.apps.pktviz.logreader;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reads lines from a character stream into a single reused buffer, so that
+ * records can be scanned in place without allocating a String per line.
+ * Lines are terminated by '\n', '\r' or "\r\n", as with
+ * {@link java.io.BufferedReader#readLine()}.
+ */
+final class LogLineReader
+{
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private final Reader reader;
+    private char[] buf;
+    private int pos;
+    private int limit;
+    private boolean skipLF;
+    private boolean eof;
+
+    // if set, a final line without terminator is held back at the end of
+    // the stream, and the stream is read again on the next call
+    private volatile boolean follow;
+
+    // bounds of the current line within buf
+    private int lineStart;
+    private int lineEnd;
+
+    public LogLineReader(Reader reader)
+    {
+        this.reader = reader;
+        buf = new char[DEFAULT_BUFFER_SIZE];
+    }
+
+    /**
+     * Advances to the next line.
+     *
+     * @return false if the end of the stream has been reached
+     */
+    public boolean nextLine()
+        throws IOException
+    {
+        int scan = pos;
+        while (true)
+        {
+            if (skipLF && scan < limit)
+            {
+                if (buf[scan] == '\n')
+                {
+                    ++scan;
+                    pos = scan;
+                }
+                skipLF = false;
+            }
+
+            while (scan < limit)
+            {
+                char c = buf[scan];
+                if (c == '\n' || c == '\r')
+                {
+                    lineStart = pos;
+                    lineEnd = scan;
+                    pos = scan + 1;
+                    skipLF = (c == '\r');
+                    return true;
+                }
+                ++scan;
+            }
+
+            // fill() moves the partial line to the start of the buffer
+            int scanned = scan - pos;
+            if (eof || !fill())
+            {
+                if (follow)
+                {
+                    eof = false;
+                    return false;
+                }
+                if (pos < limit)
+                {
+                    // final line without terminator
+                    lineStart = pos;
+                    lineEnd = limit;
+                    pos = limit;
+                    return true;
+                }
+                return false;
+            }
+            scan = pos + scanned;
+        }
+    }
+
+    private boolean fill()
+        throws IOException
+    {
+        // move partial line to the start of the buffer
+        int partial = limit - pos;
+        if (pos > 0)
+        {
+            System.arraycopy(buf, pos, buf, 0, partial);
+            pos = 0;
+            limit = partial;
+        }
+        else if (partial == buf.length)
+        {
+            char[] newBuf = new char[buf.length * 2];
+            System.arraycopy(buf, 0, newBuf, 0, partial);
+            buf = newBuf;
+        }
+
+        int n = reader.read(buf, limit, buf.length - limit);
+        if (n < 0)
+        {
+            eof = true;
+            return false;
+        }
+        limit += n;
+        return true;
+    }
+
+    /**
+     * Returns whether {@link #nextLine()} can return a complete line without
+     * blocking, because one is already buffered or the stream has more
+     * input ready.
+     */
+    public boolean ready()
+        throws IOException
+    {
+        for (int i = pos; i < limit; ++i)
+        {
+            char c = buf[i];
+            if (c == '\n' || c == '\r') return true;
+        }
+        return !eof && reader.ready();
+    }
+
+    public boolean isFollow()
+    {
+        return follow;
+    }
+
+    public void setFollow(boolean follow)
+    {
+        this.follow = follow;
+    }
+
+    public char[] getBuffer()
+    {
+        return buf;
+    }
+
+    public int getLineStart()
+    {
+        return lineStart;
+    }
+
+    public int getLineEnd()
+    {
+        return lineEnd;
+    }
+
+    public String getLine()
+    {
+        return new String(buf, lineStart, lineEnd - lineStart);
+    }
+
+    public void close()
+        throws IOException
+    {
+        reader.close();
+    }
+}
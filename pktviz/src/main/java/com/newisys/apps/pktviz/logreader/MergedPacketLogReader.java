@@ -0,0 +1,330 @@
+/*
+ * PacketViz packet visualization for the Java (TM) Platform
+ * Copyright (C) 2007 Newisys, Inc. or its licensors, as applicable.
+ * Java is a registered trademark of Sun Microsystems, Inc. in the U.S. or
+ * other countries.
+ *
+ * Licensed under the Open Software License version 3.0 (the "License"); you
+ * may not use this file except in compliance with the License. You should
+ * have received a copy of the License along with this software; if not, you
+ * may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/osl-3.0.php
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.newisys.apps.pktviz.logreader;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+import com.newisys.apps.pktviz.model.PacketGraph;
+import com.newisys.apps.pktviz.model.PacketGraphSource;
+import com.newisys.apps.pktviz.model.filter.PacketFilter;
+import com.newisys.apps.pktviz.props.GraphProperties;
+
+/**
+ * Reads several packet logs into one graph, such as the per-agent logs
+ * written by a testbench, merging their records by receive time as they
+ * are read. Each log must be in receive time order itself. Records with
+ * equal receive times are taken from the earlier log in the list first.
+ * All of the logs share one set of transactions and one node hierarchy,
+ * so a transaction whose packets are spread over several logs is a single
+ * transaction in the graph.
+ */
+public final class MergedPacketLogReader
+    implements PacketGraphSource, Closeable
+{
+    /**
+     * The unread records of one log, starting with the head record.
+     */
+    private static final class Input
+    {
+        final File file;
+        final int order;
+        final PacketLogReader reader;
+        PacketLogBatch batch;
+        int index;
+
+        Input(File file, int order, PacketLogReader reader)
+        {
+            this.file = file;
+            this.order = order;
+            this.reader = reader;
+        }
+
+        long getHeadTime()
+        {
+            return batch.recvTimes[index];
+        }
+
+        /**
+         * Returns whether the head record of this log precedes that of
+         * another.
+         */
+        boolean precedes(Input other)
+        {
+            long time = getHeadTime();
+            long otherTime = other.getHeadTime();
+            return time < otherTime || (time == otherTime
+                && order < other.order);
+        }
+
+        /**
+         * Advances to the next record, reading the next batch if needed.
+         *
+         * @return false at the end of the log
+         */
+        boolean advance()
+            throws IOException
+        {
+            if (batch != null && ++index < batch.size) return true;
+            while (true)
+            {
+                if (batch != null && batch.error != null)
+                {
+                    throw new RuntimeException("Error parsing log record at line "
+                        + (batch.baseLineNumber + batch.errorLine) + " of "
+                        + file.getName() + ": " + batch.errorRecord + "\n"
+                        + batch.error.toString(), batch.error);
+                }
+                batch = reader.readBatch();
+                index = 0;
+                if (batch == null) return false;
+                if (batch.size > 0) return true;
+            }
+        }
+    }
+
+    private static final Comparator<Input> HEAD_ORDER = new Comparator<Input>()
+    {
+        public int compare(Input a, Input b)
+        {
+            return a.precedes(b) ? -1 : (b.precedes(a) ? 1 : 0);
+        }
+    };
+
+    private final File[] files;
+    private final PacketGraphBuilder builder;
+    private final PriorityQueue<Input> inputs;
+    private final PacketLogEntry entry = new PacketLogEntry();
+
+    // logs opened but not yet read, until the first fetch
+    private Input[] newInputs;
+    private boolean doneReading;
+    private long recordsAdded;
+
+    // bytes read from logs that have been closed
+    private long closedBytesRead;
+
+    public MergedPacketLogReader(File[] files, PacketGraph packetGraph)
+        throws FileNotFoundException
+    {
+        this.files = files.clone();
+        builder = new PacketGraphBuilder(packetGraph);
+        inputs = new PriorityQueue<Input>(Math.max(files.length, 1),
+            HEAD_ORDER);
+        newInputs = new Input[files.length];
+        try
+        {
+            for (int i = 0; i < files.length; ++i)
+            {
+                newInputs[i] = new Input(files[i], i, new PacketLogReader(
+                    files[i], builder));
+            }
+        }
+        catch (FileNotFoundException e)
+        {
+            close();
+            throw e;
+        }
+    }
+
+    public File[] getFiles()
+    {
+        return files.clone();
+    }
+
+    public PacketGraph getPacketGraph()
+    {
+        return builder.getPacketGraph();
+    }
+
+    public PacketFilter getPacketFilter()
+    {
+        return builder.getPacketFilter();
+    }
+
+    public void setPacketFilter(PacketFilter packetFilter)
+    {
+        builder.setPacketFilter(packetFilter);
+    }
+
+    public GraphProperties getGraphProperties()
+    {
+        return builder.getGraphProperties();
+    }
+
+    public void setGraphProperties(GraphProperties graphProperties)
+    {
+        builder.setGraphProperties(graphProperties);
+    }
+
+    public boolean isComplete()
+    {
+        return doneReading;
+    }
+
+    /**
+     * Returns the number of records added to the graph so far.
+     */
+    public long getRecordsAdded()
+    {
+        return recordsAdded;
+    }
+
+    /**
+     * Returns the total number of bytes of the logs read so far.
+     */
+    public long getBytesRead()
+    {
+        long bytes = closedBytesRead;
+        for (Input input : inputs)
+        {
+            bytes += input.reader.getBytesRead();
+        }
+        return bytes;
+    }
+
+    public void fetchAll()
+        throws IOException
+    {
+        fetchUntil(Long.MAX_VALUE);
+    }
+
+    public void fetchUntil(long untilTime)
+        throws IOException
+    {
+        if (doneReading || builder.getLastTimeRead() > untilTime) return;
+        try
+        {
+            if (newInputs != null)
+            {
+                readFirstBatches();
+            }
+
+            PacketLogEntry entry = this.entry;
+            boolean added = false;
+            while (!inputs.isEmpty())
+            {
+                // take records from the earliest log until another log's
+                // head record comes first
+                Input input = inputs.poll();
+                Input next = inputs.peek();
+                boolean more;
+                do
+                {
+                    PacketLogBatch batch = input.batch;
+                    batch.copyTo(input.index, entry);
+                    builder.addLogEntry(entry, batch.baseLineNumber
+                        + batch.lines[input.index]);
+                    ++recordsAdded;
+                    added = true;
+                    more = input.advance();
+                }
+                while (more && (next == null || input.precedes(next))
+                    && builder.getLastTimeRead() <= untilTime);
+
+                if (more)
+                {
+                    inputs.add(input);
+                }
+                else
+                {
+                    closeInput(input);
+                }
+                if (builder.getLastTimeRead() > untilTime) break;
+            }
+
+            if (inputs.isEmpty())
+            {
+                doneReading = true;
+                builder.allPacketsAddedEvent();
+            }
+            else if (added)
+            {
+                builder.packetsAddedEvent();
+            }
+        }
+        catch (RuntimeException e)
+        {
+            doneReading = true;
+            close();
+            throw e;
+        }
+    }
+
+    private void readFirstBatches()
+        throws IOException
+    {
+        Input[] all = newInputs;
+        newInputs = null;
+        for (Input input : all)
+        {
+            if (input.advance())
+            {
+                inputs.add(input);
+            }
+            else
+            {
+                closeInput(input);
+            }
+        }
+    }
+
+    private void closeInput(Input input)
+        throws IOException
+    {
+        closedBytesRead += input.reader.getBytesRead();
+        input.reader.close();
+    }
+
+    /**
+     * Closes any logs that have not been read to the end.
+     */
+    public void close()
+    {
+        if (newInputs != null)
+        {
+            for (Input input : newInputs)
+            {
+                if (input != null) closeQuietly(input);
+            }
+            newInputs = null;
+        }
+        for (Input input : inputs)
+        {
+            closeQuietly(input);
+        }
+        inputs.clear();
+    }
+
+    private static void closeQuietly(Input input)
+    {
+        try
+        {
+            input.reader.close();
+        }
+        catch (IOException e)
+        {
+            // ignored
+        }
+    }
+}
@@ -0,0 +1,762 @@
+/*
+ * PacketViz packet visualization for the Java (TM) Platform
+ * Copyright (C) 2007 Newisys, Inc. or its licensors, as applicable.
+ * Java is a registered trademark of Sun Microsystems, Inc. in the U.S. or
+ * other countries.
+ *
+ * Licensed under the Open Software License version 3.0 (the "License"); you
+ * may not use this file except in compliance with the License. You should
+ * have received a copy of the License along with this software; if not, you
+ * may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/osl-3.0.php
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.newisys.apps.pktviz.logreader;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.newisys.apps.pktviz.model.IncrementalPacketGraphSource;
+import com.newisys.apps.pktviz.model.PacketFieldList;
+import com.newisys.apps.pktviz.model.PacketGraph;
+import com.newisys.apps.pktviz.model.PacketInfo;
+import com.newisys.apps.pktviz.model.PacketNode;
+import com.newisys.apps.pktviz.model.TxnInfo;
+import com.newisys.apps.pktviz.model.filter.PacketFilter;
+import com.newisys.apps.pktviz.props.GraphProperties;
+
+/**
+ * Reads a network capture in libpcap or pcapng format. Frames are decoded
+ * in place from memory-mapped segments of the file, so payloads are never
+ * copied, and header fields are only formatted when a packet's fields are
+ * requested; the file therefore remains open until {@link #close()} is
+ * called.
+ * <p>
+ * Each endpoint becomes a node named by its address, with a child per port
+ * for TCP, UDP and SCTP (for example "10.0.0.1.tcp80"); frames without an
+ * IP header use MAC addresses. All frames between the same two endpoints
+ * belong to one transaction, and a TCP transaction is completed once the
+ * connection is reset or closed from both sides. Packets are received and
+ * sent at their capture time, in nanoseconds from the first frame.
+ */
+public final class PacketCaptureReader
+    implements IncrementalPacketGraphSource, Closeable
+{
+    private static final int PCAP_MAGIC_MICROS = 0xA1B2C3D4;
+    private static final int PCAP_MAGIC_NANOS = 0xA1B23C4D;
+    private static final int PCAP_HEADER_SIZE = 24;
+    private static final int PCAP_RECORD_HEADER_SIZE = 16;
+
+    private static final int PCAPNG_SECTION_HEADER = 0x0A0D0D0A;
+    private static final int PCAPNG_BYTE_ORDER_MAGIC = 0x1A2B3C4D;
+    private static final int PCAPNG_INTERFACE_DESCRIPTION = 1;
+    private static final int PCAPNG_PACKET = 2;
+    private static final int PCAPNG_SIMPLE_PACKET = 3;
+    private static final int PCAPNG_ENHANCED_PACKET = 6;
+    private static final int PCAPNG_OPTION_END = 0;
+    private static final int PCAPNG_OPTION_TSRESOL = 9;
+
+    private static final long NANOS_PER_SECOND = 1000000000L;
+    private static final long MICROS_PER_SECOND = 1000000L;
+
+    // largest mapped segment; a mapping is limited to 2GB
+    private static final long SEGMENT_SIZE = 1L << 30;
+
+    // bytes read from the file to decode the headers of one frame
+    private static final int MAX_HEADER_BYTES = 256;
+
+    // records or blocks read per call to fetchAvailable()
+    private static final int FETCH_RECORDS = 64 * 1024;
+
+    private final PacketGraphBuilder builder;
+    private FileChannel channel;
+    private final long fileSize;
+    private final boolean pcapng;
+    private ByteOrder order;
+
+    // libpcap: the link type and timestamp units of the whole file
+    private int linkType;
+    private long unitsPerSecond;
+
+    // pcapng: the link type and timestamp units of each interface in the
+    // current section
+    private int[] ifLinkTypes = new int[4];
+    private long[] ifUnitsPerSecond = new long[4];
+    private int ifCount;
+
+    private ByteBuffer segment;
+    private long segmentStart;
+    private long nextOffset;
+    private boolean doneReading;
+
+    private final CaptureDecoder decoder = new CaptureDecoder();
+    private final CaptureDecoder.Endpoint probe = new CaptureDecoder.Endpoint();
+    private final Map<CaptureDecoder.Endpoint, PacketNode> nodes = new HashMap<CaptureDecoder.Endpoint, PacketNode>();
+    private final NodePair flowProbe = new NodePair();
+    private final Map<NodePair, Flow> flows = new HashMap<NodePair, Flow>();
+    private int nextTxnID;
+
+    private boolean hasBaseTime;
+    private long baseTime;
+    private long lastTime;
+    private long packetCount;
+    private long skippedCount;
+
+    public PacketCaptureReader(File file, PacketGraph packetGraph)
+        throws IOException
+    {
+        builder = new PacketGraphBuilder(packetGraph);
+        channel = new FileInputStream(file).getChannel();
+        try
+        {
+            fileSize = channel.size();
+            order = ByteOrder.BIG_ENDIAN;
+            int pos = map(0, 4);
+            int magic = pos >= 0 ? segment.getInt(pos) : 0;
+            if (magic == PCAPNG_SECTION_HEADER)
+            {
+                pcapng = true;
+            }
+            else
+            {
+                pcapng = false;
+                if (magic == Integer.reverseBytes(PCAP_MAGIC_MICROS)
+                    || magic == Integer.reverseBytes(PCAP_MAGIC_NANOS))
+                {
+                    order = ByteOrder.LITTLE_ENDIAN;
+                    magic = Integer.reverseBytes(magic);
+                }
+                if (magic != PCAP_MAGIC_MICROS && magic != PCAP_MAGIC_NANOS)
+                {
+                    throw new IOException("Not a packet capture: " + file);
+                }
+                pos = map(0, PCAP_HEADER_SIZE);
+                if (pos < 0)
+                {
+                    throw new IOException("Truncated packet capture: " + file);
+                }
+                linkType = segment.getInt(pos + 20) & 0xFFFF;
+                unitsPerSecond = magic == PCAP_MAGIC_NANOS ? NANOS_PER_SECOND
+                    : MICROS_PER_SECOND;
+                nextOffset = PCAP_HEADER_SIZE;
+            }
+        }
+        catch (IOException e)
+        {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns true if the given file starts with a libpcap or pcapng
+     * signature.
+     */
+    public static boolean isCapture(File file)
+        throws IOException
+    {
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try
+        {
+            if (file.length() < 4) return false;
+            int magic = in.readInt();
+            return magic == PCAPNG_SECTION_HEADER
+                || magic == PCAP_MAGIC_MICROS || magic == PCAP_MAGIC_NANOS
+                || magic == Integer.reverseBytes(PCAP_MAGIC_MICROS)
+                || magic == Integer.reverseBytes(PCAP_MAGIC_NANOS);
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    public PacketGraph getPacketGraph()
+    {
+        return builder.getPacketGraph();
+    }
+
+    public PacketFilter getPacketFilter()
+    {
+        return builder.getPacketFilter();
+    }
+
+    public void setPacketFilter(PacketFilter packetFilter)
+    {
+        builder.setPacketFilter(packetFilter);
+    }
+
+    public GraphProperties getGraphProperties()
+    {
+        return builder.getGraphProperties();
+    }
+
+    public void setGraphProperties(GraphProperties graphProperties)
+    {
+        builder.setGraphProperties(graphProperties);
+    }
+
+    /**
+     * Returns the capture time of the first frame, in nanoseconds since the
+     * epoch, to which all packet times are relative.
+     */
+    public long getBaseTime()
+    {
+        return baseTime;
+    }
+
+    /**
+     * Returns the number of frames read so far, including skipped ones.
+     */
+    public long getPacketCount()
+    {
+        return packetCount;
+    }
+
+    /**
+     * Returns the number of frames skipped because neither an Ethernet nor
+     * an IP header could be found for their endpoints.
+     */
+    public long getSkippedCount()
+    {
+        return skippedCount;
+    }
+
+    public long getBytesRead()
+    {
+        return nextOffset;
+    }
+
+    public long getTotalBytes()
+    {
+        return fileSize;
+    }
+
+    public boolean isComplete()
+    {
+        return doneReading;
+    }
+
+    public void fetchAll()
+        throws IOException
+    {
+        fetchUntil(Long.MAX_VALUE);
+    }
+
+    public void fetchUntil(long untilTime)
+        throws IOException
+    {
+        if (doneReading || builder.getLastTimeRead() > untilTime) return;
+
+        while (nextOffset < fileSize)
+        {
+            // a truncated final block is ignored, as by other capture tools
+            boolean read = pcapng ? readBlock() : readRecord();
+            if (!read) break;
+            if (builder.getLastTimeRead() > untilTime)
+            {
+                builder.flushPackets();
+                return;
+            }
+        }
+        finishReading();
+    }
+
+    /**
+     * Reads the next {@link #FETCH_RECORDS} records, or blocks of a pcapng
+     * file.
+     */
+    public long fetchAvailable()
+        throws IOException
+    {
+        if (doneReading) return 0;
+
+        long added = packetCount - skippedCount;
+        for (int i = 0; i < FETCH_RECORDS; ++i)
+        {
+            boolean read = nextOffset < fileSize
+                && (pcapng ? readBlock() : readRecord());
+            if (!read)
+            {
+                finishReading();
+                return packetCount - skippedCount - added;
+            }
+        }
+        builder.packetsAddedEvent();
+        return packetCount - skippedCount - added;
+    }
+
+    private void finishReading()
+    {
+        segment = null;
+        builder.allPacketsAddedEvent();
+        doneReading = true;
+    }
+
+    public long getRecordsRead()
+    {
+        return packetCount;
+    }
+
+    /**
+     * Stops reading frames. The file stays open for the field lists of the
+     * packets already added.
+     */
+    public void cancel()
+    {
+        segment = null;
+        doneReading = true;
+    }
+
+    /**
+     * Returns the position within the mapped segment of a range of the file,
+     * mapping a new segment starting at <code>offset</code> if necessary.
+     *
+     * @return -1 if the range extends past the end of the file
+     */
+    private int map(long offset, int length)
+        throws IOException
+    {
+        if (length < 0 || offset + length > fileSize) return -1;
+        if (segment == null || offset < segmentStart
+            || offset + length > segmentStart + segment.limit())
+        {
+            if (length > SEGMENT_SIZE)
+            {
+                throw new IOException("Capture block too large at offset "
+                    + offset);
+            }
+            segment = channel.map(FileChannel.MapMode.READ_ONLY, offset,
+                Math.min(SEGMENT_SIZE, fileSize - offset));
+            segmentStart = offset;
+        }
+        segment.order(order);
+        return (int) (offset - segmentStart);
+    }
+
+    private boolean readRecord()
+        throws IOException
+    {
+        int pos = map(nextOffset, PCAP_RECORD_HEADER_SIZE);
+        if (pos < 0) return false;
+        long seconds = segment.getInt(pos) & 0xFFFFFFFFL;
+        long fraction = segment.getInt(pos + 4) & 0xFFFFFFFFL;
+        int capLength = segment.getInt(pos + 8);
+        int origLength = segment.getInt(pos + 12);
+        if (capLength < 0)
+        {
+            throw new IOException("Invalid capture record at offset "
+                + nextOffset);
+        }
+
+        long dataOffset = nextOffset + PCAP_RECORD_HEADER_SIZE;
+        pos = map(dataOffset, capLength);
+        if (pos < 0) return false;
+        nextOffset = dataOffset + capLength;
+        addFrame(linkType, -1, seconds * NANOS_PER_SECOND + fraction
+            * (NANOS_PER_SECOND / unitsPerSecond), pos, dataOffset,
+            capLength, origLength);
+        return true;
+    }
+
+    private boolean readBlock()
+        throws IOException
+    {
+        int pos = map(nextOffset, 12);
+        if (pos < 0) return false;
+        int type = segment.getInt(pos);
+        if (type == PCAPNG_SECTION_HEADER)
+        {
+            // the section's byte order applies to its header too
+            int magic = segment.order(ByteOrder.BIG_ENDIAN).getInt(pos + 8);
+            if (magic == PCAPNG_BYTE_ORDER_MAGIC)
+            {
+                order = ByteOrder.BIG_ENDIAN;
+            }
+            else if (magic == Integer.reverseBytes(PCAPNG_BYTE_ORDER_MAGIC))
+            {
+                order = ByteOrder.LITTLE_ENDIAN;
+            }
+            else
+            {
+                throw new IOException("Invalid pcapng section at offset "
+                    + nextOffset);
+            }
+            segment.order(order);
+            ifCount = 0;
+        }
+        int length = segment.getInt(pos + 4);
+        if (length < 12 || (length & 3) != 0)
+        {
+            throw new IOException("Invalid pcapng block at offset "
+                + nextOffset);
+        }
+
+        long blockOffset = nextOffset;
+        pos = map(blockOffset, length);
+        if (pos < 0) return false;
+        nextOffset = blockOffset + length;
+        switch (type)
+        {
+            case PCAPNG_INTERFACE_DESCRIPTION:
+                addInterface(pos, length);
+                break;
+            case PCAPNG_ENHANCED_PACKET:
+            case PCAPNG_PACKET:
+            {
+                int ifIndex = type == PCAPNG_PACKET ? segment.getShort(pos + 8) & 0xFFFF
+                    : segment.getInt(pos + 8);
+                long timestamp = ((long) segment.getInt(pos + 12) << 32)
+                    | (segment.getInt(pos + 16) & 0xFFFFFFFFL);
+                int capLength = segment.getInt(pos + 20);
+                int origLength = segment.getInt(pos + 24);
+                checkInterface(ifIndex, blockOffset);
+                if (capLength < 0 || capLength > length - 32)
+                {
+                    throw new IOException("Invalid pcapng block at offset "
+                        + blockOffset);
+                }
+                addFrame(ifLinkTypes[ifIndex], ifIndex, toNanos(timestamp,
+                    ifUnitsPerSecond[ifIndex]), pos + 28, blockOffset + 28,
+                    capLength, origLength);
+                break;
+            }
+            case PCAPNG_SIMPLE_PACKET:
+            {
+                // simple packets have no timestamp
+                int origLength = segment.getInt(pos + 8);
+                int capLength = Math.min(origLength, length - 16);
+                checkInterface(0, blockOffset);
+                addFrame(ifLinkTypes[0], 0, lastTime, pos + 12,
+                    blockOffset + 12, capLength, origLength);
+                break;
+            }
+            default:
+                // name resolution, statistics and custom blocks are ignored
+                break;
+        }
+        return true;
+    }
+
+    private void addInterface(int pos, int length)
+    {
+        int type = segment.getShort(pos + 8) & 0xFFFF;
+        long units = MICROS_PER_SECOND;
+        int optEnd = pos + length - 4;
+        for (int opt = pos + 16; opt + 4 <= optEnd;)
+        {
+            int code = segment.getShort(opt) & 0xFFFF;
+            int optLength = segment.getShort(opt + 2) & 0xFFFF;
+            if (code == PCAPNG_OPTION_END) break;
+            if (code == PCAPNG_OPTION_TSRESOL && optLength >= 1)
+            {
+                int resolution = segment.get(opt + 4);
+                int exponent = resolution & 0x7F;
+                if ((resolution & 0x80) != 0)
+                {
+                    units = exponent < 63 ? 1L << exponent : units;
+                }
+                else if (exponent <= 18)
+                {
+                    units = 1;
+                    for (int i = 0; i < exponent; ++i)
+                    {
+                        units *= 10;
+                    }
+                }
+            }
+            opt += 4 + ((optLength + 3) & ~3);
+        }
+
+        if (ifCount == ifLinkTypes.length)
+        {
+            int[] newTypes = new int[ifCount * 2];
+            System.arraycopy(ifLinkTypes, 0, newTypes, 0, ifCount);
+            ifLinkTypes = newTypes;
+            long[] newUnits = new long[ifCount * 2];
+            System.arraycopy(ifUnitsPerSecond, 0, newUnits, 0, ifCount);
+            ifUnitsPerSecond = newUnits;
+        }
+        ifLinkTypes[ifCount] = type;
+        ifUnitsPerSecond[ifCount] = units;
+        ++ifCount;
+    }
+
+    private void checkInterface(int ifIndex, long blockOffset)
+        throws IOException
+    {
+        if (ifIndex < 0 || ifIndex >= ifCount)
+        {
+            throw new IOException("Undefined pcapng interface " + ifIndex
+                + " at offset " + blockOffset);
+        }
+    }
+
+    private static long toNanos(long timestamp, long unitsPerSecond)
+    {
+        if (unitsPerSecond == NANOS_PER_SECOND) return timestamp;
+        long seconds = timestamp / unitsPerSecond;
+        long fraction = timestamp % unitsPerSecond;
+
+        // the fraction is scaled exactly unless that could overflow
+        long nanos = unitsPerSecond <= Long.MAX_VALUE / NANOS_PER_SECOND
+            ? fraction * NANOS_PER_SECOND / unitsPerSecond
+            : (long) ((double) fraction * NANOS_PER_SECOND / unitsPerSecond);
+        return seconds * NANOS_PER_SECOND + nanos;
+    }
+
+    private void addFrame(
+        int frameLinkType,
+        int ifIndex,
+        long nanos,
+        int pos,
+        long dataOffset,
+        int capLength,
+        int origLength)
+    {
+        ++packetCount;
+        lastTime = nanos;
+        if (!decoder.decode(segment, pos, capLength, frameLinkType))
+        {
+            ++skippedCount;
+            return;
+        }
+        if (!hasBaseTime)
+        {
+            baseTime = nanos;
+            hasBaseTime = true;
+        }
+        long time = nanos - baseTime;
+
+        decoder.getEndpoint(true, probe);
+        PacketNode fromNode = getNode();
+        decoder.getEndpoint(false, probe);
+        PacketNode toNode = getNode();
+        String packetName = decoder.getPacketName();
+        int tcpFlags = decoder.getTcpFlags();
+
+        // a new connection between the same endpoints starts a new
+        // transaction once the previous one has begun to close
+        flowProbe.set(fromNode, toNode);
+        Flow flow = flows.get(flowProbe);
+        if (flow != null && flow.finMask != 0
+            && (tcpFlags & (CaptureDecoder.TCP_SYN | CaptureDecoder.TCP_ACK)) == CaptureDecoder.TCP_SYN)
+        {
+            completeFlow(flow);
+            flow = null;
+        }
+        if (flow == null)
+        {
+            NodePair key = new NodePair();
+            key.set(fromNode, toNode);
+            flow = new Flow(key, builder.getTxn(nextTxnID++));
+            flows.put(key, flow);
+        }
+        TxnInfo txn = flow.txn;
+        txn.setPacketName(packetName);
+
+        PacketFieldList fields = new CaptureFieldList(dataOffset, capLength,
+            origLength, frameLinkType, ifIndex);
+        builder.addPacket(new PacketInfo(txn, fromNode, time, toNode, time,
+            packetName, fields));
+
+        // the packet after the second FIN is normally the final ACK
+        if (flow.closing || (tcpFlags & CaptureDecoder.TCP_RST) != 0)
+        {
+            completeFlow(flow);
+        }
+        else if ((tcpFlags & CaptureDecoder.TCP_FIN) != 0)
+        {
+            flow.finMask |= fromNode == flow.key.first ? 1 : 2;
+            flow.closing = flow.finMask == 3;
+        }
+    }
+
+    private PacketNode getNode()
+    {
+        PacketNode node = nodes.get(probe);
+        if (node == null)
+        {
+            CaptureDecoder.Endpoint endpoint = probe.copy();
+            node = builder.getNode(endpoint.getName());
+            nodes.put(endpoint, node);
+        }
+        return node;
+    }
+
+    private void completeFlow(Flow flow)
+    {
+        flows.remove(flow.key);
+        builder.completeTxn(flow.txn.getTxnID());
+    }
+
+    public void close()
+        throws IOException
+    {
+        segment = null;
+        if (channel != null)
+        {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    /**
+     * Unordered pair of nodes identifying a flow.
+     */
+    private static final class NodePair
+    {
+        PacketNode first;
+        PacketNode second;
+
+        void set(PacketNode a, PacketNode b)
+        {
+            first = a;
+            second = b;
+        }
+
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof NodePair)) return false;
+            NodePair p = (NodePair) obj;
+            return (first == p.first && second == p.second)
+                || (first == p.second && second == p.first);
+        }
+
+        public int hashCode()
+        {
+            // symmetric, as the pair is unordered
+            return System.identityHashCode(first)
+                + System.identityHashCode(second);
+        }
+    }
+
+    /**
+     * Transaction of the frames between two endpoints.
+     */
+    private static final class Flow
+    {
+        final NodePair key;
+        final TxnInfo txn;
+
+        // bit 0 is set once the first node has sent a FIN, bit 1 once the
+        // second has
+        int finMask;
+        boolean closing;
+
+        public Flow(NodePair key, TxnInfo txn)
+        {
+            this.key = key;
+            this.txn = txn;
+        }
+    }
+
+    /**
+     * Header fields of one frame, read from the file and decoded on first
+     * use.
+     */
+    private final class CaptureFieldList
+        implements PacketFieldList
+    {
+        private final long offset;
+        private final int capLength;
+        private final int origLength;
+        private final int frameLinkType;
+        private final int ifIndex;
+        private String[] names;
+        private String[] values;
+
+        public CaptureFieldList(
+            long offset,
+            int capLength,
+            int origLength,
+            int frameLinkType,
+            int ifIndex)
+        {
+            this.offset = offset;
+            this.capLength = capLength;
+            this.origLength = origLength;
+            this.frameLinkType = frameLinkType;
+            this.ifIndex = ifIndex;
+        }
+
+        private void decode()
+        {
+            if (names != null) return;
+
+            ByteBuffer buf = ByteBuffer.allocate(Math.min(capLength,
+                MAX_HEADER_BYTES));
+            try
+            {
+                if (channel == null)
+                {
+                    throw new IOException("Packet capture has been closed");
+                }
+                while (buf.hasRemaining())
+                {
+                    if (channel.read(buf, offset + buf.position()) < 0)
+                    {
+                        throw new IOException("Unexpected end of packet capture");
+                    }
+                }
+            }
+            catch (IOException e)
+            {
+                throw new RuntimeException("Error reading packet fields: "
+                    + e.getMessage());
+            }
+
+            List<String> newNames = new ArrayList<String>();
+            List<String> newValues = new ArrayList<String>();
+            newNames.add("frame.len");
+            newValues.add(Integer.toString(origLength));
+            newNames.add("frame.cap_len");
+            newValues.add(Integer.toString(capLength));
+            if (ifIndex >= 0)
+            {
+                newNames.add("frame.interface_id");
+                newValues.add(Integer.toString(ifIndex));
+            }
+            CaptureDecoder fieldDecoder = new CaptureDecoder();
+            if (fieldDecoder.decode(buf, 0, buf.limit(), frameLinkType))
+            {
+                fieldDecoder.getFields(newNames, newValues);
+            }
+            values = newValues.toArray(new String[newValues.size()]);
+            names = newNames.toArray(new String[newNames.size()]);
+        }
+
+        public int size()
+        {
+            decode();
+            return names.length;
+        }
+
+        public String getName(int index)
+        {
+            decode();
+            return names[index];
+        }
+
+        public String getValue(int index)
+        {
+            decode();
+            return values[index];
+        }
+    }
+}
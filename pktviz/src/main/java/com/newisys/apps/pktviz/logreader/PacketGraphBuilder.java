@@ -0,0 +1,520 @@
+/*
+ * PacketViz packet visualization for the Java (TM) Platform
+ * Copyright (C) 2007 Newisys, Inc. or its licensors, as applicable.
+ * Java is a registered trademark of Sun Microsystems, Inc. in the U.S. or
+ * other countries.
+ *
+ * Licensed under the Open Software License version 3.0 (the "License"); you
+ * may not use this file except in compliance with the License. You should
+ * have received a copy of the License along with this software; if not, you
+ * may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/osl-3.0.php
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.newisys.apps.pktviz.logreader;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.newisys.apps.pktviz.model.PacketGraph;
+import com.newisys.apps.pktviz.model.PacketInfo;
+import com.newisys.apps.pktviz.model.PacketNode;
+import com.newisys.apps.pktviz.model.TxnInfo;
+import com.newisys.apps.pktviz.model.filter.PacketFilter;
+import com.newisys.apps.pktviz.props.GraphProperties;
+import com.newisys.util.collection.IntHashMap;
+import com.newisys.util.symbol.SymbolPool;
+
+/**
+ * Adds parsed log entries to a PacketGraph, sharing TxnInfo objects between
+ * packets of the same transaction and creating the node hierarchy implied
+ * by dotted node names. Readers that parse records in different ways (or on
+ * different threads) feed their entries through a builder in log order.
+ */
+public final class PacketGraphBuilder
+{
+    // most packets added before the graph is given them as a batch
+    private static final int MAX_PENDING_PACKETS = 4096;
+
+    /**
+     * A node in the trie of node name segments.
+     */
+    private static final class NodeEntry
+    {
+        final PacketNode node;
+
+        // child entries by label, if any
+        Map<String, NodeEntry> children;
+
+        NodeEntry(PacketNode node)
+        {
+            this.node = node;
+        }
+    }
+
+    private PacketGraph packetGraph;
+    private PacketFilter packetFilter;
+    private GraphProperties graphProperties;
+    private final IntHashMap<TxnInfo> txnTable = new IntHashMap<TxnInfo>();
+    private long lastTimeRead;
+    private long lineNumber;
+    private PacketLogEntry batchEntry;
+    private long startTime = Long.MIN_VALUE;
+    private PacketLogIndexBuilder indexBuilder;
+
+    // top-level entries of the node name trie, by name
+    private final Map<String, NodeEntry> rootEntries = new HashMap<String, NodeEntry>();
+    private int[] segmentEnds = new int[8];
+
+    // nodes of the previous record; names from a parser's pool are reused
+    // for recurring nodes, so most records can skip the lookup
+    private String lastFromName;
+    private PacketNode lastFromNode;
+    private String lastToName;
+    private PacketNode lastToNode;
+
+    // if set, receives every packet added to the graph
+    private List<PacketInfo> addedPackets;
+
+    // packets accepted since the last flush, added to the graph as a batch
+    private final List<PacketInfo> pendingPackets = new ArrayList<PacketInfo>();
+
+    // index checkpoint to restore before the first record is added
+    private PacketLogIndex restoreIndex;
+    private int restoreCheckpoint;
+
+    public PacketGraphBuilder(PacketGraph packetGraph)
+    {
+        this.packetGraph = packetGraph;
+        lastTimeRead = -1;
+    }
+
+    public PacketGraph getPacketGraph()
+    {
+        return packetGraph;
+    }
+
+    public PacketFilter getPacketFilter()
+    {
+        return packetFilter;
+    }
+
+    public void setPacketFilter(PacketFilter packetFilter)
+    {
+        this.packetFilter = packetFilter;
+    }
+
+    public GraphProperties getGraphProperties()
+    {
+        return graphProperties;
+    }
+
+    public void setGraphProperties(GraphProperties graphProperties)
+    {
+        this.graphProperties = graphProperties;
+    }
+
+    public long getStartTime()
+    {
+        return startTime;
+    }
+
+    /**
+     * Sets the time before which packets are not added to the graph.
+     * Packets received earlier still update their transactions, so that
+     * later packets of the same transactions are the same as in a full load.
+     */
+    public void setStartTime(long startTime)
+    {
+        this.startTime = startTime;
+    }
+
+    void setIndexBuilder(PacketLogIndexBuilder indexBuilder)
+    {
+        this.indexBuilder = indexBuilder;
+    }
+
+    PacketLogIndexBuilder getIndexBuilder()
+    {
+        return indexBuilder;
+    }
+
+    /**
+     * Sets a list to which each packet is appended as it is added to the
+     * graph, so that the packets can later be removed together.
+     */
+    void setAddedPackets(List<PacketInfo> addedPackets)
+    {
+        this.addedPackets = addedPackets;
+    }
+
+    /**
+     * Arranges for the nodes and open transactions at an index checkpoint to
+     * be restored before the first record is added, once the graph
+     * properties that determine the node order have been set.
+     */
+    void restoreFrom(PacketLogIndex index, int checkpoint)
+    {
+        restoreIndex = index;
+        restoreCheckpoint = checkpoint;
+    }
+
+    public long getLastTimeRead()
+    {
+        return lastTimeRead;
+    }
+
+    /**
+     * Returns the line number of the last record added or rejected.
+     */
+    public long getLineNumber()
+    {
+        return lineNumber;
+    }
+
+    public void addLogEntry(PacketLogEntry entry, long lineNumber)
+    {
+        this.lineNumber = lineNumber;
+        if (restoreIndex != null)
+        {
+            PacketLogIndex index = restoreIndex;
+            restoreIndex = null;
+            index.restore(restoreCheckpoint, this);
+        }
+        TxnInfo txn = getTxn(entry.txnID);
+
+        if (entry.fromNode != lastFromName)
+        {
+            lastFromNode = getNode(entry.fromNode);
+            lastFromName = entry.fromNode;
+        }
+        if (entry.toNode != lastToName)
+        {
+            lastToNode = getNode(entry.toNode);
+            lastToName = entry.toNode;
+        }
+        PacketNode fromNode = lastFromNode;
+        PacketNode toNode = lastToNode;
+
+        long sendTime = entry.sendTime;
+        long recvTime = entry.recvTime;
+        if (sendTime < 0) sendTime = recvTime;
+
+        if (indexBuilder != null)
+        {
+            indexBuilder.addRecord(txn, sendTime, recvTime);
+        }
+
+        // share packet names with earlier packets in the graph
+        SymbolPool symbols = packetGraph.getSymbolPool();
+        String packetName = symbols.intern(entry.packetName);
+        PacketInfo info = new PacketInfo(txn, fromNode, sendTime, toNode,
+            recvTime, entry.packetBits, entry.hasRemoteBits, entry.remoteBits,
+            entry.dataDwords, packetName, entry.packetFieldList, symbols);
+
+        if (entry.version == 2)
+        {
+            throw new RuntimeException("Version 2 not supported");
+        }
+        else if (entry.version == 3)
+        {
+            txn.setPacketName(packetName);
+        }
+
+        // Note: in version == 4, packetName is set by
+        // constructor PacketInfo()
+
+        addPacket(info);
+    }
+
+    /**
+     * Returns the shared TxnInfo for a transaction ID, or null if the ID is
+     * -1 (no transaction).
+     */
+    public TxnInfo getTxn(int txnID)
+    {
+        TxnInfo txn;
+        if (txnID >= -1)
+        {
+            txn = txnTable.get(txnID);
+            if (txn == null)
+            {
+                txn = new TxnInfo(txnID);
+                txnTable.put(txnID, txn);
+            }
+        }
+        else if (txnID == -1)
+        {
+            txn = null;
+        }
+        else
+        {
+            assert (false) : "txnID=" + txnID + " on line " + lineNumber;
+            txn = null;
+        }
+        return txn;
+    }
+
+    /**
+     * Forgets a transaction that is known to be complete, so that it is no
+     * longer held by the builder once its packets are gone. A later record
+     * with the same ID starts a new transaction.
+     *
+     * @return false if the transaction was not open
+     */
+    public boolean completeTxn(int txnID)
+    {
+        if (indexBuilder != null)
+        {
+            indexBuilder.completeTxn(txnID);
+        }
+        return txnTable.remove(txnID) != null;
+    }
+
+    /**
+     * Returns the number of transactions held for lookup by later records.
+     */
+    public int getOpenTxnCount()
+    {
+        return txnTable.size();
+    }
+
+    /**
+     * Adds a packet built by the caller to the graph if it matches the
+     * filter and was not received before the start time, and advances the
+     * last time read to its receive time. Packets are passed to the graph in
+     * batches, by {@link #flushPackets()}.
+     */
+    public void addPacket(PacketInfo info)
+    {
+        if (info.getToTimeActual() >= startTime && matchesFilter(info))
+        {
+            pendingPackets.add(info);
+            if (addedPackets != null)
+            {
+                addedPackets.add(info);
+            }
+            if (pendingPackets.size() >= MAX_PENDING_PACKETS)
+            {
+                flushPackets();
+            }
+        }
+
+        long recvTime = info.getToTimeActual();
+        if (recvTime > lastTimeRead)
+        {
+            lastTimeRead = recvTime;
+        }
+    }
+
+    private boolean matchesFilter(PacketInfo packet)
+    {
+        return packetFilter == null || packetFilter.matches(packet);
+    }
+
+    /**
+     * Adds the packets accepted since the last flush to the graph as one
+     * batch, so that its listeners are notified once. Sources flush before
+     * returning from a fetch, and the graph events below flush first.
+     */
+    public void flushPackets()
+    {
+        if (!pendingPackets.isEmpty())
+        {
+            packetGraph.addPackets(pendingPackets);
+            pendingPackets.clear();
+        }
+    }
+
+    /**
+     * Flushes the packets added so far, then tells the graph that more may
+     * follow.
+     *
+     * @see PacketGraph#packetsAddedEvent()
+     */
+    public void packetsAddedEvent()
+    {
+        flushPackets();
+        packetGraph.packetsAddedEvent();
+    }
+
+    /**
+     * Flushes the packets added so far, then tells the graph that all
+     * packets have been added.
+     *
+     * @see PacketGraph#allPacketsAddedEvent()
+     */
+    public void allPacketsAddedEvent()
+    {
+        flushPackets();
+        packetGraph.allPacketsAddedEvent();
+    }
+
+    /**
+     * Adds the records of a batch, starting at the given index, until the
+     * receive time of a record exceeds <code>untilTime</code>. If the batch
+     * ended with a parse error, it is reported once all of the preceding
+     * records have been added.
+     *
+     * @return the index of the next record to add
+     */
+    int addBatch(PacketLogBatch batch, int index, long untilTime)
+    {
+        PacketLogEntry entry = batchEntry;
+        if (entry == null)
+        {
+            entry = batchEntry = new PacketLogEntry();
+        }
+        if (index == 0 && indexBuilder != null && batch.startOffset >= 0)
+        {
+            indexBuilder.checkpoint(batch.startOffset,
+                batch.baseLineNumber + 1, lastTimeRead);
+        }
+        while (index < batch.size)
+        {
+            batch.copyTo(index, entry);
+            addLogEntry(entry, batch.baseLineNumber + batch.lines[index]);
+            ++index;
+            if (lastTimeRead > untilTime)
+            {
+                flushPackets();
+                return index;
+            }
+        }
+        flushPackets();
+        if (batch.error != null)
+        {
+            lineNumber = batch.baseLineNumber + batch.errorLine;
+            throw new RuntimeException("Error parsing log record at line "
+                + lineNumber + ": " + batch.errorRecord + "\n"
+                + batch.error.toString(), batch.error);
+        }
+        return index;
+    }
+
+    /**
+     * Returns the node with the given name, creating it if necessary. Known
+     * nodes are found with a single lookup of the full name, whose hash
+     * code the string caches; a trie walk costs a substring per level.
+     */
+    public PacketNode getNode(String name)
+    {
+        PacketNode node = packetGraph.getNode(name);
+        if (node == null)
+        {
+            node = createNode(name);
+        }
+        return node;
+    }
+
+    /**
+     * Creates a node that is not in the graph, and any of its ancestors that
+     * do not exist yet, by walking down the trie of name segments from the
+     * top-level node. A name is split at its last dot that has a character
+     * on either side, and the part before the dot names the parent.
+     */
+    private PacketNode createNode(String name)
+    {
+        // find the end of each ancestor's name, from the node up
+        int[] ends = segmentEnds;
+        int depth = 0;
+        int end = name.length();
+        while (true)
+        {
+            if (depth == ends.length)
+            {
+                int[] newEnds = new int[depth * 2];
+                System.arraycopy(ends, 0, newEnds, 0, depth);
+                ends = segmentEnds = newEnds;
+            }
+            ends[depth++] = end;
+            int dot = name.lastIndexOf('.', end - 2);
+            if (dot < 1) break;
+            end = dot;
+        }
+
+        // walk down from the top-level node, creating missing nodes
+        Map<String, NodeEntry> entries = rootEntries;
+        NodeEntry entry = null;
+        int start = 0;
+        for (int i = depth - 1; i >= 0; --i)
+        {
+            end = ends[i];
+            String label = name.substring(start, end);
+            NodeEntry child = entries.get(label);
+            if (child == null)
+            {
+                PacketNode parent = entry != null ? entry.node : null;
+                child = new NodeEntry(i == 0 ? addNode(name, label, parent)
+                    : resolveNode(name.substring(0, end), label, parent));
+                entries.put(label, child);
+            }
+            entry = child;
+            if (i > 0)
+            {
+                if (entry.children == null)
+                {
+                    entry.children = new HashMap<String, NodeEntry>();
+                }
+                entries = entry.children;
+                start = end + 1;
+            }
+        }
+        return entry.node;
+    }
+
+    /**
+     * Returns the node with the given name, adding it to the graph under
+     * the given parent if it is not already there (having been added by
+     * another builder).
+     */
+    private PacketNode resolveNode(String name, String label, PacketNode parent)
+    {
+        PacketNode node = packetGraph.getNode(name);
+        return node != null ? node : addNode(name, label, parent);
+    }
+
+    /**
+     * Adds a node to the graph under the given parent.
+     */
+    private PacketNode addNode(String name, String label, PacketNode parent)
+    {
+        PacketNode node = new PacketNode(name);
+        node.setLabel(label);
+        if (parent != null)
+        {
+            if (graphProperties != null)
+            {
+                int index = graphProperties.getNodePosition(node,
+                    parent.getChildList());
+                parent.addChildNode(node, index);
+            }
+            else
+            {
+                parent.addChildNode(node);
+            }
+        }
+        if (graphProperties != null && parent == null)
+        {
+            int index = graphProperties.getNodePosition(node,
+                packetGraph.getTopLevelNodes());
+            packetGraph.addNode(node, true, index);
+        }
+        else
+        {
+            packetGraph.addNode(node, parent == null);
+        }
+        if (indexBuilder != null)
+        {
+            indexBuilder.addNode(name);
+        }
+        return node;
+    }
+}
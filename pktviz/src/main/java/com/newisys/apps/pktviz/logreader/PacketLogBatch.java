@@ -0,0 +1,185 @@
+/*
+ * PacketViz packet visualization for the Java (TM) Platform
+ * Copyright (C) 2007 Newisys, Inc. or its licensors, as applicable.
+ * Java is a registered trademark of Sun Microsystems, Inc. in the U.S. or
+ * other countries.
+ *
+ * Licensed under the Open Software License version 3.0 (the "License"); you
+ * may not use this file except in compliance with the License. You should
+ * have received a copy of the License along with this software; if not, you
+ * may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/osl-3.0.php
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.newisys.apps.pktviz.logreader;
+
+import java.util.Arrays;
+
+/**
+ * A run of parsed log records, kept in parallel arrays so that
+ * records can be parsed on one thread and added to a graph on another.
+ */
+final class PacketLogBatch
+{
+    private static final int INITIAL_CAPACITY = 1024;
+
+    int size;
+    long[] recvTimes = new long[INITIAL_CAPACITY];
+    long[] sendTimes = new long[INITIAL_CAPACITY];
+    int[] txnIDs = new int[INITIAL_CAPACITY];
+    String[] fromNodes = new String[INITIAL_CAPACITY];
+    String[] toNodes = new String[INITIAL_CAPACITY];
+    String[] fieldLists = new String[INITIAL_CAPACITY];
+    String[] packetNames = new String[INITIAL_CAPACITY];
+
+    // fields of records older than Version 4, allocated when the first
+    // record having any of them is added
+    long[] packetBits;
+    boolean[] hasRemoteBits;
+    short[] remoteBits;
+    int[][] dataDwords;
+
+    // log version of the records
+    int version = 4;
+
+    // line of each record, relative to baseLineNumber
+    int[] lines = new int[INITIAL_CAPACITY];
+
+    // number of lines in the log before this batch
+    long baseLineNumber;
+
+    // number of lines covered by this batch, including comments
+    int lineCount;
+
+    // byte offset of the first line of this batch, or -1 if unknown
+    long startOffset = -1;
+
+    // first parse error, which ends the batch
+    RuntimeException error;
+    int errorLine;
+    String errorRecord;
+
+    void add(PacketLogEntry entry, int line)
+    {
+        if (size == lines.length)
+        {
+            grow();
+        }
+        recvTimes[size] = entry.recvTime;
+        sendTimes[size] = entry.sendTime;
+        txnIDs[size] = entry.txnID;
+        fromNodes[size] = entry.fromNode;
+        toNodes[size] = entry.toNode;
+        fieldLists[size] = entry.packetFieldList;
+        packetNames[size] = entry.packetName;
+        if (packetBits == null
+            && (entry.packetBits != -1 || entry.hasRemoteBits
+                || entry.dataDwords != null))
+        {
+            allocateLegacyFields();
+        }
+        if (packetBits != null)
+        {
+            packetBits[size] = entry.packetBits;
+            hasRemoteBits[size] = entry.hasRemoteBits;
+            remoteBits[size] = entry.remoteBits;
+            dataDwords[size] = entry.dataDwords;
+        }
+        lines[size] = line;
+        ++size;
+    }
+
+    private void allocateLegacyFields()
+    {
+        int n = lines.length;
+        packetBits = new long[n];
+        Arrays.fill(packetBits, -1);
+        hasRemoteBits = new boolean[n];
+        remoteBits = new short[n];
+        Arrays.fill(remoteBits, (short) -1);
+        dataDwords = new int[n][];
+    }
+
+    void copyTo(int index, PacketLogEntry entry)
+    {
+        entry.recvTime = recvTimes[index];
+        entry.sendTime = sendTimes[index];
+        entry.txnID = txnIDs[index];
+        entry.fromNode = fromNodes[index];
+        entry.toNode = toNodes[index];
+        entry.packetFieldList = fieldLists[index];
+        if (packetBits != null)
+        {
+            entry.packetBits = packetBits[index];
+            entry.hasRemoteBits = hasRemoteBits[index];
+            entry.remoteBits = remoteBits[index];
+            entry.dataDwords = dataDwords[index];
+        }
+        else
+        {
+            entry.packetBits = -1;
+            entry.hasRemoteBits = false;
+            entry.remoteBits = -1;
+            entry.dataDwords = null;
+        }
+        entry.packetName = packetNames[index];
+        entry.version = version;
+        entry.fieldsRead = 6;
+    }
+
+    void setError(RuntimeException e, int line, String record)
+    {
+        error = e;
+        errorLine = line;
+        errorRecord = record;
+    }
+
+    private void grow()
+    {
+        int n = size * 2;
+        long[] newRecvTimes = new long[n];
+        System.arraycopy(recvTimes, 0, newRecvTimes, 0, size);
+        recvTimes = newRecvTimes;
+        long[] newSendTimes = new long[n];
+        System.arraycopy(sendTimes, 0, newSendTimes, 0, size);
+        sendTimes = newSendTimes;
+        int[] newTxnIDs = new int[n];
+        System.arraycopy(txnIDs, 0, newTxnIDs, 0, size);
+        txnIDs = newTxnIDs;
+        String[] newFromNodes = new String[n];
+        System.arraycopy(fromNodes, 0, newFromNodes, 0, size);
+        fromNodes = newFromNodes;
+        String[] newToNodes = new String[n];
+        System.arraycopy(toNodes, 0, newToNodes, 0, size);
+        toNodes = newToNodes;
+        String[] newFieldLists = new String[n];
+        System.arraycopy(fieldLists, 0, newFieldLists, 0, size);
+        fieldLists = newFieldLists;
+        String[] newPacketNames = new String[n];
+        System.arraycopy(packetNames, 0, newPacketNames, 0, size);
+        packetNames = newPacketNames;
+        if (packetBits != null)
+        {
+            long[] newPacketBits = new long[n];
+            System.arraycopy(packetBits, 0, newPacketBits, 0, size);
+            packetBits = newPacketBits;
+            boolean[] newHasRemoteBits = new boolean[n];
+            System.arraycopy(hasRemoteBits, 0, newHasRemoteBits, 0, size);
+            hasRemoteBits = newHasRemoteBits;
+            short[] newRemoteBits = new short[n];
+            System.arraycopy(remoteBits, 0, newRemoteBits, 0, size);
+            remoteBits = newRemoteBits;
+            int[][] newDataDwords = new int[n][];
+            System.arraycopy(dataDwords, 0, newDataDwords, 0, size);
+            dataDwords = newDataDwords;
+        }
+        int[] newLines = new int[n];
+        System.arraycopy(lines, 0, newLines, 0, size);
+        lines = newLines;
+    }
+}
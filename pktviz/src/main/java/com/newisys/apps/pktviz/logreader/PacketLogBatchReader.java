@@ -0,0 +1,44 @@
+/*
+ * PacketViz packet visualization for the Java (TM) Platform
+ * Copyright (C) 2007 Newisys, Inc. or its licensors, as applicable.
+ * Java is a registered trademark of Sun Microsystems, Inc. in the U.S. or
+ * other countries.
+ *
+ * Licensed under the Open Software License version 3.0 (the "License"); you
+ * may not use this file except in compliance with the License. You should
+ * have received a copy of the License along with this software; if not, you
+ * may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/osl-3.0.php
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.newisys.apps.pktviz.logreader;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Source of parsed log records in batches, independent of how and on which
+ * thread they are added to a graph.
+ */
+interface PacketLogBatchReader
+    extends Closeable
+{
+    /**
+     * Parses the next batch of records.
+     *
+     * @return the batch, or null at the end of the log
+     */
+    PacketLogBatch readBatch()
+        throws IOException;
+
+    /**
+     * Returns the number of bytes of the log consumed so far, or -1 if
+     * unknown.
+     */
+    long getBytesRead();
+}
@@ -19,10 +19,9 @@
 package com.newisys.apps.pktviz.logreader;
 
 import java.util.StringTokenizer;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import com.newisys.util.format.SizedIntegerFormat;
+import com.newisys.util.symbol.SymbolPool;
 
 /** 
  * <PRE>
@@ -53,10 +52,196 @@ public class PacketLogEntry
     int[] dataDwords;
     int fieldsRead;
 
-    //                                                            #1       #2      #3     #4      #5   #6
-    private static Pattern logLineExprVer4 = Pattern.compile("([^,]+),([^,]+),([^,]+),([^,]+),([^,]+),(.*)");
+    // bounds of the record within the last line passed to parseLine()
+    int recordStart;
+    int recordEnd;
+
+    // reused across records so that recurring names are not reallocated
+    private final SymbolPool nodeNames = new SymbolPool();
 
     public void parseString(String record)
+    {
+        if (version == 4)
+        {
+            char[] chars = record.toCharArray();
+            parse(chars, 0, chars.length);
+        }
+        else
+        {
+            parseLegacy(record);
+        }
+    }
+
+    /**
+     * Parses one line of a log, after removing any comment from the end of
+     * the line. The bounds of the remaining record are left in
+     * <code>recordStart</code> and <code>recordEnd</code>.
+     *
+     * @return false if the line contains no record
+     */
+    boolean parseLine(char[] buf, int start, int end)
+    {
+        // Remove comments from end of lines
+        for (int i = start; i < end; ++i)
+        {
+            if (buf[i] == '#')
+            {
+                end = i;
+                while (start < end && buf[start] <= ' ')
+                {
+                    ++start;
+                }
+                while (end > start && buf[end - 1] <= ' ')
+                {
+                    --end;
+                }
+                break;
+            }
+        }
+        recordStart = start;
+        recordEnd = end;
+        if (end == start) return false;
+
+        if (version == 4)
+        {
+            parse(buf, start, end);
+        }
+        else
+        {
+            parseString(new String(buf, start, end - start));
+        }
+        return true;
+    }
+
+    /**
+     * Parses a Version 4 record directly from a range of a character buffer.
+     * The numeric fields are converted in place; node names are shared with
+     * previous records, and the field list String is reused if it is
+     * identical to that of the previous record.
+     */
+    public void parse(char[] buf, int start, int end)
+    {
+        assert (version == 4);
+
+        packetBits = -1;
+        hasRemoteBits = false;
+        remoteBits = -1;
+        dataDwords = null;
+        packetName = null;
+        fieldsRead = 0;
+
+        // locate the first five commas; the field list is the remainder
+        int c1 = findComma(buf, start, end);
+        int c2 = c1 >= 0 ? findComma(buf, c1 + 1, end) : -1;
+        int c3 = c2 >= 0 ? findComma(buf, c2 + 1, end) : -1;
+        int c4 = c3 >= 0 ? findComma(buf, c3 + 1, end) : -1;
+        int c5 = c4 >= 0 ? findComma(buf, c4 + 1, end) : -1;
+        if (c5 < 0)
+        {
+            throw new RuntimeException("Could not parse: "
+                + new String(buf, start, end - start));
+        }
+
+        recvTime = parseLong(buf, start, c1);
+        sendTime = parseLong(buf, c1 + 1, c2);
+        long txn = parseLong(buf, c2 + 1, c3);
+        if (txn < Integer.MIN_VALUE || txn > Integer.MAX_VALUE)
+        {
+            throw numberFormatException(buf, c2 + 1, c3);
+        }
+        txnID = (int) txn;
+        fromNode = nodeNames.intern(buf, c3 + 1, c4);
+        toNode = nodeNames.intern(buf, c4 + 1, c5);
+        packetFieldList = reuseFieldList(buf, c5 + 1, end);
+        fieldsRead = 6;
+    }
+
+    /**
+     * Returns the index of the comma terminating the non-empty field that
+     * starts at <code>from</code>, or -1 if there is none.
+     */
+    private static int findComma(char[] buf, int from, int end)
+    {
+        for (int i = from; i < end; ++i)
+        {
+            if (buf[i] == ',') return i > from ? i : -1;
+        }
+        return -1;
+    }
+
+    private String reuseFieldList(char[] buf, int start, int end)
+    {
+        String last = packetFieldList;
+        int len = end - start;
+        if (last != null && last.length() == len)
+        {
+            int i = 0;
+            while (i < len && last.charAt(i) == buf[start + i])
+            {
+                ++i;
+            }
+            if (i == len) return last;
+        }
+        return new String(buf, start, len);
+    }
+
+    /**
+     * Parses a signed decimal long with the same syntax as
+     * {@link Long#parseLong(String)}, without creating a substring.
+     */
+    static long parseLong(char[] buf, int start, int end)
+    {
+        int i = start;
+        boolean negative = false;
+        if (i < end)
+        {
+            char first = buf[i];
+            if (first == '-')
+            {
+                negative = true;
+                ++i;
+            }
+            else if (first == '+')
+            {
+                ++i;
+            }
+        }
+        if (i == end)
+        {
+            throw numberFormatException(buf, start, end);
+        }
+
+        // accumulate negatively to handle Long.MIN_VALUE
+        long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+        long multMin = limit / 10;
+        long result = 0;
+        for (; i < end; ++i)
+        {
+            int digit = buf[i] - '0';
+            if (digit < 0 || digit > 9 || result < multMin)
+            {
+                throw numberFormatException(buf, start, end);
+            }
+            result *= 10;
+            if (result < limit + digit)
+            {
+                throw numberFormatException(buf, start, end);
+            }
+            result -= digit;
+        }
+        return negative ? result : -result;
+    }
+
+    private static NumberFormatException numberFormatException(
+        char[] buf,
+        int start,
+        int end)
+    {
+        return new NumberFormatException("For input string: \""
+            + new String(buf, start, end - start) + "\"");
+    }
+
+    private void parseLegacy(String record)
     {
         recvTime = -1;
         sendTime = -1;
@@ -71,108 +256,86 @@ public class PacketLogEntry
         packetName = null;
         packetFieldList = null;
 
-        assert (version == 4);
-        if (version == 4)
+        //#0       #1       #2                   #3                  #4               #5   #6       #7
+        //21491000,21489600,0, system.box0.cpu0,system.box0.cpu0,a5a5a5a5a5a5a5a5a5a5,    ,00000000
+        int fieldID = 0;
+        StringTokenizer tokenizer = new StringTokenizer(record, ",", true);
+        while (tokenizer.hasMoreTokens())
         {
-            Matcher fieldMatcher = logLineExprVer4.matcher(record);
-            if (fieldMatcher.matches())
+
+            // field 1 was introduced in version 2
+            if (fieldID == 1 && version < 2)
             {
-                recvTime = Long.parseLong(fieldMatcher.group(1));
-                sendTime = Long.parseLong(fieldMatcher.group(2));
-                txnID = Integer.parseInt(fieldMatcher.group(3));
-                fromNode = fieldMatcher.group(4);
-                toNode = fieldMatcher.group(5);
-                packetFieldList = fieldMatcher.group(6);
-                fieldsRead = 6;
+                ++fieldID;
             }
-            else
+
+            String field = tokenizer.nextToken();
+            if (field.equals(","))
             {
-                throw new RuntimeException("Could not parse: " + record);
+                ++fieldID;
             }
-        }
-        else
-        {
-            //#0       #1       #2                   #3                  #4               #5   #6       #7
-            //21491000,21489600,0, system.box0.cpu0,system.box0.cpu0,a5a5a5a5a5a5a5a5a5a5,    ,00000000
-            int fieldID = 0;
-            StringTokenizer tokenizer = new StringTokenizer(record, ",", true);
-            while (tokenizer.hasMoreTokens())
+            else
             {
-
-                // field 1 was introduced in version 2
-                if (fieldID == 1 && version < 2)
-                {
-                    ++fieldID;
-                }
-
-                String field = tokenizer.nextToken();
-                if (field.equals(","))
-                {
-                    ++fieldID;
-                }
-                else
+                switch (fieldID)
                 {
-                    switch (fieldID)
-                    {
-                        case 0:
-                            if (!field.equals("X"))
-                            {
-                                recvTime = Long.parseLong(field);
-                            }
-                            break;
-                        case 1:
-                            if (!field.equals("X"))
-                            {
-                                sendTime = Long.parseLong(field);
-                            }
-                            break;
-                        case 2:
-                            if (!field.equals("X"))
-                            {
-                                txnID = Integer.parseInt(field);
-                            }
-                            break;
-                        case 3:
-                            fromNode = field;
-                            break;
-                        case 4:
-                            toNode = field;
-                            break;
-                        case 5:
-                            switch (version)
-                            {
-                                case 2:
-                                    packetBits = SizedIntegerFormat.parseUnsignedLong(
-                                        field, 16);
-                                    break;
-                                case 3:
-                                    packetName = field;
-                                    break;
-                                case 4:
-                                    packetFieldList = field;
-                                    break;
-                            }
-                            break;
-                        case 6:
-                            hasRemoteBits = true;
-                            remoteBits = Short.parseShort(field, 16);
-                            break;
-                        case 7:
-                            int dwordCount = field.length() / 8;
-                            dataDwords = new int[dwordCount];
-                            for (int i = 0; i < dwordCount; ++i)
-                            {
-                                long l = Long.parseLong(field.substring(i * 8,
-                                    (i + 1) * 8), 16);
-                                dataDwords[i] = (int) l;
-                            }
-                            break;
-                        default:
-                            throw new RuntimeException("Unhandled case: "
-                                + fieldID);
-                    }
-                    fieldsRead = fieldID + 1;
+                    case 0:
+                        if (!field.equals("X"))
+                        {
+                            recvTime = Long.parseLong(field);
+                        }
+                        break;
+                    case 1:
+                        if (!field.equals("X"))
+                        {
+                            sendTime = Long.parseLong(field);
+                        }
+                        break;
+                    case 2:
+                        if (!field.equals("X"))
+                        {
+                            txnID = Integer.parseInt(field);
+                        }
+                        break;
+                    case 3:
+                        fromNode = nodeNames.intern(field);
+                        break;
+                    case 4:
+                        toNode = nodeNames.intern(field);
+                        break;
+                    case 5:
+                        switch (version)
+                        {
+                            case 2:
+                                packetBits = SizedIntegerFormat.parseUnsignedLong(
+                                    field, 16);
+                                break;
+                            case 3:
+                                packetName = nodeNames.intern(field);
+                                break;
+                            case 4:
+                                packetFieldList = field;
+                                break;
+                        }
+                        break;
+                    case 6:
+                        hasRemoteBits = true;
+                        remoteBits = Short.parseShort(field, 16);
+                        break;
+                    case 7:
+                        int dwordCount = field.length() / 8;
+                        dataDwords = new int[dwordCount];
+                        for (int i = 0; i < dwordCount; ++i)
+                        {
+                            long l = Long.parseLong(field.substring(i * 8,
+                                (i + 1) * 8), 16);
+                            dataDwords[i] = (int) l;
+                        }
+                        break;
+                    default:
+                        throw new RuntimeException("Unhandled case: "
+                            + fieldID);
                 }
+                fieldsRead = fieldID + 1;
             }
         }
     }
@@ -0,0 +1,731 @@
+/*
+ * PacketViz packet visualization for the Java (TM) Platform
+ * Copyright (C) 2007 Newisys, Inc. or its licensors, as applicable.
+ * Java is a registered trademark of Sun Microsystems, Inc. in the U.S. or
+ * other countries.
+ *
+ * Licensed under the Open Software License version 3.0 (the "License"); you
+ * may not use this file except in compliance with the License. You should
+ * have received a copy of the License along with this software; if not, you
+ * may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/osl-3.0.php
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.newisys.apps.pktviz.logreader;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+/**
+ * Writes synthetic Version 4 packet logs of any size, for load and scaling
+ * tests. The log models cache coherence transactions between the caches and
+ * memories of a node hierarchy: each transaction is a read from a cache to
+ * the memory that owns the address, snoops of other caches, and a data
+ * response. Records are written in receive time order, directly as bytes,
+ * so large logs are generated about as fast as they can be written. The
+ * same settings and seed always produce the same log.
+ */
+public final class PacketLogGenerator
+{
+    /** Every latency and transaction interval is the mean. */
+    public static final int FIXED = 0;
+
+    /** Latencies and intervals are uniform from 1 to twice the mean. */
+    public static final int UNIFORM = 1;
+
+    /** Latencies and intervals are roughly exponential with the mean. */
+    public static final int EXPONENTIAL = 2;
+
+    private static final String[] DISTRIBUTION_NAMES = { "fixed", "uniform",
+        "exponential" };
+
+    // names of the hierarchy levels between "system" and the agents
+    private static final String[] GROUP_NAMES = { "chip", "die", "core",
+        "unit" };
+
+    private static final byte[] READ_MEM = ascii("ReadMem");
+    private static final byte[] SNOOP_LINE = ascii("SnoopLine");
+    private static final byte[] SNOOP_RESP = ascii("NotPresent");
+    private static final byte[] MEM_DATA = ascii("MemData");
+
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    private int depth = 2;
+    private int width = 2;
+    private long transactions = 1000;
+    private int packetsPerTransaction = 4;
+    private int concurrency = 16;
+    private int distribution = UNIFORM;
+    private long meanLatency = 10;
+    private int fieldCount = 2;
+    private long seed = 1;
+
+    // state of one generation
+    private Random random;
+    private byte[][] caches;
+    private byte[][] memories;
+    private byte[] buf;
+    private int pos;
+    private OutputStream out;
+    private long bytesWritten;
+
+    /**
+     * Returns the number of levels in node names below "system", including
+     * the cache and memory level.
+     */
+    public int getDepth()
+    {
+        return depth;
+    }
+
+    /**
+     * Sets the number of levels in node names below "system", including the
+     * cache and memory level. With the default depth of 2, nodes are named
+     * like <code>system.chip0.Cache1</code>.
+     */
+    public void setDepth(int depth)
+    {
+        if (depth < 1) throw new IllegalArgumentException("depth < 1");
+        this.depth = depth;
+    }
+
+    public int getWidth()
+    {
+        return width;
+    }
+
+    /**
+     * Sets the number of groups within each group of the hierarchy, and the
+     * number of caches in each group at the lowest level. Each lowest level
+     * group also has one memory.
+     */
+    public void setWidth(int width)
+    {
+        if (width < 1) throw new IllegalArgumentException("width < 1");
+        this.width = width;
+    }
+
+    public long getTransactions()
+    {
+        return transactions;
+    }
+
+    public void setTransactions(long transactions)
+    {
+        if (transactions < 0)
+        {
+            throw new IllegalArgumentException("transactions < 0");
+        }
+        this.transactions = transactions;
+    }
+
+    public int getPacketsPerTransaction()
+    {
+        return packetsPerTransaction;
+    }
+
+    public void setPacketsPerTransaction(int packetsPerTransaction)
+    {
+        if (packetsPerTransaction < 1)
+        {
+            throw new IllegalArgumentException("packets per transaction < 1");
+        }
+        this.packetsPerTransaction = packetsPerTransaction;
+    }
+
+    public int getConcurrency()
+    {
+        return concurrency;
+    }
+
+    /**
+     * Sets the number of transactions in flight at once. The packets of
+     * concurrent transactions are interleaved in the log.
+     */
+    public void setConcurrency(int concurrency)
+    {
+        if (concurrency < 1)
+        {
+            throw new IllegalArgumentException("concurrency < 1");
+        }
+        this.concurrency = concurrency;
+    }
+
+    public int getDistribution()
+    {
+        return distribution;
+    }
+
+    /**
+     * Sets the distribution of packet latencies and of the intervals between
+     * the end of one transaction and the start of the next: one of
+     * {@link #FIXED}, {@link #UNIFORM} or {@link #EXPONENTIAL}.
+     */
+    public void setDistribution(int distribution)
+    {
+        if (distribution < FIXED || distribution > EXPONENTIAL)
+        {
+            throw new IllegalArgumentException("Unknown distribution: "
+                + distribution);
+        }
+        this.distribution = distribution;
+    }
+
+    public long getMeanLatency()
+    {
+        return meanLatency;
+    }
+
+    public void setMeanLatency(long meanLatency)
+    {
+        if (meanLatency < 1)
+        {
+            throw new IllegalArgumentException("mean latency < 1");
+        }
+        this.meanLatency = meanLatency;
+    }
+
+    public int getFieldCount()
+    {
+        return fieldCount;
+    }
+
+    /**
+     * Sets the number of fields in each packet's field list in addition to
+     * Cmd. The first two are an address and data; any further fields have
+     * random values.
+     */
+    public void setFieldCount(int fieldCount)
+    {
+        if (fieldCount < 0)
+        {
+            throw new IllegalArgumentException("field count < 0");
+        }
+        this.fieldCount = fieldCount;
+    }
+
+    public long getSeed()
+    {
+        return seed;
+    }
+
+    public void setSeed(long seed)
+    {
+        this.seed = seed;
+    }
+
+    /**
+     * Returns the number of records in a generated log.
+     */
+    public long getRecordCount()
+    {
+        return transactions * packetsPerTransaction;
+    }
+
+    /**
+     * Writes a log to the given file.
+     *
+     * @return the number of bytes written
+     */
+    public long generate(File file)
+        throws IOException
+    {
+        OutputStream out = new FileOutputStream(file);
+        try
+        {
+            return generate(out);
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    /**
+     * Writes a log to the given stream, which is not closed.
+     *
+     * @return the number of bytes written
+     */
+    public long generate(OutputStream out)
+        throws IOException
+    {
+        this.out = out;
+        random = new Random(seed);
+        buf = new byte[BUFFER_SIZE];
+        pos = 0;
+        bytesWritten = 0;
+        createNodes();
+        try
+        {
+            writeLog();
+            flush();
+            return bytesWritten;
+        }
+        finally
+        {
+            this.out = null;
+            buf = null;
+            caches = null;
+            memories = null;
+        }
+    }
+
+    private void createNodes()
+    {
+        int groupCount = 1;
+        for (int i = 1; i < depth; ++i)
+        {
+            groupCount *= width;
+        }
+        caches = new byte[groupCount * width][];
+        memories = new byte[groupCount][];
+        StringBuilder sb = new StringBuilder();
+        for (int group = 0; group < groupCount; ++group)
+        {
+            sb.setLength(0);
+            sb.append("system");
+            int div = groupCount;
+            for (int level = 1; level < depth; ++level)
+            {
+                div /= width;
+                sb.append('.').append(GROUP_NAMES[(level - 1)
+                    % GROUP_NAMES.length]);
+                sb.append((group / div) % width);
+            }
+            int prefixLength = sb.length();
+            for (int i = 0; i < width; ++i)
+            {
+                sb.setLength(prefixLength);
+                sb.append(".Cache").append(i);
+                caches[group * width + i] = ascii(sb.toString());
+            }
+            sb.setLength(prefixLength);
+            sb.append(".Memory0");
+            memories[group] = ascii(sb.toString());
+        }
+    }
+
+    private void writeLog()
+        throws IOException
+    {
+        append(ascii("# Packet Log Version 4\n"));
+        append(ascii("# Recv Time,Send Time,Txn,From,To,Packet Fields List\n"));
+
+        // transactions in flight, in a heap ordered by next receive time
+        int slots = (int) Math.min(concurrency, transactions);
+        long[] nextRecv = new long[slots];
+        long[] nextSend = new long[slots];
+        long[] txnIDs = new long[slots];
+        int[] requesters = new int[slots];
+        int[] homes = new int[slots];
+        int[] snooped = new int[slots];
+        long[] addrs = new long[slots];
+        int[] packetIndexes = new int[slots];
+        int[] heap = new int[slots];
+
+        long txnsStarted = 0;
+        long time = 0;
+        for (int slot = 0; slot < slots; ++slot)
+        {
+            time += sample();
+            startTxn(slot, ++txnsStarted, time, nextRecv, nextSend, txnIDs,
+                requesters, homes, addrs, packetIndexes);
+            heap[slot] = slot;
+            siftUp(heap, slot, nextRecv);
+        }
+
+        int heapSize = slots;
+        while (heapSize > 0)
+        {
+            int slot = heap[0];
+            int packet = packetIndexes[slot];
+            long recvTime = nextRecv[slot];
+            int requester = requesters[slot];
+            int home = homes[slot];
+
+            // pick the nodes and command for this packet
+            byte[] from;
+            byte[] to;
+            byte[] cmd;
+            if (packet == 0)
+            {
+                from = caches[requester];
+                to = memories[home];
+                cmd = READ_MEM;
+            }
+            else if (packet == packetsPerTransaction - 1)
+            {
+                from = memories[home];
+                to = caches[requester];
+                cmd = MEM_DATA;
+            }
+            else if ((packet & 1) != 0)
+            {
+                snooped[slot] = pickSnooped(requester);
+                from = memories[home];
+                to = caches[snooped[slot]];
+                cmd = SNOOP_LINE;
+            }
+            else
+            {
+                from = caches[snooped[slot]];
+                to = memories[home];
+                cmd = SNOOP_RESP;
+            }
+            writeRecord(recvTime, nextSend[slot], txnIDs[slot], from, to, cmd,
+                addrs[slot], packet == packetsPerTransaction - 1);
+
+            if (++packet < packetsPerTransaction)
+            {
+                packetIndexes[slot] = packet;
+                nextSend[slot] = recvTime;
+                nextRecv[slot] = recvTime + sample();
+            }
+            else if (txnsStarted < transactions)
+            {
+                startTxn(slot, ++txnsStarted, recvTime + sample(), nextRecv,
+                    nextSend, txnIDs, requesters, homes, addrs, packetIndexes);
+            }
+            else
+            {
+                heap[0] = heap[--heapSize];
+            }
+            siftDown(heap, heapSize, nextRecv);
+        }
+    }
+
+    private void startTxn(
+        int slot,
+        long txnID,
+        long startTime,
+        long[] nextRecv,
+        long[] nextSend,
+        long[] txnIDs,
+        int[] requesters,
+        int[] homes,
+        long[] addrs,
+        int[] packetIndexes)
+    {
+        txnIDs[slot] = txnID;
+        requesters[slot] = random.nextInt(caches.length);
+        homes[slot] = random.nextInt(memories.length);
+        addrs[slot] = random.nextLong() & 0xFFFFFFFFFFC0L;
+        packetIndexes[slot] = 0;
+        nextSend[slot] = startTime;
+        nextRecv[slot] = startTime + sample();
+    }
+
+    private int pickSnooped(int requester)
+    {
+        if (caches.length == 1) return requester;
+        int snooped = random.nextInt(caches.length - 1);
+        return snooped < requester ? snooped : snooped + 1;
+    }
+
+    /**
+     * Returns a latency or interval from the configured distribution.
+     */
+    private long sample()
+    {
+        switch (distribution)
+        {
+            case UNIFORM:
+                return 1 + (long) (random.nextDouble() * (2 * meanLatency - 1));
+            case EXPONENTIAL:
+                return 1 + (long) (-Math.log(1 - random.nextDouble())
+                    * (meanLatency - 0.5));
+            default:
+                return meanLatency;
+        }
+    }
+
+    private static void siftUp(int[] heap, int index, long[] keys)
+    {
+        int slot = heap[index];
+        while (index > 0)
+        {
+            int parent = (index - 1) >>> 1;
+            if (keys[heap[parent]] <= keys[slot]) break;
+            heap[index] = heap[parent];
+            index = parent;
+        }
+        heap[index] = slot;
+    }
+
+    private static void siftDown(int[] heap, int size, long[] keys)
+    {
+        if (size == 0) return;
+        int index = 0;
+        int slot = heap[0];
+        while (true)
+        {
+            int child = 2 * index + 1;
+            if (child >= size) break;
+            if (child + 1 < size && keys[heap[child + 1]] < keys[heap[child]])
+            {
+                ++child;
+            }
+            if (keys[slot] <= keys[heap[child]]) break;
+            heap[index] = heap[child];
+            index = child;
+        }
+        heap[index] = slot;
+    }
+
+    private void writeRecord(
+        long recvTime,
+        long sendTime,
+        long txnID,
+        byte[] from,
+        byte[] to,
+        byte[] cmd,
+        long addr,
+        boolean hasData)
+        throws IOException
+    {
+        if (pos + 256 + from.length + to.length + fieldCount * 32 > buf.length)
+        {
+            flush();
+            if (256 + from.length + to.length + fieldCount * 32 > buf.length)
+            {
+                buf = new byte[256 + from.length + to.length + fieldCount
+                    * 32];
+            }
+        }
+        appendDecimal(recvTime);
+        buf[pos++] = ',';
+        appendDecimal(sendTime);
+        buf[pos++] = ',';
+        appendDecimal(txnID);
+        buf[pos++] = ',';
+        append(from);
+        buf[pos++] = ',';
+        append(to);
+        buf[pos++] = ',';
+        appendField("Cmd=", null);
+        append(cmd);
+        for (int i = 0; i < fieldCount; ++i)
+        {
+            switch (i)
+            {
+                case 0:
+                    appendField("; addr=", "48'h");
+                    appendHex(addr);
+                    break;
+                case 1:
+                    appendField("; data=", "64'h");
+                    appendHex(hasData ? random.nextLong() : 0);
+                    break;
+                default:
+                    appendField("; f" + i + "=", "32'h");
+                    appendHex(random.nextInt() & 0xFFFFFFFFL);
+                    break;
+            }
+        }
+        buf[pos++] = '\n';
+    }
+
+    private void appendField(String name, String prefix)
+    {
+        for (int i = 0; i < name.length(); ++i)
+        {
+            buf[pos++] = (byte) name.charAt(i);
+        }
+        if (prefix != null)
+        {
+            for (int i = 0; i < prefix.length(); ++i)
+            {
+                buf[pos++] = (byte) prefix.charAt(i);
+            }
+        }
+    }
+
+    private void appendDecimal(long value)
+    {
+        if (value < 0)
+        {
+            buf[pos++] = '-';
+            if (value == Long.MIN_VALUE)
+            {
+                append(ascii("9223372036854775808"));
+                return;
+            }
+            value = -value;
+        }
+        int start = pos;
+        do
+        {
+            buf[pos++] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        while (value != 0);
+        reverse(start, pos - 1);
+    }
+
+    private void appendHex(long value)
+    {
+        int start = pos;
+        do
+        {
+            int digit = (int) (value & 0xF);
+            buf[pos++] = (byte) (digit < 10 ? '0' + digit : 'A' + digit - 10);
+            value >>>= 4;
+        }
+        while (value != 0);
+        reverse(start, pos - 1);
+    }
+
+    private void reverse(int i, int j)
+    {
+        while (i < j)
+        {
+            byte b = buf[i];
+            buf[i++] = buf[j];
+            buf[j--] = b;
+        }
+    }
+
+    private void append(byte[] bytes)
+    {
+        if (pos + bytes.length > buf.length)
+        {
+            try
+            {
+                flush();
+            }
+            catch (IOException e)
+            {
+                throw new RuntimeException(e);
+            }
+        }
+        System.arraycopy(bytes, 0, buf, pos, bytes.length);
+        pos += bytes.length;
+    }
+
+    private void flush()
+        throws IOException
+    {
+        out.write(buf, 0, pos);
+        bytesWritten += pos;
+        pos = 0;
+    }
+
+    private static byte[] ascii(String s)
+    {
+        byte[] bytes = new byte[s.length()];
+        for (int i = 0; i < bytes.length; ++i)
+        {
+            bytes[i] = (byte) s.charAt(i);
+        }
+        return bytes;
+    }
+
+    private static int parseDistribution(String name)
+    {
+        for (int i = 0; i < DISTRIBUTION_NAMES.length; ++i)
+        {
+            if (DISTRIBUTION_NAMES[i].equals(name)) return i;
+        }
+        throw new IllegalArgumentException("Unknown distribution: " + name);
+    }
+
+    private static void usage()
+    {
+        System.err.println("Usage: PacketLogGenerator [options] <output.pkt>");
+        System.err.println("  -depth N         node hierarchy depth (2)");
+        System.err.println("  -width N         nodes per hierarchy level (2)");
+        System.err.println("  -txns N          transaction count (1000)");
+        System.err.println("  -packets N       packets per transaction (4)");
+        System.err.println("  -concurrency N   transactions in flight (16)");
+        System.err.println("  -latency N       mean packet latency (10)");
+        System.err.println("  -distribution D  fixed, uniform or exponential"
+            + " (uniform)");
+        System.err.println("  -fields N        fields in addition to Cmd (2)");
+        System.err.println("  -seed N          random seed (1)");
+        System.exit(2);
+    }
+
+    public static void main(String[] args)
+    {
+        PacketLogGenerator generator = new PacketLogGenerator();
+        int argIndex = 0;
+        try
+        {
+            while (argIndex < args.length - 1 && args[argIndex].startsWith("-"))
+            {
+                String option = args[argIndex++];
+                String value = args[argIndex++];
+                if (option.equals("-depth"))
+                {
+                    generator.setDepth(Integer.parseInt(value));
+                }
+                else if (option.equals("-width"))
+                {
+                    generator.setWidth(Integer.parseInt(value));
+                }
+                else if (option.equals("-txns"))
+                {
+                    generator.setTransactions(Long.parseLong(value));
+                }
+                else if (option.equals("-packets"))
+                {
+                    generator.setPacketsPerTransaction(Integer.parseInt(value));
+                }
+                else if (option.equals("-concurrency"))
+                {
+                    generator.setConcurrency(Integer.parseInt(value));
+                }
+                else if (option.equals("-latency"))
+                {
+                    generator.setMeanLatency(Long.parseLong(value));
+                }
+                else if (option.equals("-distribution"))
+                {
+                    generator.setDistribution(parseDistribution(value));
+                }
+                else if (option.equals("-fields"))
+                {
+                    generator.setFieldCount(Integer.parseInt(value));
+                }
+                else if (option.equals("-seed"))
+                {
+                    generator.setSeed(Long.parseLong(value));
+                }
+                else
+                {
+                    usage();
+                }
+            }
+        }
+        catch (IllegalArgumentException e)
+        {
+            System.err.println(e.getMessage());
+            usage();
+        }
+        if (argIndex != args.length - 1)
+        {
+            usage();
+        }
+        try
+        {
+            long start = System.currentTimeMillis();
+            long bytes = generator.generate(new File(args[argIndex]));
+            System.out.println("Generated " + generator.getRecordCount()
+                + " records (" + bytes + " bytes) in "
+                + (System.currentTimeMillis() - start) + " ms");
+        }
+        catch (IOException e)
+        {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+}
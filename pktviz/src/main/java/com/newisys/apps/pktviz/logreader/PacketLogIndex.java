@@ -0,0 +1,490 @@
+/*
+ * PacketViz packet visualization for the Java (TM) Platform
+ * Copyright (C) 2007 Newisys, Inc. or its licensors, as applicable.
+ * Java is a registered trademark of Sun Microsystems, Inc. in the U.S. or
+ * other countries.
+ *
+ * Licensed under the Open Software License version 3.0 (the "License"); you
+ * may not use this file except in compliance with the License. You should
+ * have received a copy of the License along with this software; if not, you
+ * may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/osl-3.0.php
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.newisys.apps.pktviz.logreader;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import com.newisys.apps.pktviz.model.PacketGraph;
+import com.newisys.apps.pktviz.model.TxnInfo;
+import com.newisys.util.symbol.SymbolPool;
+
+/**
+ * Sparse time index of a Version 4 text packet log, kept in a sidecar file
+ * beside the log (see {@link #getIndexFile(File)}), which lets a reader
+ * start part way through the log instead of parsing it from the beginning.
+ * <p>
+ * Each checkpoint records the byte offset and line number of a line start,
+ * and the latest receive time of the records before it, so no record
+ * before the checkpoint ends after that time. The records from one
+ * checkpoint to the next form a page, whose time span is also recorded, so
+ * that a reader can find the pages holding the packets in a time range.
+ * To make a graph loaded from a
+ * checkpoint look the same as the corresponding part of a full load, the
+ * index also records the node names in order of first appearance, and the
+ * state of each transaction that is open at a checkpoint, meaning it has
+ * packets both before and after it.
+ * <p>
+ * Indexes are built by a parallel pass over the log, either on their own
+ * with {@link #build(File, int)} or as a by-product of a load with
+ * {@link AsyncPacketLogReader#setBuildIndex(boolean)}.
+ * <PRE>
+ * Sidecar format (big-endian, strings as by DataOutput.writeUTF()):
+ *   int   MAGIC
+ *   int   FORMAT_VERSION
+ *   long  length of the log when indexed
+ *   long  modification time of the log when indexed
+ *   int   node count
+ *   for each node: string name
+ *   int   checkpoint count
+ *   for each checkpoint:
+ *     long  byte offset
+ *     long  line number
+ *     long  latest receive time of the preceding records
+ *     long  earliest send time of the records in the page
+ *     long  latest receive time of the records in the page
+ *   int   open transaction span count
+ *   for each span, ordered by first checkpoint:
+ *     int     txn ID
+ *     int     first checkpoint at which the txn is open
+ *     int     last checkpoint at which the txn is open
+ *     boolean has packet name
+ *     string  packet name (if present)
+ *     boolean has address
+ *     long    address (if present)
+ * </PRE>
+ */
+public final class PacketLogIndex
+{
+    static final int MAGIC = 0x504B5449; // "PKTI"
+    static final int FORMAT_VERSION = 2;
+
+    private final long logLength;
+    private final long logModified;
+    private final String[] nodeNames;
+    private final long[] offsets;
+    private final long[] lineNumbers;
+    private final long[] times;
+    private final long[] pageFirstTimes;
+    private final long[] pageLastTimes;
+    private final TxnSpan[] spans;
+
+    /**
+     * State of a transaction over a run of checkpoints at which it is open.
+     */
+    static final class TxnSpan
+    {
+        final int txnID;
+        final int firstCheckpoint;
+        final int lastCheckpoint;
+        final String packetName;
+        final boolean hasAddr;
+        final long addr;
+
+        TxnSpan(
+            int txnID,
+            int firstCheckpoint,
+            int lastCheckpoint,
+            String packetName,
+            boolean hasAddr,
+            long addr)
+        {
+            this.txnID = txnID;
+            this.firstCheckpoint = firstCheckpoint;
+            this.lastCheckpoint = lastCheckpoint;
+            this.packetName = packetName;
+            this.hasAddr = hasAddr;
+            this.addr = addr;
+        }
+    }
+
+    PacketLogIndex(
+        long logLength,
+        long logModified,
+        String[] nodeNames,
+        long[] offsets,
+        long[] lineNumbers,
+        long[] times,
+        long[] pageFirstTimes,
+        long[] pageLastTimes,
+        TxnSpan[] spans)
+    {
+        this.logLength = logLength;
+        this.logModified = logModified;
+        this.nodeNames = nodeNames;
+        this.offsets = offsets;
+        this.lineNumbers = lineNumbers;
+        this.times = times;
+        this.pageFirstTimes = pageFirstTimes;
+        this.pageLastTimes = pageLastTimes;
+        this.spans = spans;
+    }
+
+    /**
+     * Returns the sidecar index file for a log.
+     */
+    public static File getIndexFile(File logFile)
+    {
+        return new File(logFile.getPath() + ".idx");
+    }
+
+    /**
+     * Builds the index of a Version 4 log by parsing it on the given number
+     * of threads, and writes it to the sidecar file.
+     *
+     * @throws IOException if the log cannot be read or is not Version 4
+     */
+    public static PacketLogIndex build(File logFile, int threadCount)
+        throws IOException
+    {
+        return build(logFile, threadCount, 0);
+    }
+
+    /**
+     * Builds the index of a Version 4 log with checkpoints about
+     * <code>pageSize</code> bytes apart, or the parallel reader's chunk size
+     * if <code>pageSize</code> is 0.
+     */
+    static PacketLogIndex build(File logFile, int threadCount, int pageSize)
+        throws IOException
+    {
+        // parse into a graph that rejects every packet; only the nodes and
+        // open transactions are kept
+        PacketGraphBuilder builder = new PacketGraphBuilder(new PacketGraph());
+        builder.setStartTime(Long.MAX_VALUE);
+        PacketLogIndexBuilder indexBuilder = new PacketLogIndexBuilder(builder);
+        builder.setIndexBuilder(indexBuilder);
+
+        ParallelPacketLogReader reader = new ParallelPacketLogReader(logFile,
+            builder, threadCount);
+        if (pageSize > 0)
+        {
+            reader.setChunkSize(pageSize);
+        }
+        try
+        {
+            PacketLogBatch batch;
+            while ((batch = reader.readBatch()) != null)
+            {
+                if (batch.startOffset < 0)
+                {
+                    throw new IOException("Only Version 4 logs can be indexed: "
+                        + logFile);
+                }
+                builder.addBatch(batch, 0, Long.MAX_VALUE);
+            }
+        }
+        finally
+        {
+            reader.close();
+        }
+
+        PacketLogIndex index = indexBuilder.finish(logFile);
+        index.write(getIndexFile(logFile));
+        return index;
+    }
+
+    /**
+     * Reads the sidecar index of a log.
+     *
+     * @return the index, or null if there is no index, the index is in an
+     *      older format, or the log has changed since it was indexed
+     */
+    public static PacketLogIndex read(File logFile)
+        throws IOException
+    {
+        File indexFile = getIndexFile(logFile);
+        if (!indexFile.isFile()) return null;
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+            new FileInputStream(indexFile)));
+        try
+        {
+            if (in.readInt() != MAGIC)
+            {
+                throw new IOException("Not a packet log index: " + indexFile);
+            }
+            if (in.readInt() != FORMAT_VERSION) return null;
+            long logLength = in.readLong();
+            long logModified = in.readLong();
+            if (logLength != logFile.length()
+                || logModified != logFile.lastModified())
+            {
+                return null;
+            }
+
+            String[] nodeNames = new String[in.readInt()];
+            for (int i = 0; i < nodeNames.length; ++i)
+            {
+                nodeNames[i] = in.readUTF();
+            }
+
+            int checkpointCount = in.readInt();
+            long[] offsets = new long[checkpointCount];
+            long[] lineNumbers = new long[checkpointCount];
+            long[] times = new long[checkpointCount];
+            long[] pageFirstTimes = new long[checkpointCount];
+            long[] pageLastTimes = new long[checkpointCount];
+            for (int i = 0; i < checkpointCount; ++i)
+            {
+                offsets[i] = in.readLong();
+                lineNumbers[i] = in.readLong();
+                times[i] = in.readLong();
+                pageFirstTimes[i] = in.readLong();
+                pageLastTimes[i] = in.readLong();
+            }
+
+            // packet names recur across spans
+            SymbolPool names = new SymbolPool();
+            TxnSpan[] spans = new TxnSpan[in.readInt()];
+            for (int i = 0; i < spans.length; ++i)
+            {
+                int txnID = in.readInt();
+                int first = in.readInt();
+                int last = in.readInt();
+                String packetName = in.readBoolean() ? names.intern(in.readUTF())
+                    : null;
+                boolean hasAddr = in.readBoolean();
+                long addr = hasAddr ? in.readLong() : 0;
+                spans[i] = new TxnSpan(txnID, first, last, packetName, hasAddr,
+                    addr);
+            }
+
+            return new PacketLogIndex(logLength, logModified, nodeNames,
+                offsets, lineNumbers, times, pageFirstTimes, pageLastTimes,
+                spans);
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * Writes this index to the given file.
+     */
+    public void write(File indexFile)
+        throws IOException
+    {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+            new FileOutputStream(indexFile)));
+        try
+        {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(logLength);
+            out.writeLong(logModified);
+
+            out.writeInt(nodeNames.length);
+            for (int i = 0; i < nodeNames.length; ++i)
+            {
+                out.writeUTF(nodeNames[i]);
+            }
+
+            out.writeInt(offsets.length);
+            for (int i = 0; i < offsets.length; ++i)
+            {
+                out.writeLong(offsets[i]);
+                out.writeLong(lineNumbers[i]);
+                out.writeLong(times[i]);
+                out.writeLong(pageFirstTimes[i]);
+                out.writeLong(pageLastTimes[i]);
+            }
+
+            out.writeInt(spans.length);
+            for (int i = 0; i < spans.length; ++i)
+            {
+                TxnSpan span = spans[i];
+                out.writeInt(span.txnID);
+                out.writeInt(span.firstCheckpoint);
+                out.writeInt(span.lastCheckpoint);
+                out.writeBoolean(span.packetName != null);
+                if (span.packetName != null)
+                {
+                    out.writeUTF(span.packetName);
+                }
+                out.writeBoolean(span.hasAddr);
+                if (span.hasAddr)
+                {
+                    out.writeLong(span.addr);
+                }
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    public int getCheckpointCount()
+    {
+        return offsets.length;
+    }
+
+    /**
+     * Returns the byte offset of the line at a checkpoint.
+     */
+    public long getOffset(int checkpoint)
+    {
+        return offsets[checkpoint];
+    }
+
+    /**
+     * Returns the line number of the line at a checkpoint.
+     */
+    public long getLineNumber(int checkpoint)
+    {
+        return lineNumbers[checkpoint];
+    }
+
+    /**
+     * Returns the latest receive time of the records before a checkpoint.
+     */
+    public long getTime(int checkpoint)
+    {
+        return times[checkpoint];
+    }
+
+    /**
+     * Returns the earliest send time of the records in the page starting at
+     * a checkpoint, or Long.MAX_VALUE if the page has no records.
+     */
+    public long getPageFirstTime(int checkpoint)
+    {
+        return pageFirstTimes[checkpoint];
+    }
+
+    /**
+     * Returns the latest receive time of the records in the page starting at
+     * a checkpoint, or Long.MIN_VALUE if the page has no records.
+     */
+    public long getPageLastTime(int checkpoint)
+    {
+        return pageLastTimes[checkpoint];
+    }
+
+    /**
+     * Returns the earliest send time of any record in the log, or 0 if it
+     * has no records.
+     */
+    public long getFirstTime()
+    {
+        long first = Long.MAX_VALUE;
+        for (int i = 0; i < pageFirstTimes.length; ++i)
+        {
+            first = Math.min(first, pageFirstTimes[i]);
+        }
+        return first != Long.MAX_VALUE ? first : 0;
+    }
+
+    /**
+     * Returns the latest receive time of any record in the log, or 0 if it
+     * has no records.
+     */
+    public long getLastTime()
+    {
+        long last = Long.MIN_VALUE;
+        for (int i = 0; i < pageLastTimes.length; ++i)
+        {
+            last = Math.max(last, pageLastTimes[i]);
+        }
+        return last != Long.MIN_VALUE ? last : 0;
+    }
+
+    /**
+     * Returns the last checkpoint before which every record was received
+     * before the given time, so that reading from it finds every packet
+     * that ends at or after that time.
+     */
+    public int findCheckpoint(long time)
+    {
+        // times are non-decreasing; find the last one below time
+        int lo = 0;
+        int hi = times.length - 1;
+        while (lo < hi)
+        {
+            int mid = (lo + hi + 1) >>> 1;
+            if (times[mid] < time)
+            {
+                lo = mid;
+            }
+            else
+            {
+                hi = mid - 1;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Creates the nodes of the log, and the state of the transactions open
+     * at a checkpoint, as a full load would have by the time it reached it.
+     */
+    void restore(int checkpoint, PacketGraphBuilder builder)
+    {
+        for (int i = 0; i < nodeNames.length; ++i)
+        {
+            builder.getNode(nodeNames[i]);
+        }
+
+        SymbolPool symbols = builder.getPacketGraph().getSymbolPool();
+        for (int i = 0; i < spans.length; ++i)
+        {
+            TxnSpan span = spans[i];
+            if (span.firstCheckpoint > checkpoint) break;
+            if (span.lastCheckpoint < checkpoint) continue;
+
+            TxnInfo txn = builder.getTxn(span.txnID);
+            txn.setPacketName(symbols.intern(span.packetName));
+            if (span.hasAddr)
+            {
+                txn.setAddrValue(span.addr);
+            }
+        }
+    }
+
+    public static void main(String[] args)
+    {
+        if (args.length != 1)
+        {
+            System.err.println("Usage: PacketLogIndex <input.pkt>");
+            System.exit(2);
+        }
+        try
+        {
+            long start = System.currentTimeMillis();
+            PacketLogIndex index = build(new File(args[0]), Runtime.getRuntime()
+                .availableProcessors());
+            System.out.println("Indexed " + index.getCheckpointCount()
+                + " checkpoints in " + (System.currentTimeMillis() - start)
+                + " ms");
+        }
+        catch (IOException e)
+        {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+}
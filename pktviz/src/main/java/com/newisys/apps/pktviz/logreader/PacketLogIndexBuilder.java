@@ -0,0 +1,267 @@
+/*
+ * PacketViz packet visualization for the Java (TM) Platform
+ * Copyright (C) 2007 Newisys, Inc. or its licensors, as applicable.
+ * Java is a registered trademark of Sun Microsystems, Inc. in the U.S. or
+ * other countries.
+ *
+ * Licensed under the Open Software License version 3.0 (the "License"); you
+ * may not use this file except in compliance with the License. You should
+ * have received a copy of the License along with this software; if not, you
+ * may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/osl-3.0.php
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.newisys.apps.pktviz.logreader;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import com.newisys.apps.pktviz.model.TxnInfo;
+import com.newisys.util.collection.IntHashMap;
+
+/**
+ * Collects a {@link PacketLogIndex} from the records added by a
+ * {@link PacketGraphBuilder}. The reader marks a checkpoint at the start of
+ * each batch whose byte offset is known.
+ * <p>
+ * A transaction is open at every checkpoint between two of its packets. The
+ * state to record for it is its state after the earlier packet, which is
+ * still its state when the later packet is seen, so spans can be emitted in
+ * a single pass, as each transaction reappears.
+ * <p>
+ * Text logs do not mark transactions complete, so a transaction that has not
+ * appeared for {@link #STALE_CHECKPOINTS} checkpoints is assumed complete and
+ * forgotten, as is one completed through
+ * {@link PacketGraphBuilder#completeTxn(int)}. If its ID reappears, it is
+ * indexed as a new transaction.
+ */
+final class PacketLogIndexBuilder
+{
+    static final int STALE_CHECKPOINTS = 4;
+
+    /**
+     * Interval (index of the preceding checkpoint) in which a transaction
+     * was last seen.
+     */
+    private static final class LastSeen
+    {
+        int interval;
+
+        LastSeen(int interval)
+        {
+            this.interval = interval;
+        }
+    }
+
+    private final List<String> nodeNames = new ArrayList<String>();
+    private final List<PacketLogIndex.TxnSpan> spans = new ArrayList<PacketLogIndex.TxnSpan>();
+
+    // open transactions, by ID
+    private final IntHashMap<LastSeen> lastSeen = new IntHashMap<LastSeen>();
+
+    // IDs of the transactions seen in each of the last few intervals, by
+    // interval modulo the array length, to find those that become stale
+    private final int[][] seenIDs = new int[STALE_CHECKPOINTS + 1][];
+    private final int[] seenCounts = new int[STALE_CHECKPOINTS + 1];
+
+    // builder that forgets transactions along with this one, if nothing
+    // else holds them
+    private final PacketGraphBuilder txnOwner;
+
+    private long[] offsets = new long[64];
+    private long[] lineNumbers = new long[64];
+    private long[] times = new long[64];
+    private long[] pageFirstTimes = new long[64];
+    private long[] pageLastTimes = new long[64];
+    private int checkpointCount;
+
+    PacketLogIndexBuilder()
+    {
+        this(null);
+    }
+
+    /**
+     * Creates an index builder that also makes the given graph builder
+     * forget the transactions that become stale, for when the graph does
+     * not keep them.
+     */
+    PacketLogIndexBuilder(PacketGraphBuilder txnOwner)
+    {
+        this.txnOwner = txnOwner;
+        for (int i = 0; i < seenIDs.length; ++i)
+        {
+            seenIDs[i] = new int[64];
+        }
+    }
+
+    /**
+     * Marks a checkpoint before the next record.
+     *
+     * @param offset byte offset of the line containing the next record
+     * @param lineNumber line number of that line
+     * @param time latest receive time of the records so far
+     */
+    void checkpoint(long offset, long lineNumber, long time)
+    {
+        if (checkpointCount == offsets.length)
+        {
+            int n = checkpointCount * 2;
+            long[] newOffsets = new long[n];
+            System.arraycopy(offsets, 0, newOffsets, 0, checkpointCount);
+            offsets = newOffsets;
+            long[] newLineNumbers = new long[n];
+            System.arraycopy(lineNumbers, 0, newLineNumbers, 0, checkpointCount);
+            lineNumbers = newLineNumbers;
+            long[] newTimes = new long[n];
+            System.arraycopy(times, 0, newTimes, 0, checkpointCount);
+            times = newTimes;
+            long[] newFirstTimes = new long[n];
+            System.arraycopy(pageFirstTimes, 0, newFirstTimes, 0,
+                checkpointCount);
+            pageFirstTimes = newFirstTimes;
+            long[] newLastTimes = new long[n];
+            System.arraycopy(pageLastTimes, 0, newLastTimes, 0,
+                checkpointCount);
+            pageLastTimes = newLastTimes;
+        }
+        offsets[checkpointCount] = offset;
+        lineNumbers[checkpointCount] = lineNumber;
+        times[checkpointCount] = time;
+        pageFirstTimes[checkpointCount] = Long.MAX_VALUE;
+        pageLastTimes[checkpointCount] = Long.MIN_VALUE;
+        ++checkpointCount;
+
+        // the slot of the new interval holds the transactions last seen
+        // STALE_CHECKPOINTS intervals before the latest one
+        int interval = checkpointCount - 1;
+        int slot = interval % seenIDs.length;
+        int[] ids = seenIDs[slot];
+        int staleInterval = interval - seenIDs.length;
+        for (int i = 0; i < seenCounts[slot]; ++i)
+        {
+            int txnID = ids[i];
+            LastSeen last = lastSeen.get(txnID);
+            if (last != null && last.interval == staleInterval)
+            {
+                lastSeen.remove(txnID);
+                if (txnOwner != null)
+                {
+                    txnOwner.completeTxn(txnID);
+                }
+            }
+        }
+        seenCounts[slot] = 0;
+    }
+
+    /**
+     * Forgets a transaction that is complete.
+     */
+    void completeTxn(int txnID)
+    {
+        lastSeen.remove(txnID);
+    }
+
+    /**
+     * Returns the number of transactions that may still reappear.
+     */
+    int getOpenTxnCount()
+    {
+        return lastSeen.size();
+    }
+
+    /**
+     * Notes a node created by the builder.
+     */
+    void addNode(String name)
+    {
+        nodeNames.add(name);
+    }
+
+    /**
+     * Notes a record, before the record updates the state of its
+     * transaction.
+     */
+    void addRecord(TxnInfo txn, long sendTime, long recvTime)
+    {
+        int interval = checkpointCount - 1;
+        if (interval >= 0)
+        {
+            if (sendTime < pageFirstTimes[interval])
+            {
+                pageFirstTimes[interval] = sendTime;
+            }
+            if (recvTime > pageLastTimes[interval])
+            {
+                pageLastTimes[interval] = recvTime;
+            }
+        }
+
+        // Version 4 logs have a checkpoint before the first record
+        if (txn == null || interval < 0) return;
+
+        int txnID = txn.getTxnID();
+        LastSeen last = lastSeen.get(txnID);
+        if (last == null)
+        {
+            lastSeen.put(txnID, new LastSeen(interval));
+        }
+        else if (last.interval < interval)
+        {
+            spans.add(new PacketLogIndex.TxnSpan(txnID, last.interval + 1,
+                interval, txn.getPacketName(), txn.isAddrSet(),
+                txn.getAddrValue()));
+            last.interval = interval;
+        }
+        else
+        {
+            return;
+        }
+
+        int slot = interval % seenIDs.length;
+        int count = seenCounts[slot];
+        if (count == seenIDs[slot].length)
+        {
+            int[] newIDs = new int[count * 2];
+            System.arraycopy(seenIDs[slot], 0, newIDs, 0, count);
+            seenIDs[slot] = newIDs;
+        }
+        seenIDs[slot][count] = txnID;
+        seenCounts[slot] = count + 1;
+    }
+
+    PacketLogIndex finish(File logFile)
+    {
+        PacketLogIndex.TxnSpan[] spanArray = spans.toArray(new PacketLogIndex.TxnSpan[spans.size()]);
+        Arrays.sort(spanArray, new Comparator<PacketLogIndex.TxnSpan>()
+        {
+            public int compare(PacketLogIndex.TxnSpan a, PacketLogIndex.TxnSpan b)
+            {
+                return a.firstCheckpoint - b.firstCheckpoint;
+            }
+        });
+
+        long[] offsetArray = new long[checkpointCount];
+        System.arraycopy(offsets, 0, offsetArray, 0, checkpointCount);
+        long[] lineNumberArray = new long[checkpointCount];
+        System.arraycopy(lineNumbers, 0, lineNumberArray, 0, checkpointCount);
+        long[] timeArray = new long[checkpointCount];
+        System.arraycopy(times, 0, timeArray, 0, checkpointCount);
+        long[] firstTimeArray = new long[checkpointCount];
+        System.arraycopy(pageFirstTimes, 0, firstTimeArray, 0, checkpointCount);
+        long[] lastTimeArray = new long[checkpointCount];
+        System.arraycopy(pageLastTimes, 0, lastTimeArray, 0, checkpointCount);
+
+        return new PacketLogIndex(logFile.length(), logFile.lastModified(),
+            nodeNames.toArray(new String[nodeNames.size()]), offsetArray,
+            lineNumberArray, timeArray, firstTimeArray, lastTimeArray,
+            spanArray);
+    }
+}
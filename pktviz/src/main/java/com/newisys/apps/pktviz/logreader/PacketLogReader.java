@@ -18,86 +18,185 @@
 
 package com.newisys.apps.pktviz.logreader;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.util.HashMap;
-import java.util.Map;
+import java.io.Reader;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import com.google.common.io.CountingInputStream;
 import com.newisys.apps.pktviz.model.PacketGraph;
 import com.newisys.apps.pktviz.model.PacketGraphSource;
-import com.newisys.apps.pktviz.model.PacketInfo;
-import com.newisys.apps.pktviz.model.PacketNode;
-import com.newisys.apps.pktviz.model.TxnInfo;
 import com.newisys.apps.pktviz.model.filter.PacketFilter;
 import com.newisys.apps.pktviz.props.GraphProperties;
 
 public final class PacketLogReader
-    implements PacketGraphSource
+    implements PacketGraphSource, PacketLogBatchReader
 {
-    private BufferedReader bufReader;
-    private PacketGraph packetGraph;
-    private PacketFilter packetFilter;
-    private GraphProperties graphProperties;
-    private Map<Integer, TxnInfo> txnMap;
+    // records per batch returned by readBatch()
+    private static final int BATCH_SIZE = 16 * 1024;
+
+    private LogLineReader lineReader;
+    private File file;
+    private CountingInputStream countingStream;
+    private long startOffset;
+
+    // last line to read
+    private long lineLimit = Long.MAX_VALUE;
+
+    // if set, a batch ends once no more input is ready, so that records
+    // arriving slowly from a stream are not held back
+    private boolean partialBatches;
+    private PacketGraphBuilder builder;
     private boolean doneReading;
-    private long lastTimeRead;
     private long lineNumber;
+    private long recordsAdded;
     private int version;
+    private final PacketLogEntry entry = new PacketLogEntry();
+
+    private static final Pattern versionPattern = Pattern.compile("# Packet Log Version (\\d+)");
 
     public PacketLogReader(File file, PacketGraph packetGraph)
         throws FileNotFoundException
     {
-        this(getBufferedReaderForFile(file), packetGraph);
+        this(file, new PacketGraphBuilder(packetGraph));
     }
 
-    private static BufferedReader getBufferedReaderForFile(File file)
+    PacketLogReader(File file, PacketGraphBuilder builder)
         throws FileNotFoundException
     {
-        FileInputStream fis = new FileInputStream(file);
-        InputStreamReader isr = new InputStreamReader(fis);
-        return new BufferedReader(isr);
+        // LogLineReader does its own buffering
+        this(new CountingInputStream(new FileInputStream(file)), builder);
+        this.file = file;
+    }
+
+    /**
+     * Creates a reader that starts at the last checkpoint of an index before
+     * which every record ends before <code>startTime</code>, and adds only
+     * the packets received at or after that time.
+     */
+    public PacketLogReader(
+        File file,
+        PacketGraph packetGraph,
+        PacketLogIndex index,
+        long startTime)
+        throws IOException
+    {
+        this(file, new PacketGraphBuilder(packetGraph), index, startTime);
+    }
+
+    PacketLogReader(
+        File file,
+        PacketGraphBuilder builder,
+        PacketLogIndex index,
+        long startTime)
+        throws IOException
+    {
+        this(file, builder, index, index.findCheckpoint(startTime));
+        builder.setStartTime(startTime);
+    }
+
+    private PacketLogReader(
+        File file,
+        PacketGraphBuilder builder,
+        PacketLogIndex index,
+        int checkpoint)
+        throws IOException
+    {
+        this(openAt(file, index.getOffset(checkpoint)), builder);
+        this.file = file;
+
+        startOffset = index.getOffset(checkpoint);
+        lineNumber = index.getLineNumber(checkpoint) - 1;
+        version = 4;
+        entry.version = version;
+        builder.restoreFrom(index, checkpoint);
+    }
+
+    /**
+     * Creates a reader for the page of a log that starts at an index
+     * checkpoint, which reads no further than the next checkpoint.
+     */
+    static PacketLogReader openPage(
+        File file,
+        PacketGraphBuilder builder,
+        PacketLogIndex index,
+        int checkpoint)
+        throws IOException
+    {
+        PacketLogReader reader = new PacketLogReader(file, builder, index,
+            checkpoint);
+        if (checkpoint + 1 < index.getCheckpointCount())
+        {
+            reader.lineLimit = index.getLineNumber(checkpoint + 1) - 1;
+        }
+        return reader;
+    }
+
+    private static CountingInputStream openAt(File file, long offset)
+        throws IOException
+    {
+        FileInputStream in = new FileInputStream(file);
+        try
+        {
+            in.getChannel().position(offset);
+        }
+        catch (IOException e)
+        {
+            in.close();
+            throw e;
+        }
+        return new CountingInputStream(in);
+    }
+
+    private PacketLogReader(
+        CountingInputStream countingStream,
+        PacketGraphBuilder builder)
+    {
+        this(new InputStreamReader(countingStream), builder);
+        this.countingStream = countingStream;
     }
 
-    public PacketLogReader(BufferedReader bufReader, PacketGraph packetGraph)
+    public PacketLogReader(Reader reader, PacketGraph packetGraph)
     {
-        this.bufReader = bufReader;
-        this.packetGraph = packetGraph;
-        txnMap = new HashMap<Integer, TxnInfo>();
+        this(reader, new PacketGraphBuilder(packetGraph));
+    }
+
+    PacketLogReader(Reader reader, PacketGraphBuilder builder)
+    {
+        this.lineReader = new LogLineReader(reader);
+        this.builder = builder;
         doneReading = false;
-        lastTimeRead = -1;
         lineNumber = 0;
         version = 2;
     }
 
     public PacketGraph getPacketGraph()
     {
-        return packetGraph;
+        return builder.getPacketGraph();
     }
 
     public PacketFilter getPacketFilter()
     {
-        return packetFilter;
+        return builder.getPacketFilter();
     }
 
     public void setPacketFilter(PacketFilter packetFilter)
     {
-        this.packetFilter = packetFilter;
+        builder.setPacketFilter(packetFilter);
     }
 
     public GraphProperties getGraphProperties()
     {
-        return graphProperties;
+        return builder.getGraphProperties();
     }
 
     public void setGraphProperties(GraphProperties graphProperties)
     {
-        this.graphProperties = graphProperties;
+        builder.setGraphProperties(graphProperties);
     }
 
     public boolean isComplete()
@@ -105,6 +204,37 @@ public final class PacketLogReader
         return doneReading;
     }
 
+    public boolean isFollowing()
+    {
+        return lineReader.isFollow();
+    }
+
+    /**
+     * Sets whether the log is followed as it grows. While following, the
+     * end of the log is not treated as the end of input: the fetch methods
+     * return once all complete lines have been read, and a later fetch or
+     * {@link #poll()} picks up any lines appended in the meantime. A final
+     * line without a terminator is held back until it is completed or
+     * following is turned off.
+     */
+    public void setFollow(boolean follow)
+    {
+        lineReader.setFollow(follow);
+    }
+
+    /**
+     * Adds any records appended to the log since the last fetch.
+     *
+     * @return the number of records added
+     */
+    public long poll()
+        throws IOException
+    {
+        long before = recordsAdded;
+        fetchUntil(Long.MAX_VALUE);
+        return recordsAdded - before;
+    }
+
     public void fetchAll()
         throws IOException
     {
@@ -116,68 +246,54 @@ public final class PacketLogReader
     {
         try
         {
-            if (doneReading || lastTimeRead > untilTime) return;
-
-            PacketLogEntry entry = new PacketLogEntry();
-            entry.version = version;
+            if (doneReading || builder.getLastTimeRead() > untilTime) return;
 
-            String record;
-            while ((record = bufReader.readLine()) != null)
+            PacketLogEntry entry = this.entry;
+            while (lineNumber < lineLimit && lineReader.nextLine())
             {
                 ++lineNumber;
+                if (lineNumber == 1 && readVersionHeader()) continue;
 
-                // On first line, detect version number header
-                if (lineNumber == 1)
+                char[] buf = lineReader.getBuffer();
+                try
                 {
-                    Pattern versionPattern = Pattern.compile("# Packet Log Version (\\d+)");
-                    Matcher versionMatcher = versionPattern.matcher(record);
-                    if (versionMatcher.matches())
+                    if (!entry.parseLine(buf, lineReader.getLineStart(),
+                        lineReader.getLineEnd())) continue;
+                    if (entry.fieldsRead >= 6)
                     {
-                        version = Integer.parseInt(versionMatcher.group(1));
-                        System.out.println("Found log version " + version);
-                        entry.version = version;
-                        continue;
+                        builder.addLogEntry(entry, lineNumber);
+                        ++recordsAdded;
                     }
                     else
                     {
-                        System.err.println("Warning: Log version not found; assuming "
-                            + version);
+                        System.err.println("Warning: Ignoring truncated log record at line "
+                            + lineNumber + ": " + getRecord(buf, entry));
                     }
-                }
-
-                // Remove comments from end of lines
-                int n = record.indexOf('#');
-                if (n >= 0)
-                {
-                    record = record.substring(0, n).trim();
-                }
-                if (record.length() > 0)
-                {
-                    try
-                    {
-                        entry.parseString(record);
-                        if (entry.fieldsRead >= 6)
-                        {
-                            addLogEntry(entry);
-                        }
-                        else
-                        {
-                            System.err.println("Warning: Ignoring truncated log record at line "
-                                + lineNumber + ": " + record);
-                        }
-                        if (lastTimeRead > untilTime) return;
-                    }
-                    catch (RuntimeException e)
+                    if (builder.getLastTimeRead() > untilTime)
                     {
-                        doneReading = true;
-                        e.printStackTrace();
-                        throw new RuntimeException(
-                            "Error parsing log record at line " + lineNumber
-                                + ": " + record + "\n" + e.toString());
+                        builder.flushPackets();
+                        return;
                     }
                 }
+                catch (RuntimeException e)
+                {
+                    doneReading = true;
+                    builder.flushPackets();
+                    e.printStackTrace();
+                    throw new RuntimeException(
+                        "Error parsing log record at line " + lineNumber
+                            + ": " + getRecord(buf, entry) + "\n"
+                            + e.toString());
+                }
             }
-            packetGraph.allPacketsAddedEvent();
+            if (lineReader.isFollow())
+            {
+                // index what has been read so far; more may be appended
+                checkTruncated();
+                builder.packetsAddedEvent();
+                return;
+            }
+            builder.allPacketsAddedEvent();
             doneReading = true;
         }
         catch (Throwable throwable)
@@ -188,120 +304,119 @@ public final class PacketLogReader
         }
     }
 
-    private void addLogEntry(PacketLogEntry entry)
+    /**
+     * Parses up to a fixed number of records without adding them to the
+     * graph.
+     */
+    public PacketLogBatch readBatch()
+        throws IOException
     {
-        int txnID = entry.txnID;
-        TxnInfo txn;
-        if (txnID >= -1)
+        PacketLogBatch batch = new PacketLogBatch();
+        batch.baseLineNumber = lineNumber;
+
+        PacketLogEntry entry = this.entry;
+        while (batch.size < BATCH_SIZE && lineNumber < lineLimit
+            && (!partialBatches || batch.lineCount == 0 || lineReader.ready())
+            && lineReader.nextLine())
         {
-            Integer txnIDObj = Integer.valueOf(txnID);
-            txn = txnMap.get(txnIDObj);
-            if (txn == null)
+            ++lineNumber;
+            ++batch.lineCount;
+            if (lineNumber == 1 && readVersionHeader()) continue;
+
+            char[] buf = lineReader.getBuffer();
+            try
             {
-                txn = new TxnInfo(txnID);
-                txnMap.put(txnIDObj, txn);
+                if (!entry.parseLine(buf, lineReader.getLineStart(),
+                    lineReader.getLineEnd())) continue;
+                if (entry.fieldsRead >= 6)
+                {
+                    batch.add(entry, batch.lineCount);
+                }
+                else
+                {
+                    System.err.println("Warning: Ignoring truncated log record at line "
+                        + lineNumber + ": " + getRecord(buf, entry));
+                }
+            }
+            catch (RuntimeException e)
+            {
+                batch.setError(e, batch.lineCount, getRecord(buf, entry));
+                break;
             }
         }
-        else if (txnID == -1)
-        {
-            txn = null;
-        }
-        else
-        {
-            assert (false) : "txnID=" + txnID + " on line " + lineNumber;
-            txn = null;
-        }
-
-        PacketNode fromNode = getNode(entry.fromNode);
-        PacketNode toNode = getNode(entry.toNode);
-
-        long sendTime = entry.sendTime;
-        long recvTime = entry.recvTime;
-        if (sendTime < 0) sendTime = recvTime;
-
-        PacketInfo info = new PacketInfo(txn, fromNode, sendTime, toNode,
-            recvTime, entry.packetBits, entry.hasRemoteBits, entry.remoteBits,
-            entry.dataDwords, entry.packetName, entry.packetFieldList);
-
-        if (version == 2)
-        {
-            throw new RuntimeException("Version 2 not supported");
-        }
-        else if (version == 3)
+        if (batch.lineCount == 0 && lineReader.isFollow())
         {
-            txn.setPacketName(entry.packetName);
+            checkTruncated();
         }
+        batch.version = version;
+        return batch.lineCount > 0 ? batch : null;
+    }
 
-        // Note: in version == 4, packetName is set by
-        // constructor PacketInfo()
-
-        if (matchesFilter(info))
+    private void checkTruncated()
+        throws IOException
+    {
+        if (file != null && file.length() < getBytesRead())
         {
-            packetGraph.addPacket(info);
+            throw new IOException("Log file was truncated while following: "
+                + file);
         }
+    }
 
-        if (entry.recvTime > lastTimeRead)
-        {
-            lastTimeRead = entry.recvTime;
-        }
+    /**
+     * Sets whether {@link #readBatch()} returns the records parsed so far as
+     * soon as no more input is ready, rather than waiting to fill the batch.
+     */
+    void setPartialBatches(boolean partialBatches)
+    {
+        this.partialBatches = partialBatches;
     }
 
-    private boolean matchesFilter(PacketInfo packet)
+    public long getBytesRead()
     {
-        return packetFilter == null || packetFilter.matches(packet);
+        return countingStream != null ? startOffset + countingStream.getCount()
+            : -1;
     }
 
-    static Pattern namePattern = Pattern.compile("(.+)\\.(.+)");
+    public void close()
+        throws IOException
+    {
+        lineReader.close();
+    }
 
-    private PacketNode getNode(String name)
+    /**
+     * Returns the version given by a log's first line, or -1 if the line is
+     * not a version header.
+     */
+    static int parseVersionHeader(CharSequence line)
     {
-        PacketNode node = packetGraph.getNode(name);
+        Matcher versionMatcher = versionPattern.matcher(line);
+        return versionMatcher.matches()
+            ? Integer.parseInt(versionMatcher.group(1)) : -1;
+    }
 
-        if (node == null)
+    private boolean readVersionHeader()
+    {
+        // On first line, detect version number header
+        int headerVersion = parseVersionHeader(lineReader.getLine());
+        if (headerVersion >= 0)
         {
-            String baseName;
-            PacketNode parent;
-            Matcher matcher = namePattern.matcher(name);
-            if (matcher.matches())
-            {
-                String parentName = matcher.group(1);
-                baseName = matcher.group(2);
-                parent = getNode(parentName);
-            }
-            else
-            {
-                baseName = name;
-                parent = null;
-            }
-
-            node = new PacketNode(name);
-            node.setLabel(baseName);
-            if (parent != null)
-            {
-                if (graphProperties != null)
-                {
-                    int index = graphProperties.getNodePosition(node,
-                        parent.getChildList());
-                    parent.addChildNode(node, index);
-                }
-                else
-                {
-                    parent.addChildNode(node);
-                }
-            }
-            if (graphProperties != null && parent == null)
-            {
-                int index = graphProperties.getNodePosition(node,
-                    packetGraph.getTopLevelNodes());
-                packetGraph.addNode(node, true, index);
-            }
-            else
-            {
-                packetGraph.addNode(node, parent == null);
-            }
+            version = headerVersion;
+            System.out.println("Found log version " + version);
+            entry.version = version;
+            return true;
+        }
+        else
+        {
+            System.err.println("Warning: Log version not found; assuming "
+                + version);
+            entry.version = version;
+            return false;
         }
-
-        return node;
     }
 
+    private static String getRecord(char[] buf, PacketLogEntry entry)
+    {
+        return new String(buf, entry.recordStart, entry.recordEnd
+            - entry.recordStart);
+    }
 }
@@ -0,0 +1,269 @@
+/*
+ * PacketViz packet visualization for the Java (TM) Platform
+ * Copyright (C) 2007 Newisys, Inc. or its licensors, as applicable.
+ * Java is a registered trademark of Sun Microsystems, Inc. in the U.S. or
+ * other countries.
+ *
+ * Licensed under the Open Software License version 3.0 (the "License"); you
+ * may not use this file except in compliance with the License. You should
+ * have received a copy of the License along with this software; if not, you
+ * may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/osl-3.0.php
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.newisys.apps.pktviz.logreader;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Sends packet records to a PacketViz listening on a local port, as a
+ * Version 4 text log or in the binary stream framing of
+ * {@link BinaryPacketLogFormat}. Records are buffered, so a sender that
+ * produces records slowly should call {@link #flush()} whenever the viewer
+ * should catch up. Writes block while the viewer is behind.
+ * <p>
+ * Run as a program, it replays a Version 4 log to a listening viewer, which
+ * makes it a stand-in for a simulator.
+ */
+public final class PacketLogSender
+{
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Socket socket;
+    private final boolean binary;
+    private final DataOutputStream out;
+    private final Writer writer;
+
+    // IDs of the strings sent so far in binary mode
+    private final Map<String, Integer> stringIDs = new HashMap<String, Integer>();
+
+    private long recordCount;
+
+    /**
+     * Connects to a viewer listening on the given host and port.
+     *
+     * @param binary true to send the binary stream framing, false to send
+     *            a text log
+     */
+    public PacketLogSender(String host, int port, boolean binary)
+        throws IOException
+    {
+        socket = new Socket(host, port);
+        this.binary = binary;
+        try
+        {
+            BufferedOutputStream bufOut = new BufferedOutputStream(
+                socket.getOutputStream(), BUFFER_SIZE);
+            if (binary)
+            {
+                out = new DataOutputStream(bufOut);
+                writer = null;
+                out.writeInt(BinaryPacketLogFormat.STREAM_MAGIC);
+                out.writeInt(BinaryPacketLogFormat.FORMAT_VERSION);
+            }
+            else
+            {
+                out = null;
+                writer = new OutputStreamWriter(bufOut);
+                writer.write("# Packet Log Version 4\n");
+            }
+        }
+        catch (IOException e)
+        {
+            socket.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Sends one record.
+     *
+     * @param fieldList the Version 4 field list, such as
+     *            "Cmd=RdBlk; addr=40'h1f00"
+     */
+    public void send(
+        long recvTime,
+        long sendTime,
+        int txnID,
+        String fromNode,
+        String toNode,
+        String fieldList)
+        throws IOException
+    {
+        if (binary)
+        {
+            int fromID = getStringID(fromNode);
+            int toID = getStringID(toNode);
+            byte[] fieldBytes = fieldList.getBytes(BinaryPacketLogFormat.CHARSET);
+            out.writeByte(BinaryPacketLogFormat.FRAME_RECORD);
+            out.writeLong(recvTime);
+            out.writeLong(sendTime);
+            out.writeInt(txnID);
+            out.writeInt(fromID);
+            out.writeInt(toID);
+            out.writeInt(fieldBytes.length);
+            out.write(fieldBytes);
+        }
+        else
+        {
+            writer.write(Long.toString(recvTime));
+            writer.write(',');
+            writer.write(Long.toString(sendTime));
+            writer.write(',');
+            writer.write(Integer.toString(txnID));
+            writer.write(',');
+            writer.write(fromNode);
+            writer.write(',');
+            writer.write(toNode);
+            writer.write(',');
+            writer.write(fieldList);
+            writer.write('\n');
+        }
+        ++recordCount;
+    }
+
+    private int getStringID(String s)
+        throws IOException
+    {
+        Integer id = stringIDs.get(s);
+        if (id == null)
+        {
+            id = Integer.valueOf(stringIDs.size());
+            stringIDs.put(s, id);
+            out.writeByte(BinaryPacketLogFormat.FRAME_STRING);
+            out.writeUTF(s);
+        }
+        return id.intValue();
+    }
+
+    public long getRecordCount()
+    {
+        return recordCount;
+    }
+
+    /**
+     * Sends any buffered records.
+     */
+    public void flush()
+        throws IOException
+    {
+        if (binary)
+        {
+            out.flush();
+        }
+        else
+        {
+            writer.flush();
+        }
+    }
+
+    /**
+     * Sends any buffered records and closes the connection.
+     */
+    public void close()
+        throws IOException
+    {
+        try
+        {
+            flush();
+        }
+        finally
+        {
+            socket.close();
+        }
+    }
+
+    private static void usage()
+    {
+        System.err.println("Usage: PacketLogSender [options] <port> <input.pkt>");
+        System.err.println("  -host H          viewer host (localhost)");
+        System.err.println("  -binary          send the binary stream framing");
+        System.exit(2);
+    }
+
+    public static void main(String[] args)
+    {
+        String host = "localhost";
+        boolean binary = false;
+        int argIndex = 0;
+        while (argIndex < args.length - 2 && args[argIndex].startsWith("-"))
+        {
+            String option = args[argIndex++];
+            if (option.equals("-host"))
+            {
+                host = args[argIndex++];
+            }
+            else if (option.equals("-binary"))
+            {
+                binary = true;
+            }
+            else
+            {
+                usage();
+            }
+        }
+        if (argIndex != args.length - 2)
+        {
+            usage();
+        }
+        int port = 0;
+        try
+        {
+            port = Integer.parseInt(args[argIndex]);
+        }
+        catch (NumberFormatException e)
+        {
+            usage();
+        }
+        try
+        {
+            LogLineReader lineReader = new LogLineReader(new InputStreamReader(
+                new FileInputStream(args[argIndex + 1])));
+            PacketLogSender sender = new PacketLogSender(host, port, binary);
+            long start = System.currentTimeMillis();
+            try
+            {
+                // comments, including the version header, are not records
+                PacketLogEntry entry = new PacketLogEntry();
+                entry.version = 4;
+                while (lineReader.nextLine())
+                {
+                    if (entry.parseLine(lineReader.getBuffer(),
+                        lineReader.getLineStart(), lineReader.getLineEnd()))
+                    {
+                        sender.send(entry.recvTime, entry.sendTime,
+                            entry.txnID, entry.fromNode, entry.toNode,
+                            entry.packetFieldList);
+                    }
+                }
+            }
+            finally
+            {
+                lineReader.close();
+                sender.close();
+            }
+            System.out.println("Sent " + sender.getRecordCount()
+                + " records in " + (System.currentTimeMillis() - start)
+                + " ms");
+        }
+        catch (IOException e)
+        {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * PacketViz packet visualization for the Java (TM) Platform
+ * Copyright (C) 2007 Newisys, Inc. or its licensors, as applicable.
+ * Java is a registered trademark of Sun Microsystems, Inc. in the U.S. or
+ * other countries.
+ *
+ * Licensed under the Open Software License version 3.0 (the "License"); you
+ * may not use this file except in compliance with the License. You should
+ * have received a copy of the License along with this software; if not, you
+ * may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/osl-3.0.php
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.newisys.apps.pktviz.logreader;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
+
+import com.google.common.io.CountingInputStream;
+
+/**
+ * Accepts connections on a loopback TCP port and parses the records sent
+ * over them. Each connection sends either a Version 4 text log, starting
+ * with its version header, or the stream framing of
+ * {@link BinaryPacketLogFormat}, and connections are read one after
+ * another. {@link #readBatch()} blocks until records arrive, and returns
+ * null only once the server has been shut down.
+ */
+final class PacketLogServer
+    implements PacketLogBatchReader
+{
+    private final ServerSocket serverSocket;
+    private final PacketGraphBuilder builder;
+    private volatile boolean shutdown;
+
+    // the open connection and its parser; only changed by the reading thread
+    private volatile Socket socket;
+    private PacketLogBatchReader connReader;
+    private CountingInputStream counter;
+    private long closedBytesRead;
+
+    /**
+     * Creates a server listening on the given port of the loopback address,
+     * or on any free port if <code>port</code> is 0.
+     */
+    public PacketLogServer(int port, PacketGraphBuilder builder)
+        throws IOException
+    {
+        serverSocket = new ServerSocket(port, 1, InetAddress.getByName(null));
+        this.builder = builder;
+    }
+
+    /**
+     * Returns the port on which the server is listening.
+     */
+    public int getPort()
+    {
+        return serverSocket.getLocalPort();
+    }
+
+    public PacketLogBatch readBatch()
+        throws IOException
+    {
+        while (!shutdown)
+        {
+            try
+            {
+                if (connReader == null)
+                {
+                    accept();
+                }
+                PacketLogBatch batch = connReader.readBatch();
+                if (batch != null) return batch;
+                closeConnection();
+            }
+            catch (IOException e)
+            {
+                // shutting down closes the sockets under blocked reads
+                if (shutdown) break;
+                throw e;
+            }
+        }
+        return null;
+    }
+
+    private void accept()
+        throws IOException
+    {
+        Socket s = serverSocket.accept();
+        socket = s;
+        counter = new CountingInputStream(s.getInputStream());
+        InputStream in = new BufferedInputStream(counter, 64 * 1024);
+
+        // binary streams start with a magic number; anything else is text
+        in.mark(4);
+        DataInputStream dataIn = new DataInputStream(in);
+        int magic;
+        try
+        {
+            magic = dataIn.readInt();
+        }
+        catch (IOException e)
+        {
+            magic = 0;
+        }
+        if (magic == BinaryPacketLogFormat.STREAM_MAGIC)
+        {
+            int version = dataIn.readInt();
+            if (version != BinaryPacketLogFormat.FORMAT_VERSION)
+            {
+                closeConnection();
+                throw new IOException("Unsupported record stream version: "
+                    + version);
+            }
+            connReader = new BinaryPacketStreamReader(in);
+        }
+        else
+        {
+            in.reset();
+            PacketLogReader textReader = new PacketLogReader(
+                new InputStreamReader(in), builder);
+            textReader.setPartialBatches(true);
+            connReader = textReader;
+        }
+    }
+
+    private void closeConnection()
+        throws IOException
+    {
+        if (counter != null)
+        {
+            closedBytesRead += counter.getCount();
+            counter = null;
+        }
+        connReader = null;
+        Socket s = socket;
+        if (s != null)
+        {
+            socket = null;
+            s.close();
+        }
+    }
+
+    /**
+     * Returns the address of the client whose records are being read, or
+     * null if no connection is open.
+     */
+    public SocketAddress getRemoteAddress()
+    {
+        Socket s = socket;
+        return s != null ? s.getRemoteSocketAddress() : null;
+    }
+
+    /**
+     * Returns the number of bytes received over all connections.
+     */
+    public long getBytesRead()
+    {
+        return closedBytesRead + (counter != null ? counter.getCount() : 0);
+    }
+
+    /**
+     * Stops accepting connections and closes any open connection, which
+     * makes a blocked {@link #readBatch()} return null.
+     */
+    public void shutdown()
+    {
+        shutdown = true;
+        try
+        {
+            serverSocket.close();
+        }
+        catch (IOException e)
+        {
+            // ignored
+        }
+        Socket s = socket;
+        if (s != null)
+        {
+            try
+            {
+                s.close();
+            }
+            catch (IOException e)
+            {
+                // ignored
+            }
+        }
+    }
+
+    public void close()
+        throws IOException
+    {
+        shutdown();
+        closeConnection();
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * PacketViz packet visualization for the Java (TM) Platform
+ * Copyright (C) 2007 Newisys, Inc. or its licensors, as applicable.
+ * Java is a registered trademark of Sun Microsystems, Inc. in the U.S. or
+ * other countries.
+ *
+ * Licensed under the Open Software License version 3.0 (the "License"); you
+ * may not use this file except in compliance with the License. You should
+ * have received a copy of the License along with this software; if not, you
+ * may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/osl-3.0.php
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.newisys.apps.pktviz.logreader;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.newisys.apps.pktviz.model.PacketGraph;
+import com.newisys.apps.pktviz.model.PacketGraphSource;
+import com.newisys.apps.pktviz.model.PacketInfo;
+import com.newisys.apps.pktviz.model.PacketPager;
+import com.newisys.apps.pktviz.model.filter.PacketFilter;
+import com.newisys.apps.pktviz.props.GraphProperties;
+
+/**
+ * Source for Version 4 logs too large to load into memory, which keeps only
+ * the pages of the log around the part being viewed. Pages are the runs of
+ * records between the checkpoints of a {@link PacketLogIndex}; each is read
+ * by seeking to its checkpoint when the graph is searched in its time span,
+ * and the least recently used pages are removed once their estimated size
+ * exceeds a memory budget. Pages needed for the current search are kept
+ * even if they exceed the budget.
+ * <p>
+ * Each page is built with its own transactions, restored from the index, so
+ * the transactions of evicted pages are released with their packets.
+ */
+public final class PagedPacketGraphSource
+    implements PacketGraphSource, PacketPager
+{
+    // rough heap bytes per byte of log text, for budgeting; measured at
+    // about 8 for typical Version 4 records
+    private static final int HEAP_BYTES_PER_LOG_BYTE = 8;
+
+    private final File file;
+    private final PacketGraph packetGraph;
+    private final PacketLogIndex index;
+    private final long memoryBudget;
+    private PacketFilter packetFilter;
+    private GraphProperties graphProperties;
+
+    // packets of each resident page, least recently used first
+    private final Map<Integer, List<PacketInfo>> residentPages = new LinkedHashMap<Integer, List<PacketInfo>>(
+        16, 0.75f, true);
+    private long residentBytes;
+
+    /**
+     * Creates a source that pages the given log into a graph.
+     *
+     * @param memoryBudget estimated heap bytes that resident pages may use
+     */
+    public PagedPacketGraphSource(
+        File file,
+        PacketGraph packetGraph,
+        PacketLogIndex index,
+        long memoryBudget)
+    {
+        this.file = file;
+        this.packetGraph = packetGraph;
+        this.index = index;
+        this.memoryBudget = memoryBudget;
+        packetGraph.setPager(this);
+    }
+
+    /**
+     * Returns a rough estimate of the heap needed to load all of a log.
+     */
+    public static long estimateHeapBytes(File file)
+    {
+        return file.length() * HEAP_BYTES_PER_LOG_BYTE;
+    }
+
+    public PacketGraph getPacketGraph()
+    {
+        return packetGraph;
+    }
+
+    public PacketFilter getPacketFilter()
+    {
+        return packetFilter;
+    }
+
+    public void setPacketFilter(PacketFilter packetFilter)
+    {
+        this.packetFilter = packetFilter;
+    }
+
+    public GraphProperties getGraphProperties()
+    {
+        return graphProperties;
+    }
+
+    public void setGraphProperties(GraphProperties graphProperties)
+    {
+        this.graphProperties = graphProperties;
+    }
+
+    public long getMemoryBudget()
+    {
+        return memoryBudget;
+    }
+
+    /**
+     * Returns the number of pages currently in memory.
+     */
+    public int getResidentPageCount()
+    {
+        return residentPages.size();
+    }
+
+    /**
+     * Returns the estimated heap used by the pages currently in memory.
+     */
+    public long getResidentBytes()
+    {
+        return residentBytes;
+    }
+
+    /**
+     * Returns true, since pages are loaded as the graph is searched rather
+     * than fetched in log order.
+     */
+    public boolean isComplete()
+    {
+        return true;
+    }
+
+    /**
+     * Loads the first page, so the graph has packets to scale the view by.
+     */
+    public void fetchAll()
+    {
+        fetchUntil(getFirstTime());
+    }
+
+    /**
+     * Loads the pages spanning the given time, or the first page if the time
+     * is before the start of the log.
+     */
+    public void fetchUntil(long untilTime)
+    {
+        long time = Math.max(untilTime, getFirstTime());
+        loadPackets(time, time);
+    }
+
+    public long getFirstTime()
+    {
+        return index.getFirstTime();
+    }
+
+    public long getLastTime()
+    {
+        return index.getLastTime();
+    }
+
+    public void loadPackets(long fromTime, long toTime)
+    {
+        List<Integer> needed = new ArrayList<Integer>();
+        int pageCount = index.getCheckpointCount();
+        for (int i = 0; i < pageCount; ++i)
+        {
+            if (index.getPageFirstTime(i) <= toTime
+                && index.getPageLastTime(i) >= fromTime)
+            {
+                needed.add(Integer.valueOf(i));
+            }
+        }
+
+        boolean added = false;
+        for (Integer page : needed)
+        {
+            // get() also marks resident pages as recently used
+            if (residentPages.get(page) == null)
+            {
+                added |= loadPage(page.intValue());
+            }
+        }
+
+        // evict least recently used pages that are not needed
+        List<PacketInfo> evicted = new ArrayList<PacketInfo>();
+        Iterator<Map.Entry<Integer, List<PacketInfo>>> i = residentPages.entrySet().iterator();
+        while (residentBytes > memoryBudget && i.hasNext())
+        {
+            Map.Entry<Integer, List<PacketInfo>> entry = i.next();
+            if (needed.contains(entry.getKey())) continue;
+
+            evicted.addAll(entry.getValue());
+            residentBytes -= getPageBytes(entry.getKey().intValue());
+            i.remove();
+        }
+        packetGraph.removePackets(evicted);
+
+        // pages may be loaded out of order, so re-index the resident pages
+        if (added || !evicted.isEmpty())
+        {
+            packetGraph.allPacketsAddedEvent();
+        }
+    }
+
+    private boolean loadPage(int page)
+    {
+        PacketGraphBuilder builder = new PacketGraphBuilder(packetGraph);
+        builder.setPacketFilter(packetFilter);
+        builder.setGraphProperties(graphProperties);
+        List<PacketInfo> packets = new ArrayList<PacketInfo>();
+        builder.setAddedPackets(packets);
+        try
+        {
+            PacketLogReader reader = PacketLogReader.openPage(file, builder,
+                index, page);
+            try
+            {
+                PacketLogBatch batch;
+                while ((batch = reader.readBatch()) != null)
+                {
+                    builder.addBatch(batch, 0, Long.MAX_VALUE);
+                }
+            }
+            finally
+            {
+                reader.close();
+            }
+        }
+        catch (IOException e)
+        {
+            // leave the page out, and try again on the next search
+            System.err.println("Warning: Could not load page " + page
+                + " of " + file + ": " + e.getMessage());
+            packetGraph.removePackets(packets);
+            return false;
+        }
+
+        residentPages.put(Integer.valueOf(page), packets);
+        residentBytes += getPageBytes(page);
+        return true;
+    }
+
+    private long getPageBytes(int page)
+    {
+        long end = page + 1 < index.getCheckpointCount() ? index.getOffset(page
+            + 1) : file.length();
+        return (end - index.getOffset(page)) * HEAP_BYTES_PER_LOG_BYTE;
+    }
+}
@@ -0,0 +1,570 @@
+/*
+ * PacketViz packet visualization for the Java (TM) Platform
+ * Copyright (C) 2007 Newisys, Inc. or its licensors, as applicable.
+ * Java is a registered trademark of Sun Microsystems, Inc. in the U.S. or
+ * other countries.
+ *
+ * Licensed under the Open Software License version 3.0 (the "License"); you
+ * may not use this file except in compliance with the License. You should
+ * have received a copy of the License along with this software; if not, you
+ * may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/osl-3.0.php
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.newisys.apps.pktviz.logreader;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import com.newisys.apps.pktviz.model.PacketGraph;
+import com.newisys.apps.pktviz.model.PacketGraphSource;
+import com.newisys.apps.pktviz.model.filter.PacketFilter;
+import com.newisys.apps.pktviz.props.GraphProperties;
+
+/**
+ * Reads a Version 4 packet log by memory-mapping the file and parsing
+ * newline-aligned chunks of it on a pool of worker threads. The parsed
+ * chunks are added to the graph in file order on the calling thread, so
+ * transaction sharing, node creation and line numbers are the same as with
+ * {@link PacketLogReader}, which is used instead for logs of other versions.
+ * <p>
+ * A chunk owns every line that starts within its nominal byte range, so
+ * chunks can be parsed independently. As with {@link PacketLogReader},
+ * lines end with '\n', '\r' or "\r\n", and bytes are decoded in the
+ * platform's default charset. Lines are decoded separately, which requires
+ * a charset in which these bytes only ever encode line terminators, as in
+ * ASCII; logs are read sequentially under any other default charset.
+ */
+public final class ParallelPacketLogReader
+    implements PacketGraphSource, PacketLogBatchReader
+{
+    private static final int DEFAULT_CHUNK_SIZE = 8 * 1024 * 1024;
+    private static final int HEADER_PROBE_SIZE = 4096;
+    private static final int MAP_OVERRUN = 64 * 1024;
+
+    // characters that must be encoded as in ASCII for lines to be decoded
+    // separately
+    private static final String ASCII_SAMPLE = "\t\n\r !\"#$%&'()*+,-./"
+        + "0123456789:;<=>?@ABCDEFGHIJKLMNOPQRSTUVWXYZ[\\]^_`"
+        + "abcdefghijklmnopqrstuvwxyz{|}~";
+
+    private final File file;
+    private final PacketGraphBuilder builder;
+    private final int threadCount;
+    private int chunkSize;
+
+    private final Charset charset = Charset.defaultCharset();
+    private FileChannel channel;
+    private long fileSize;
+    private ExecutorService executor;
+    private LinkedList<Future<PacketLogBatch>> pendingChunks;
+    private LinkedList<Long> pendingChunkEnds;
+    private long nextChunkStart;
+    private PacketLogBatch curChunk;
+    private int curRecord;
+    private long baseLineNumber;
+    private long bytesRead;
+    private PacketLogReader sequentialReader;
+    private boolean started;
+    private boolean doneReading;
+
+    public ParallelPacketLogReader(File file, PacketGraph packetGraph)
+    {
+        this(file, packetGraph, Runtime.getRuntime().availableProcessors());
+    }
+
+    public ParallelPacketLogReader(
+        File file,
+        PacketGraph packetGraph,
+        int threadCount)
+    {
+        this(file, new PacketGraphBuilder(packetGraph), threadCount);
+    }
+
+    ParallelPacketLogReader(
+        File file,
+        PacketGraphBuilder builder,
+        int threadCount)
+    {
+        if (threadCount < 1)
+        {
+            throw new IllegalArgumentException("Invalid thread count: "
+                + threadCount);
+        }
+        this.file = file;
+        this.builder = builder;
+        this.threadCount = threadCount;
+        chunkSize = DEFAULT_CHUNK_SIZE;
+    }
+
+    public PacketGraph getPacketGraph()
+    {
+        return builder.getPacketGraph();
+    }
+
+    public PacketFilter getPacketFilter()
+    {
+        return builder.getPacketFilter();
+    }
+
+    public void setPacketFilter(PacketFilter packetFilter)
+    {
+        builder.setPacketFilter(packetFilter);
+    }
+
+    public GraphProperties getGraphProperties()
+    {
+        return builder.getGraphProperties();
+    }
+
+    public void setGraphProperties(GraphProperties graphProperties)
+    {
+        builder.setGraphProperties(graphProperties);
+    }
+
+    public int getChunkSize()
+    {
+        return chunkSize;
+    }
+
+    public void setChunkSize(int chunkSize)
+    {
+        if (started)
+        {
+            throw new IllegalStateException("Reading has already started");
+        }
+        if (chunkSize < 1)
+        {
+            throw new IllegalArgumentException("Invalid chunk size: "
+                + chunkSize);
+        }
+        this.chunkSize = chunkSize;
+    }
+
+    public boolean isComplete()
+    {
+        return sequentialReader != null ? sequentialReader.isComplete()
+            : doneReading;
+    }
+
+    public void fetchAll()
+        throws IOException
+    {
+        fetchUntil(Long.MAX_VALUE);
+    }
+
+    public void fetchUntil(long untilTime)
+        throws IOException
+    {
+        if (!started)
+        {
+            start();
+        }
+        if (sequentialReader != null)
+        {
+            sequentialReader.fetchUntil(untilTime);
+            return;
+        }
+
+        try
+        {
+            if (doneReading || builder.getLastTimeRead() > untilTime) return;
+
+            while (true)
+            {
+                if (curChunk == null)
+                {
+                    curChunk = readBatch();
+                    if (curChunk == null) break;
+                    curRecord = 0;
+                }
+
+                try
+                {
+                    curRecord = builder.addBatch(curChunk, curRecord, untilTime);
+                }
+                catch (RuntimeException e)
+                {
+                    doneReading = true;
+                    throw e;
+                }
+                if (builder.getLastTimeRead() > untilTime) return;
+                curChunk = null;
+            }
+            builder.allPacketsAddedEvent();
+            doneReading = true;
+            close();
+        }
+        catch (Throwable throwable)
+        {
+            close();
+            throwable.printStackTrace();
+            throw new RuntimeException("Error on line " + builder.getLineNumber()
+                + " of input file");
+        }
+    }
+
+    public PacketLogBatch readBatch()
+        throws IOException
+    {
+        if (!started)
+        {
+            start();
+        }
+        if (sequentialReader != null)
+        {
+            return sequentialReader.readBatch();
+        }
+        if (pendingChunks == null || pendingChunks.isEmpty())
+        {
+            return null;
+        }
+
+        PacketLogBatch chunk;
+        try
+        {
+            chunk = pendingChunks.removeFirst().get();
+        }
+        catch (InterruptedException e)
+        {
+            throw new InterruptedIOException();
+        }
+        catch (ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new RuntimeException(cause);
+        }
+        bytesRead = pendingChunkEnds.removeFirst().longValue();
+        submitChunks();
+
+        chunk.baseLineNumber = baseLineNumber;
+        baseLineNumber += chunk.lineCount;
+        return chunk;
+    }
+
+    public long getBytesRead()
+    {
+        return sequentialReader != null ? sequentialReader.getBytesRead()
+            : bytesRead;
+    }
+
+    private void start()
+        throws IOException
+    {
+        started = true;
+
+        FileInputStream fis = new FileInputStream(file);
+        channel = fis.getChannel();
+        fileSize = channel.size();
+
+        // read the version header; only Version 4 is parsed in parallel
+        ByteBuffer probe = ByteBuffer.allocate((int) Math.min(
+            HEADER_PROBE_SIZE, fileSize));
+        while (probe.hasRemaining() && channel.read(probe) >= 0)
+        {
+            // keep reading
+        }
+        int headerEnd = -1;
+        for (int i = 0; i < probe.position(); ++i)
+        {
+            byte b = probe.get(i);
+            if (b == '\n' || b == '\r')
+            {
+                headerEnd = i;
+                break;
+            }
+        }
+        int version = -1;
+        int dataStart = headerEnd + 1;
+        if (headerEnd >= 0 && dataStart < probe.position()
+            && isAsciiCompatible(charset))
+        {
+            if (probe.get(headerEnd) == '\r' && probe.get(dataStart) == '\n')
+            {
+                ++dataStart;
+            }
+            String header = new String(probe.array(), 0, headerEnd,
+                charset.name());
+            version = PacketLogReader.parseVersionHeader(header);
+        }
+        if (version != 4)
+        {
+            channel.close();
+            channel = null;
+            sequentialReader = new PacketLogReader(file, builder);
+            return;
+        }
+
+        baseLineNumber = 1;
+        bytesRead = dataStart;
+        nextChunkStart = dataStart;
+        pendingChunks = new LinkedList<Future<PacketLogBatch>>();
+        pendingChunkEnds = new LinkedList<Long>();
+        executor = Executors.newFixedThreadPool(threadCount,
+            new ThreadFactory()
+            {
+                private int count;
+
+                public Thread newThread(Runnable r)
+                {
+                    Thread t = new Thread(r, "PacketLogParser-" + (++count));
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        submitChunks();
+    }
+
+    private static boolean isAsciiCompatible(Charset charset)
+    {
+        if (!charset.canEncode()) return false;
+        ByteBuffer encoded = charset.encode(ASCII_SAMPLE);
+        if (encoded.remaining() != ASCII_SAMPLE.length()) return false;
+        for (int i = 0; i < ASCII_SAMPLE.length(); ++i)
+        {
+            if (encoded.get(i) != ASCII_SAMPLE.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private void submitChunks()
+    {
+        // keep enough chunks in flight to occupy every thread while the
+        // calling thread merges the oldest one
+        while (nextChunkStart < fileSize
+            && pendingChunks.size() < threadCount * 2)
+        {
+            long start = nextChunkStart;
+            long end = Math.min(fileSize, start + chunkSize);
+            pendingChunks.add(executor.submit(new ChunkParser(start, end)));
+            pendingChunkEnds.add(Long.valueOf(end));
+            nextChunkStart = end;
+        }
+    }
+
+    public void close()
+        throws IOException
+    {
+        if (executor != null)
+        {
+            executor.shutdownNow();
+            executor = null;
+        }
+        pendingChunks = null;
+        pendingChunkEnds = null;
+        curChunk = null;
+        if (channel != null)
+        {
+            try
+            {
+                channel.close();
+            }
+            catch (IOException e)
+            {
+                // ignored
+            }
+            channel = null;
+        }
+        if (sequentialReader != null)
+        {
+            sequentialReader.close();
+        }
+    }
+
+    private final class ChunkParser
+        implements Callable<PacketLogBatch>
+    {
+        private final long start;
+        private final long end;
+
+        // current mapping of the file
+        private ByteBuffer window;
+        private long windowStart;
+
+        // decodes lines that are not entirely ASCII
+        private final CharsetDecoder decoder = charset.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+        public ChunkParser(long start, long end)
+        {
+            this.start = start;
+            this.end = end;
+        }
+
+        public PacketLogBatch call()
+            throws IOException
+        {
+            PacketLogBatch chunk = new PacketLogBatch();
+            PacketLogEntry entry = new PacketLogEntry();
+            entry.version = 4;
+            char[] lineBuf = new char[256];
+
+            // skip the line in progress at the nominal start; it belongs to
+            // the previous chunk
+            long pos = start;
+            map(start - 1, end + MAP_OVERRUN);
+            if (!isLineStart(start))
+            {
+                long term = findTerminator(start);
+                if (term < 0) return chunk;
+                pos = nextLineStart(term);
+            }
+            chunk.startOffset = pos;
+
+            while (pos < end)
+            {
+                long term = findTerminator(pos);
+                long lineEnd = term >= 0 ? term : fileSize;
+                long next = term >= 0 ? nextLineStart(term) : fileSize;
+
+                int len = (int) (lineEnd - pos);
+                int off = (int) (pos - windowStart);
+                boolean ascii = true;
+                if (len > lineBuf.length)
+                {
+                    lineBuf = new char[Math.max(len, lineBuf.length * 2)];
+                }
+                for (int i = 0; i < len; ++i)
+                {
+                    byte b = window.get(off + i);
+                    if (b < 0)
+                    {
+                        ascii = false;
+                        break;
+                    }
+                    lineBuf[i] = (char) b;
+                }
+                if (!ascii)
+                {
+                    CharBuffer decoded = decode(off, len);
+                    len = decoded.remaining();
+                    if (len > lineBuf.length)
+                    {
+                        lineBuf = new char[Math.max(len, lineBuf.length * 2)];
+                    }
+                    decoded.get(lineBuf, 0, len);
+                }
+
+                ++chunk.lineCount;
+                try
+                {
+                    if (entry.parseLine(lineBuf, 0, len))
+                    {
+                        chunk.add(entry, chunk.lineCount);
+                    }
+                }
+                catch (RuntimeException e)
+                {
+                    chunk.setError(e, chunk.lineCount, new String(lineBuf,
+                        entry.recordStart, entry.recordEnd - entry.recordStart));
+                    break;
+                }
+                pos = next;
+            }
+            return chunk;
+        }
+
+        private void map(long from, long to)
+            throws IOException
+        {
+            from = Math.max(0, from);
+            to = Math.min(fileSize, to);
+            window = channel.map(FileChannel.MapMode.READ_ONLY, from, to
+                - from);
+            windowStart = from;
+        }
+
+        private byte byteAt(long pos)
+        {
+            return window.get((int) (pos - windowStart));
+        }
+
+        private CharBuffer decode(int off, int len)
+            throws IOException
+        {
+            ByteBuffer bytes = window.duplicate();
+            bytes.limit(off + len);
+            bytes.position(off);
+            return decoder.decode(bytes);
+        }
+
+        /**
+         * Returns whether a line starts at <code>pos</code>, which the
+         * window must cover along with the byte before it.
+         */
+        private boolean isLineStart(long pos)
+        {
+            if (pos == 0) return true;
+            byte prev = byteAt(pos - 1);
+            return prev == '\n'
+                || (prev == '\r' && (pos == fileSize || byteAt(pos) != '\n'));
+        }
+
+        /**
+         * Returns the start of the line following the terminator at
+         * <code>term</code>, which the window must cover along with the
+         * byte after it, if any.
+         */
+        private long nextLineStart(long term)
+        {
+            if (byteAt(term) == '\r' && term + 1 < fileSize
+                && byteAt(term + 1) == '\n')
+            {
+                return term + 2;
+            }
+            return term + 1;
+        }
+
+        /**
+         * Returns the position of the next line terminator ('\n' or '\r')
+         * at or after <code>pos</code>, or -1 if there is none. On return,
+         * the window covers <code>pos</code> through the terminator and the
+         * byte after it, if any.
+         */
+        private long findTerminator(long pos)
+            throws IOException
+        {
+            while (true)
+            {
+                long windowEnd = windowStart + window.limit();
+                for (long p = pos; p < windowEnd; ++p)
+                {
+                    byte b = window.get((int) (p - windowStart));
+                    if (b == '\n' || b == '\r')
+                    {
+                        if (p + 1 < windowEnd || windowEnd >= fileSize) return p;
+                        break;
+                    }
+                }
+                if (windowEnd >= fileSize) return -1;
+
+                // line runs past the mapping; remap from its start
+                long size = Math.max(windowEnd - pos, MAP_OVERRUN) * 2;
+                map(pos, pos + size);
+            }
+        }
+    }
+}
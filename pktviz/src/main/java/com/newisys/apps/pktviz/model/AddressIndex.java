@@ -0,0 +1,144 @@
+/*
+ * PacketViz packet visualization for the Java (TM) Platform
+ * Copyright (C) 2007 Newisys, Inc. or its licensors, as applicable.
+ * Java is a registered trademark of Sun Microsystems, Inc. in the U.S. or
+ * other countries.
+ *
+ * Licensed under the Open Software License version 3.0 (the "License"); you
+ * may not use this file except in compliance with the License. You should
+ * have received a copy of the License along with this software; if not, you
+ * may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/osl-3.0.php
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.newisys.apps.pktviz.model;
+
+import java.util.Arrays;
+
+/**
+ * The packets of a store whose transactions have an address, grouped by
+ * address. The distinct addresses are kept sorted in a primitive array, in
+ * unsigned order, with the store indices of the packets of each address
+ * following one another in a second array.
+ * <p>
+ * The addresses that match a value under a mask share the leading set bits
+ * of the mask, and therefore form one range of the sorted addresses. If the
+ * mask has no other set bits, as for cache line masks, that range is
+ * exactly the matching addresses; otherwise each address in the range is
+ * tested against the rest of the mask.
+ * <p>
+ * The index is a snapshot of the store when it was built, and is not
+ * updated as packets are added or removed.
+ */
+final class AddressIndex
+{
+    // distinct addresses with the sign bit flipped, so that signed order
+    // is unsigned address order
+    private final long[] keys;
+
+    // the packets with address keys[i] are packets[starts[i]] to
+    // packets[starts[i + 1] - 1], in store order
+    private final int[] starts;
+    private final int[] packets;
+
+    public AddressIndex(PacketStore store)
+    {
+        int size = store.size();
+        int[] addressed = new int[size];
+        long[] packetKeys = new long[size];
+        int count = 0;
+        for (int i = 0; i < size; ++i)
+        {
+            TxnInfo txn = store.get(i).getTxn();
+            if (txn != null && txn.isAddrSet())
+            {
+                addressed[count] = i;
+                packetKeys[count] = txn.getAddrValue() ^ Long.MIN_VALUE;
+                ++count;
+            }
+        }
+
+        // sort the distinct addresses
+        long[] sorted = new long[count];
+        System.arraycopy(packetKeys, 0, sorted, 0, count);
+        Arrays.sort(sorted);
+        int distinct = 0;
+        for (int i = 0; i < count; ++i)
+        {
+            if (distinct == 0 || sorted[i] != sorted[distinct - 1])
+            {
+                sorted[distinct++] = sorted[i];
+            }
+        }
+        keys = new long[distinct];
+        System.arraycopy(sorted, 0, keys, 0, distinct);
+
+        // count the packets of each address, then place them in store order
+        int[] buckets = new int[count];
+        starts = new int[distinct + 1];
+        for (int i = 0; i < count; ++i)
+        {
+            int bucket = Arrays.binarySearch(keys, packetKeys[i]);
+            buckets[i] = bucket;
+            ++starts[bucket + 1];
+        }
+        for (int i = 0; i < distinct; ++i)
+        {
+            starts[i + 1] += starts[i];
+        }
+        int[] next = new int[distinct];
+        System.arraycopy(starts, 0, next, 0, distinct);
+        packets = new int[count];
+        for (int i = 0; i < count; ++i)
+        {
+            packets[next[buckets[i]]++] = addressed[i];
+        }
+    }
+
+    /**
+     * Returns the store indices of the packets whose address, masked with
+     * the given mask, equals the given address, in store order.
+     */
+    public int[] findPackets(long addr, long mask)
+    {
+        // the range of addresses sharing the leading set bits of the mask
+        int prefixBits = Long.numberOfLeadingZeros(~mask);
+        long rangeMask = prefixBits > 0 ? -1L << (64 - prefixBits) : 0;
+        long low = (addr & rangeMask) ^ Long.MIN_VALUE;
+        long high = (addr | ~rangeMask) ^ Long.MIN_VALUE;
+        int from = Arrays.binarySearch(keys, low);
+        if (from < 0) from = -from - 1;
+        int to = Arrays.binarySearch(keys, high);
+        to = to >= 0 ? to + 1 : -to - 1;
+
+        boolean exact = (mask == rangeMask);
+        long value = addr & mask;
+        int count = 0;
+        for (int i = from; i < to; ++i)
+        {
+            if (exact || ((keys[i] ^ Long.MIN_VALUE) & mask) == value)
+            {
+                count += starts[i + 1] - starts[i];
+            }
+        }
+
+        int[] result = new int[count];
+        int pos = 0;
+        for (int i = from; i < to; ++i)
+        {
+            if (exact || ((keys[i] ^ Long.MIN_VALUE) & mask) == value)
+            {
+                int n = starts[i + 1] - starts[i];
+                System.arraycopy(packets, starts[i], result, pos, n);
+                pos += n;
+            }
+        }
+        if (to - from > 1) Arrays.sort(result);
+        return result;
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * PacketViz packet visualization for the Java (TM) Platform
+ * Copyright (C) 2007 Newisys, Inc. or its licensors, as applicable.
+ * Java is a registered trademark of Sun Microsystems, Inc. in the U.S. or
+ * other countries.
+ *
+ * Licensed under the Open Software License version 3.0 (the "License"); you
+ * may not use this file except in compliance with the License. You should
+ * have received a copy of the License along with this software; if not, you
+ * may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/osl-3.0.php
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.newisys.apps.pktviz.model;
+
+import java.io.IOException;
+
+/**
+ * A graph source that is loaded a step at a time by the thread that owns
+ * the graph, normally the Swing event thread, so that the thread stays
+ * responsive and can show the progress of the load and cancel it.
+ */
+public interface IncrementalPacketGraphSource
+    extends PacketGraphSource
+{
+    /**
+     * Adds the next records to the graph, doing a bounded amount of work
+     * so that the caller is not held up.
+     *
+     * @return the number of records added
+     */
+    long fetchAvailable()
+        throws IOException;
+
+    /**
+     * Returns the number of bytes of the log read so far.
+     */
+    long getBytesRead();
+
+    /**
+     * Returns the size of the log in bytes, or -1 if it is not known.
+     */
+    long getTotalBytes();
+
+    /**
+     * Returns the number of records read so far.
+     */
+    long getRecordsRead();
+
+    /**
+     * Stops loading. Records that have already been added to the graph
+     * remain, but no more will be added.
+     */
+    void cancel();
+}
@@ -0,0 +1,271 @@
+/*
+ * PacketViz packet visualization for the Java (TM) Platform
+ * Copyright (C) 2007 Newisys, Inc. or its licensors, as applicable.
+ * Java is a registered trademark of Sun Microsystems, Inc. in the U.S. or
+ * other countries.
+ *
+ * Licensed under the Open Software License version 3.0 (the "License"); you
+ * may not use this file except in compliance with the License. You should
+ * have received a copy of the License along with this software; if not, you
+ * may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/osl-3.0.php
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.newisys.apps.pktviz.model;
+
+/**
+ * A set of packet ordinals (indices in a packet store), held either as a
+ * sorted array of ordinals or as one bit per ordinal, whichever is
+ * smaller. Sparse sets, such as the packets of a rare command, therefore
+ * take space in proportion to their size, and dense ones 1 bit per packet.
+ * Ordinals are added in increasing order; sets are combined with
+ * {@link #and(PacketBitmap, PacketBitmap)} and
+ * {@link #or(PacketBitmap, PacketBitmap)}, which produce new sets.
+ */
+final class PacketBitmap
+{
+    // sorted ordinals, or null in the dense form
+    private int[] ordinals;
+
+    // one bit per ordinal, or null in the sparse form
+    private long[] words;
+
+    private int cardinality;
+
+    public PacketBitmap()
+    {
+        ordinals = new int[4];
+    }
+
+    private PacketBitmap(int[] ordinals, long[] words, int cardinality)
+    {
+        this.ordinals = ordinals;
+        this.words = words;
+        this.cardinality = cardinality;
+    }
+
+    /**
+     * Creates a set from sorted, distinct ordinals, which it takes over.
+     */
+    public static PacketBitmap fromSorted(int[] ordinals)
+    {
+        return new PacketBitmap(ordinals, null, ordinals.length);
+    }
+
+    /**
+     * Adds an ordinal greater than any in the set.
+     */
+    public void add(int ordinal)
+    {
+        if (words == null)
+        {
+            if (cardinality == ordinals.length)
+            {
+                // switch to bits once a grown array would be larger
+                if ((long) cardinality * 64 > ordinal)
+                {
+                    words = toWords(ordinals, cardinality, ordinal);
+                    ordinals = null;
+                }
+                else
+                {
+                    int[] newOrdinals = new int[Math.max(4, cardinality * 2)];
+                    System.arraycopy(ordinals, 0, newOrdinals, 0, cardinality);
+                    ordinals = newOrdinals;
+                }
+            }
+            if (words == null)
+            {
+                ordinals[cardinality++] = ordinal;
+                return;
+            }
+        }
+
+        int word = ordinal >>> 6;
+        if (word >= words.length)
+        {
+            long[] newWords = new long[Math.max(word + 1, words.length * 2)];
+            System.arraycopy(words, 0, newWords, 0, words.length);
+            words = newWords;
+        }
+        words[word] |= 1L << ordinal;
+        ++cardinality;
+    }
+
+    private static long[] toWords(int[] ordinals, int count, int maxOrdinal)
+    {
+        long[] words = new long[(maxOrdinal >>> 6) + 1];
+        for (int i = 0; i < count; ++i)
+        {
+            words[ordinals[i] >>> 6] |= 1L << ordinals[i];
+        }
+        return words;
+    }
+
+    public int cardinality()
+    {
+        return cardinality;
+    }
+
+    public boolean contains(int ordinal)
+    {
+        if (words != null)
+        {
+            int word = ordinal >>> 6;
+            return word < words.length && (words[word] & (1L << ordinal)) != 0;
+        }
+
+        int low = 0;
+        int high = cardinality - 1;
+        while (low <= high)
+        {
+            int mid = (low + high) >>> 1;
+            int value = ordinals[mid];
+            if (value < ordinal)
+            {
+                low = mid + 1;
+            }
+            else if (value > ordinal)
+            {
+                high = mid - 1;
+            }
+            else
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the ordinals in the set, in increasing order.
+     */
+    public int[] toArray()
+    {
+        int[] result = new int[cardinality];
+        if (words == null)
+        {
+            System.arraycopy(ordinals, 0, result, 0, cardinality);
+            return result;
+        }
+
+        int pos = 0;
+        for (int i = 0; i < words.length; ++i)
+        {
+            long word = words[i];
+            while (word != 0)
+            {
+                result[pos++] = (i << 6) + Long.numberOfTrailingZeros(word);
+                word &= word - 1;
+            }
+        }
+        return result;
+    }
+
+    public static PacketBitmap and(PacketBitmap a, PacketBitmap b)
+    {
+        if (a.words != null && b.words != null)
+        {
+            int n = Math.min(a.words.length, b.words.length);
+            long[] words = new long[n];
+            int count = 0;
+            for (int i = 0; i < n; ++i)
+            {
+                words[i] = a.words[i] & b.words[i];
+                count += Long.bitCount(words[i]);
+            }
+            return fromWords(words, count);
+        }
+
+        // test the ordinals of a sparse set against the other set
+        if (a.words != null)
+        {
+            PacketBitmap t = a;
+            a = b;
+            b = t;
+        }
+        PacketBitmap result = new PacketBitmap();
+        for (int i = 0; i < a.cardinality; ++i)
+        {
+            int ordinal = a.ordinals[i];
+            if (b.contains(ordinal)) result.add(ordinal);
+        }
+        return result;
+    }
+
+    public static PacketBitmap or(PacketBitmap a, PacketBitmap b)
+    {
+        if (a.words == null && b.words == null)
+        {
+            // merge the sorted ordinals
+            PacketBitmap result = new PacketBitmap();
+            int i = 0;
+            int j = 0;
+            while (i < a.cardinality || j < b.cardinality)
+            {
+                int x = i < a.cardinality ? a.ordinals[i] : Integer.MAX_VALUE;
+                int y = j < b.cardinality ? b.ordinals[j] : Integer.MAX_VALUE;
+                if (x <= y) ++i;
+                if (y <= x) ++j;
+                result.add(Math.min(x, y));
+            }
+            return result;
+        }
+
+        if (a.words == null)
+        {
+            PacketBitmap t = a;
+            a = b;
+            b = t;
+        }
+        int n = a.words.length;
+        if (b.words != null)
+        {
+            n = Math.max(n, b.words.length);
+        }
+        else if (b.cardinality > 0)
+        {
+            n = Math.max(n, (b.ordinals[b.cardinality - 1] >>> 6) + 1);
+        }
+        long[] words = new long[n];
+        System.arraycopy(a.words, 0, words, 0, a.words.length);
+        if (b.words != null)
+        {
+            for (int i = 0; i < b.words.length; ++i)
+            {
+                words[i] |= b.words[i];
+            }
+        }
+        else
+        {
+            for (int i = 0; i < b.cardinality; ++i)
+            {
+                words[b.ordinals[i] >>> 6] |= 1L << b.ordinals[i];
+            }
+        }
+        int count = 0;
+        for (int i = 0; i < n; ++i)
+        {
+            count += Long.bitCount(words[i]);
+        }
+        return fromWords(words, count);
+    }
+
+    /**
+     * Wraps a dense result, converting it to ordinals if that is smaller.
+     */
+    private static PacketBitmap fromWords(long[] words, int count)
+    {
+        PacketBitmap result = new PacketBitmap(null, words, count);
+        if ((long) count * 32 < (long) words.length * 64)
+        {
+            return fromSorted(result.toArray());
+        }
+        return result;
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * PacketViz packet visualization for the Java (TM) Platform
+ * Copyright (C) 2007 Newisys, Inc. or its licensors, as applicable.
+ * Java is a registered trademark of Sun Microsystems, Inc. in the U.S. or
+ * other countries.
+ *
+ * Licensed under the Open Software License version 3.0 (the "License"); you
+ * may not use this file except in compliance with the License. You should
+ * have received a copy of the License along with this software; if not, you
+ * may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/osl-3.0.php
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.newisys.apps.pktviz.model;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A secondary index of the packets in a store by the value of one
+ * attribute: a Version 4 field, or the name of the sending or receiving
+ * node. Each distinct value maps to a {@link PacketBitmap} of the packets
+ * having it. Only low-cardinality attributes are worth indexing this way;
+ * once an attribute has more than {@link #MAX_VALUES} values, the index
+ * drops its bitmaps and reports itself as overflowed.
+ */
+final class PacketFieldIndex
+{
+    public static final int FIELD = 0;
+    public static final int FROM_NODE = 1;
+    public static final int TO_NODE = 2;
+
+    /** Maximum number of distinct values indexed. */
+    public static final int MAX_VALUES = 1024;
+
+    private final int kind;
+    private final String field;
+    private Map<String, PacketBitmap> bitmaps;
+
+    /**
+     * Creates an index of the packets in the given store.
+     *
+     * @param kind FIELD, FROM_NODE or TO_NODE
+     * @param field the name of the field, for FIELD
+     */
+    public PacketFieldIndex(int kind, String field, PacketStore store)
+    {
+        this.kind = kind;
+        this.field = field;
+        rebuild(store);
+    }
+
+    /**
+     * Re-creates the index from the packets in the given store, after
+     * packets have been removed from it.
+     */
+    public void rebuild(PacketStore store)
+    {
+        bitmaps = new HashMap<String, PacketBitmap>();
+        int size = store.size();
+        for (int i = 0; i < size && bitmaps != null; ++i)
+        {
+            add(store.get(i), i);
+        }
+    }
+
+    /**
+     * Adds a packet appended to the store.
+     */
+    public void add(PacketInfo packet, int index)
+    {
+        if (bitmaps == null) return;
+
+        String value = getValue(packet);
+        if (value == null) return;
+
+        PacketBitmap bitmap = bitmaps.get(value);
+        if (bitmap == null)
+        {
+            if (bitmaps.size() == MAX_VALUES)
+            {
+                bitmaps = null;
+                return;
+            }
+            bitmap = new PacketBitmap();
+            bitmaps.put(value, bitmap);
+        }
+        bitmap.add(index);
+    }
+
+    private String getValue(PacketInfo packet)
+    {
+        switch (kind)
+        {
+            case FROM_NODE:
+                return packet.getFromNode().getName();
+            case TO_NODE:
+                return packet.getToNode().getName();
+            default:
+                return packet.getFieldValue(field);
+        }
+    }
+
+    public boolean isOverflowed()
+    {
+        return bitmaps == null;
+    }
+
+    /**
+     * Returns the packets with the given value. The returned bitmap must not
+     * be modified.
+     *
+     * @throws IllegalStateException if the index has overflowed
+     */
+    public PacketBitmap getPackets(String value)
+    {
+        if (bitmaps == null)
+        {
+            throw new IllegalStateException("Index has overflowed");
+        }
+        PacketBitmap bitmap = bitmaps.get(value);
+        return bitmap != null ? bitmap : new PacketBitmap();
+    }
+}
@@ -1,4 +1,3 @@
-package com.newisys.apps.pktviz.model;
 /*
  * PacketViz packet visualization for the Java (TM) Platform
  * Copyright (C) 2007 Newisys, Inc. or its licensors, as applicable.
@@ -17,23 +16,17 @@ package com.newisys.apps.pktviz.model;
  * specific language governing permissions and limitations under the License.
  */
 
-public class Address
-{
-    private long address;
+package com.newisys.apps.pktviz.model;
 
-    private Address(long address)
-    {
-        this.address = address;
-    }
-    
-    public long getAddr()
-    {
-        return address;
-    }
+/**
+ * The name/value fields of a Version 4 packet, in log order. A field given
+ * without a value (a flag) has a null value.
+ */
+public interface PacketFieldList
+{
+    int size();
 
-    public static Address makeAddress(long _addr)
-    {
-        return new Address(_addr);
-    }
+    String getName(int index);
 
+    String getValue(int index);
 }
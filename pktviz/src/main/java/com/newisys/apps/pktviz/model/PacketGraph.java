@@ -18,42 +18,178 @@
 
 package com.newisys.apps.pktviz.model;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import com.google.common.base.Predicate;
 import com.google.common.collect.Iterators;
+import com.newisys.apps.pktviz.model.filter.AddrFilter;
+import com.newisys.apps.pktviz.model.filter.AndFilter;
+import com.newisys.apps.pktviz.model.filter.FieldFilter;
+import com.newisys.apps.pktviz.model.filter.NodeFilter;
+import com.newisys.apps.pktviz.model.filter.OrFilter;
 import com.newisys.apps.pktviz.model.filter.PacketFilter;
+import com.newisys.apps.pktviz.model.filter.TxnIdFilter;
+import com.newisys.apps.pktviz.model.filter.TxnIdMultiFilter;
 import com.newisys.apps.pktviz.model.xform.PacketTimeTransform;
-import com.newisys.prtree.Interval;
 import com.newisys.prtree.PRTree;
 import com.newisys.prtree.PointIterator;
 import com.newisys.prtree.SimpleInterval;
+import com.newisys.util.symbol.SymbolPool;
 
+/**
+ * The nodes and packets of a packet log, with an index of the packets that
+ * match the filter by their displayed times.
+ * <p>
+ * Changes to the graph are serialized on an internal lock, so packets may
+ * be added by a background thread while another thread queries the graph.
+ * Listeners are notified on the thread making the change, while it holds
+ * the lock. {@link #findPackets(long, long)}, {@link #getPacketTimes()},
+ * {@link #getPackets()} and the first and last times use the index and
+ * packet list published after the last change, without taking the lock, so
+ * they do not wait for packets being added. A query that finds the index
+ * invalid, because the filter or time transform changed or packets arrived
+ * that could not be indexed incrementally, re-indexes the whole graph
+ * itself: on the calling thread, which for a view is the event dispatch
+ * thread, and holding the lock. A query that has a pager load packets also
+ * takes the lock.
+ * <p>
+ * Published index trees are never modified. Packets indexed incrementally
+ * are kept in a short append-only list beside the tree, which is rebuilt
+ * once that list grows past a fraction of its size.
+ * <p>
+ * The published state is not a self-contained copy of the graph.
+ * Displayed times and styles are read from the packets themselves, which
+ * keep them in the shared {@link PacketStore}, so a view that paints while
+ * the graph is being re-indexed may draw some packets at their new times
+ * until it is repainted. The node hierarchy should be changed on the thread
+ * that owns the views, as node events update them directly.
+ * <p>
+ * Filters on transactions, addresses, fields and nodes, and any
+ * {@link AndFilter} or {@link OrFilter} of them, are resolved without
+ * evaluating the filter for every packet: through the store's transaction
+ * chains, an {@link AddressIndex}, or a {@link PacketFieldIndex} per field
+ * or node direction, whose bitmaps are combined. Field indexes are built
+ * when a filter first needs them, or in advance by
+ * {@link #indexField(String)}, and are then kept up to date as packets are
+ * added. A filter that selects a small part of the graph this way indexes
+ * only the packets it selects, and keeps the index it replaces. Setting the
+ * previous filter again restores that index instead of re-indexing the
+ * whole graph, as long as no packets were added or removed in between.
+ */
 public final class PacketGraph
 {
-    private List<PacketGraphListener> listeners;
+    // packets indexed incrementally before the index tree is rebuilt
+    private static final int MIN_DELTA_REBUILD = 16384;
+
+    private final List<PacketGraphListener> listeners;
     private Map<String, PacketNode> nodeMap;
+    // nodes by ID
+    private List<PacketNode> nodeList;
     private List<PacketNode> topLevelNodes;
     private PacketFilter packetFilter;
     private PacketTimeTransform timeTransform;
-    private List<PacketInfo> packetList;
-    private PRTree packetIndex;
-    private boolean indexInvalid;
+
+    // set if the filter reads transaction state, which a packet can change
+    // after earlier packets of its transaction were matched
+    private boolean filterReadsTxns;
+    private final PacketStore store;
+
+    // held while the graph is changed
+    private final Object writeLock = new Object();
+
+    // the state read by queries, replaced as a whole by each change
+    private volatile Snapshot snapshot;
+    private volatile boolean indexInvalid;
+
+    // index of the matched packets as of the last rebuild, shared with
+    // snapshots and therefore never modified
+    private PRTree baseIndex;
+    private int baseCount;
+
+    // matched packets indexed since then, with their displayed times; the
+    // arrays are only appended to, as snapshots read up to their own count
+    private PacketInfo[] deltaPackets;
+    private long[] deltaFromTimes;
+    private long[] deltaToTimes;
+    private int deltaCount;
+    private long deltaFirstTime;
+    private long deltaLastTime;
+
+    // number of packets in the store covered by the index
+    private int indexedCount;
+
+    // counts packets added and removed, to tell whether a saved index is
+    // still complete
+    private int changeCount;
+
+    // index replaced by isolating a transaction or address, or null
+    private SavedIndex savedIndex;
+
+    // packets by transaction address, built when first needed and valid
+    // while the change count is the one it was built at
+    private AddressIndex addressIndex;
+    private int addressIndexChangeCount;
+
+    // packets by the value of a field, and by sending and receiving node,
+    // built when first needed and updated as packets are added
+    private final Map<String, PacketFieldIndex> fieldIndexes;
+    private PacketFieldIndex fromNodeIndex;
+    private PacketFieldIndex toNodeIndex;
+
+    // set when packets were removed, so that the field indexes must be
+    // rebuilt before they are used
+    private boolean fieldIndexesStale;
+
+    // set if the time transform was last reset for other packets than the
+    // indexed ones, and must be reset for them before it is extended
+    private boolean transformStale;
+
+    // store index of the first packet of the batch being announced to the
+    // listeners, whose updates are not reported separately
+    private int announcingFrom = Integer.MAX_VALUE;
+
+    // when the last full re-index finished, and how long it took
+    private long reindexTime;
+    private long reindexMillis;
+
+    // canonical packet names, shared by all packets in the graph
+    private final SymbolPool symbolPool = new SymbolPool();
+
+    // loads packets on demand, if the graph holds only part of a log
+    private PacketPager pager;
+
+    // selects the packets that match the filter, without evaluating it again
+    private final Predicate<PacketInfo> matchedPredicate = new Predicate<PacketInfo>()
+    {
+        public boolean apply(PacketInfo packet)
+        {
+            return store.isMatched(packet.getStoreIndex());
+        }
+    };
 
     public PacketGraph()
     {
-        listeners = new LinkedList<PacketGraphListener>();
+        listeners = new CopyOnWriteArrayList<PacketGraphListener>();
         nodeMap = new HashMap<String, PacketNode>();
-        topLevelNodes = new LinkedList<PacketNode>();
-        packetList = new LinkedList<PacketInfo>();
-        packetIndex = new PRTree();
-        indexInvalid = false;
+        nodeList = new ArrayList<PacketNode>();
+        topLevelNodes = new ArrayList<PacketNode>();
+        store = new PacketStore();
+        fieldIndexes = new HashMap<String, PacketFieldIndex>();
+        baseIndex = new PRTree();
+        clearDelta();
+        publish();
+        indexInvalid = true;
     }
 
     public void addListener(PacketGraphListener lsnr)
@@ -72,6 +208,14 @@ public final class PacketGraph
     }
 
     public void addNode(PacketNode node, boolean topLevel, int index)
+    {
+        synchronized (writeLock)
+        {
+            addNodeLocked(node, topLevel, index);
+        }
+    }
+
+    private void addNodeLocked(PacketNode node, boolean topLevel, int index)
     {
         String nodeName = node.getName();
         if (nodeMap.containsKey(nodeName))
@@ -79,8 +223,9 @@ public final class PacketGraph
             throw new RuntimeException("Duplicate node name");
         }
 
-        node.setGraph(this);
+        node.setGraph(this, nodeList.size());
         nodeMap.put(nodeName, node);
+        nodeList.add(node);
         if (topLevel) topLevelNodes.add(index, node);
 
         if (!listeners.isEmpty())
@@ -112,6 +257,45 @@ public final class PacketGraph
         return nodeMap.get(name);
     }
 
+    /**
+     * Returns the node with the given ID.
+     *
+     * @see PacketNode#getNodeID()
+     */
+    public PacketNode getNode(int nodeID)
+    {
+        return nodeList.get(nodeID);
+    }
+
+    /**
+     * Returns the number of nodes in the graph, which is one more than the
+     * highest node ID.
+     */
+    public int getNodeCount()
+    {
+        return nodeList.size();
+    }
+
+    /**
+     * Returns the pool of canonical strings used for the packet names in
+     * this graph. The pool is not synchronized, and must only be used by the
+     * thread that adds packets.
+     */
+    public SymbolPool getSymbolPool()
+    {
+        return symbolPool;
+    }
+
+    public PacketPager getPager()
+    {
+        return pager;
+    }
+
+    public void setPager(PacketPager pager)
+    {
+        this.pager = pager;
+    }
+
     public Collection<PacketNode> getNodes()
     {
         return nodeMap.values();
@@ -129,10 +313,15 @@ public final class PacketGraph
 
     public void setPacketFilter(PacketFilter _packetFilter)
     {
-        if (!objEquals(packetFilter, _packetFilter))
+        synchronized (writeLock)
         {
-            packetFilter = _packetFilter;
-            filterChanged();
+            if (!objEquals(packetFilter, _packetFilter))
+            {
+                PacketFilter oldFilter = packetFilter;
+                packetFilter = _packetFilter;
+                filterReadsTxns = readsTxnState(_packetFilter);
+                filterChanged(oldFilter, timeTransform);
+            }
         }
     }
 
@@ -143,10 +332,14 @@ public final class PacketGraph
 
     public void setTimeTransform(PacketTimeTransform _timeTransform)
     {
-        if (!objEquals(timeTransform, _timeTransform))
+        synchronized (writeLock)
         {
-            timeTransform = _timeTransform;
-            filterChanged();
+            if (!objEquals(timeTransform, _timeTransform))
+            {
+                PacketTimeTransform oldTransform = timeTransform;
+                timeTransform = _timeTransform;
+                filterChanged(packetFilter, oldTransform);
+            }
         }
     }
 
@@ -155,9 +348,14 @@ public final class PacketGraph
         return (a != null) ? a.equals(b) : b == null;
     }
 
-    private void filterChanged()
+    private void filterChanged(
+        PacketFilter oldFilter,
+        PacketTimeTransform oldTransform)
     {
-        indexInvalid = true;
+        if (!reindexQuickly(oldFilter, oldTransform))
+        {
+            indexInvalid = true;
+        }
 
         if (!listeners.isEmpty())
         {
@@ -172,33 +370,263 @@ public final class PacketGraph
 
     public void addPacket(PacketInfo packet)
     {
-        packet.setGraph(this);
-        packetList.add(packet);
+        synchronized (writeLock)
+        {
+            packet.setGraph(this);
+            int index = store.add(packet);
+            addToFieldIndexes(packet, index);
+            ++changeCount;
+            boolean matched = matchesFilter(packet);
+            store.setMatched(index, matched);
+            rematchTxns(index, index + 1);
+            publish();
 
-        if (matchesFilter(packet))
+            if (matched)
+            {
+                //indexPacket(packet);
+
+                if (!listeners.isEmpty())
+                {
+                    Iterator<PacketGraphListener> i = listeners.iterator();
+                    while (i.hasNext())
+                    {
+                        PacketGraphListener lsnr = i.next();
+                        lsnr.packetAdded(packet);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds a batch of packets, notifying each listener once with
+     * {@link PacketGraphListener#packetsAdded(PacketStore, int, int)} rather
+     * than once per packet. Like {@link #addPacket(PacketInfo)}, this does
+     * not update the index; sources call {@link #packetsAddedEvent()} for
+     * that.
+     */
+    public void addPackets(List<PacketInfo> packets)
+    {
+        if (packets.isEmpty()) return;
+
+        synchronized (writeLock)
         {
-            checkIndex();
-            //indexPacket(packet);
+            int fromIndex = store.size();
+            for (int i = 0; i < packets.size(); ++i)
+            {
+                PacketInfo packet = packets.get(i);
+                packet.setGraph(this);
+                int index = store.add(packet);
+                addToFieldIndexes(packet, index);
+                store.setMatched(index, matchesFilter(packet));
+            }
+            int toIndex = store.size();
+            ++changeCount;
+            rematchTxns(fromIndex, toIndex);
+            publish();
 
             if (!listeners.isEmpty())
             {
-                Iterator<PacketGraphListener> i = listeners.iterator();
-                while (i.hasNext())
+                announcingFrom = fromIndex;
+                try
                 {
-                    PacketGraphListener lsnr = i.next();
-                    lsnr.packetAdded(packet);
+                    Iterator<PacketGraphListener> i = listeners.iterator();
+                    while (i.hasNext())
+                    {
+                        PacketGraphListener lsnr = i.next();
+                        lsnr.packetsAdded(store, fromIndex, toIndex);
+                    }
+                }
+                finally
+                {
+                    announcingFrom = Integer.MAX_VALUE;
                 }
             }
         }
     }
 
+    /**
+     * Removes packets from the graph, such as when a pager evicts them. The
+     * index is rebuilt the next time it is queried.
+     */
+    public void removePackets(Collection<PacketInfo> packets)
+    {
+        if (packets.isEmpty()) return;
+
+        synchronized (writeLock)
+        {
+            store.removeAll(new HashSet<PacketInfo>(packets));
+            ++changeCount;
+            fieldIndexesStale = true;
+            indexInvalid = true;
+            publish();
+        }
+    }
+
+    /**
+     * Builds an index of the packets by the value of the given Version 4
+     * field, if there is none yet, so that filters on the field need not
+     * wait for it to be built when first set. Fields with more than
+     * {@link PacketFieldIndex#MAX_VALUES} values are not indexed.
+     */
+    public void indexField(String name)
+    {
+        synchronized (writeLock)
+        {
+            getFieldIndex(name);
+        }
+    }
+
+    private PacketFieldIndex getFieldIndex(String name)
+    {
+        rebuildStaleFieldIndexes();
+        PacketFieldIndex index = fieldIndexes.get(name);
+        if (index == null)
+        {
+            index = new PacketFieldIndex(PacketFieldIndex.FIELD, name, store);
+            fieldIndexes.put(name, index);
+        }
+        return index;
+    }
+
+    private PacketFieldIndex getNodeIndex(int direction)
+    {
+        rebuildStaleFieldIndexes();
+        if (direction == NodeFilter.FROM)
+        {
+            if (fromNodeIndex == null)
+            {
+                fromNodeIndex = new PacketFieldIndex(
+                    PacketFieldIndex.FROM_NODE, null, store);
+            }
+            return fromNodeIndex;
+        }
+        else
+        {
+            if (toNodeIndex == null)
+            {
+                toNodeIndex = new PacketFieldIndex(PacketFieldIndex.TO_NODE,
+                    null, store);
+            }
+            return toNodeIndex;
+        }
+    }
+
+    private void rebuildStaleFieldIndexes()
+    {
+        if (!fieldIndexesStale) return;
+
+        Iterator<PacketFieldIndex> i = fieldIndexes.values().iterator();
+        while (i.hasNext())
+        {
+            i.next().rebuild(store);
+        }
+        if (fromNodeIndex != null) fromNodeIndex.rebuild(store);
+        if (toNodeIndex != null) toNodeIndex.rebuild(store);
+        fieldIndexesStale = false;
+    }
+
+    private void addToFieldIndexes(PacketInfo packet, int index)
+    {
+        // stale indexes are rebuilt from the whole store when next used
+        if (fieldIndexesStale) return;
+
+        if (!fieldIndexes.isEmpty())
+        {
+            Iterator<PacketFieldIndex> i = fieldIndexes.values().iterator();
+            while (i.hasNext())
+            {
+                i.next().add(packet, index);
+            }
+        }
+        if (fromNodeIndex != null) fromNodeIndex.add(packet, index);
+        if (toNodeIndex != null) toNodeIndex.add(packet, index);
+    }
+
     private boolean matchesFilter(PacketInfo packet)
     {
         return packetFilter == null || packetFilter.matches(packet);
     }
 
+    /**
+     * Returns whether a filter reads transaction state, such as the address,
+     * that a packet can set after earlier packets of its transaction.
+     */
+    private static boolean readsTxnState(PacketFilter filter)
+    {
+        PacketFilter[] filters;
+        if (filter instanceof AddrFilter)
+        {
+            return true;
+        }
+        else if (filter instanceof AndFilter)
+        {
+            filters = ((AndFilter) filter).getFilters();
+        }
+        else if (filter instanceof OrFilter)
+        {
+            filters = ((OrFilter) filter).getFilters();
+        }
+        else
+        {
+            return false;
+        }
+        for (int i = 0; i < filters.length; ++i)
+        {
+            if (readsTxnState(filters[i])) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Matches the earlier packets of the transactions of the packets added
+     * in the given range of the store again, if the filter reads transaction
+     * state and those packets changed it. An indexed packet that now
+     * matches is indexed incrementally, unless there is a time transform;
+     * any other change to an indexed packet invalidates the index.
+     */
+    private void rematchTxns(int fromIndex, int toIndex)
+    {
+        if (!filterReadsTxns) return;
+
+        Set<TxnInfo> txns = new HashSet<TxnInfo>();
+        for (int i = fromIndex; i < toIndex; ++i)
+        {
+            TxnInfo txn = store.get(i).getTxn();
+            if (txn == null || !txns.add(txn) || !txn.takeAddrChanged())
+            {
+                continue;
+            }
+
+            for (int j = store.getFirstPacketOfTxn(txn.getTxnID()); j >= 0
+                && j < fromIndex; j = store.getNextPacketOfTxn(j))
+            {
+                // a completed transaction may have had the same ID
+                PacketInfo packet = store.get(j);
+                if (packet.getTxn() != txn) continue;
+
+                boolean matched = matchesFilter(packet);
+                if (matched == store.isMatched(j)) continue;
+                store.setMatched(j, matched);
+                if (j >= indexedCount || indexInvalid) continue;
+
+                if (matched && timeTransform == null)
+                {
+                    indexPacket(j, null);
+                }
+                else
+                {
+                    indexInvalid = true;
+                }
+            }
+        }
+    }
+
     void packetUpdated(PacketInfo packet)
     {
+        // the batch being added is reported as a whole
+        if (packet.getStoreIndex() >= announcingFrom) return;
+
         if (matchesFilter(packet))
         {
             if (!listeners.isEmpty())
@@ -213,70 +641,721 @@ public final class PacketGraph
         }
     }
 
+    /**
+     * Returns an unmodifiable list of the packets in the graph, in the order
+     * they were added. The list does not change as packets are added or
+     * removed later.
+     */
     public Collection<PacketInfo> getPackets()
     {
-        return packetList;
+        Snapshot snap = snapshot;
+        return Collections.unmodifiableList(Arrays.asList(snap.packets)
+            .subList(0, snap.packetCount));
     }
 
+    /**
+     * Returns the store holding the packets of this graph and their
+     * per-packet display state. Unlike {@link #getPackets()}, the store
+     * is changed in place, and must only be read while the graph is not
+     * being changed by another thread.
+     */
+    public PacketStore getStore()
+    {
+        return store;
+    }
+
+    /**
+     * Returns the distinct displayed start and end times of the indexed
+     * packets, in increasing order.
+     */
     public PointIterator getPacketTimes()
     {
-        checkIndex();
-        return packetIndex.pointIterator();
+        Snapshot snap = checkIndex();
+        PointIterator indexPoints = snap.baseIndex.pointIterator();
+        if (snap.deltaCount == 0) return indexPoints;
+        return new MergedPointIterator(indexPoints, snap.getDeltaTimes());
     }
 
+    /**
+     * Returns the indexed packets whose displayed times overlap the given
+     * closed interval. The returned set belongs to the caller.
+     */
     public Collection findPackets(long fromTime, long toTime)
     {
-        checkIndex();
-        Interval i = new SimpleInterval(fromTime, toTime);
-        Set packetSet = packetIndex.queryInterval(i);
+        if (pager != null)
+        {
+            synchronized (writeLock)
+            {
+                pager.loadPackets(fromTime, toTime);
+            }
+        }
+        Snapshot snap = checkIndex();
+        // the index tree returns a raw set of the packets as intervals
+        @SuppressWarnings("unchecked")
+        Set<Object> packetSet = snap.baseIndex.queryInterval(
+            new SimpleInterval(fromTime, toTime));
+        snap.addDeltaPackets(fromTime, toTime, packetSet);
         return packetSet;
     }
 
     public long getFirstTime()
     {
-        checkIndex();
-        return !packetIndex.isEmpty() ? packetIndex.firstPoint() : 0;
+        if (pager != null) return pager.getFirstTime();
+        Snapshot snap = checkIndex();
+        return !snap.empty ? snap.firstTime : 0;
     }
 
     public long getLastTime()
     {
-        checkIndex();
-        return !packetIndex.isEmpty() ? packetIndex.lastPoint() : 0;
+        if (pager != null) return pager.getLastTime();
+        Snapshot snap = checkIndex();
+        return !snap.empty ? snap.lastTime : 0;
     }
 
-    private void checkIndex()
+    /**
+     * Returns the current snapshot, after re-indexing the graph if needed.
+     */
+    private Snapshot checkIndex()
     {
         if (indexInvalid)
         {
-            reindexPackets();
-            indexInvalid = false;
+            synchronized (writeLock)
+            {
+                if (indexInvalid)
+                {
+                    reindexPackets();
+                }
+            }
         }
+        return snapshot;
     }
 
     private void reindexPackets() {
-        packetIndex.clear();
+        long start = System.currentTimeMillis();
+
+        // evaluate the filter once per packet, for both passes below,
+        // unless it can be resolved through the indexes
+        int size = store.size();
+        PacketBitmap selected = selectPackets();
+        if (selected != null)
+        {
+            store.clearMatched();
+            int[] ordinals = selected.toArray();
+            for (int j = 0; j < ordinals.length; ++j)
+            {
+                store.setMatched(ordinals[j], true);
+            }
+        }
+        else
+        {
+            matchPackets(0, size);
+        }
 
         if (timeTransform != null) {
-            timeTransform.reset(Iterators.filter(packetList.iterator(),
-                    new Predicate<PacketInfo>() {
-                        public boolean apply(PacketInfo packet) {
-                            return matchesFilter(packet);
-                        }
-                    }));
-        }
-
-        for (final PacketInfo packet : packetList) {
-            if (matchesFilter(packet)) {
-                if (timeTransform != null) {
-                    timeTransform.transform(packet);
+            timeTransform.reset(Iterators.filter(
+                    store.asList().iterator(), matchedPredicate));
+        }
+        PRTree index = new PRTree();
+        baseCount = indexPackets(0, size, index);
+        baseIndex = index;
+        clearDelta();
+        indexedCount = size;
+        transformStale = false;
+        publish();
+        indexInvalid = false;
+
+        reindexTime = System.currentTimeMillis();
+        reindexMillis = reindexTime - start;
+    }
+
+    /**
+     * Called after a group of packets has been added while more may follow.
+     * The new packets are indexed incrementally if the time transform can be
+     * extended to them; otherwise the whole graph is re-indexed the next
+     * time the index is queried, but no more often than every few multiples
+     * of the time that a full re-index takes.
+     */
+    public void packetsAddedEvent()
+    {
+        synchronized (writeLock)
+        {
+            int size = store.size();
+            if (indexInvalid || indexedCount == size) return;
+
+            // packets, and earlier packets of the transactions they change,
+            // are matched against the filter as they are added
+            List<PacketInfo> added = store.asList().subList(indexedCount,
+                size);
+            if (transformStale)
+            {
+                // the indexed packets already have the times that the reset
+                // gives them, and an extension only maps later times
+                timeTransform.reset(Iterators.filter(store.asList().subList(0,
+                    indexedCount).iterator(), matchedPredicate));
+                transformStale = false;
+            }
+            if (timeTransform == null
+                || timeTransform.extend(Iterators.filter(added.iterator(),
+                    matchedPredicate)))
+            {
+                indexPackets(indexedCount, size, null);
+                indexedCount = size;
+                if (deltaCount > Math.max(MIN_DELTA_REBUILD, baseCount / 4))
+                {
+                    rebuildIndex();
+                }
+                publish();
+            }
+            else if (System.currentTimeMillis() - reindexTime >= reindexMillis * 4)
+            {
+                indexInvalid = true;
+            }
+        }
+    }
+
+    private void matchPackets(int from, int to)
+    {
+        for (int i = from; i < to; ++i)
+        {
+            store.setMatched(i, matchesFilter(store.get(i)));
+        }
+    }
+
+    /**
+     * Transforms the times of the matched packets in the given range of the
+     * store and adds them to the given index, or to the delta if the index
+     * is null. Without a time transform, packets are displayed at their
+     * actual times.
+     *
+     * @return the number of packets indexed
+     */
+    private int indexPackets(int from, int to, PRTree index)
+    {
+        int count = 0;
+        for (int i = from; i < to; ++i)
+        {
+            if (!store.isMatched(i)) continue;
+
+            indexPacket(i, index);
+            ++count;
+        }
+        return count;
+    }
+
+    private void indexPacket(int i, PRTree index)
+    {
+        PacketInfo packet = store.get(i);
+        if (timeTransform != null)
+        {
+            timeTransform.transform(packet);
+        }
+        else
+        {
+            store.setFromTime(i, packet.getFromTimeActual());
+            store.setToTime(i, packet.getToTimeActual());
+        }
+        if (index != null)
+        {
+            index.add(packet);
+        }
+        else
+        {
+            addToDelta(packet, store.getFromTime(i), store.getToTime(i));
+        }
+    }
+
+    /**
+     * Re-indexes the graph after its filter or time transform has changed,
+     * if that can be done without evaluating the filter for every packet:
+     * either the new filter selects packets through an index, or it
+     * restores the index that was replaced when such a filter was set.
+     *
+     * @return false if the graph must be fully re-indexed
+     */
+    private boolean reindexQuickly(
+        PacketFilter oldFilter,
+        PacketTimeTransform oldTransform)
+    {
+        SavedIndex saved = savedIndex;
+        savedIndex = null;
+        if (saved != null
+            && (saved.changeCount != changeCount
+                || saved.timeTransform != timeTransform))
+        {
+            saved = null;
+        }
+
+        // a filter selecting much of the graph is cheaper to re-index fully
+        // than to index beside the kept index, which would hold it twice
+        PacketBitmap selected = selectPackets();
+        if (selected != null && selected.cardinality() <= store.size() / 4)
+        {
+            // keep the index being replaced, unless other packets were
+            // isolated from it already
+            if (saved == null && oldTransform == timeTransform
+                && !indexInvalid && indexedCount == store.size())
+            {
+                saved = new SavedIndex(oldFilter);
+            }
+            isolatePackets(selected.toArray(), saved);
+            savedIndex = saved;
+            return true;
+        }
+
+        if (saved != null && objEquals(packetFilter, saved.filter))
+        {
+            saved.restore();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the packets matching the filter, if the filter can be resolved
+     * through the indexes of the store, or null otherwise.
+     */
+    private PacketBitmap selectPackets()
+    {
+        return packetFilter != null ? selectPackets(packetFilter) : null;
+    }
+
+    private PacketBitmap selectPackets(PacketFilter filter)
+    {
+        if (filter instanceof TxnIdFilter)
+        {
+            return selectTxn(((TxnIdFilter) filter).getTxnID());
+        }
+        else if (filter instanceof TxnIdMultiFilter)
+        {
+            Integer[] txnIDs = ((TxnIdMultiFilter) filter).getTxnIDs();
+            PacketBitmap selected = new PacketBitmap();
+            for (int i = 0; i < txnIDs.length; ++i)
+            {
+                selected = PacketBitmap.or(selected, selectTxn(txnIDs[i]));
+            }
+            return selected;
+        }
+        else if (filter instanceof AddrFilter)
+        {
+            if (addressIndex == null
+                || addressIndexChangeCount != changeCount)
+            {
+                addressIndex = new AddressIndex(store);
+                addressIndexChangeCount = changeCount;
+            }
+            AddrFilter addrFilter = (AddrFilter) filter;
+            return PacketBitmap.fromSorted(addressIndex.findPackets(
+                addrFilter.getAddr(), addrFilter.getMask()));
+        }
+        else if (filter instanceof FieldFilter)
+        {
+            FieldFilter fieldFilter = (FieldFilter) filter;
+            PacketFieldIndex index = getFieldIndex(fieldFilter.getName());
+            return !index.isOverflowed() ? index.getPackets(fieldFilter
+                .getValue()) : null;
+        }
+        else if (filter instanceof NodeFilter)
+        {
+            NodeFilter nodeFilter = (NodeFilter) filter;
+            PacketBitmap selected = null;
+            if ((nodeFilter.getDirection() & NodeFilter.FROM) != 0)
+            {
+                PacketFieldIndex index = getNodeIndex(NodeFilter.FROM);
+                if (index.isOverflowed()) return null;
+                selected = index.getPackets(nodeFilter.getNodeName());
+            }
+            if ((nodeFilter.getDirection() & NodeFilter.TO) != 0)
+            {
+                PacketFieldIndex index = getNodeIndex(NodeFilter.TO);
+                if (index.isOverflowed()) return null;
+                PacketBitmap to = index.getPackets(nodeFilter.getNodeName());
+                selected = selected != null ? PacketBitmap.or(selected, to)
+                    : to;
+            }
+            return selected;
+        }
+        else if (filter instanceof OrFilter)
+        {
+            // every alternative must be resolved
+            PacketFilter[] filters = ((OrFilter) filter).getFilters();
+            PacketBitmap selected = new PacketBitmap();
+            for (int i = 0; i < filters.length; ++i)
+            {
+                PacketBitmap alternative = selectPackets(filters[i]);
+                if (alternative == null) return null;
+                selected = PacketBitmap.or(selected, alternative);
+            }
+            return selected;
+        }
+        else if (filter instanceof AndFilter)
+        {
+            // intersect the conditions that can be resolved, and evaluate
+            // the others only for the packets in the intersection
+            PacketFilter[] filters = ((AndFilter) filter).getFilters();
+            PacketBitmap selected = null;
+            List<PacketFilter> unresolved = new ArrayList<PacketFilter>();
+            for (int i = 0; i < filters.length; ++i)
+            {
+                PacketBitmap condition = selectPackets(filters[i]);
+                if (condition == null)
+                {
+                    unresolved.add(filters[i]);
+                }
+                else
+                {
+                    selected = selected != null ? PacketBitmap.and(selected,
+                        condition) : condition;
+                }
+            }
+            if (selected == null || unresolved.isEmpty()) return selected;
+
+            int[] candidates = selected.toArray();
+            selected = new PacketBitmap();
+            for (int j = 0; j < candidates.length; ++j)
+            {
+                PacketInfo packet = store.get(candidates[j]);
+                boolean matched = true;
+                for (int i = 0; i < unresolved.size() && matched; ++i)
+                {
+                    matched = unresolved.get(i).matches(packet);
                 }
-                packetIndex.add(packet);
+                if (matched) selected.add(candidates[j]);
+            }
+            return selected;
+        }
+        return null;
+    }
+
+    private PacketBitmap selectTxn(int txnID)
+    {
+        PacketBitmap selected = new PacketBitmap();
+        for (int i = store.getFirstPacketOfTxn(txnID); i >= 0; i = store
+            .getNextPacketOfTxn(i))
+        {
+            selected.add(i);
+        }
+        return selected;
+    }
+
+    /**
+     * Indexes only the given packets, saving their current displayed times
+     * first if an index is being kept.
+     */
+    private void isolatePackets(int[] selected, SavedIndex saved)
+    {
+        List<PacketInfo> selectedPackets = new ArrayList<PacketInfo>(
+            selected.length);
+        store.clearMatched();
+        for (int j = 0; j < selected.length; ++j)
+        {
+            int i = selected[j];
+            if (saved != null) saved.saveTimes(i);
+            store.setMatched(i, true);
+            selectedPackets.add(store.get(i));
+        }
+
+        if (timeTransform != null)
+        {
+            timeTransform.reset(selectedPackets.iterator());
+        }
+        PRTree index = new PRTree();
+        for (int j = 0; j < selected.length; ++j)
+        {
+            indexPacket(selected[j], index);
+        }
+        baseIndex = index;
+        baseCount = selected.length;
+        clearDelta();
+        indexedCount = store.size();
+        transformStale = false;
+        publish();
+        indexInvalid = false;
+    }
+
+    /**
+     * Replaces the index tree with one that also holds the packets of the
+     * delta, at their current displayed times.
+     */
+    private void rebuildIndex()
+    {
+        PRTree index = new PRTree();
+        int count = 0;
+        for (int i = 0; i < indexedCount; ++i)
+        {
+            if (store.isMatched(i))
+            {
+                index.add(store.get(i));
+                ++count;
             }
         }
+        baseIndex = index;
+        baseCount = count;
+        clearDelta();
+    }
+
+    private void addToDelta(PacketInfo packet, long fromTime, long toTime)
+    {
+        if (deltaCount == deltaPackets.length)
+        {
+            // published snapshots keep the old arrays
+            int n = deltaCount * 2;
+            PacketInfo[] newPackets = new PacketInfo[n];
+            System.arraycopy(deltaPackets, 0, newPackets, 0, deltaCount);
+            deltaPackets = newPackets;
+            long[] newFromTimes = new long[n];
+            System.arraycopy(deltaFromTimes, 0, newFromTimes, 0, deltaCount);
+            deltaFromTimes = newFromTimes;
+            long[] newToTimes = new long[n];
+            System.arraycopy(deltaToTimes, 0, newToTimes, 0, deltaCount);
+            deltaToTimes = newToTimes;
+        }
+        deltaPackets[deltaCount] = packet;
+        deltaFromTimes[deltaCount] = fromTime;
+        deltaToTimes[deltaCount] = toTime;
+        ++deltaCount;
+        deltaFirstTime = Math.min(deltaFirstTime, Math.min(fromTime, toTime));
+        deltaLastTime = Math.max(deltaLastTime, Math.max(fromTime, toTime));
+    }
+
+    private void clearDelta()
+    {
+        // new arrays, as published snapshots may still read the old ones
+        deltaPackets = new PacketInfo[1024];
+        deltaFromTimes = new long[1024];
+        deltaToTimes = new long[1024];
+        deltaCount = 0;
+        deltaFirstTime = Long.MAX_VALUE;
+        deltaLastTime = Long.MIN_VALUE;
+    }
+
+    private void publish()
+    {
+        snapshot = new Snapshot(this);
     }
 
     public void allPacketsAddedEvent()
     {
-        reindexPackets();
+        synchronized (writeLock)
+        {
+            reindexPackets();
+        }
+    }
+
+    /**
+     * The index of the graph under a filter that was replaced by one
+     * resolved through an index, with the displayed times of the packets
+     * that have been re-timed since.
+     */
+    private final class SavedIndex
+    {
+        final PacketFilter filter;
+        final PacketTimeTransform timeTransform;
+        final int changeCount;
+        private final long[] matched;
+        private final PRTree baseIndex;
+        private final int baseCount;
+        private final PacketInfo[] deltaPackets;
+        private final long[] deltaFromTimes;
+        private final long[] deltaToTimes;
+        private final int deltaCount;
+        private final long deltaFirstTime;
+        private final long deltaLastTime;
+
+        // store indices and displayed times of the re-timed packets
+        private int[] timedPackets = new int[64];
+        private long[] fromTimes = new long[64];
+        private long[] toTimes = new long[64];
+        private int timedCount;
+
+        SavedIndex(PacketFilter filter)
+        {
+            PacketGraph graph = PacketGraph.this;
+            this.filter = filter;
+            timeTransform = graph.timeTransform;
+            changeCount = graph.changeCount;
+            matched = store.saveMatched();
+            baseIndex = graph.baseIndex;
+            baseCount = graph.baseCount;
+            deltaPackets = graph.deltaPackets;
+            deltaFromTimes = graph.deltaFromTimes;
+            deltaToTimes = graph.deltaToTimes;
+            deltaCount = graph.deltaCount;
+            deltaFirstTime = graph.deltaFirstTime;
+            deltaLastTime = graph.deltaLastTime;
+        }
+
+        void saveTimes(int index)
+        {
+            if (timedCount == timedPackets.length)
+            {
+                int n = timedCount * 2;
+                int[] newTimedPackets = new int[n];
+                System.arraycopy(timedPackets, 0, newTimedPackets, 0,
+                    timedCount);
+                timedPackets = newTimedPackets;
+                long[] newFromTimes = new long[n];
+                System.arraycopy(fromTimes, 0, newFromTimes, 0, timedCount);
+                fromTimes = newFromTimes;
+                long[] newToTimes = new long[n];
+                System.arraycopy(toTimes, 0, newToTimes, 0, timedCount);
+                toTimes = newToTimes;
+            }
+            timedPackets[timedCount] = index;
+            fromTimes[timedCount] = store.getFromTime(index);
+            toTimes[timedCount] = store.getToTime(index);
+            ++timedCount;
+        }
+
+        /**
+         * Makes this the index of the graph again. The time transform was
+         * last reset for the isolated packets, so it is reset again before
+         * it is next extended.
+         */
+        void restore()
+        {
+            // restore the earliest saved times of packets timed repeatedly
+            for (int i = timedCount - 1; i >= 0; --i)
+            {
+                store.setFromTime(timedPackets[i], fromTimes[i]);
+                store.setToTime(timedPackets[i], toTimes[i]);
+            }
+            store.restoreMatched(matched);
+
+            PacketGraph graph = PacketGraph.this;
+            graph.baseIndex = baseIndex;
+            graph.baseCount = baseCount;
+            graph.deltaPackets = deltaPackets;
+            graph.deltaFromTimes = deltaFromTimes;
+            graph.deltaToTimes = deltaToTimes;
+            graph.deltaCount = deltaCount;
+            graph.deltaFirstTime = deltaFirstTime;
+            graph.deltaLastTime = deltaLastTime;
+            indexedCount = store.size();
+            transformStale = timeTransform != null;
+            publish();
+            indexInvalid = false;
+        }
+    }
+
+    /**
+     * The state of the graph seen by queries. The arrays are shared with the
+     * graph, which only writes them beyond the counts captured here.
+     */
+    private static final class Snapshot
+    {
+        final PacketInfo[] packets;
+        final int packetCount;
+        final PRTree baseIndex;
+        final PacketInfo[] deltaPackets;
+        final long[] deltaFromTimes;
+        final long[] deltaToTimes;
+        final int deltaCount;
+        final boolean empty;
+        final long firstTime;
+        final long lastTime;
+
+        Snapshot(PacketGraph graph)
+        {
+            packets = graph.store.getPacketArray();
+            packetCount = graph.store.size();
+            baseIndex = graph.baseIndex;
+            deltaPackets = graph.deltaPackets;
+            deltaFromTimes = graph.deltaFromTimes;
+            deltaToTimes = graph.deltaToTimes;
+            deltaCount = graph.deltaCount;
+
+            long first = graph.deltaFirstTime;
+            long last = graph.deltaLastTime;
+            if (!baseIndex.isEmpty())
+            {
+                first = Math.min(first, baseIndex.firstPoint());
+                last = Math.max(last, baseIndex.lastPoint());
+            }
+            empty = first > last;
+            firstTime = first;
+            lastTime = last;
+        }
+
+        void addDeltaPackets(long fromTime, long toTime, Set<Object> result)
+        {
+            for (int i = 0; i < deltaCount; ++i)
+            {
+                if (deltaToTimes[i] >= fromTime && deltaFromTimes[i] <= toTime)
+                {
+                    result.add(deltaPackets[i]);
+                }
+            }
+        }
+
+        /**
+         * Returns the start and end times of the delta packets, sorted.
+         */
+        long[] getDeltaTimes()
+        {
+            long[] times = new long[deltaCount * 2];
+            System.arraycopy(deltaFromTimes, 0, times, 0, deltaCount);
+            System.arraycopy(deltaToTimes, 0, times, deltaCount, deltaCount);
+            Arrays.sort(times);
+            return times;
+        }
+    }
+
+    /**
+     * Iterates over the distinct points of an index tree and of a sorted
+     * array, in increasing order.
+     */
+    private static final class MergedPointIterator
+        implements PointIterator
+    {
+        private final PointIterator indexPoints;
+        private final long[] points;
+        private int pos;
+        private boolean hasIndexPoint;
+        private long indexPoint;
+
+        MergedPointIterator(PointIterator indexPoints, long[] points)
+        {
+            this.indexPoints = indexPoints;
+            this.points = points;
+            nextIndexPoint();
+        }
+
+        private void nextIndexPoint()
+        {
+            hasIndexPoint = indexPoints.hasNext();
+            if (hasIndexPoint) indexPoint = indexPoints.next();
+        }
+
+        public boolean hasNext()
+        {
+            return hasIndexPoint || pos < points.length;
+        }
+
+        public long next()
+        {
+            long value;
+            if (hasIndexPoint
+                && (pos == points.length || indexPoint <= points[pos]))
+            {
+                value = indexPoint;
+                nextIndexPoint();
+            }
+            else if (pos < points.length)
+            {
+                value = points[pos++];
+            }
+            else
+            {
+                throw new NoSuchElementException();
+            }
+
+            // skip the same point in either source
+            while (pos < points.length && points[pos] == value)
+            {
+                ++pos;
+            }
+            if (hasIndexPoint && indexPoint == value) nextIndexPoint();
+            return value;
+        }
     }
 }
@@ -18,6 +18,12 @@
 
 package com.newisys.apps.pktviz.model;
 
+/**
+ * Receives changes to a packet graph. Methods are called on the thread
+ * that changes the graph, which holds the graph's lock for the duration of
+ * the call, so listeners that update views from a background writer must
+ * hand the work to the event dispatch thread.
+ */
 public interface PacketGraphListener
 {
     void nodeAdded(PacketNode node, boolean topLevel);
@@ -26,6 +32,16 @@ public interface PacketGraphListener
 
     void packetAdded(PacketInfo packet);
 
+    /**
+     * Called once after a batch of packets has been added with
+     * {@link PacketGraph#addPackets(java.util.List)}, instead of calling
+     * {@link #packetAdded(PacketInfo)} for each packet. The packets are
+     * those in the given range of the graph's store that match its filter.
+     * Updates to those packets are not reported while the batch is being
+     * announced.
+     */
+    void packetsAdded(PacketStore store, int fromIndex, int toIndex);
+
     void packetUpdated(PacketInfo packet);
 
     void filterChanged();
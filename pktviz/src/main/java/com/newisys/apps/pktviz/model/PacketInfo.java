@@ -19,39 +19,52 @@
 package com.newisys.apps.pktviz.model;
 
 import java.awt.Color;
-import java.util.ArrayList;
-import java.util.StringTokenizer;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 
 import com.newisys.prtree.Interval;
+import com.newisys.util.format.VerilogLiteral;
 import com.newisys.util.packet.FieldDumpListener;
+import com.newisys.util.symbol.SymbolPool;
 
 public final class PacketInfo
     implements Interval
 {
-    private static final int HEX_RADIX = 16;
-    private static final int BIN_RADIX = 2;
     private TxnInfo txn;
     private PacketNode fromNode;
     private long fromTimeActual;
-    private long fromTime;
     private PacketNode toNode;
     private long toTimeActual;
-    private long toTime;
     private long packetBits;
     private boolean hasRemoteBits;
     private short remoteBits;
     private int[] dataDwords;
     private String packetName;
     private String label;
-    private Color color;
     private PacketGraph graph;
+    // index in the graph's packet store, which holds the displayed times and
+    // the style of the packet, or -1 if the packet is not in a store
+    private int storeIndex = -1;
     private int disableUpdateCount;
     private boolean updated;
+    // Version 4 fields: either the raw text, decoded on demand, or a list
+    // decoded by the source
     private String packetFieldList;
-    private ArrayList<PacketFieldListEntry> packetFieldArrayList = null;
+    private PacketFieldList fieldList;
+
+    // recently decoded text field lists, such as for hovered packets;
+    // keyed by text so that the cache does not hold on to any graph
+    private static final int FIELD_CACHE_SIZE = 64;
+    private static final Map<String, PacketFieldList> fieldCache = new LinkedHashMap<String, PacketFieldList>(
+        FIELD_CACHE_SIZE * 2, 0.75f, true)
+    {
+        protected boolean removeEldestEntry(
+            Map.Entry<String, PacketFieldList> eldest)
+        {
+            return size() > FIELD_CACHE_SIZE;
+        }
+    };
 
     public PacketInfo(
         TxnInfo _txn,
@@ -66,142 +79,155 @@ public final class PacketInfo
         String _packetName,
         String _packetFieldList)
     {
-        txn = _txn;
-        fromNode = _fromNode;
-        fromTimeActual = _fromTimeActual;
-        fromTime = _fromTimeActual;
-        toNode = _toNode;
-        toTimeActual = _toTimeActual;
-        toTime = _toTimeActual;
+        this(_txn, _fromNode, _fromTimeActual, _toNode, _toTimeActual,
+            _packetBits, _hasRemoteBits, _remoteBits, _dataDwords, _packetName,
+            _packetFieldList, null);
+    }
+
+    /**
+     * Creates a packet from a log record. If <code>_symbols</code> is not
+     * null, the packet name extracted from a Version 4 field list is replaced
+     * by its canonical instance from that pool.
+     */
+    public PacketInfo(
+        TxnInfo _txn,
+        PacketNode _fromNode,
+        long _fromTimeActual,
+        PacketNode _toNode,
+        long _toTimeActual,
+        long _packetBits,
+        boolean _hasRemoteBits,
+        short _remoteBits,
+        int[] _dataDwords,
+        String _packetName,
+        String _packetFieldList,
+        SymbolPool _symbols)
+    {
+        this(_txn, _fromNode, _fromTimeActual, _toNode, _toTimeActual,
+            _packetName, null);
         packetBits = _packetBits;
         hasRemoteBits = _hasRemoteBits;
         remoteBits = _remoteBits;
         dataDwords = _dataDwords;
-        packetName = _packetName;
         packetFieldList = _packetFieldList;
 
-        // Methods added for Version 4 file format (Name/Field format)
-        processPacketFieldList();
-        setPacketInfoFromFields();
+        // Methods added for Version 4 file format (Name/Field format);
+        // only Cmd and addr are extracted until the fields are dumped
+        setPacketInfoFromFields(_symbols);
     }
 
-    // Groups for java.util.regex.Matcher:
-    //                                                        group1   group2  group3
-    static Pattern verilogStyleNumberRegex = Pattern.compile("([0-9]+)'([bh])([0-9a-zA-Z]+)");
+    /**
+     * Creates a Version 4 packet whose fields have already been decoded.
+     * The packet name (from the "Cmd" field) and the transaction address are
+     * expected to have been applied by the caller.
+     */
+    public PacketInfo(
+        TxnInfo _txn,
+        PacketNode _fromNode,
+        long _fromTimeActual,
+        PacketNode _toNode,
+        long _toTimeActual,
+        String _packetName,
+        PacketFieldList _fieldList)
+    {
+        txn = _txn;
+        fromNode = _fromNode;
+        fromTimeActual = _fromTimeActual;
+        toNode = _toNode;
+        toTimeActual = _toTimeActual;
+        packetBits = -1;
+        remoteBits = -1;
+        packetName = _packetName;
+        fieldList = _fieldList;
+    }
 
-    private void setPacketInfoFromFields()
+    private void setPacketInfoFromFields(SymbolPool symbols)
     {
         if (packetFieldList == null) return;
 
-        assert (packetFieldArrayList.size() != 0);
-
-        String name;
-        String value;
-        for (PacketFieldListEntry packetFieldListEntry : packetFieldArrayList)
+        TextFieldScanner scanner = new TextFieldScanner(packetFieldList);
+        boolean empty = true;
+        while (scanner.next())
         {
-            name = packetFieldListEntry.name;
-            value = packetFieldListEntry.value;
-            if (name.equals("Cmd"))
+            empty = false;
+            if (scanner.nameEquals("Cmd"))
             {
+                String value = symbols != null ? scanner.getValue(symbols)
+                    : scanner.getValue();
                 packetName = value;
                 assert (txn != null);
                 txn.setPacketName(value);
             }
-            else if (name.equals("addr"))
+            else if (scanner.nameEquals("addr"))
             {
-                Matcher verilogStyleNumberMatcher = verilogStyleNumberRegex.matcher(value);
-                if (!verilogStyleNumberMatcher.matches())
-                {
-                    assert (false) : "Illegal token for verilog number string:"
-                        + value;
-                }
-                String binaryHexFlag = verilogStyleNumberMatcher.group(2);
-                String rawNumber = verilogStyleNumberMatcher.group(3);
-                int radix;
-                if (binaryHexFlag.toLowerCase().equals("b"))
-                {
-                    radix = BIN_RADIX;
-                }
-                else if (binaryHexFlag.toLowerCase().equals("h"))
-                {
-                    radix = HEX_RADIX;
-                }
-                else
-                {
-                    radix = -1;
-                    assert (false) : "Unknown radix qualifier: "
-                        + binaryHexFlag;
-                }
-
-                txn.setAddrValue(Long.parseLong(rawNumber, radix));
+                txn.setAddrValue(scanner.getVerilogValue());
             }
-
         }
+        assert (!empty);
     }
 
-    private static class PacketFieldListEntry
+    /**
+     * Parses the value of an "addr" field, which is a Verilog-style sized
+     * number, such as 40'h1f00. Addresses wider than 64 bits are truncated
+     * to their low 64 bits.
+     */
+    public static long parseAddrValue(String value)
     {
-        String name;
-        String value;
-
-        PacketFieldListEntry(String name, String value)
-        {
-            this.name = name;
-            this.value = value;
-        }
+        return VerilogLiteral.parseLong(value);
+    }
 
-        /**
-         * @generated by CodeSugar http://sourceforge.net/projects/codesugar */
+    /**
+     * Returns the Version 4 fields of this packet, or null if it has none.
+     * Text field lists are decoded on each call, apart from those of the
+     * most recently requested packets.
+     */
+    public PacketFieldList getFieldList()
+    {
+        if (fieldList != null || packetFieldList == null) return fieldList;
 
-        public String toString()
+        synchronized (fieldCache)
         {
-            StringBuffer buffer = new StringBuffer();
-            buffer.append("[PacketFieldListEntry:");
-            buffer.append(" name: ");
-            buffer.append(name);
-            buffer.append(" value: ");
-            buffer.append(value);
-            buffer.append("]");
-            return buffer.toString();
+            PacketFieldList list = fieldCache.get(packetFieldList);
+            if (list == null)
+            {
+                list = TextPacketFieldList.parse(packetFieldList);
+                fieldCache.put(packetFieldList, list);
+            }
+            return list;
         }
     }
 
-    private void processPacketFieldList()
+    /**
+     * Returns the value of the first Version 4 field with the given name, or
+     * null if there is no such field or it is a flag. Text field lists are
+     * scanned in place rather than decoded. Packets of earlier versions have
+     * only a "Cmd" field, which is their packet name.
+     */
+    public String getFieldValue(String name)
     {
-        if (packetFieldList == null) return;
-
-        packetFieldArrayList = new ArrayList<PacketFieldListEntry>();
-
-        StringTokenizer semicolonTokenizer = new StringTokenizer(
-            packetFieldList, ";");
-        String name;
-        String value;
-        while (semicolonTokenizer.hasMoreElements())
+        if (fieldList != null)
         {
-            name = null;
-            value = null;
-
-            String nameValue = semicolonTokenizer.nextToken();
-            StringTokenizer equalsTokenizer = new StringTokenizer(nameValue,
-                "=");
-            if (equalsTokenizer.countTokens() == 1)
+            for (int i = 0; i < fieldList.size(); ++i)
             {
-                name = (String) equalsTokenizer.nextElement();
-                name = name.trim();
+                if (name.equals(fieldList.getName(i)))
+                {
+                    return fieldList.getValue(i);
+                }
             }
-            else
+        }
+        else if (packetFieldList != null)
+        {
+            TextFieldScanner scanner = new TextFieldScanner(packetFieldList);
+            while (scanner.next())
             {
-                name = (String) equalsTokenizer.nextElement();
-                name = name.trim();
-                value = (String) equalsTokenizer.nextElement();
-                value = value.trim();
+                if (scanner.nameEquals(name)) return scanner.getValue();
             }
-            PacketFieldListEntry packetFieldListEntry = new PacketFieldListEntry(
-                name, value);
-            if (!(name == null || name.equals("")))
-                packetFieldArrayList.add(packetFieldListEntry);
         }
-
+        else if (name.equals("Cmd"))
+        {
+            return packetName;
+        }
+        return null;
     }
 
     public TxnInfo getTxn()
@@ -224,14 +250,22 @@ public final class PacketInfo
         return fromTimeActual;
     }
 
+    /**
+     * Returns the displayed send time, as set by the graph's time transform.
+     * Packets that are not in a graph are displayed at their actual times.
+     */
     public long getFromTime()
     {
-        return fromTime;
+        return storeIndex >= 0 ? graph.getStore().getFromTime(storeIndex)
+            : fromTimeActual;
     }
 
     public void setFromTime(long _fromTime)
     {
-        fromTime = _fromTime;
+        if (storeIndex >= 0)
+        {
+            graph.getStore().setFromTime(storeIndex, _fromTime);
+        }
     }
 
     public PacketNode getToNode()
@@ -244,14 +278,22 @@ public final class PacketInfo
         return toTimeActual;
     }
 
+    /**
+     * Returns the displayed receive time, as set by the graph's time
+     * transform.
+     */
     public long getToTime()
     {
-        return toTime;
+        return storeIndex >= 0 ? graph.getStore().getToTime(storeIndex)
+            : toTimeActual;
     }
 
     public void setToTime(long _toTime)
     {
-        toTime = _toTime;
+        if (storeIndex >= 0)
+        {
+            graph.getStore().setToTime(storeIndex, _toTime);
+        }
     }
 
     public long getPacketBits()
@@ -278,16 +320,23 @@ public final class PacketInfo
         }
     }
 
+    /**
+     * Returns the color of this packet, which is kept by the packet store of
+     * its graph. Packets that are not in a graph have no color.
+     */
     public Color getColor()
     {
-        return color;
+        if (storeIndex < 0) return null;
+        PacketStore store = graph.getStore();
+        return store.getStyleColor(store.getStyleID(storeIndex));
     }
 
     public void setColor(Color _color)
     {
-        if (color != _color)
+        if (storeIndex < 0) return;
+        PacketStore store = graph.getStore();
+        if (store.setStyleID(storeIndex, store.getStyleID(_color)))
         {
-            color = _color;
             packetUpdated();
         }
     }
@@ -301,6 +350,20 @@ public final class PacketInfo
         graph = g;
     }
 
+    /**
+     * Returns the index of this packet in the packet store of its graph, or
+     * -1 if it is not in a store.
+     */
+    public int getStoreIndex()
+    {
+        return storeIndex;
+    }
+
+    void setStoreIndex(int index)
+    {
+        storeIndex = index;
+    }
+
     public void disableUpdateEvents()
     {
         ++disableUpdateCount;
@@ -339,16 +402,17 @@ public final class PacketInfo
         fdl.dumpLong("ToTime", toTimeActual);
 
         // Dump raw fields for Version 4
-        if (packetFieldList != null)
+        PacketFieldList fieldList = getFieldList();
+        if (fieldList != null)
         {
             String name;
             String val;
 
-            for (PacketFieldListEntry packetFieldListEntry : packetFieldArrayList)
+            for (int i = 0; i < fieldList.size(); ++i)
             {
-                name = packetFieldListEntry.name;
+                name = fieldList.getName(i);
                 if (name.startsWith("DBG")) continue;
-                val = packetFieldListEntry.value;
+                val = fieldList.getValue(i);
                 if (val != null)
                     fdl.dumpString(name, val);
                 else
@@ -357,18 +421,18 @@ public final class PacketInfo
         }
 
         // version 2,3 - unsupported
-        assert(packetFieldList != null);
+        assert(fieldList != null);
 
         // Dump debug fields for Version 4
-        if (packetFieldList != null)
+        if (fieldList != null)
         {
             String name;
             String val;
 
-            for (PacketFieldListEntry packetFieldListEntry : packetFieldArrayList)
+            for (int i = 0; i < fieldList.size(); ++i)
             {
-                name = packetFieldListEntry.name;
-                val = packetFieldListEntry.value;
+                name = fieldList.getName(i);
+                val = fieldList.getValue(i);
                 if (name.startsWith("DBG"))
                 {
                     if (val != null)
@@ -382,7 +446,24 @@ public final class PacketInfo
 
     public String toString()
     {
-        assert (packetFieldList != null);
+        assert (packetFieldList != null || fieldList != null);
+        if (packetFieldList == null && fieldList != null)
+        {
+            // rebuild the text of a pre-decoded field list
+            StringBuffer buffer = new StringBuffer();
+            for (int i = 0; i < fieldList.size(); ++i)
+            {
+                if (i > 0) buffer.append("; ");
+                buffer.append(fieldList.getName(i));
+                String value = fieldList.getValue(i);
+                if (value != null)
+                {
+                    buffer.append('=');
+                    buffer.append(value);
+                }
+            }
+            return buffer.toString();
+        }
         return packetFieldList;
     }
 
@@ -390,7 +471,7 @@ public final class PacketInfo
 
     public long getLowerBound()
     {
-        return fromTime;
+        return getFromTime();
     }
 
     public boolean isLowerBoundClosed()
@@ -400,7 +481,7 @@ public final class PacketInfo
 
     public long getUpperBound()
     {
-        return toTime;
+        return getToTime();
     }
 
     public boolean isUpperBoundClosed()
@@ -19,7 +19,7 @@
 package com.newisys.apps.pktviz.model;
 
 import java.awt.Color;
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
 
 public final class PacketNode
@@ -31,6 +31,7 @@ public final class PacketNode
     private PacketNode parent;
     private List<PacketNode> childList;
     private PacketGraph graph;
+    private int nodeID = -1;
     private int disableUpdateCount;
     private boolean updated;
 
@@ -38,7 +39,7 @@ public final class PacketNode
     {
         name = _name;
         label = _name;
-        childList = new LinkedList<PacketNode>();
+        childList = new ArrayList<PacketNode>(0);
     }
 
     public String getName()
@@ -134,13 +135,24 @@ public final class PacketNode
         return name;
     }
 
-    void setGraph(PacketGraph g)
+    /**
+     * Returns the index of this node among the nodes of its graph, in the
+     * order they were added, or -1 if it is not in a graph. Views and time
+     * transforms use it to keep per-node state in arrays.
+     */
+    public int getNodeID()
+    {
+        return nodeID;
+    }
+
+    void setGraph(PacketGraph g, int id)
     {
         if (graph != null)
         {
             throw new IllegalStateException("Node is already in a graph");
         }
         graph = g;
+        nodeID = id;
     }
 
     public void disableUpdateEvents()
@@ -0,0 +1,41 @@
+/*
+ * PacketViz packet visualization for the Java (TM) Platform
+ * Copyright (C) 2007 Newisys, Inc. or its licensors, as applicable.
+ * Java is a registered trademark of Sun Microsystems, Inc. in the U.S. or
+ * other countries.
+ *
+ * Licensed under the Open Software License version 3.0 (the "License"); you
+ * may not use this file except in compliance with the License. You should
+ * have received a copy of the License along with this software; if not, you
+ * may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/osl-3.0.php
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.newisys.apps.pktviz.model;
+
+/**
+ * Supplies the packets of a graph on demand, for logs too large to hold in
+ * memory at once. A graph with a pager holds only the packets that the
+ * pager has loaded, but reports the time range of the whole log, and asks
+ * the pager to load any packets in a range before searching it.
+ * <p>
+ * Times are actual times, so paged graphs should use the actual time
+ * transform; other transforms are applied to the loaded packets only.
+ */
+public interface PacketPager
+{
+    /**
+     * Ensures that all packets overlapping the given time range have been
+     * added to the graph. Packets outside the range may be removed.
+     */
+    void loadPackets(long fromTime, long toTime);
+
+    long getFirstTime();
+
+    long getLastTime();
+}
@@ -0,0 +1,390 @@
+/*
+ * PacketViz packet visualization for the Java (TM) Platform
+ * Copyright (C) 2007 Newisys, Inc. or its licensors, as applicable.
+ * Java is a registered trademark of Sun Microsystems, Inc. in the U.S. or
+ * other countries.
+ *
+ * Licensed under the Open Software License version 3.0 (the "License"); you
+ * may not use this file except in compliance with the License. You should
+ * have received a copy of the License along with this software; if not, you
+ * may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/osl-3.0.php
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.newisys.apps.pktviz.model;
+
+import java.awt.Color;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.newisys.util.collection.IntHashMap;
+
+/**
+ * The packets of a graph, in the order they were added, with the values
+ * scanned over all packets kept in parallel primitive arrays: the
+ * displayed (transformed) times, the transaction IDs, the style IDs and
+ * whether each packet matches the graph's filter.
+ * Loops over a store by index therefore read memory sequentially, and the
+ * packets themselves only hold what is specific to each of them.
+ * <p>
+ * Styles are colors, stored once per store and referred to by a small ID.
+ * <p>
+ * The packets of each transaction ID are chained through the store in the
+ * order they were added, so that they can be visited without scanning the
+ * whole store.
+ */
+public final class PacketStore
+{
+    /**
+     * The first and last packet of a transaction ID.
+     */
+    private static final class TxnChain
+    {
+        final int first;
+        int last;
+
+        TxnChain(int index)
+        {
+            first = index;
+            last = index;
+        }
+    }
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /** Style ID of packets without a color. */
+    public static final int NO_STYLE = 0;
+
+    private int size;
+    private PacketInfo[] packets = new PacketInfo[INITIAL_CAPACITY];
+    private long[] fromTimes = new long[INITIAL_CAPACITY];
+    private long[] toTimes = new long[INITIAL_CAPACITY];
+    private int[] txnIDs = new int[INITIAL_CAPACITY];
+    private short[] styleIDs = new short[INITIAL_CAPACITY];
+
+    // one bit per packet
+    private long[] matched = new long[INITIAL_CAPACITY / 64];
+
+    // index of the next packet with the same transaction ID, or -1 at the
+    // end of a chain and for packets without a transaction
+    private int[] nextInTxn = new int[INITIAL_CAPACITY];
+
+    // first and last packet of each transaction ID
+    private IntHashMap<TxnChain> txnChains;
+
+    // colors by style ID; ID 0 is no color
+    private final List<Color> styles = new ArrayList<Color>();
+    private final Map<Color, Integer> styleMap = new HashMap<Color, Integer>();
+
+    private final List<PacketInfo> listView = new AbstractList<PacketInfo>()
+    {
+        public PacketInfo get(int index)
+        {
+            if (index >= size)
+            {
+                throw new IndexOutOfBoundsException("Index: " + index
+                    + ", Size: " + size);
+            }
+            return packets[index];
+        }
+
+        public int size()
+        {
+            return size;
+        }
+    };
+
+    PacketStore()
+    {
+        styles.add(null);
+        clearTxnChains();
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public PacketInfo get(int index)
+    {
+        return packets[index];
+    }
+
+    /**
+     * Returns an unmodifiable list view of the packets.
+     */
+    public List<PacketInfo> asList()
+    {
+        return listView;
+    }
+
+    /**
+     * Returns the array holding the packets, of which the first
+     * {@link #size()} elements are used. Those elements are never changed:
+     * packets are only appended, and removal copies the array.
+     */
+    PacketInfo[] getPacketArray()
+    {
+        return packets;
+    }
+
+    /**
+     * Appends a packet, with its actual times as its displayed times.
+     *
+     * @return the index of the packet
+     */
+    int add(PacketInfo packet)
+    {
+        if (size == packets.length)
+        {
+            grow();
+        }
+        int index = size++;
+        packets[index] = packet;
+        fromTimes[index] = packet.getFromTimeActual();
+        toTimes[index] = packet.getToTimeActual();
+        TxnInfo txn = packet.getTxn();
+        txnIDs[index] = txn != null ? txn.getTxnID() : -1;
+        styleIDs[index] = NO_STYLE;
+        matched[index >>> 6] &= ~(1L << index);
+        nextInTxn[index] = -1;
+        if (txn != null) linkTxn(index, txnIDs[index]);
+        packet.setStoreIndex(index);
+        return index;
+    }
+
+    private void grow()
+    {
+        int n = packets.length * 2;
+        PacketInfo[] newPackets = new PacketInfo[n];
+        System.arraycopy(packets, 0, newPackets, 0, size);
+        packets = newPackets;
+        long[] newFromTimes = new long[n];
+        System.arraycopy(fromTimes, 0, newFromTimes, 0, size);
+        fromTimes = newFromTimes;
+        long[] newToTimes = new long[n];
+        System.arraycopy(toTimes, 0, newToTimes, 0, size);
+        toTimes = newToTimes;
+        int[] newTxnIDs = new int[n];
+        System.arraycopy(txnIDs, 0, newTxnIDs, 0, size);
+        txnIDs = newTxnIDs;
+        short[] newStyleIDs = new short[n];
+        System.arraycopy(styleIDs, 0, newStyleIDs, 0, size);
+        styleIDs = newStyleIDs;
+        long[] newMatched = new long[n / 64];
+        System.arraycopy(matched, 0, newMatched, 0, matched.length);
+        matched = newMatched;
+        int[] newNextInTxn = new int[n];
+        System.arraycopy(nextInTxn, 0, newNextInTxn, 0, size);
+        nextInTxn = newNextInTxn;
+    }
+
+    /**
+     * Removes the given packets, keeping the order of the others. Removed
+     * packets no longer refer to the store. The remaining packets are moved
+     * to a new array, leaving the old one to any readers of
+     * {@link #getPacketArray()}.
+     */
+    void removeAll(Set<PacketInfo> removed)
+    {
+        PacketInfo[] newPackets = new PacketInfo[packets.length];
+        int dest = 0;
+        for (int i = 0; i < size; ++i)
+        {
+            PacketInfo packet = packets[i];
+            if (removed.contains(packet))
+            {
+                packet.setStoreIndex(-1);
+                continue;
+            }
+            newPackets[dest] = packet;
+            if (dest != i)
+            {
+                fromTimes[dest] = fromTimes[i];
+                toTimes[dest] = toTimes[i];
+                txnIDs[dest] = txnIDs[i];
+                styleIDs[dest] = styleIDs[i];
+                setMatched(dest, isMatched(i));
+                packet.setStoreIndex(dest);
+            }
+            ++dest;
+        }
+        packets = newPackets;
+        size = dest;
+
+        // relink the transactions of the remaining packets
+        clearTxnChains();
+        for (int i = 0; i < size; ++i)
+        {
+            nextInTxn[i] = -1;
+            if (packets[i].getTxn() != null) linkTxn(i, txnIDs[i]);
+        }
+    }
+
+    public long getFromTime(int index)
+    {
+        return fromTimes[index];
+    }
+
+    public void setFromTime(int index, long time)
+    {
+        fromTimes[index] = time;
+    }
+
+    public long getToTime(int index)
+    {
+        return toTimes[index];
+    }
+
+    public void setToTime(int index, long time)
+    {
+        toTimes[index] = time;
+    }
+
+    /**
+     * Returns the transaction ID of a packet, or -1 if it has no
+     * transaction.
+     */
+    public int getTxnID(int index)
+    {
+        return txnIDs[index];
+    }
+
+    /**
+     * Returns whether a packet matches the graph's filter, as of when it was
+     * added or the graph was last re-indexed.
+     */
+    public boolean isMatched(int index)
+    {
+        return (matched[index >>> 6] & (1L << index)) != 0;
+    }
+
+    void setMatched(int index, boolean value)
+    {
+        if (value)
+        {
+            matched[index >>> 6] |= 1L << index;
+        }
+        else
+        {
+            matched[index >>> 6] &= ~(1L << index);
+        }
+    }
+
+    /**
+     * Returns a copy of the matched flags of all packets, for
+     * {@link #restoreMatched(long[])}.
+     */
+    long[] saveMatched()
+    {
+        return matched.clone();
+    }
+
+    /**
+     * Restores the matched flags saved by {@link #saveMatched()}. No
+     * packets may have been added or removed since.
+     */
+    void restoreMatched(long[] saved)
+    {
+        matched = saved;
+    }
+
+    void clearMatched()
+    {
+        Arrays.fill(matched, 0);
+    }
+
+    /**
+     * Returns the index of the first packet of the given transaction ID, or
+     * -1 if there is none.
+     */
+    public int getFirstPacketOfTxn(int txnID)
+    {
+        TxnChain chain = txnChains.get(txnID);
+        return chain != null ? chain.first : -1;
+    }
+
+    /**
+     * Returns the index of the next packet with the same transaction ID as
+     * the given packet, or -1 if there is none.
+     */
+    public int getNextPacketOfTxn(int index)
+    {
+        return nextInTxn[index];
+    }
+
+    private void linkTxn(int index, int txnID)
+    {
+        TxnChain chain = txnChains.get(txnID);
+        if (chain != null)
+        {
+            nextInTxn[chain.last] = index;
+            chain.last = index;
+        }
+        else
+        {
+            txnChains.put(txnID, new TxnChain(index));
+        }
+    }
+
+    private void clearTxnChains()
+    {
+        txnChains = new IntHashMap<TxnChain>();
+    }
+
+    public int getStyleID(int index)
+    {
+        return styleIDs[index];
+    }
+
+    /**
+     * Sets the style of a packet.
+     *
+     * @return false if the packet already had that style
+     */
+    public boolean setStyleID(int index, int styleID)
+    {
+        if (styleIDs[index] == styleID) return false;
+        styleIDs[index] = (short) styleID;
+        return true;
+    }
+
+    /**
+     * Returns the ID of the style with the given color, adding a style if
+     * there is none.
+     */
+    public int getStyleID(Color color)
+    {
+        if (color == null) return NO_STYLE;
+        Integer id = styleMap.get(color);
+        if (id == null)
+        {
+            if (styles.size() > Short.MAX_VALUE)
+            {
+                throw new IllegalStateException("Too many packet styles");
+            }
+            id = Integer.valueOf(styles.size());
+            styles.add(color);
+            styleMap.put(color, id);
+        }
+        return id.intValue();
+    }
+
+    /**
+     * Returns the color of a style.
+     */
+    public Color getStyleColor(int styleID)
+    {
+        return styles.get(styleID);
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * PacketViz packet visualization for the Java (TM) Platform
+ * Copyright (C) 2007 Newisys, Inc. or its licensors, as applicable.
+ * Java is a registered trademark of Sun Microsystems, Inc. in the U.S. or
+ * other countries.
+ *
+ * Licensed under the Open Software License version 3.0 (the "License"); you
+ * may not use this file except in compliance with the License. You should
+ * have received a copy of the License along with this software; if not, you
+ * may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/osl-3.0.php
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.newisys.apps.pktviz.model;
+
+import com.newisys.util.format.VerilogLiteral;
+import com.newisys.util.symbol.SymbolPool;
+
+/**
+ * Steps through the fields of a Version 4 field list,
+ * "name1=value1; name2=value2; flag", locating each name and value without
+ * creating substrings. Fields are separated by runs of ';' and names from
+ * values by runs of '='; a third '='-separated token is ignored. Names and
+ * values are trimmed, and fields with empty names are skipped.
+ */
+final class TextFieldScanner
+{
+    private final String text;
+    private final int length;
+    private int pos;
+
+    // bounds of the current name and value; valueStart is -1 for a flag
+    private int nameStart;
+    private int nameEnd;
+    private int valueStart;
+    private int valueEnd;
+
+    public TextFieldScanner(String text)
+    {
+        this.text = text;
+        this.length = text.length();
+    }
+
+    /**
+     * Advances to the next field.
+     *
+     * @return false if there are no more fields
+     */
+    public boolean next()
+    {
+        while (pos < length)
+        {
+            // find the next non-empty segment
+            while (pos < length && text.charAt(pos) == ';')
+            {
+                ++pos;
+            }
+            int segEnd = text.indexOf(';', pos);
+            if (segEnd < 0) segEnd = length;
+
+            int start = skipEquals(pos, segEnd);
+            int end = findEquals(start, segEnd);
+            pos = segEnd;
+            if (start == end) continue;
+
+            nameStart = trimStart(start, end);
+            nameEnd = trimEnd(nameStart, end);
+            if (nameStart == nameEnd) continue;
+
+            start = skipEquals(end, segEnd);
+            if (start < segEnd)
+            {
+                end = findEquals(start, segEnd);
+                valueStart = trimStart(start, end);
+                valueEnd = trimEnd(valueStart, end);
+            }
+            else
+            {
+                valueStart = -1;
+                valueEnd = -1;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private int skipEquals(int i, int end)
+    {
+        while (i < end && text.charAt(i) == '=')
+        {
+            ++i;
+        }
+        return i;
+    }
+
+    private int findEquals(int i, int end)
+    {
+        while (i < end && text.charAt(i) != '=')
+        {
+            ++i;
+        }
+        return i;
+    }
+
+    private int trimStart(int i, int end)
+    {
+        while (i < end && text.charAt(i) <= ' ')
+        {
+            ++i;
+        }
+        return i;
+    }
+
+    private int trimEnd(int start, int i)
+    {
+        while (i > start && text.charAt(i - 1) <= ' ')
+        {
+            --i;
+        }
+        return i;
+    }
+
+    public boolean nameEquals(String name)
+    {
+        return nameEnd - nameStart == name.length()
+            && text.regionMatches(nameStart, name, 0, name.length());
+    }
+
+    public String getName()
+    {
+        return text.substring(nameStart, nameEnd);
+    }
+
+    /**
+     * Returns the canonical instance of the current name from the given pool.
+     */
+    public String getName(SymbolPool pool)
+    {
+        return pool.intern(text, nameStart, nameEnd);
+    }
+
+    public boolean hasValue()
+    {
+        return valueStart >= 0;
+    }
+
+    public String getValue()
+    {
+        return valueStart >= 0 ? text.substring(valueStart, valueEnd) : null;
+    }
+
+    /**
+     * Returns the canonical instance of the current value from the given
+     * pool, or null for a flag.
+     */
+    public String getValue(SymbolPool pool)
+    {
+        return valueStart >= 0 ? pool.intern(text, valueStart, valueEnd) : null;
+    }
+
+    /**
+     * Returns the low 64 bits of the current value, parsed as a Verilog
+     * literal in place.
+     *
+     * @throws NumberFormatException if the value is not a Verilog literal,
+     *             or the field is a flag
+     */
+    public long getVerilogValue()
+    {
+        if (valueStart < 0)
+        {
+            throw new NumberFormatException("Field has no value: "
+                + getName());
+        }
+        return VerilogLiteral.parseLong(text, valueStart, valueEnd);
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * PacketViz packet visualization for the Java (TM) Platform
+ * Copyright (C) 2007 Newisys, Inc. or its licensors, as applicable.
+ * Java is a registered trademark of Sun Microsystems, Inc. in the U.S. or
+ * other countries.
+ *
+ * Licensed under the Open Software License version 3.0 (the "License"); you
+ * may not use this file except in compliance with the License. You should
+ * have received a copy of the License along with this software; if not, you
+ * may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/osl-3.0.php
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.newisys.apps.pktviz.model;
+
+import java.util.ArrayList;
+
+import com.newisys.util.symbol.SymbolPool;
+
+/**
+ * Field list decoded from the text of a Version 4 record:
+ * "name1=value1; name2=value2; flag".
+ *
+ * @see TextFieldScanner
+ */
+public final class TextPacketFieldList
+    implements PacketFieldList
+{
+    // field names recur in every packet, so decoded lists share them
+    private static final SymbolPool fieldNames = new SymbolPool();
+
+    private final String[] names;
+    private final String[] values;
+
+    private TextPacketFieldList(String[] names, String[] values)
+    {
+        this.names = names;
+        this.values = values;
+    }
+
+    public static TextPacketFieldList parse(String packetFieldList)
+    {
+        ArrayList<String> names = new ArrayList<String>();
+        ArrayList<String> values = new ArrayList<String>();
+
+        TextFieldScanner scanner = new TextFieldScanner(packetFieldList);
+        synchronized (fieldNames)
+        {
+            while (scanner.next())
+            {
+                names.add(scanner.getName(fieldNames));
+                values.add(scanner.getValue());
+            }
+        }
+
+        return new TextPacketFieldList(names.toArray(new String[names.size()]),
+            values.toArray(new String[values.size()]));
+    }
+
+    public int size()
+    {
+        return names.length;
+    }
+
+    public String getName(int index)
+    {
+        return names[index];
+    }
+
+    public String getValue(int index)
+    {
+        return values[index];
+    }
+}
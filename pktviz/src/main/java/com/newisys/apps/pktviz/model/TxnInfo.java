@@ -24,13 +24,17 @@ import com.newisys.util.packet.StringFieldDumpListener;
 public final class TxnInfo
 {
     private int txnID;
-    private Address addr;
+    private long addr;
+    private boolean addrSet;
     private String packetName;
 
+    // set when the address changes, until the graph has matched the
+    // earlier packets of the transaction against its filter again
+    private boolean addrChanged;
+
     public TxnInfo(int _txnID)
     {
         txnID = _txnID;
-        addr = null;
     }
 
     public int getTxnID()
@@ -48,24 +52,37 @@ public final class TxnInfo
         packetName = packetName_;
     }
 
-    public Address getAddr()
+    /**
+     * Returns the address of the transaction, or 0 if it has none.
+     */
+    public long getAddrValue()
     {
         return addr;
     }
 
-    public long getAddrValue()
+    public void setAddrValue(long _addr)
     {
-        return addr != null ? addr.getAddr() : 0;
+        if (!addrSet || addr != _addr)
+        {
+            addrChanged = true;
+        }
+        addr = _addr;
+        addrSet = true;
     }
 
-    public void setAddrValue(long _addr)
+    public boolean isAddrSet()
     {
-        addr = Address.makeAddress(_addr);
+        return addrSet;
     }
 
-    public boolean isAddrSet()
+    /**
+     * Returns whether the address has changed since the last call.
+     */
+    boolean takeAddrChanged()
     {
-        return addr != null;
+        boolean changed = addrChanged;
+        addrChanged = false;
+        return changed;
     }
 
     public void dumpTo(FieldDumpListener fdl)
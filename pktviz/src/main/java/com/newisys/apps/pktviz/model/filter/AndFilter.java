@@ -0,0 +1,88 @@
+/*
+ * PacketViz packet visualization for the Java (TM) Platform
+ * Copyright (C) 2007 Newisys, Inc. or its licensors, as applicable.
+ * Java is a registered trademark of Sun Microsystems, Inc. in the U.S. or
+ * other countries.
+ *
+ * Licensed under the Open Software License version 3.0 (the "License"); you
+ * may not use this file except in compliance with the License. You should
+ * have received a copy of the License along with this software; if not, you
+ * may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/osl-3.0.php
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.newisys.apps.pktviz.model.filter;
+
+import java.util.Arrays;
+
+import com.newisys.apps.pktviz.model.PacketInfo;
+
+/**
+ * Matches packets that match all of a list of filters.
+ */
+public class AndFilter
+    implements PacketFilter
+{
+
+    private PacketFilter[] filters;
+
+    public AndFilter(PacketFilter[] _filters)
+    {
+        filters = _filters.clone();
+    }
+
+    public boolean matches(PacketInfo packet)
+    {
+        for (int i = 0; i < filters.length; ++i)
+        {
+            if (!filters[i].matches(packet))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public boolean equals(Object obj)
+    {
+        if (!(obj instanceof AndFilter))
+        {
+            return false;
+        }
+
+        AndFilter other = (AndFilter) obj;
+        return Arrays.equals(filters, other.filters);
+    }
+
+    public PacketFilter[] getFilters()
+    {
+        return filters.clone();
+    }
+
+    /**
+     * Override hashCode.
+     *
+     * @return the Objects hashcode.
+     */
+    public int hashCode()
+    {
+        return Arrays.hashCode(filters);
+    }
+
+    public String toString()
+    {
+        StringBuffer buf = new StringBuffer();
+        for (int i = 0; i < filters.length; ++i)
+        {
+            if (i > 0) buf.append("; ");
+            buf.append(filters[i]);
+        }
+        return buf.toString();
+    }
+
+}
@@ -0,0 +1,88 @@
+/*
+ * PacketViz packet visualization for the Java (TM) Platform
+ * Copyright (C) 2007 Newisys, Inc. or its licensors, as applicable.
+ * Java is a registered trademark of Sun Microsystems, Inc. in the U.S. or
+ * other countries.
+ *
+ * Licensed under the Open Software License version 3.0 (the "License"); you
+ * may not use this file except in compliance with the License. You should
+ * have received a copy of the License along with this software; if not, you
+ * may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/osl-3.0.php
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.newisys.apps.pktviz.model.filter;
+
+import com.newisys.apps.pktviz.model.PacketInfo;
+
+/**
+ * Matches packets with a Version 4 field of the given name and value, such
+ * as "Cmd=ReadMem".
+ */
+public class FieldFilter
+    implements PacketFilter
+{
+
+    private String name;
+    private String value;
+
+    public FieldFilter(String _name, String _value)
+    {
+        if (_name == null || _value == null)
+        {
+            throw new IllegalArgumentException("Field name and value required");
+        }
+        name = _name;
+        value = _value;
+    }
+
+    public boolean matches(PacketInfo packet)
+    {
+        return value.equals(packet.getFieldValue(name));
+    }
+
+    public boolean equals(Object obj)
+    {
+        if (!(obj instanceof FieldFilter))
+        {
+            return false;
+        }
+
+        FieldFilter other = (FieldFilter) obj;
+        return (name.equals(other.name) && value.equals(other.value));
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public String getValue()
+    {
+        return value;
+    }
+
+    /**
+     * Override hashCode.
+     *
+     * @return the Objects hashcode.
+     */
+    public int hashCode()
+    {
+        int hashCode = 1;
+        hashCode = 31 * hashCode + name.hashCode();
+        hashCode = 31 * hashCode + value.hashCode();
+        return hashCode;
+    }
+
+    public String toString()
+    {
+        return name + "=" + value;
+    }
+
+}
@@ -0,0 +1,101 @@
+/*
+ * PacketViz packet visualization for the Java (TM) Platform
+ * Copyright (C) 2007 Newisys, Inc. or its licensors, as applicable.
+ * Java is a registered trademark of Sun Microsystems, Inc. in the U.S. or
+ * other countries.
+ *
+ * Licensed under the Open Software License version 3.0 (the "License"); you
+ * may not use this file except in compliance with the License. You should
+ * have received a copy of the License along with this software; if not, you
+ * may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/osl-3.0.php
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.newisys.apps.pktviz.model.filter;
+
+import com.newisys.apps.pktviz.model.PacketInfo;
+import com.newisys.apps.pktviz.model.PacketNode;
+
+/**
+ * Matches packets sent from, received by, or either sent from or received
+ * by the node with the given name.
+ */
+public class NodeFilter
+    implements PacketFilter
+{
+
+    public static final int FROM = 1;
+    public static final int TO = 2;
+    public static final int FROM_OR_TO = FROM | TO;
+
+    private String nodeName;
+    private int direction;
+
+    public NodeFilter(String _nodeName, int _direction)
+    {
+        if (_nodeName == null || (_direction & FROM_OR_TO) == 0)
+        {
+            throw new IllegalArgumentException("Node name and direction required");
+        }
+        nodeName = _nodeName;
+        direction = _direction & FROM_OR_TO;
+    }
+
+    public boolean matches(PacketInfo packet)
+    {
+        return ((direction & FROM) != 0 && isNode(packet.getFromNode()))
+            || ((direction & TO) != 0 && isNode(packet.getToNode()));
+    }
+
+    private boolean isNode(PacketNode node)
+    {
+        return node != null && nodeName.equals(node.getName());
+    }
+
+    public boolean equals(Object obj)
+    {
+        if (!(obj instanceof NodeFilter))
+        {
+            return false;
+        }
+
+        NodeFilter other = (NodeFilter) obj;
+        return (nodeName.equals(other.nodeName) && direction == other.direction);
+    }
+
+    public String getNodeName()
+    {
+        return nodeName;
+    }
+
+    public int getDirection()
+    {
+        return direction;
+    }
+
+    /**
+     * Override hashCode.
+     *
+     * @return the Objects hashcode.
+     */
+    public int hashCode()
+    {
+        int hashCode = 1;
+        hashCode = 31 * hashCode + nodeName.hashCode();
+        hashCode = 31 * hashCode + direction;
+        return hashCode;
+    }
+
+    public String toString()
+    {
+        String prefix = (direction == FROM) ? "@from"
+            : (direction == TO) ? "@to" : "@node";
+        return prefix + "=" + nodeName;
+    }
+
+}
@@ -0,0 +1,88 @@
+/*
+ * PacketViz packet visualization for the Java (TM) Platform
+ * Copyright (C) 2007 Newisys, Inc. or its licensors, as applicable.
+ * Java is a registered trademark of Sun Microsystems, Inc. in the U.S. or
+ * other countries.
+ *
+ * Licensed under the Open Software License version 3.0 (the "License"); you
+ * may not use this file except in compliance with the License. You should
+ * have received a copy of the License along with this software; if not, you
+ * may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/osl-3.0.php
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.newisys.apps.pktviz.model.filter;
+
+import java.util.Arrays;
+
+import com.newisys.apps.pktviz.model.PacketInfo;
+
+/**
+ * Matches packets that match any of a list of filters.
+ */
+public class OrFilter
+    implements PacketFilter
+{
+
+    private PacketFilter[] filters;
+
+    public OrFilter(PacketFilter[] _filters)
+    {
+        filters = _filters.clone();
+    }
+
+    public boolean matches(PacketInfo packet)
+    {
+        for (int i = 0; i < filters.length; ++i)
+        {
+            if (filters[i].matches(packet))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean equals(Object obj)
+    {
+        if (!(obj instanceof OrFilter))
+        {
+            return false;
+        }
+
+        OrFilter other = (OrFilter) obj;
+        return Arrays.equals(filters, other.filters);
+    }
+
+    public PacketFilter[] getFilters()
+    {
+        return filters.clone();
+    }
+
+    /**
+     * Override hashCode.
+     *
+     * @return the Objects hashcode.
+     */
+    public int hashCode()
+    {
+        return Arrays.hashCode(filters);
+    }
+
+    public String toString()
+    {
+        StringBuffer buf = new StringBuffer();
+        for (int i = 0; i < filters.length; ++i)
+        {
+            if (i > 0) buf.append(" | ");
+            buf.append(filters[i]);
+        }
+        return buf.toString();
+    }
+
+}
@@ -42,4 +42,9 @@ public class TxnIdMultiFilter
         }
         return false;
     }
+
+    public Integer[] getTxnIDs()
+    {
+        return txnIDs.clone();
+    }
 }
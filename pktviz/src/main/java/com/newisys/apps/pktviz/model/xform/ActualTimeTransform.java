@@ -37,6 +37,10 @@ public class ActualTimeTransform implements PacketTimeTransform {
     public void reset(Iterator<PacketInfo> packetIterator) {
     }
 
+    public boolean extend(Iterator<PacketInfo> packetIterator) {
+        return true;
+    }
+
     public void transform(PacketInfo packet) {
         long fromTime = packet.getFromTimeActual();
         long toTime = packet.getToTimeActual();
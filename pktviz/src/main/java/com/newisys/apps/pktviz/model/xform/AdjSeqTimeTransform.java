@@ -19,7 +19,6 @@
 package com.newisys.apps.pktviz.model.xform;
 
 import java.util.Iterator;
-import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.SortedMap;
 
@@ -29,52 +28,162 @@ import com.newisys.apps.pktviz.model.PacketNode;
 
 public class AdjSeqTimeTransform implements PacketTimeTransform {
 
+    /**
+     * The number of sequential times allocated to each node within a tick,
+     * indexed by node ID. Node IDs are dense, so the array only grows to
+     * the highest ID that the tick involves.
+     */
+    private static final class NodeAllocs {
+
+        private static final int[] EMPTY = new int[0];
+
+        // zero for nodes without any allocation
+        private int[] allocs = EMPTY;
+        private int max;
+
+        /**
+         * Allocates the next time for a node, or <code>min</code> if that is
+         * greater.
+         *
+         * @return the number of times allocated to the node
+         */
+        public int increment(PacketNode node, int min) {
+            final int nodeID = node.getNodeID();
+            assert nodeID >= 0 : "node " + node + " is not in a graph";
+            if (nodeID >= allocs.length) {
+                final int[] newAllocs = new int[Math.max(nodeID + 1, allocs.length * 2)];
+                System.arraycopy(allocs, 0, newAllocs, 0, allocs.length);
+                allocs = newAllocs;
+            }
+            final int prev = allocs[nodeID];
+            final int alloc = prev == 0 ? min : Math.max(min, prev + 1);
+            allocs[nodeID] = alloc;
+            if (alloc > max) {
+                max = alloc;
+            }
+            return alloc;
+        }
+
+        public int max(int seed) {
+            return Math.max(seed, max);
+        }
+
+        public NodeAllocs copy() {
+            final NodeAllocs copy = new NodeAllocs();
+            copy.allocs = allocs.clone();
+            copy.max = max;
+            return copy;
+        }
+    }
+
     private static final class AnalysisTickInfo {
 
-        final Map<PacketNode, int[]> nodeAllocMap = Maps.newHashMap();
+        final NodeAllocs nodeAllocs;
         int fromPackets;
         int toPackets;
+
+        public AnalysisTickInfo() {
+            nodeAllocs = new NodeAllocs();
+        }
+
+        public AnalysisTickInfo(AnalysisTickInfo other) {
+            nodeAllocs = other.nodeAllocs.copy();
+            fromPackets = other.fromPackets;
+            toPackets = other.toPackets;
+        }
     }
 
     private static final class FinalTickInfo {
 
         final long baseTime;
-        final Map<PacketNode, int[]> nodeAllocMap;
+        final NodeAllocs nodeAllocs;
 
-        public FinalTickInfo(long baseTime, int expectedNodes) {
+        public FinalTickInfo(long baseTime, NodeAllocs nodeAllocs) {
             this.baseTime = baseTime;
-            nodeAllocMap = new LinkedHashMap<PacketNode, int[]>(expectedNodes);
+            this.nodeAllocs = nodeAllocs;
         }
     }
 
     private Map<Long, FinalTickInfo> tickInfoMap;
+    // analysis of the latest tick, which extensions may add packets to
+    private AnalysisTickInfo lastTickInfo;
+    private long maxRealTime;
+    private long nextSeqTime;
 
     public void reset(Iterator<PacketInfo> packetIterator) {
         final SortedMap<Long, AnalysisTickInfo> analysisMap = Maps.newTreeMap();
+        analyze(packetIterator, analysisMap);
+
+        tickInfoMap = Maps.newHashMapWithExpectedSize(analysisMap.size());
+        lastTickInfo = null;
+        maxRealTime = Long.MIN_VALUE;
+        nextSeqTime = 0;
+        addTicks(analysisMap);
+    }
+
+    public boolean extend(Iterator<PacketInfo> packetIterator) {
+        if (tickInfoMap == null) {
+            return false;
+        }
+
+        // the allocation of existing ticks cannot change, except that the
+        // latest tick can widen, as no mapped time follows it; so every time
+        // touched by the new packets must be at or after the latest tick
+        final SortedMap<Long, AnalysisTickInfo> analysisMap = Maps.newTreeMap();
+        if (lastTickInfo != null) {
+            analysisMap.put(maxRealTime, new AnalysisTickInfo(lastTickInfo));
+        }
+        analyze(packetIterator, analysisMap);
+        if (!analysisMap.isEmpty() && analysisMap.firstKey() < maxRealTime) {
+            return false;
+        }
+
+        if (lastTickInfo == null) {
+            addTicks(analysisMap);
+            return true;
+        }
+
+        // lay out the latest tick again from its base time; its packets
+        // keep the times that its analysis gave them, whether or not they
+        // have been transformed since the last reset
+        final long lastRealTime = maxRealTime;
+        final NodeAllocs lastAllocs = lastTickInfo.nodeAllocs.copy();
+        final long lastBaseTime = tickInfoMap.get(lastRealTime).baseTime;
+        nextSeqTime = lastBaseTime;
+        addTicks(analysisMap);
+        tickInfoMap.put(lastRealTime, new FinalTickInfo(lastBaseTime, lastAllocs));
+        return true;
+    }
+
+    private static void analyze(Iterator<PacketInfo> packetIterator,
+            SortedMap<Long, AnalysisTickInfo> analysisMap) {
         while (packetIterator.hasNext()) {
             final PacketInfo packet = packetIterator.next();
             final long fromTime = packet.getFromTimeActual();
             final AnalysisTickInfo fromInfo = getAnalysisTickInfo(analysisMap, fromTime);
-            final int fromAlloc = mapIncrement(fromInfo.nodeAllocMap, packet.getFromNode(), 1);
+            final int fromAlloc = fromInfo.nodeAllocs.increment(packet.getFromNode(), 1);
             ++fromInfo.fromPackets;
 
             final long toTime = packet.getToTimeActual();
             final AnalysisTickInfo toInfo = getAnalysisTickInfo(analysisMap, toTime);
-            mapIncrement(toInfo.nodeAllocMap, packet.getToNode(), fromTime == toTime ? fromAlloc
-                    : 1);
+            toInfo.nodeAllocs.increment(packet.getToNode(), fromTime == toTime ? fromAlloc : 1);
             ++toInfo.toPackets;
         }
+    }
 
-        tickInfoMap = Maps.newHashMapWithExpectedSize(analysisMap.size());
+    private void addTicks(SortedMap<Long, AnalysisTickInfo> analysisMap) {
         int spanCount = 0;
-        long seqTime = 0;
+        long seqTime = nextSeqTime;
         for (final Map.Entry<Long, AnalysisTickInfo> entry : analysisMap.entrySet()) {
             final Long realTime = entry.getKey();
             final AnalysisTickInfo info = entry.getValue();
-            tickInfoMap.put(realTime, new FinalTickInfo(seqTime, info.nodeAllocMap.size()));
+            tickInfoMap.put(realTime, new FinalTickInfo(seqTime, new NodeAllocs()));
             spanCount += info.fromPackets - info.toPackets;
-            seqTime += mapMax(info.nodeAllocMap, 1) + 1;
+            seqTime += info.nodeAllocs.max(1) + 1;
+            maxRealTime = realTime;
+            lastTickInfo = info;
         }
+        nextSeqTime = seqTime;
     }
 
     private static AnalysisTickInfo getAnalysisTickInfo(Map<Long, AnalysisTickInfo> map, long tick) {
@@ -86,36 +195,15 @@ public class AdjSeqTimeTransform implements PacketTimeTransform {
         return info;
     }
 
-    private static <T> int mapIncrement(Map<T, int[]> map, T key, int min) {
-        int[] count = map.get(key);
-        if (count == null) {
-            count = new int[] { min };
-            map.put(key, count);
-        } else {
-            count[0] = Math.max(min, count[0] + 1);
-        }
-        return count[0];
-    }
-
-    private static int mapMax(Map<?, int[]> map, int seed) {
-        int max = seed;
-        for (final int[] count : map.values()) {
-            if (count[0] > max) {
-                max = count[0];
-            }
-        }
-        return max;
-    }
-
     public void transform(PacketInfo packet) {
         final long fromTime = packet.getFromTimeActual();
         final FinalTickInfo fromInfo = getFinalTickInfo(fromTime);
-        final int fromAlloc = mapIncrement(fromInfo.nodeAllocMap, packet.getFromNode(), 1);
+        final int fromAlloc = fromInfo.nodeAllocs.increment(packet.getFromNode(), 1);
         packet.setFromTime(fromInfo.baseTime + fromAlloc - 1);
 
         final long toTime = packet.getToTimeActual();
         final FinalTickInfo toInfo = getFinalTickInfo(toTime);
-        final int toAlloc = mapIncrement(toInfo.nodeAllocMap, packet.getToNode(),
+        final int toAlloc = toInfo.nodeAllocs.increment(packet.getToNode(),
                 fromTime == toTime ? fromAlloc : 1);
         packet.setToTime(toInfo.baseTime + toAlloc - 1);
     }
@@ -25,6 +25,14 @@ import com.newisys.apps.pktviz.model.PacketInfo;
 public interface PacketTimeTransform {
     void reset(Iterator<PacketInfo> packetIterator);
 
+    /**
+     * Extends the transform to packets added since the last reset or
+     * extension, without changing the transformed times of earlier packets.
+     * Returns false, leaving the transform unchanged, if that is not
+     * possible; the caller must then reset the transform with all packets.
+     */
+    boolean extend(Iterator<PacketInfo> packetIterator);
+
     void transform(PacketInfo packet);
 
     boolean equals(Object obj);
@@ -29,6 +29,7 @@ import com.newisys.apps.pktviz.model.PacketInfo;
 public class SeqTimeTransform implements PacketTimeTransform {
 
     private Map<Long, Long> realToSequentialMap;
+    private long maxRealTime;
 
     public void reset(Iterator<PacketInfo> packetIterator) {
         final Set<Long> times = new TreeSet<Long>();
@@ -39,9 +40,41 @@ public class SeqTimeTransform implements PacketTimeTransform {
         }
 
         realToSequentialMap = new HashMap<Long, Long>(times.size());
-        int sequentialIndex = 0;
+        maxRealTime = Long.MIN_VALUE;
+        addTimes(times);
+    }
+
+    public boolean extend(Iterator<PacketInfo> packetIterator) {
+        if (realToSequentialMap == null) {
+            return false;
+        }
+
+        // new times can only be appended after all mapped times
+        final TreeSet<Long> times = new TreeSet<Long>();
+        while (packetIterator.hasNext()) {
+            final PacketInfo packetInfo = packetIterator.next();
+            addNewTime(times, packetInfo.getFromTimeActual());
+            addNewTime(times, packetInfo.getToTimeActual());
+        }
+        if (!times.isEmpty() && times.first() <= maxRealTime) {
+            return false;
+        }
+
+        addTimes(times);
+        return true;
+    }
+
+    private void addNewTime(Set<Long> times, long time) {
+        if (!realToSequentialMap.containsKey(time)) {
+            times.add(time);
+        }
+    }
+
+    private void addTimes(Set<Long> times) {
+        long sequentialIndex = realToSequentialMap.size();
         for (final Long realTime : times) {
-            realToSequentialMap.put(realTime, (long) sequentialIndex++);
+            realToSequentialMap.put(realTime, sequentialIndex++);
+            maxRealTime = realTime;
         }
     }
 
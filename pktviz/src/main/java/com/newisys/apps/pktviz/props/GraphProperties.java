@@ -38,6 +38,7 @@ import org.w3c.dom.Node;
 import com.newisys.apps.pktviz.model.PacketGraphListener;
 import com.newisys.apps.pktviz.model.PacketInfo;
 import com.newisys.apps.pktviz.model.PacketNode;
+import com.newisys.apps.pktviz.model.PacketStore;
 
 public final class GraphProperties
     implements PacketGraphListener
@@ -431,6 +432,14 @@ public final class GraphProperties
         // do nothing
     }
 
+    public void packetsAdded(
+        PacketStore store,
+        int fromIndex,
+        int toIndex)
+    {
+        // do nothing
+    }
+
     public void packetUpdated(PacketInfo packet)
     {
         // do nothing
@@ -19,11 +19,10 @@
 package com.newisys.apps.pktviz.view;
 
 import java.awt.Container;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 
 import javax.swing.JLayeredPane;
 import javax.swing.JPanel;
@@ -33,6 +32,7 @@ import com.newisys.apps.pktviz.model.PacketGraphListener;
 import com.newisys.apps.pktviz.model.PacketGraphSource;
 import com.newisys.apps.pktviz.model.PacketInfo;
 import com.newisys.apps.pktviz.model.PacketNode;
+import com.newisys.apps.pktviz.model.PacketStore;
 
 abstract class JAbstractPacketGraph
     extends JLayeredPane
@@ -42,7 +42,8 @@ abstract class JAbstractPacketGraph
     protected PacketGraph graph;
 
     protected JPanel nodePane;
-    protected Map<PacketNode, JAbstractPacketNode> nodeViewMap;
+    // views by node ID
+    protected JAbstractPacketNode[] nodeViews;
 
     public JAbstractPacketGraph()
     {
@@ -52,7 +53,7 @@ abstract class JAbstractPacketGraph
         nodePane.setLayout(new SimpleBoxLayout(nodePane, SimpleBoxLayout.Y_AXIS));
         add(nodePane);
 
-        nodeViewMap = new HashMap<PacketNode, JAbstractPacketNode>();
+        nodeViews = new JAbstractPacketNode[64];
     }
 
     public void setName(String name)
@@ -92,7 +93,7 @@ abstract class JAbstractPacketGraph
     private void removeNodes()
     {
         nodePane.removeAll();
-        nodeViewMap.clear();
+        Arrays.fill(nodeViews, null);
     }
 
     protected abstract JAbstractPacketNode newNode(PacketNode node);
@@ -117,7 +118,7 @@ abstract class JAbstractPacketGraph
                 nodeView = newGroup(node);
             }
 
-            nodeViewMap.put(node, nodeView);
+            setViewForNode(node, nodeView);
             c.add(nodeView);
 
             if (!childList.isEmpty())
@@ -129,7 +130,21 @@ abstract class JAbstractPacketGraph
 
     protected JAbstractPacketNode getViewForNode(PacketNode node)
     {
-        return nodeViewMap.get(node);
+        int id = node.getNodeID();
+        return id < nodeViews.length ? nodeViews[id] : null;
+    }
+
+    private void setViewForNode(PacketNode node, JAbstractPacketNode nodeView)
+    {
+        int id = node.getNodeID();
+        if (id >= nodeViews.length)
+        {
+            JAbstractPacketNode[] newViews = new JAbstractPacketNode[Math.max(
+                id + 1, nodeViews.length * 2)];
+            System.arraycopy(nodeViews, 0, newViews, 0, nodeViews.length);
+            nodeViews = newViews;
+        }
+        nodeViews[id] = nodeView;
     }
 
     public void nodeAdded(PacketNode node, boolean topLevel)
@@ -165,7 +180,7 @@ abstract class JAbstractPacketGraph
                 nodeView = newNode(node);
             }
             // update node-view mapping
-            nodeViewMap.put(node, nodeView);
+            setViewForNode(node, nodeView);
         }
 
         // update view properties
@@ -174,10 +189,10 @@ abstract class JAbstractPacketGraph
         // get correct parent container for node view
         PacketNode parent = node.getParent();
         Container parentContainer;
-        List siblingList;
+        List<PacketNode> siblingList;
         if (parent != null)
         {
-            parentContainer = nodeViewMap.get(parent);
+            parentContainer = getViewForNode(parent);
             siblingList = parent.getChildList();
         }
         else
@@ -196,17 +211,35 @@ abstract class JAbstractPacketGraph
             }
             if (parentContainer != null)
             {
-                int index = siblingList.indexOf(node);
-                parentContainer.add(nodeView, index);
+                parentContainer.add(nodeView, indexOf(siblingList, node));
             }
         }
     }
 
+    /**
+     * Returns the index of a node in its sibling list, checking the end of
+     * the list first, since nodes are usually appended as a log is read.
+     */
+    private static int indexOf(List<PacketNode> siblingList, PacketNode node)
+    {
+        int last = siblingList.size() - 1;
+        if (last >= 0 && siblingList.get(last) == node) return last;
+        return siblingList.indexOf(node);
+    }
+
     public void packetAdded(PacketInfo packet)
     {
         // do nothing
     }
 
+    public void packetsAdded(
+        PacketStore store,
+        int fromIndex,
+        int toIndex)
+    {
+        // do nothing
+    }
+
     public void packetUpdated(PacketInfo packet)
     {
         // do nothing
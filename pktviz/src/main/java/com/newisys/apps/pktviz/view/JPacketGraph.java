@@ -28,8 +28,8 @@ import java.awt.geom.Line2D;
 import java.awt.geom.Rectangle2D;
 import java.io.IOException;
 import java.text.NumberFormat;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 
@@ -39,6 +39,7 @@ import javax.swing.JComponent;
 import com.newisys.apps.pktviz.model.PacketGraphSource;
 import com.newisys.apps.pktviz.model.PacketInfo;
 import com.newisys.apps.pktviz.model.PacketNode;
+import com.newisys.apps.pktviz.model.PacketStore;
 import com.newisys.prtree.PointIterator;
 import com.newisys.util.glyph.Connector;
 
@@ -51,6 +52,9 @@ public class JPacketGraph
     private static final int PACKET_HIT_WIDTH = 4;
     private static final int PACKET_HIT_HEIGHT = 4;
 
+    // marks node positions that have not been computed
+    private static final int NO_POS = Integer.MIN_VALUE;
+
     private JPacketGraphHeader header;
     private JPacketGraphRuler ruler;
     private JPacketGraphULCorner ulCorner;
@@ -59,6 +63,12 @@ public class JPacketGraph
 
     private long firstTick;
 
+    // true until the graph has two packet times to scale by
+    private boolean scalePending;
+
+    // scroll to the last packet whenever the source is updated
+    private boolean autoScroll;
+
     private double pixelsPerTick;
     private double ticksPerMajor;
 
@@ -117,10 +127,12 @@ public class JPacketGraph
     private void autoScale()
     {
         double newPixelsPerTick = 1.0;
+        scalePending = false;
 
         if (graph != null)
         {
             // calculate scale based on distance between first two times
+            scalePending = true;
             PointIterator i = graph.getPacketTimes();
             if (i.hasNext())
             {
@@ -129,6 +141,7 @@ public class JPacketGraph
                 {
                     long secondTick = i.next();
                     newPixelsPerTick = 25.0 / (secondTick - firstTick);
+                    scalePending = false;
                 }
             }
         }
@@ -143,6 +156,43 @@ public class JPacketGraph
         updateWidth();
     }
 
+    /**
+     * Called after packets have been added to the graph outside of a paint,
+     * such as by a source that loads in the background.
+     */
+    public void sourceUpdated()
+    {
+        if (scalePending)
+        {
+            autoScale();
+        }
+        else
+        {
+            updateWidth();
+        }
+        ruler.repaint();
+        packetPane.repaint();
+
+        if (autoScroll && graph != null)
+        {
+            Rectangle visRect = getVisibleRect();
+            int lastX = (int) Math.ceil(tickToPixel(graph.getLastTime()))
+                + GRAPH_HORIZ_MARGIN;
+            scrollRectToVisible(new Rectangle(lastX - visRect.width,
+                visRect.y, visRect.width, visRect.height));
+        }
+    }
+
+    public boolean isAutoScroll()
+    {
+        return autoScroll;
+    }
+
+    public void setAutoScroll(boolean autoScroll)
+    {
+        this.autoScroll = autoScroll;
+    }
+
     public JComponent getColumnHeader()
     {
         return ruler;
@@ -229,6 +279,23 @@ public class JPacketGraph
         packetUpdated(packet);
     }
 
+    public void packetsAdded(
+        PacketStore store,
+        int fromIndex,
+        int toIndex)
+    {
+        // repaint once if any of the packets is visible
+        for (int i = fromIndex; i < toIndex; ++i)
+        {
+            if (store.isMatched(i) && store.getToTime(i) >= minVisTick
+                && store.getFromTime(i) <= maxVisTick)
+            {
+                packetPane.repaint();
+                return;
+            }
+        }
+    }
+
     public void packetUpdated(PacketInfo packet)
     {
         long fromTime = packet.getFromTime();
@@ -425,7 +492,8 @@ public class JPacketGraph
     public class JPacketPane
         extends JComponent
     {
-        private HashMap<PacketNode, Integer> nodePosMap;
+        // y positions by node ID, or NO_POS if not yet computed
+        private int[] nodePositions;
         private LinkedList<PacketEdge> visPacketEdges;
         private PacketInfo highlightedPacket;
 
@@ -433,13 +501,13 @@ public class JPacketGraph
         {
             setOpaque(false);
 
-            nodePosMap = new HashMap<PacketNode, Integer>();
+            nodePositions = new int[0];
             visPacketEdges = new LinkedList<PacketEdge>();
         }
 
         public void invalidateNodePosMap()
         {
-            nodePosMap.clear();
+            Arrays.fill(nodePositions, NO_POS);
         }
 
         public PacketInfo getPacketAt(int x, int y)
@@ -619,15 +687,25 @@ public class JPacketGraph
 
         private int getNodeY(PacketNode node)
         {
-            Integer y = nodePosMap.get(node);
-            if (y == null)
+            int id = node.getNodeID();
+            if (id >= nodePositions.length)
+            {
+                int[] newPositions = new int[Math.max(id + 1,
+                    graph.getNodeCount())];
+                System.arraycopy(nodePositions, 0, newPositions, 0,
+                    nodePositions.length);
+                Arrays.fill(newPositions, nodePositions.length,
+                    newPositions.length, NO_POS);
+                nodePositions = newPositions;
+            }
+            int y = nodePositions[id];
+            if (y == NO_POS)
             {
                 JAbstractPacketNode nodeView = getViewForNode(node);
-                y = Integer.valueOf(getRelY(nodeView, nodePane)
-                    + nodeView.getYOffset());
-                nodePosMap.put(node, y);
+                y = getRelY(nodeView, nodePane) + nodeView.getYOffset();
+                nodePositions[id] = y;
             }
-            return y.intValue();
+            return y;
         }
 
         private int getRelY(Component comp, Component parent)
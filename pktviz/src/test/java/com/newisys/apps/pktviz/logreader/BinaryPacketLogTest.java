@@ -0,0 +1,358 @@
+/*
+ * PacketViz packet visualization for the Java (TM) Platform
+ * Copyright (C) 2007 Newisys, Inc. or its licensors, as applicable.
+ * Java is a registered trademark of Sun Microsystems, Inc. in the U.S. or
+ * other countries.
+ *
+ * Licensed under the Open Software License version 3.0 (the "License"); you
+ * may not use this file except in compliance with the License. You should
+ * have received a copy of the License along with this software; if not, you
+ * may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/osl-3.0.php
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.newisys.apps.pktviz.logreader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.newisys.apps.pktviz.model.PacketGraph;
+
+public class BinaryPacketLogTest
+{
+    private static final String[] RECORDS = {
+        "0,-4,1444,system.chip1.Cache3,system.chip0.Memory0,Cmd=SnoopLine; addr=48'hd9d4b5f30868; flag   # comment",
+        "1,-1,2887,system.chip3.Cache1,system.chip3.Memory1,Cmd=NotPresent; addr=48'h9da97cb1c23b",
+        "# comment line",
+        "",
+        "3,0,2867,system.chip1.Cache0,system.chip1.Memory0,Cmd=MemData; data=32'hDEED",
+        "4,0,2356,system.chip2.Cache0,system.chip0.Memory1,addr=48'h7cb6e11760a5",
+        "5,5,3332,system.chip3.Cache0,system.chip0.Memory1,Cmd=MemData",
+        "6,3,4233,system.chip1.Cache0,system.chip2.Memory1,Cmd=WrBack; addr=48'h36f046296448; note=a b c" };
+
+    private File textFile;
+    private File binaryFile;
+
+    @Before
+    public void setUp()
+        throws IOException
+    {
+        textFile = File.createTempFile("binarylog", ".pkt");
+        binaryFile = File.createTempFile("binarylog", ".pktb");
+    }
+
+    @After
+    public void tearDown()
+    {
+        textFile.delete();
+        binaryFile.delete();
+    }
+
+    private void writeLog(String header, String[] records)
+        throws IOException
+    {
+        Writer writer = new FileWriter(textFile);
+        try
+        {
+            writer.write(header);
+            writer.write('\n');
+            for (int i = 0; i < records.length; ++i)
+            {
+                writer.write(records[i]);
+                writer.write('\n');
+            }
+        }
+        finally
+        {
+            writer.close();
+        }
+    }
+
+    private PacketGraph readText()
+        throws IOException
+    {
+        PacketGraph graph = new PacketGraph();
+        PacketLogReader reader = new PacketLogReader(textFile, graph);
+        reader.fetchAll();
+        reader.close();
+        return graph;
+    }
+
+    @Test
+    public void testRoundTrip()
+        throws IOException
+    {
+        writeLog("# Packet Log Version 4", RECORDS);
+        assertEquals(6, BinaryPacketLogConverter.convert(textFile, binaryFile));
+        assertTrue(BinaryPacketLogReader.isBinaryLog(binaryFile));
+        assertFalse(BinaryPacketLogReader.isBinaryLog(textFile));
+
+        PacketGraph expected = readText();
+        PacketGraph actual = new PacketGraph();
+        BinaryPacketLogReader reader = new BinaryPacketLogReader(binaryFile,
+            actual);
+        try
+        {
+            assertEquals(6, reader.getRecordCount());
+            assertFalse(reader.isPaged());
+            reader.fetchAll();
+            assertTrue(reader.isComplete());
+            // field lists are read from the file, so compare before closing
+            assertEquals(GraphText.describe(expected),
+                GraphText.describe(actual));
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testFetchUntil()
+        throws IOException
+    {
+        writeLog("# Packet Log Version 4", RECORDS);
+        BinaryPacketLogConverter.convert(textFile, binaryFile);
+
+        PacketGraph graph = new PacketGraph();
+        BinaryPacketLogReader reader = new BinaryPacketLogReader(binaryFile,
+            graph);
+        try
+        {
+            reader.fetchUntil(2);
+            assertFalse(reader.isComplete());
+            assertTrue(graph.getPackets().size() < 6);
+            reader.fetchAll();
+            assertEquals(6, graph.getPackets().size());
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testFetchAvailable()
+        throws IOException
+    {
+        // more records than one call adds
+        String[] records = new String[100000];
+        for (int i = 0; i < records.length; ++i)
+        {
+            records[i] = (i + 10) + "," + (i + 5) + "," + (i / 3)
+                + ",system.chip" + (i % 4) + ".Cache" + (i % 3)
+                + ",system.chip" + (i % 5) + ".Memory0,Cmd=ReadMem";
+        }
+        writeLog("# Packet Log Version 4", records);
+        BinaryPacketLogConverter.convert(textFile, binaryFile);
+
+        PacketGraph full = new PacketGraph();
+        BinaryPacketLogReader fullReader = new BinaryPacketLogReader(
+            binaryFile, full);
+        PacketGraph stepped = new PacketGraph();
+        BinaryPacketLogReader steppedReader = new BinaryPacketLogReader(
+            binaryFile, stepped);
+        try
+        {
+            fullReader.fetchAll();
+
+            long added = steppedReader.fetchAvailable();
+            assertTrue(added > 0 && added < records.length);
+            assertFalse(steppedReader.isComplete());
+            assertEquals(added, stepped.getPackets().size());
+            assertEquals(added, steppedReader.getRecordsRead());
+            assertTrue(steppedReader.getBytesRead() < steppedReader
+                .getTotalBytes());
+            int calls = 1;
+            while (!steppedReader.isComplete())
+            {
+                added += steppedReader.fetchAvailable();
+                ++calls;
+            }
+            assertTrue(calls > 1);
+            assertEquals(records.length, added);
+            assertEquals(steppedReader.getTotalBytes(), steppedReader
+                .getBytesRead());
+            assertEquals(0, steppedReader.fetchAvailable());
+            assertEquals(GraphText.describe(full), GraphText.describe(stepped));
+        }
+        finally
+        {
+            fullReader.close();
+            steppedReader.close();
+        }
+    }
+
+    @Test
+    public void testCancel()
+        throws IOException
+    {
+        writeLog("# Packet Log Version 4", RECORDS);
+        BinaryPacketLogConverter.convert(textFile, binaryFile);
+
+        PacketGraph graph = new PacketGraph();
+        BinaryPacketLogReader reader = new BinaryPacketLogReader(binaryFile,
+            graph);
+        try
+        {
+            reader.fetchUntil(2);
+            int size = graph.getPackets().size();
+            reader.cancel();
+            assertTrue(reader.isComplete());
+            assertEquals(0, reader.fetchAvailable());
+            reader.fetchAll();
+            assertEquals(size, graph.getPackets().size());
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testPaged()
+        throws IOException
+    {
+        // several pages of records, with some packets spanning pages
+        String[] records = new String[10000];
+        for (int i = 0; i < records.length; ++i)
+        {
+            long recvTime = i * 2 + 10;
+            long sendTime = recvTime - 1 - (i % 7 == 0 ? 500 : i % 3);
+            records[i] = recvTime + "," + sendTime + "," + (i / 3)
+                + ",system.chip" + (i % 4) + ".Cache" + (i % 3)
+                + ",system.chip" + (i % 5) + ".Memory0,Cmd=ReadMem; addr=48'h"
+                + Integer.toHexString(i * 64);
+        }
+        writeLog("# Packet Log Version 4", records);
+        BinaryPacketLogConverter.convert(textFile, binaryFile);
+
+        PacketGraph full = new PacketGraph();
+        BinaryPacketLogReader fullReader = new BinaryPacketLogReader(
+            binaryFile, full);
+        PacketGraph paged = new PacketGraph();
+        BinaryPacketLogReader pagedReader = new BinaryPacketLogReader(
+            binaryFile, paged);
+        try
+        {
+            fullReader.fetchAll();
+
+            // with no budget, only the pages of the last search are kept
+            pagedReader.setMemoryBudget(1);
+            assertTrue(pagedReader.isPaged());
+            pagedReader.fetchAll();
+            assertTrue(pagedReader.isComplete());
+            assertTrue(pagedReader.getResidentPageCount() > 0);
+            assertTrue(paged.getPackets().size() < records.length);
+            assertEquals(full.getFirstTime(), paged.getFirstTime());
+            assertEquals(full.getLastTime(), paged.getLastTime());
+
+            long[][] windows = { { 0, 100 }, { 9000, 9100 }, { 8100, 8300 },
+                { 19990, 20010 }, { 5000, 15000 }, { 0, 30000 }, { 50, 50 } };
+            for (int i = 0; i < windows.length; ++i)
+            {
+                long from = windows[i][0];
+                long to = windows[i][1];
+                assertEquals(from + "-" + to,
+                    GraphText.describeSorted(full.findPackets(from, to)),
+                    GraphText.describeSorted(paged.findPackets(from, to)));
+            }
+            assertEquals(1, pagedReader.getResidentPageCount());
+        }
+        finally
+        {
+            fullReader.close();
+            pagedReader.close();
+        }
+    }
+
+    @Test
+    public void testSetMemoryBudgetAfterFetch()
+        throws IOException
+    {
+        writeLog("# Packet Log Version 4", RECORDS);
+        BinaryPacketLogConverter.convert(textFile, binaryFile);
+
+        BinaryPacketLogReader reader = new BinaryPacketLogReader(binaryFile,
+            new PacketGraph());
+        try
+        {
+            reader.fetchAll();
+            reader.setMemoryBudget(1);
+            fail("Paged a log that was already read");
+        }
+        catch (IllegalStateException e)
+        {
+            // expected
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testEmptyLog()
+        throws IOException
+    {
+        writeLog("# Packet Log Version 4", new String[0]);
+        assertEquals(0, BinaryPacketLogConverter.convert(textFile, binaryFile));
+
+        PacketGraph graph = new PacketGraph();
+        BinaryPacketLogReader reader = new BinaryPacketLogReader(binaryFile,
+            graph);
+        reader.fetchAll();
+        reader.close();
+        assertEquals(0, graph.getPackets().size());
+    }
+
+    @Test
+    public void testRejectsOldVersion()
+        throws IOException
+    {
+        writeLog("# Packet Log Version 3", new String[] {
+            "0,-4,1444,system.chip1.Cache3,system.chip0.Memory0,"
+                + "SnoopLine,0,Cmd=SnoopLine" });
+        try
+        {
+            BinaryPacketLogConverter.convert(textFile, binaryFile);
+            fail("Converted a Version 3 log");
+        }
+        catch (IOException e)
+        {
+            // expected
+        }
+    }
+
+    @Test
+    public void testRejectsTextLog()
+        throws IOException
+    {
+        writeLog("# Packet Log Version 4", RECORDS);
+        try
+        {
+            new BinaryPacketLogReader(textFile, new PacketGraph());
+            fail("Opened a text log");
+        }
+        catch (IOException e)
+        {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * PacketViz packet visualization for the Java (TM) Platform
+ * Copyright (C) 2007 Newisys, Inc. or its licensors, as applicable.
+ * Java is a registered trademark of Sun Microsystems, Inc. in the U.S. or
+ * other countries.
+ *
+ * Licensed under the Open Software License version 3.0 (the "License"); you
+ * may not use this file except in compliance with the License. You should
+ * have received a copy of the License along with this software; if not, you
+ * may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/osl-3.0.php
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.newisys.apps.pktviz.logreader;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import com.newisys.apps.pktviz.model.PacketFieldList;
+import com.newisys.apps.pktviz.model.PacketGraph;
+import com.newisys.apps.pktviz.model.PacketInfo;
+import com.newisys.apps.pktviz.model.PacketNode;
+
+/**
+ * Describes the contents of packet graphs as text, so that graphs loaded
+ * by different readers can be compared.
+ */
+final class GraphText
+{
+    private GraphText()
+    {
+    }
+
+    /**
+     * Returns the node hierarchy and the packets of a graph, in the order
+     * they were added.
+     */
+    public static String describe(PacketGraph graph)
+    {
+        StringBuffer buf = new StringBuffer();
+        describeNodes(graph.getTopLevelNodes(), buf);
+        Iterator<PacketInfo> i = graph.getPackets().iterator();
+        while (i.hasNext())
+        {
+            buf.append(describe(i.next())).append('\n');
+        }
+        return buf.toString();
+    }
+
+    /**
+     * Returns the given packets, sorted by their descriptions.
+     */
+    public static String describeSorted(Collection<?> packets)
+    {
+        List<String> lines = new ArrayList<String>();
+        Iterator<?> i = packets.iterator();
+        while (i.hasNext())
+        {
+            lines.add(describe((PacketInfo) i.next()));
+        }
+        Collections.sort(lines);
+        StringBuffer buf = new StringBuffer();
+        for (int j = 0; j < lines.size(); ++j)
+        {
+            buf.append(lines.get(j)).append('\n');
+        }
+        return buf.toString();
+    }
+
+    public static String describe(PacketInfo packet)
+    {
+        StringBuffer buf = new StringBuffer();
+        buf.append(packet.getTxn() != null ? packet.getTxn().getTxnID() : -1);
+        buf.append(',').append(packet.getFromTimeActual());
+        buf.append(',').append(packet.getToTimeActual());
+        buf.append(',').append(packet.getFromNode().getName());
+        buf.append(',').append(packet.getToNode().getName());
+        buf.append(',').append(packet.getPacketName());
+        PacketFieldList fields = packet.getFieldList();
+        if (fields != null)
+        {
+            for (int j = 0; j < fields.size(); ++j)
+            {
+                buf.append(';').append(fields.getName(j)).append('=');
+                buf.append(fields.getValue(j));
+            }
+        }
+        return buf.toString();
+    }
+
+    private static void describeNodes(List<PacketNode> nodes, StringBuffer buf)
+    {
+        for (int i = 0; i < nodes.size(); ++i)
+        {
+            PacketNode node = nodes.get(i);
+            buf.append(node.getName()).append('(');
+            describeNodes(node.getChildList(), buf);
+            buf.append(')');
+        }
+        buf.append('\n');
+    }
+}
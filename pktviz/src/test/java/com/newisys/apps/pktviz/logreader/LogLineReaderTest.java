@@ -0,0 +1,177 @@
+/*
+ * PacketViz packet visualization for the Java (TM) Platform
+ * Copyright (C) 2007 Newisys, Inc. or its licensors, as applicable.
+ * Java is a registered trademark of Sun Microsystems, Inc. in the U.S. or
+ * other countries.
+ *
+ * Licensed under the Open Software License version 3.0 (the "License"); you
+ * may not use this file except in compliance with the License. You should
+ * have received a copy of the License along with this software; if not, you
+ * may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/osl-3.0.php
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.newisys.apps.pktviz.logreader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class LogLineReaderTest
+{
+    /**
+     * Returns at most one character per read, so that every line and
+     * terminator crosses a read boundary.
+     */
+    private static final class TrickleReader
+        extends Reader
+    {
+        private final StringBuffer text = new StringBuffer();
+        private int pos;
+
+        public TrickleReader(String s)
+        {
+            text.append(s);
+        }
+
+        public void append(String s)
+        {
+            text.append(s);
+        }
+
+        public int read(char[] cbuf, int off, int len)
+        {
+            if (pos == text.length()) return -1;
+            cbuf[off] = text.charAt(pos++);
+            return 1;
+        }
+
+        public boolean ready()
+        {
+            return pos < text.length();
+        }
+
+        public void close()
+        {
+        }
+    }
+
+    private static List<String> readLines(LogLineReader reader)
+        throws IOException
+    {
+        List<String> lines = new ArrayList<String>();
+        while (reader.nextLine())
+        {
+            lines.add(reader.getLine());
+        }
+        return lines;
+    }
+
+    private static List<String> list(String... lines)
+    {
+        List<String> list = new ArrayList<String>();
+        for (String line : lines)
+        {
+            list.add(line);
+        }
+        return list;
+    }
+
+    @Test
+    public void testTerminators()
+        throws IOException
+    {
+        String text = "a\nbb\r\nccc\rdddd\n\r\n\neee";
+        List<String> expected = list("a", "bb", "ccc", "dddd", "", "", "eee");
+        assertEquals(expected, readLines(new LogLineReader(new StringReader(
+            text))));
+        assertEquals(expected, readLines(new LogLineReader(new TrickleReader(
+            text))));
+    }
+
+    @Test
+    public void testEmptyStream()
+        throws IOException
+    {
+        LogLineReader reader = new LogLineReader(new StringReader(""));
+        assertFalse(reader.nextLine());
+        assertFalse(reader.nextLine());
+    }
+
+    @Test
+    public void testLineLongerThanBuffer()
+        throws IOException
+    {
+        StringBuffer buf = new StringBuffer();
+        for (int i = 0; i < 200000; ++i)
+        {
+            buf.append((char) ('a' + i % 26));
+        }
+        String longLine = buf.toString();
+        String text = "x\n" + longLine + "\r\ny";
+        assertEquals(list("x", longLine, "y"), readLines(new LogLineReader(
+            new StringReader(text))));
+    }
+
+    @Test
+    public void testBufferBounds()
+        throws IOException
+    {
+        LogLineReader reader = new LogLineReader(new StringReader("ab\ncd\n"));
+        assertTrue(reader.nextLine());
+        assertTrue(reader.nextLine());
+        char[] buf = reader.getBuffer();
+        assertEquals("cd", new String(buf, reader.getLineStart(),
+            reader.getLineEnd() - reader.getLineStart()));
+    }
+
+    @Test
+    public void testFollowHoldsBackPartialLine()
+        throws IOException
+    {
+        TrickleReader in = new TrickleReader("one\ntw");
+        LogLineReader reader = new LogLineReader(in);
+        reader.setFollow(true);
+        assertEquals(list("one"), readLines(reader));
+
+        in.append("o\r");
+        assertEquals(list("two"), readLines(reader));
+
+        // the LF of a CRLF split across appends is not an empty line
+        in.append("\nthree");
+        assertEquals(list(), readLines(reader));
+
+        reader.setFollow(false);
+        assertEquals(list("three"), readLines(reader));
+    }
+
+    @Test
+    public void testReady()
+        throws IOException
+    {
+        TrickleReader in = new TrickleReader("a\nb");
+        LogLineReader reader = new LogLineReader(in);
+        assertTrue(reader.ready());
+        assertTrue(reader.nextLine());
+        reader.setFollow(true);
+        assertFalse(reader.nextLine());
+        assertFalse(reader.ready());
+        in.append("\n");
+        assertTrue(reader.ready());
+        assertTrue(reader.nextLine());
+        assertEquals("b", reader.getLine());
+    }
+}
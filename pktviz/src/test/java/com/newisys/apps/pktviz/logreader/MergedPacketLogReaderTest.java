@@ -0,0 +1,286 @@
+/*
+ * PacketViz packet visualization for the Java (TM) Platform
+ * Copyright (C) 2007 Newisys, Inc. or its licensors, as applicable.
+ * Java is a registered trademark of Sun Microsystems, Inc. in the U.S. or
+ * other countries.
+ *
+ * Licensed under the Open Software License version 3.0 (the "License"); you
+ * may not use this file except in compliance with the License. You should
+ * have received a copy of the License along with this software; if not, you
+ * may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/osl-3.0.php
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.newisys.apps.pktviz.logreader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.newisys.apps.pktviz.model.PacketGraph;
+import com.newisys.apps.pktviz.model.PacketInfo;
+
+public class MergedPacketLogReaderTest
+{
+    private final List<File> files = new ArrayList<File>();
+
+    @After
+    public void tearDown()
+    {
+        for (File file : files)
+        {
+            file.delete();
+        }
+    }
+
+    private File writeLog(String... records)
+        throws IOException
+    {
+        File file = File.createTempFile("merged", ".pkt");
+        files.add(file);
+        StringBuilder text = new StringBuilder("# Packet Log Version 4\n");
+        for (String record : records)
+        {
+            text.append(record).append('\n');
+        }
+        OutputStream out = new FileOutputStream(file);
+        try
+        {
+            out.write(text.toString().getBytes("US-ASCII"));
+        }
+        finally
+        {
+            out.close();
+        }
+        return file;
+    }
+
+    /**
+     * Returns a record received at the given time, sent from the given agent.
+     */
+    private static String record(long time, int txnID, String agent)
+    {
+        return time + ",-1," + txnID + ",system." + agent
+            + ",system.mem,Cmd=ReadMem";
+    }
+
+    /**
+     * Returns the receive time and sending agent of each packet in the
+     * order the packets were added.
+     */
+    private static List<String> describe(PacketGraph graph)
+    {
+        List<String> packets = new ArrayList<String>();
+        for (PacketInfo packet : graph.getPackets())
+        {
+            packets.add(packet.getToTimeActual() + " "
+                + packet.getFromNode().getName());
+        }
+        return packets;
+    }
+
+    private static List<String> expected(String... packets)
+    {
+        List<String> list = new ArrayList<String>();
+        for (String packet : packets)
+        {
+            list.add(packet);
+        }
+        return list;
+    }
+
+    @Test
+    public void testMergesByReceiveTime()
+        throws IOException
+    {
+        File a = writeLog(record(10, 1, "a"), record(20, 2, "a"),
+            record(30, 3, "a"), record(50, 4, "a"));
+        File b = writeLog(record(5, 11, "b"), record(20, 12, "b"),
+            record(40, 13, "b"));
+        File c = writeLog();
+        File d = writeLog(record(20, 21, "d"), record(60, 22, "d"));
+
+        PacketGraph graph = new PacketGraph();
+        MergedPacketLogReader reader = new MergedPacketLogReader(new File[] {
+            a, b, c, d }, graph);
+        try
+        {
+            reader.fetchAll();
+            assertTrue(reader.isComplete());
+        }
+        finally
+        {
+            reader.close();
+        }
+
+        // equal times are taken from the earlier log first
+        assertEquals(expected("5 system.b", "10 system.a", "20 system.a",
+            "20 system.b", "20 system.d", "30 system.a", "40 system.b",
+            "50 system.a", "60 system.d"), describe(graph));
+        assertEquals(9, reader.getRecordsAdded());
+        assertEquals(9, graph.findPackets(0, 100).size());
+    }
+
+    @Test
+    public void testSharesTransactionsAndNodes()
+        throws IOException
+    {
+        File a = writeLog(record(10, 7, "a"), record(30, 8, "cpu"));
+        File b = writeLog(record(20, 7, "b"), record(40, 8, "cpu"));
+
+        PacketGraph graph = new PacketGraph();
+        MergedPacketLogReader reader = new MergedPacketLogReader(new File[] {
+            a, b }, graph);
+        try
+        {
+            reader.fetchAll();
+        }
+        finally
+        {
+            reader.close();
+        }
+
+        List<PacketInfo> packets = new ArrayList<PacketInfo>(graph.getPackets());
+        assertEquals(4, packets.size());
+        assertSame(packets.get(0).getTxn(), packets.get(1).getTxn());
+        assertSame(packets.get(2).getTxn(), packets.get(3).getTxn());
+        assertSame(packets.get(2).getFromNode(), packets.get(3).getFromNode());
+        assertSame(packets.get(0).getToNode(), packets.get(3).getToNode());
+    }
+
+    @Test
+    public void testFetchUntil()
+        throws IOException
+    {
+        File a = writeLog(record(10, 1, "a"), record(30, 2, "a"),
+            record(50, 3, "a"));
+        File b = writeLog(record(20, 11, "b"), record(40, 12, "b"));
+
+        PacketGraph graph = new PacketGraph();
+        MergedPacketLogReader reader = new MergedPacketLogReader(new File[] {
+            a, b }, graph);
+        try
+        {
+            // reads up to the first record past the requested time
+            reader.fetchUntil(25);
+            assertFalse(reader.isComplete());
+            assertEquals(expected("10 system.a", "20 system.b", "30 system.a"),
+                describe(graph));
+
+            reader.fetchUntil(25);
+            assertEquals(3, graph.getPackets().size());
+
+            reader.fetchUntil(45);
+            assertEquals(expected("10 system.a", "20 system.b", "30 system.a",
+                "40 system.b", "50 system.a"), describe(graph));
+            assertEquals(5, graph.findPackets(0, 100).size());
+
+            reader.fetchAll();
+            assertTrue(reader.isComplete());
+            assertEquals(5, graph.getPackets().size());
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testMatchesSortedConcatenation()
+        throws IOException
+    {
+        // several batches per log, with many equal times across logs
+        Random random = new Random(3);
+        int logCount = 5;
+        File[] logFiles = new File[logCount];
+        List<String> all = new ArrayList<String>();
+        for (int i = 0; i < logCount; ++i)
+        {
+            String[] records = new String[5000 + random.nextInt(5000)];
+            long time = 0;
+            for (int j = 0; j < records.length; ++j)
+            {
+                time += random.nextInt(4);
+                records[j] = record(time, j, "agent" + i);
+                all.add(time + " system.agent" + i);
+            }
+            logFiles[i] = writeLog(records);
+        }
+        // a stable sort keeps the log order for equal times
+        Collections.sort(all, new Comparator<String>()
+        {
+            public int compare(String x, String y)
+            {
+                long tx = Long.parseLong(x.substring(0, x.indexOf(' ')));
+                long ty = Long.parseLong(y.substring(0, y.indexOf(' ')));
+                return tx < ty ? -1 : tx > ty ? 1 : 0;
+            }
+        });
+
+        PacketGraph graph = new PacketGraph();
+        MergedPacketLogReader reader = new MergedPacketLogReader(logFiles,
+            graph);
+        try
+        {
+            long until = 0;
+            while (!reader.isComplete())
+            {
+                until += 1000;
+                reader.fetchUntil(until);
+            }
+        }
+        finally
+        {
+            reader.close();
+        }
+        assertEquals(all, describe(graph));
+    }
+
+    @Test
+    public void testParseErrorKeepsCause()
+        throws IOException
+    {
+        File a = writeLog(record(10, 1, "a"));
+        File b = writeLog(record(20, 2, "b"),
+            "30,-1,x,system.b,system.mem,Cmd=ReadMem");
+
+        MergedPacketLogReader reader = new MergedPacketLogReader(new File[] {
+            a, b }, new PacketGraph());
+        try
+        {
+            reader.fetchAll();
+            fail("Read a malformed record");
+        }
+        catch (RuntimeException e)
+        {
+            assertTrue(e.getMessage(), e.getMessage().contains(b.getName()));
+            assertNotNull(e.getCause());
+            assertTrue(reader.isComplete());
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,586 @@
+/*
+ * PacketViz packet visualization for the Java (TM) Platform
+ * Copyright (C) 2007 Newisys, Inc. or its licensors, as applicable.
+ * Java is a registered trademark of Sun Microsystems, Inc. in the U.S. or
+ * other countries.
+ *
+ * Licensed under the Open Software License version 3.0 (the "License"); you
+ * may not use this file except in compliance with the License. You should
+ * have received a copy of the License along with this software; if not, you
+ * may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/osl-3.0.php
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.newisys.apps.pktviz.logreader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.newisys.apps.pktviz.model.PacketFieldList;
+import com.newisys.apps.pktviz.model.PacketGraph;
+import com.newisys.apps.pktviz.model.PacketInfo;
+
+public class PacketCaptureReaderTest
+{
+    private static final int CLIENT = 0x0A000001; // 10.0.0.1
+    private static final int SERVER = 0x0A000002; // 10.0.0.2
+
+    private static final int FIN = 0x01;
+    private static final int SYN = 0x02;
+    private static final int RST = 0x04;
+    private static final int ACK = 0x10;
+
+    private File file;
+
+    @Before
+    public void setUp()
+        throws IOException
+    {
+        file = File.createTempFile("capture", ".pcap");
+    }
+
+    @After
+    public void tearDown()
+    {
+        file.delete();
+    }
+
+    /**
+     * Returns an Ethernet frame holding an IPv4 TCP segment without
+     * payload, with its headers in network byte order.
+     */
+    private static byte[] tcpFrame(
+        int srcAddr,
+        int srcPort,
+        int dstAddr,
+        int dstPort,
+        int flags)
+    {
+        ByteBuffer buf = ByteBuffer.allocate(54);
+        buf.put(new byte[] { 0, 0, 0, 0, 0, 2 });
+        buf.put(new byte[] { 0, 0, 0, 0, 0, 1 });
+        buf.putShort((short) 0x0800);
+        buf.put((byte) 0x45).put((byte) 0).putShort((short) 40);
+        buf.putShort((short) 0x1234).putShort((short) 0);
+        buf.put((byte) 64).put((byte) 6).putShort((short) 0);
+        buf.putInt(srcAddr).putInt(dstAddr);
+        buf.putShort((short) srcPort).putShort((short) dstPort);
+        buf.putInt(1000).putInt(0);
+        buf.put((byte) 0x50).put((byte) flags).putShort((short) 1024);
+        buf.putShort((short) 0).putShort((short) 0);
+        return buf.array();
+    }
+
+    private static byte[] request(int flags)
+    {
+        return tcpFrame(CLIENT, 1234, SERVER, 80, flags);
+    }
+
+    private static byte[] response(int flags)
+    {
+        return tcpFrame(SERVER, 80, CLIENT, 1234, flags);
+    }
+
+    /**
+     * Builds a capture file in memory in the given byte order.
+     */
+    private static final class CaptureBuilder
+    {
+        private ByteBuffer buf = ByteBuffer.allocate(1024);
+
+        CaptureBuilder(ByteOrder order)
+        {
+            buf.order(order);
+        }
+
+        void setOrder(ByteOrder order)
+        {
+            buf.order(order);
+        }
+
+        private void ensure(int length)
+        {
+            if (buf.remaining() < length)
+            {
+                ByteBuffer newBuf = ByteBuffer.allocate(Math.max(
+                    buf.capacity() * 2, buf.position() + length));
+                newBuf.order(buf.order());
+                buf.flip();
+                newBuf.put(buf);
+                buf = newBuf;
+            }
+        }
+
+        void pcapHeader(boolean nanos, int linkType)
+        {
+            ensure(24);
+            buf.putInt(nanos ? 0xA1B23C4D : 0xA1B2C3D4);
+            buf.putShort((short) 2).putShort((short) 4);
+            buf.putInt(0).putInt(0).putInt(65535).putInt(linkType);
+        }
+
+        void pcapRecord(long seconds, long fraction, byte[] frame)
+        {
+            pcapRecord(seconds, fraction, frame, frame.length);
+        }
+
+        void pcapRecord(long seconds, long fraction, byte[] frame, int length)
+        {
+            ensure(16 + length);
+            buf.putInt((int) seconds).putInt((int) fraction);
+            buf.putInt(frame.length).putInt(frame.length);
+            buf.put(frame, 0, length);
+        }
+
+        void sectionHeader()
+        {
+            ensure(28);
+            buf.putInt(0x0A0D0D0A).putInt(28).putInt(0x1A2B3C4D);
+            buf.putShort((short) 1).putShort((short) 0).putLong(-1);
+            buf.putInt(28);
+        }
+
+        /**
+         * Adds an interface description, with a timestamp resolution
+         * option unless <code>tsresol</code> is negative.
+         */
+        void interfaceDescription(int linkType, int tsresol)
+        {
+            int length = tsresol >= 0 ? 32 : 24;
+            ensure(length);
+            buf.putInt(1).putInt(length);
+            buf.putShort((short) linkType).putShort((short) 0).putInt(65535);
+            if (tsresol >= 0)
+            {
+                buf.putShort((short) 9).putShort((short) 1);
+                buf.put((byte) tsresol).put(new byte[3]);
+            }
+            buf.putShort((short) 0).putShort((short) 0);
+            buf.putInt(length);
+        }
+
+        void enhancedPacket(int ifIndex, long timestamp, byte[] frame)
+        {
+            int padded = (frame.length + 3) & ~3;
+            int length = 32 + padded;
+            ensure(length);
+            buf.putInt(6).putInt(length).putInt(ifIndex);
+            buf.putInt((int) (timestamp >>> 32)).putInt((int) timestamp);
+            buf.putInt(frame.length).putInt(frame.length);
+            buf.put(frame).put(new byte[padded - frame.length]);
+            buf.putInt(length);
+        }
+
+        void unknownBlock()
+        {
+            ensure(16);
+            buf.putInt(0x0BAD).putInt(16).putInt(0).putInt(16);
+        }
+
+        void write(File file)
+            throws IOException
+        {
+            FileOutputStream out = new FileOutputStream(file);
+            try
+            {
+                out.write(buf.array(), 0, buf.position());
+            }
+            finally
+            {
+                out.close();
+            }
+        }
+    }
+
+    private PacketGraph read()
+        throws IOException
+    {
+        PacketGraph graph = new PacketGraph();
+        PacketCaptureReader reader = new PacketCaptureReader(file, graph);
+        try
+        {
+            reader.fetchAll();
+            assertTrue(reader.isComplete());
+            // decode the field lists while the file is open
+            GraphText.describe(graph);
+        }
+        finally
+        {
+            reader.close();
+        }
+        return graph;
+    }
+
+    private static List<PacketInfo> packets(PacketGraph graph)
+    {
+        return new ArrayList<PacketInfo>(graph.getPackets());
+    }
+
+    private static long[] times(PacketGraph graph)
+    {
+        List<PacketInfo> packets = packets(graph);
+        long[] times = new long[packets.size()];
+        for (int i = 0; i < times.length; ++i)
+        {
+            PacketInfo packet = packets.get(i);
+            assertEquals(packet.getFromTimeActual(), packet.getToTimeActual());
+            times[i] = packet.getFromTimeActual();
+        }
+        return times;
+    }
+
+    private static String getField(PacketInfo packet, String name)
+    {
+        PacketFieldList fields = packet.getFieldList();
+        for (int i = 0; i < fields.size(); ++i)
+        {
+            if (fields.getName(i).equals(name)) return fields.getValue(i);
+        }
+        return null;
+    }
+
+    private static void assertTimes(long[] expected, long[] actual)
+    {
+        assertEquals(Arrays.toString(expected),
+            Arrays.toString(actual));
+    }
+
+    private void checkHandshake(PacketGraph graph)
+    {
+        List<PacketInfo> packets = packets(graph);
+        assertEquals(3, packets.size());
+        assertNotNull(graph.getNode("10.0.0.1.tcp1234"));
+        assertNotNull(graph.getNode("10.0.0.2.tcp80"));
+
+        PacketInfo syn = packets.get(0);
+        assertEquals("TCP SYN", syn.getPacketName());
+        assertEquals("10.0.0.1.tcp1234", syn.getFromNode().getName());
+        assertEquals("10.0.0.2.tcp80", syn.getToNode().getName());
+        assertEquals("TCP SYN-ACK", packets.get(1).getPacketName());
+        assertEquals("10.0.0.2.tcp80", packets.get(1).getFromNode().getName());
+        assertEquals("TCP", packets.get(2).getPacketName());
+
+        // all frames between two endpoints are one transaction
+        assertSame(syn.getTxn(), packets.get(1).getTxn());
+        assertSame(syn.getTxn(), packets.get(2).getTxn());
+
+        // header fields are read in network order whatever the file's order
+        assertEquals("54", getField(syn, "frame.len"));
+        assertEquals("0x0800", getField(syn, "eth.type"));
+        assertEquals("10.0.0.1", getField(syn, "ip.src"));
+        assertEquals("1234", getField(syn, "tcp.srcport"));
+        assertEquals("80", getField(syn, "tcp.dstport"));
+        assertEquals("1000", getField(syn, "tcp.seq"));
+        assertEquals("S", getField(syn, "tcp.flags"));
+        assertEquals("S,A", getField(packets.get(1), "tcp.flags"));
+    }
+
+    @Test
+    public void testPcapMicrosBigEndian()
+        throws IOException
+    {
+        CaptureBuilder cb = new CaptureBuilder(ByteOrder.BIG_ENDIAN);
+        cb.pcapHeader(false, 1);
+        cb.pcapRecord(100, 999999, request(SYN));
+        cb.pcapRecord(101, 5, response(SYN | ACK));
+        cb.pcapRecord(102, 0, request(ACK));
+        cb.write(file);
+
+        assertTrue(PacketCaptureReader.isCapture(file));
+        PacketGraph graph = read();
+        checkHandshake(graph);
+        assertTimes(new long[] { 0, 6000, 1000001000 }, times(graph));
+    }
+
+    @Test
+    public void testPcapNanosLittleEndian()
+        throws IOException
+    {
+        CaptureBuilder cb = new CaptureBuilder(ByteOrder.LITTLE_ENDIAN);
+        cb.pcapHeader(true, 1);
+        cb.pcapRecord(0x80000000L, 999999999, request(SYN));
+        cb.pcapRecord(0x80000001L, 5, response(SYN | ACK));
+        cb.pcapRecord(0x80000001L, 7, request(ACK));
+        cb.write(file);
+
+        assertTrue(PacketCaptureReader.isCapture(file));
+        PacketGraph graph = new PacketGraph();
+        PacketCaptureReader reader = new PacketCaptureReader(file, graph);
+        try
+        {
+            reader.fetchAll();
+            // seconds are unsigned
+            assertEquals(0x80000000L * 1000000000L + 999999999,
+                reader.getBaseTime());
+            assertEquals(3, reader.getPacketCount());
+            checkHandshake(graph);
+            assertTimes(new long[] { 0, 6, 8 }, times(graph));
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+
+    private void checkPcapng(ByteOrder order)
+        throws IOException
+    {
+        CaptureBuilder cb = new CaptureBuilder(order);
+        cb.sectionHeader();
+        cb.interfaceDescription(1, 9); // nanoseconds
+        cb.interfaceDescription(1, -1); // microseconds by default
+        cb.interfaceDescription(1, 0x80 | 10); // 1/1024 seconds
+        cb.enhancedPacket(0, 5000000000L, request(SYN));
+        cb.unknownBlock();
+        cb.enhancedPacket(1, 5000001L, response(SYN | ACK));
+        cb.enhancedPacket(2, 5 * 1024 + 512, request(ACK));
+        cb.write(file);
+
+        assertTrue(PacketCaptureReader.isCapture(file));
+        PacketGraph graph = read();
+        checkHandshake(graph);
+        assertTimes(new long[] { 0, 1000, 500000000 }, times(graph));
+        List<PacketInfo> packets = packets(graph);
+        assertEquals("0", getField(packets.get(0), "frame.interface_id"));
+        assertEquals("2", getField(packets.get(2), "frame.interface_id"));
+    }
+
+    @Test
+    public void testPcapngBigEndian()
+        throws IOException
+    {
+        checkPcapng(ByteOrder.BIG_ENDIAN);
+    }
+
+    @Test
+    public void testPcapngLittleEndian()
+        throws IOException
+    {
+        checkPcapng(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    @Test
+    public void testPcapngSectionsInEitherOrder()
+        throws IOException
+    {
+        // each section has its own byte order and interfaces
+        CaptureBuilder cb = new CaptureBuilder(ByteOrder.LITTLE_ENDIAN);
+        cb.sectionHeader();
+        cb.interfaceDescription(1, 9);
+        cb.enhancedPacket(0, 1000, request(SYN));
+        cb.setOrder(ByteOrder.BIG_ENDIAN);
+        cb.sectionHeader();
+        cb.interfaceDescription(1, 6);
+        cb.enhancedPacket(0, 3, response(SYN | ACK));
+        cb.enhancedPacket(0, 4, request(ACK));
+        cb.write(file);
+
+        PacketGraph graph = read();
+        checkHandshake(graph);
+        assertTimes(new long[] { 0, 2000, 3000 }, times(graph));
+    }
+
+    @Test
+    public void testUndefinedInterface()
+        throws IOException
+    {
+        CaptureBuilder cb = new CaptureBuilder(ByteOrder.BIG_ENDIAN);
+        cb.sectionHeader();
+        cb.interfaceDescription(1, 9);
+        cb.enhancedPacket(1, 0, request(SYN));
+        cb.write(file);
+
+        PacketCaptureReader reader = new PacketCaptureReader(file,
+            new PacketGraph());
+        try
+        {
+            reader.fetchAll();
+            fail("Read a packet of an undefined interface");
+        }
+        catch (IOException e)
+        {
+            // expected
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testConnectionsAfterCloseAreNewTransactions()
+        throws IOException
+    {
+        CaptureBuilder cb = new CaptureBuilder(ByteOrder.BIG_ENDIAN);
+        cb.pcapHeader(false, 1);
+        cb.pcapRecord(0, 0, request(SYN));
+        cb.pcapRecord(0, 1, request(FIN | ACK));
+        cb.pcapRecord(0, 2, response(FIN | ACK));
+        cb.pcapRecord(0, 3, request(ACK));
+        cb.pcapRecord(0, 4, request(SYN));
+        cb.pcapRecord(0, 5, response(RST));
+        cb.pcapRecord(0, 6, request(SYN));
+        cb.write(file);
+
+        List<PacketInfo> packets = packets(read());
+        assertEquals(7, packets.size());
+        for (int i = 1; i < 4; ++i)
+        {
+            assertSame(packets.get(0).getTxn(), packets.get(i).getTxn());
+        }
+        assertNotSame(packets.get(3).getTxn(), packets.get(4).getTxn());
+        assertSame(packets.get(4).getTxn(), packets.get(5).getTxn());
+        assertNotSame(packets.get(5).getTxn(), packets.get(6).getTxn());
+        assertEquals("TCP RST", packets.get(5).getPacketName());
+    }
+
+    @Test
+    public void testSkippedAndTruncatedFrames()
+        throws IOException
+    {
+        // a frame too short for an Ethernet header has no endpoints, and a
+        // truncated final record is ignored
+        CaptureBuilder cb = new CaptureBuilder(ByteOrder.BIG_ENDIAN);
+        cb.pcapHeader(false, 1);
+        cb.pcapRecord(0, 0, request(SYN));
+        cb.pcapRecord(0, 1, new byte[10]);
+        cb.pcapRecord(0, 2, response(SYN | ACK));
+        cb.pcapRecord(0, 3, request(ACK), 20);
+        cb.write(file);
+
+        PacketGraph graph = new PacketGraph();
+        PacketCaptureReader reader = new PacketCaptureReader(file, graph);
+        try
+        {
+            reader.fetchAll();
+            assertTrue(reader.isComplete());
+            assertEquals(3, reader.getPacketCount());
+            assertEquals(1, reader.getSkippedCount());
+            assertEquals(2, graph.getPackets().size());
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testFetchAvailable()
+        throws IOException
+    {
+        // more frames than one call reads
+        int frames = 100000;
+        CaptureBuilder cb = new CaptureBuilder(ByteOrder.LITTLE_ENDIAN);
+        cb.pcapHeader(false, 1);
+        for (int i = 0; i < frames; ++i)
+        {
+            cb.pcapRecord(i / 1000, i % 1000, tcpFrame(CLIENT + i % 7,
+                1000 + i % 5, SERVER, 80, ACK));
+        }
+        cb.write(file);
+
+        PacketGraph full = new PacketGraph();
+        PacketCaptureReader fullReader = new PacketCaptureReader(file, full);
+        PacketGraph stepped = new PacketGraph();
+        PacketCaptureReader steppedReader = new PacketCaptureReader(file,
+            stepped);
+        try
+        {
+            fullReader.fetchAll();
+
+            long added = steppedReader.fetchAvailable();
+            assertTrue(added > 0 && added < frames);
+            assertFalse(steppedReader.isComplete());
+            assertEquals(added, stepped.getPackets().size());
+            assertEquals(added, steppedReader.getRecordsRead());
+            assertTrue(steppedReader.getBytesRead() < steppedReader
+                .getTotalBytes());
+            while (!steppedReader.isComplete())
+            {
+                added += steppedReader.fetchAvailable();
+            }
+            assertEquals(frames, added);
+            assertEquals(steppedReader.getTotalBytes(), steppedReader
+                .getBytesRead());
+            assertEquals(0, steppedReader.fetchAvailable());
+            assertTimes(times(full), times(stepped));
+            assertEquals(GraphText.describe(full), GraphText.describe(stepped));
+        }
+        finally
+        {
+            fullReader.close();
+            steppedReader.close();
+        }
+    }
+
+    @Test
+    public void testCancel()
+        throws IOException
+    {
+        CaptureBuilder cb = new CaptureBuilder(ByteOrder.BIG_ENDIAN);
+        cb.pcapHeader(false, 1);
+        cb.pcapRecord(0, 0, request(SYN));
+        cb.pcapRecord(1, 0, response(SYN | ACK));
+        cb.pcapRecord(2, 0, request(ACK));
+        cb.write(file);
+
+        PacketGraph graph = new PacketGraph();
+        PacketCaptureReader reader = new PacketCaptureReader(file, graph);
+        try
+        {
+            reader.fetchUntil(0);
+            int size = graph.getPackets().size();
+            assertTrue(size < 3);
+            reader.cancel();
+            assertTrue(reader.isComplete());
+            reader.fetchAll();
+            assertEquals(size, graph.getPackets().size());
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testRejectsOtherFiles()
+        throws IOException
+    {
+        FileOutputStream out = new FileOutputStream(file);
+        out.write("# Packet Log Version 4\n".getBytes("US-ASCII"));
+        out.close();
+        assertFalse(PacketCaptureReader.isCapture(file));
+        try
+        {
+            new PacketCaptureReader(file, new PacketGraph()).close();
+            fail("Opened a text log as a capture");
+        }
+        catch (IOException e)
+        {
+            // expected
+        }
+    }
+}
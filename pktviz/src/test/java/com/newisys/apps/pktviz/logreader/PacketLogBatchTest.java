@@ -0,0 +1,115 @@
+/*
+ * PacketViz packet visualization for the Java (TM) Platform
+ * Copyright (C) 2007 Newisys, Inc. or its licensors, as applicable.
+ * Java is a registered trademark of Sun Microsystems, Inc. in the U.S. or
+ * other countries.
+ *
+ * Licensed under the Open Software License version 3.0 (the "License"); you
+ * may not use this file except in compliance with the License. You should
+ * have received a copy of the License along with this software; if not, you
+ * may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/osl-3.0.php
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.newisys.apps.pktviz.logreader;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class PacketLogBatchTest
+{
+    private static PacketLogEntry parse(int version, String record)
+    {
+        PacketLogEntry entry = new PacketLogEntry();
+        entry.version = version;
+        entry.parseString(record);
+        return entry;
+    }
+
+    private static void assertSameEntry(
+        PacketLogEntry expected,
+        PacketLogEntry actual)
+    {
+        assertEquals(expected.recvTime, actual.recvTime);
+        assertEquals(expected.sendTime, actual.sendTime);
+        assertEquals(expected.txnID, actual.txnID);
+        assertEquals(expected.fromNode, actual.fromNode);
+        assertEquals(expected.toNode, actual.toNode);
+        assertEquals(expected.packetName, actual.packetName);
+        assertEquals(expected.packetFieldList, actual.packetFieldList);
+        assertEquals(expected.packetBits, actual.packetBits);
+        assertEquals(expected.hasRemoteBits, actual.hasRemoteBits);
+        assertEquals(expected.remoteBits, actual.remoteBits);
+        if (expected.dataDwords == null)
+        {
+            assertNull(actual.dataDwords);
+        }
+        else
+        {
+            assertArrayEquals(expected.dataDwords, actual.dataDwords);
+        }
+    }
+
+    @Test
+    public void testVersion4()
+    {
+        PacketLogEntry entry = parse(4,
+            "10,5,1,a.b,c.d,Cmd=RdBlk; addr=40'h1f00");
+        PacketLogBatch batch = new PacketLogBatch();
+        batch.add(entry, 1);
+        assertNull(batch.packetBits);
+
+        PacketLogEntry copy = new PacketLogEntry();
+        batch.copyTo(0, copy);
+        assertSameEntry(entry, copy);
+        assertEquals(4, copy.version);
+    }
+
+    @Test
+    public void testLegacyFields()
+    {
+        // a record without the optional fields, then ones with them, past
+        // the initial capacity of the batch
+        PacketLogBatch batch = new PacketLogBatch();
+        batch.version = 3;
+        PacketLogEntry[] entries = new PacketLogEntry[3000];
+        for (int i = 0; i < entries.length; ++i)
+        {
+            String record = i + ",5,1,a.b,c.d,ReadReq";
+            if (i % 3 == 1) record += ",1f";
+            if (i % 3 == 2) record += ",00ab,0123456789abcdef";
+            entries[i] = parse(3, record);
+            batch.add(entries[i], i + 1);
+        }
+
+        PacketLogEntry copy = new PacketLogEntry();
+        for (int i = 0; i < entries.length; ++i)
+        {
+            batch.copyTo(i, copy);
+            assertSameEntry(entries[i], copy);
+            assertEquals(3, copy.version);
+            assertEquals(i + 1, batch.lines[i]);
+        }
+
+        batch.copyTo(0, copy);
+        assertFalse(copy.hasRemoteBits);
+        assertEquals(-1, copy.remoteBits);
+        batch.copyTo(2, copy);
+        assertTrue(copy.hasRemoteBits);
+        assertEquals(0xab, copy.remoteBits);
+        assertArrayEquals(new int[] { 0x01234567, 0x89abcdef },
+            copy.dataDwords);
+        assertSame(entries[2].dataDwords, copy.dataDwords);
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * PacketViz packet visualization for the Java (TM) Platform
+ * Copyright (C) 2007 Newisys, Inc. or its licensors, as applicable.
+ * Java is a registered trademark of Sun Microsystems, Inc. in the U.S. or
+ * other countries.
+ *
+ * Licensed under the Open Software License version 3.0 (the "License"); you
+ * may not use this file except in compliance with the License. You should
+ * have received a copy of the License along with this software; if not, you
+ * may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/osl-3.0.php
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.newisys.apps.pktviz.logreader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.newisys.apps.pktviz.model.PacketGraph;
+import com.newisys.apps.pktviz.model.TxnInfo;
+
+public class PacketLogIndexTest
+{
+    private File file;
+
+    @Before
+    public void setUp()
+        throws IOException
+    {
+        file = File.createTempFile("index", ".pkt");
+    }
+
+    @After
+    public void tearDown()
+    {
+        PacketLogIndex.getIndexFile(file).delete();
+        file.delete();
+    }
+
+    @Test
+    public void testSpansRestoreOpenTxns()
+    {
+        PacketGraphBuilder builder = new PacketGraphBuilder(new PacketGraph());
+        PacketLogIndexBuilder indexBuilder = new PacketLogIndexBuilder();
+        builder.setIndexBuilder(indexBuilder);
+
+        indexBuilder.checkpoint(0, 1, 0);
+        TxnInfo txn = builder.getTxn(7);
+        indexBuilder.addRecord(txn, 0, 1);
+        txn.setPacketName("ReadMem");
+        txn.setAddrValue(0x40);
+        indexBuilder.checkpoint(100, 2, 1);
+        indexBuilder.checkpoint(200, 3, 1);
+        indexBuilder.addRecord(txn, 2, 3);
+        indexBuilder.checkpoint(300, 4, 3);
+        PacketLogIndex index = indexBuilder.finish(file);
+        assertEquals(4, index.getCheckpointCount());
+
+        // the transaction is open at checkpoints 1 and 2 only
+        for (int checkpoint = 0; checkpoint < 4; ++checkpoint)
+        {
+            PacketGraphBuilder restored = new PacketGraphBuilder(
+                new PacketGraph());
+            index.restore(checkpoint, restored);
+            TxnInfo restoredTxn = restored.getTxn(7);
+            boolean open = checkpoint == 1 || checkpoint == 2;
+            assertEquals(open, restoredTxn.isAddrSet());
+            if (open)
+            {
+                assertEquals("ReadMem", restoredTxn.getPacketName());
+                assertEquals(0x40, restoredTxn.getAddrValue());
+            }
+            else
+            {
+                assertNull(restoredTxn.getPacketName());
+            }
+        }
+    }
+
+    @Test
+    public void testStaleTxnsForgotten()
+    {
+        PacketGraphBuilder builder = new PacketGraphBuilder(new PacketGraph());
+        PacketLogIndexBuilder indexBuilder = new PacketLogIndexBuilder(builder);
+        builder.setIndexBuilder(indexBuilder);
+
+        indexBuilder.checkpoint(0, 1, 0);
+        TxnInfo stale = builder.getTxn(1);
+        indexBuilder.addRecord(stale, 0, 1);
+        TxnInfo active = builder.getTxn(2);
+        indexBuilder.addRecord(active, 0, 1);
+        for (int i = 1; i <= PacketLogIndexBuilder.STALE_CHECKPOINTS; ++i)
+        {
+            indexBuilder.checkpoint(i * 100, i + 1, i);
+            indexBuilder.addRecord(builder.getTxn(2), i, i);
+        }
+        assertEquals(2, indexBuilder.getOpenTxnCount());
+        assertEquals(2, builder.getOpenTxnCount());
+
+        // unseen for STALE_CHECKPOINTS checkpoints
+        indexBuilder.checkpoint(1000, 10, 10);
+        assertEquals(1, indexBuilder.getOpenTxnCount());
+        assertEquals(1, builder.getOpenTxnCount());
+        assertSame(active, builder.getTxn(2));
+        assertNotSame(stale, builder.getTxn(1));
+    }
+
+    @Test
+    public void testStaleTxnsKeptByLoadingBuilder()
+    {
+        // a graph being loaded holds its transactions, so only the index
+        // builder forgets them
+        PacketGraphBuilder builder = new PacketGraphBuilder(new PacketGraph());
+        PacketLogIndexBuilder indexBuilder = new PacketLogIndexBuilder();
+        builder.setIndexBuilder(indexBuilder);
+
+        indexBuilder.checkpoint(0, 1, 0);
+        TxnInfo txn = builder.getTxn(1);
+        indexBuilder.addRecord(txn, 0, 1);
+        for (int i = 1; i <= PacketLogIndexBuilder.STALE_CHECKPOINTS + 1; ++i)
+        {
+            indexBuilder.checkpoint(i * 100, i + 1, i);
+        }
+        assertEquals(0, indexBuilder.getOpenTxnCount());
+        assertSame(txn, builder.getTxn(1));
+    }
+
+    @Test
+    public void testCompletedTxnsForgotten()
+    {
+        PacketGraphBuilder builder = new PacketGraphBuilder(new PacketGraph());
+        PacketLogIndexBuilder indexBuilder = new PacketLogIndexBuilder();
+        builder.setIndexBuilder(indexBuilder);
+
+        indexBuilder.checkpoint(0, 1, 0);
+        TxnInfo txn = builder.getTxn(1);
+        indexBuilder.addRecord(txn, 0, 1);
+        txn.setAddrValue(0x40);
+        indexBuilder.addRecord(builder.getTxn(2), 0, 1);
+        assertTrue(builder.completeTxn(1));
+        assertEquals(1, indexBuilder.getOpenTxnCount());
+
+        // a later record with the ID is a new transaction, so the state of
+        // the completed one is not restored
+        indexBuilder.checkpoint(100, 2, 1);
+        indexBuilder.addRecord(builder.getTxn(1), 1, 2);
+        PacketGraphBuilder restored = new PacketGraphBuilder(new PacketGraph());
+        indexBuilder.finish(file).restore(1, restored);
+        assertFalse(restored.getTxn(1).isAddrSet());
+    }
+
+    /**
+     * Indexes a log in a JVM whose heap is far too small to hold every
+     * transaction.
+     */
+    @Test
+    public void testBoundedHeap()
+        throws IOException, InterruptedException
+    {
+        PacketLogGenerator generator = new PacketLogGenerator();
+        generator.setTransactions(200000);
+        generator.setFieldCount(0);
+        generator.generate(file);
+
+        String java = System.getProperty("java.home") + File.separator + "bin"
+            + File.separator + "java";
+        ProcessBuilder pb = new ProcessBuilder(java, "-Xmx16m", "-cp",
+            System.getProperty("java.class.path"), getClass().getName(),
+            file.getPath(), String.valueOf(64 * 1024));
+        pb.redirectErrorStream(true);
+        Process process = pb.start();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        InputStream in = process.getInputStream();
+        byte[] buf = new byte[4096];
+        int n;
+        while ((n = in.read(buf)) > 0)
+        {
+            output.write(buf, 0, n);
+        }
+        assertEquals(output.toString(), 0, process.waitFor());
+
+        PacketLogIndex index = PacketLogIndex.read(file);
+        assertNotNull(index);
+        assertTrue(index.getCheckpointCount() > 100);
+    }
+
+    /**
+     * Builds the index of a log with the given page size, for
+     * {@link #testBoundedHeap()}.
+     */
+    public static void main(String[] args)
+        throws IOException
+    {
+        PacketLogIndex.build(new File(args[0]), 1, Integer.parseInt(args[1]));
+    }
+}
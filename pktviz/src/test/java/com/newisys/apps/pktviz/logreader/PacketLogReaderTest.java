@@ -0,0 +1,222 @@
+/*
+ * PacketViz packet visualization for the Java (TM) Platform
+ * Copyright (C) 2007 Newisys, Inc. or its licensors, as applicable.
+ * Java is a registered trademark of Sun Microsystems, Inc. in the U.S. or
+ * other countries.
+ *
+ * Licensed under the Open Software License version 3.0 (the "License"); you
+ * may not use this file except in compliance with the License. You should
+ * have received a copy of the License along with this software; if not, you
+ * may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/osl-3.0.php
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.newisys.apps.pktviz.logreader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.newisys.apps.pktviz.model.PacketGraph;
+import com.newisys.apps.pktviz.model.PacketInfo;
+import com.newisys.apps.pktviz.model.filter.AddrFilter;
+import com.newisys.apps.pktviz.model.xform.ActualTimeTransform;
+
+public class PacketLogReaderTest
+{
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    private File file;
+
+    /**
+     * Counts how often the graph resets its time transform, which it does
+     * only when it re-indexes every packet.
+     */
+    private static final class CountingTransform
+        extends ActualTimeTransform
+    {
+        int resetCount;
+
+        public void reset(Iterator<PacketInfo> packetIterator)
+        {
+            ++resetCount;
+            super.reset(packetIterator);
+        }
+    }
+
+    @Before
+    public void setUp()
+        throws IOException
+    {
+        file = File.createTempFile("follow", ".pkt");
+        append("# Packet Log Version 4\n");
+    }
+
+    @After
+    public void tearDown()
+    {
+        file.delete();
+    }
+
+    private void append(String text)
+        throws IOException
+    {
+        OutputStream out = new FileOutputStream(file, true);
+        try
+        {
+            out.write(text.getBytes("US-ASCII"));
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    private static String record(long time, int txnID, String fields)
+    {
+        return time + ",-1," + txnID + ",system.cpu0,system.mem0," + fields
+            + "\n";
+    }
+
+    private static int countPackets(PacketGraph graph)
+    {
+        return graph.findPackets(Long.MIN_VALUE, Long.MAX_VALUE).size();
+    }
+
+    @Test
+    public void testFollowIndexesAppendedRecords()
+        throws IOException
+    {
+        for (int i = 0; i < 3; ++i)
+        {
+            append(record(i * 10, i, "Cmd=ReadMem"));
+        }
+
+        PacketGraph graph = new PacketGraph();
+        CountingTransform transform = new CountingTransform();
+        graph.setTimeTransform(transform);
+        PacketLogReader reader = new PacketLogReader(file, graph);
+        try
+        {
+            reader.setFollow(true);
+            reader.fetchAll();
+            assertFalse(reader.isComplete());
+            assertEquals(3, countPackets(graph));
+            int resets = transform.resetCount;
+
+            append(record(30, 3, "Cmd=ReadMem") + record(40, 4, "Cmd=ReadMem"));
+            assertEquals(2, reader.poll());
+            assertEquals(5, countPackets(graph));
+
+            // a partial line waits for its terminator
+            append("50,-1,5,system.cpu0,system.mem0,Cmd=Re");
+            assertEquals(0, reader.poll());
+            assertEquals(5, countPackets(graph));
+            append("adMem\n");
+            assertEquals(1, reader.poll());
+            assertEquals(6, countPackets(graph));
+            assertEquals(0, reader.poll());
+
+            // polls are indexed incrementally
+            assertEquals(resets, transform.resetCount);
+
+            reader.setFollow(false);
+            reader.fetchAll();
+            assertTrue(reader.isComplete());
+            assertEquals(6, countPackets(graph));
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testFollowMatchesAddressSetByLaterRecord()
+        throws IOException
+    {
+        append(record(0, 7, "Cmd=ReadMem"));
+        append(record(5, 8, "Cmd=ReadMem; addr=48'h80"));
+
+        PacketGraph graph = new PacketGraph();
+        graph.setPacketFilter(new AddrFilter(0x40, -1));
+        PacketLogReader reader = new PacketLogReader(file, graph);
+        try
+        {
+            reader.setFollow(true);
+            reader.fetchAll();
+            assertEquals(0, countPackets(graph));
+
+            append(record(10, 7, "Cmd=MemData; addr=48'h40"));
+            assertEquals(1, reader.poll());
+            assertEquals(2, countPackets(graph));
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testAsyncFollow()
+        throws IOException, InterruptedException
+    {
+        append(record(0, 0, "Cmd=ReadMem") + record(10, 1, "Cmd=ReadMem"));
+
+        PacketGraph graph = new PacketGraph();
+        AsyncPacketLogReader reader = new AsyncPacketLogReader(file, graph, 1);
+        try
+        {
+            assertTrue(reader.canFollow());
+            reader.setFollow(true);
+            waitForRecords(reader, 2);
+            assertFalse(reader.isComplete());
+
+            append(record(20, 2, "Cmd=ReadMem"));
+            waitForRecords(reader, 3);
+            assertFalse(reader.isComplete());
+            assertEquals(3, countPackets(graph));
+
+            // the final line is read once following stops
+            append("30,-1,3,system.cpu0,system.mem0,Cmd=ReadMem");
+            reader.setFollow(false);
+            reader.fetchAll();
+            assertTrue(reader.isComplete());
+            assertEquals(4, reader.getRecordsAdded());
+            assertEquals(4, countPackets(graph));
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+
+    private static void waitForRecords(AsyncPacketLogReader reader, long count)
+        throws IOException, InterruptedException
+    {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (reader.getRecordsAdded() < count)
+        {
+            assertTrue("Timed out waiting for " + count + " records",
+                System.currentTimeMillis() < deadline);
+            reader.fetchAvailable();
+            Thread.sleep(10);
+        }
+        assertEquals(count, reader.getRecordsAdded());
+    }
+}
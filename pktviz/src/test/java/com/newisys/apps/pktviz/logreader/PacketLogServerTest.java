@@ -0,0 +1,261 @@
+/*
+ * PacketViz packet visualization for the Java (TM) Platform
+ * Copyright (C) 2007 Newisys, Inc. or its licensors, as applicable.
+ * Java is a registered trademark of Sun Microsystems, Inc. in the U.S. or
+ * other countries.
+ *
+ * Licensed under the Open Software License version 3.0 (the "License"); you
+ * may not use this file except in compliance with the License. You should
+ * have received a copy of the License along with this software; if not, you
+ * may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/osl-3.0.php
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.newisys.apps.pktviz.logreader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.net.Socket;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.newisys.apps.pktviz.model.PacketGraph;
+
+public class PacketLogServerTest
+{
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    private static final String[][] RECORDS = {
+        { "10", "-1", "1", "system.cpu0", "system.mem0", "Cmd=ReadMem; addr=48'h40" },
+        { "15", "12", "2", "system.cpu1", "system.mem0", "Cmd=ReadMem; addr=48'h80" },
+        { "20", "-1", "1", "system.mem0", "system.cpu0", "Cmd=MemData; data=32'hDEED" },
+        { "25", "21", "2", "system.mem0", "system.cpu1", "Cmd=MemData; resp=1" } };
+
+    private PacketGraph graph;
+    private AsyncPacketLogReader reader;
+
+    @Before
+    public void setUp()
+        throws IOException
+    {
+        graph = new PacketGraph();
+        reader = new AsyncPacketLogReader(0, graph);
+        assertTrue(reader.getPort() > 0);
+    }
+
+    @After
+    public void tearDown()
+        throws IOException
+    {
+        reader.close();
+    }
+
+    private void send(boolean binary)
+        throws IOException
+    {
+        PacketLogSender sender = new PacketLogSender("localhost",
+            reader.getPort(), binary);
+        try
+        {
+            for (int i = 0; i < RECORDS.length; ++i)
+            {
+                String[] r = RECORDS[i];
+                sender.send(Long.parseLong(r[0]), Long.parseLong(r[1]),
+                    Integer.parseInt(r[2]), r[3], r[4], r[5]);
+            }
+            assertEquals(RECORDS.length, sender.getRecordCount());
+        }
+        finally
+        {
+            sender.close();
+        }
+    }
+
+    private void waitForRecords(long count)
+        throws IOException, InterruptedException
+    {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (reader.getRecordsAdded() < count)
+        {
+            assertTrue("Timed out waiting for " + count + " records",
+                System.currentTimeMillis() < deadline);
+            reader.fetchAvailable();
+            Thread.sleep(10);
+        }
+        assertEquals(count, reader.getRecordsAdded());
+        assertFalse(reader.isComplete());
+    }
+
+    /**
+     * Returns the graph of the records as loaded from a text log, for
+     * comparison.
+     */
+    private static String describeExpected()
+        throws IOException
+    {
+        StringBuilder text = new StringBuilder("# Packet Log Version 4\n");
+        for (int i = 0; i < RECORDS.length; ++i)
+        {
+            String[] r = RECORDS[i];
+            text.append(r[0]).append(',').append(r[1]).append(',').append(
+                r[2]).append(',').append(r[3]).append(',').append(r[4]).append(
+                ',').append(r[5]).append('\n');
+        }
+        PacketGraph expected = new PacketGraph();
+        new PacketLogReader(new StringReader(text.toString()),
+            expected).fetchAll();
+        return GraphText.describe(expected);
+    }
+
+    @Test
+    public void testTextConnection()
+        throws IOException, InterruptedException
+    {
+        send(false);
+        waitForRecords(RECORDS.length);
+        reader.stopListening();
+        reader.fetchAll();
+        assertTrue(reader.isComplete());
+        assertEquals(describeExpected(), GraphText.describe(graph));
+    }
+
+    @Test
+    public void testBinaryConnection()
+        throws IOException, InterruptedException
+    {
+        send(true);
+        waitForRecords(RECORDS.length);
+        reader.stopListening();
+        reader.fetchAll();
+        assertEquals(describeExpected(), GraphText.describe(graph));
+    }
+
+    @Test
+    public void testConsecutiveConnections()
+        throws IOException, InterruptedException
+    {
+        send(false);
+        waitForRecords(RECORDS.length);
+        send(true);
+        waitForRecords(2 * RECORDS.length);
+        assertEquals(2 * RECORDS.length, graph.getPackets().size());
+        reader.stopListening();
+        reader.fetchAll();
+        assertTrue(reader.isComplete());
+    }
+
+    /**
+     * Writes bytes to the server a few at a time, so that frames and lines
+     * arrive split across reads.
+     */
+    private void sendSplit(byte[] bytes)
+        throws IOException, InterruptedException
+    {
+        Socket socket = new Socket("localhost", reader.getPort());
+        try
+        {
+            socket.setTcpNoDelay(true);
+            OutputStream out = socket.getOutputStream();
+            for (int i = 0; i < bytes.length; i += 3)
+            {
+                out.write(bytes, i, Math.min(3, bytes.length - i));
+                out.flush();
+                if (i % 30 == 0) Thread.sleep(1);
+            }
+        }
+        finally
+        {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void testSplitTextLines()
+        throws IOException, InterruptedException
+    {
+        sendSplit(("# Packet Log Version 4\r\n"
+            + "10,-1,1,system.cpu0,system.mem0,Cmd=ReadMem; addr=48'h40\r\n"
+            + "15,12,2,system.cpu1,system.mem0,Cmd=ReadMem; addr=48'h80\n"
+            + "20,-1,1,system.mem0,system.cpu0,Cmd=MemData; data=32'hDEED\r"
+            + "25,21,2,system.mem0,system.cpu1,Cmd=MemData; resp=1")
+            .getBytes("UTF-8"));
+        waitForRecords(RECORDS.length);
+        reader.stopListening();
+        reader.fetchAll();
+        assertEquals(describeExpected(), GraphText.describe(graph));
+    }
+
+    @Test
+    public void testSplitBinaryFrames()
+        throws IOException, InterruptedException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(BinaryPacketLogFormat.STREAM_MAGIC);
+        out.writeInt(BinaryPacketLogFormat.FORMAT_VERSION);
+        String[] strings = { "system.cpu0", "system.cpu1", "system.mem0" };
+        for (int i = 0; i < strings.length; ++i)
+        {
+            out.writeByte(BinaryPacketLogFormat.FRAME_STRING);
+            out.writeUTF(strings[i]);
+        }
+        int[][] nodes = { { 0, 2 }, { 1, 2 }, { 2, 0 }, { 2, 1 } };
+        for (int i = 0; i < RECORDS.length; ++i)
+        {
+            String[] r = RECORDS[i];
+            byte[] fields = r[5].getBytes(BinaryPacketLogFormat.CHARSET);
+            out.writeByte(BinaryPacketLogFormat.FRAME_RECORD);
+            out.writeLong(Long.parseLong(r[0]));
+            out.writeLong(Long.parseLong(r[1]));
+            out.writeInt(Integer.parseInt(r[2]));
+            out.writeInt(nodes[i][0]);
+            out.writeInt(nodes[i][1]);
+            out.writeInt(fields.length);
+            out.write(fields);
+        }
+        out.flush();
+
+        sendSplit(bytes.toByteArray());
+        waitForRecords(RECORDS.length);
+        reader.stopListening();
+        reader.fetchAll();
+        assertEquals(describeExpected(), GraphText.describe(graph));
+    }
+
+    @Test
+    public void testUnsupportedBinaryVersion()
+        throws IOException, InterruptedException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(BinaryPacketLogFormat.STREAM_MAGIC);
+        out.writeInt(BinaryPacketLogFormat.FORMAT_VERSION + 1);
+        out.flush();
+        sendSplit(bytes.toByteArray());
+        try
+        {
+            reader.fetchAll();
+            fail("Accepted an unsupported stream version");
+        }
+        catch (IOException e)
+        {
+            assertTrue(e.getMessage(), e.getMessage().startsWith(
+                "Unsupported record stream version"));
+        }
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * PacketViz packet visualization for the Java (TM) Platform
+ * Copyright (C) 2007 Newisys, Inc. or its licensors, as applicable.
+ * Java is a registered trademark of Sun Microsystems, Inc. in the U.S. or
+ * other countries.
+ *
+ * Licensed under the Open Software License version 3.0 (the "License"); you
+ * may not use this file except in compliance with the License. You should
+ * have received a copy of the License along with this software; if not, you
+ * may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/osl-3.0.php
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.newisys.apps.pktviz.logreader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.newisys.apps.pktviz.model.PacketGraph;
+import com.newisys.apps.pktviz.model.PacketInfo;
+import com.newisys.apps.pktviz.model.TxnInfo;
+
+public class PagedPacketGraphSourceTest
+{
+    private static final int PAGE_SIZE = 16 * 1024;
+
+    private File file;
+    private PacketLogIndex index;
+    private PacketGraph full;
+
+    @Before
+    public void setUp()
+        throws IOException
+    {
+        file = File.createTempFile("paged", ".pkt");
+        PacketLogGenerator generator = new PacketLogGenerator();
+        generator.setTransactions(2000);
+        generator.generate(file);
+        index = PacketLogIndex.build(file, 2, PAGE_SIZE);
+
+        full = new PacketGraph();
+        PacketLogReader reader = new PacketLogReader(file, full);
+        try
+        {
+            reader.fetchAll();
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+
+    @After
+    public void tearDown()
+    {
+        PacketLogIndex.getIndexFile(file).delete();
+        file.delete();
+    }
+
+    private static String describe(PacketInfo packet)
+    {
+        // a transaction's packet name is that of its latest loaded packet,
+        // which depends on the resident pages, but its address is restored
+        TxnInfo txn = packet.getTxn();
+        return packet.getFromNode().getName() + " "
+            + packet.getFromTimeActual() + " " + packet.getToNode().getName()
+            + " " + packet.getToTimeActual() + " " + txn.getTxnID() + " "
+            + packet.getPacketName() + " "
+            + (txn.isAddrSet() ? Long.toHexString(txn.getAddrValue()) : "-");
+    }
+
+    private static Set<String> find(PacketGraph graph, long from, long to)
+    {
+        Set<String> found = new TreeSet<String>();
+        Collection<?> packets = graph.findPackets(from, to);
+        for (Object packet : packets)
+        {
+            found.add(describe((PacketInfo) packet));
+        }
+        return found;
+    }
+
+    private long getPageBytes()
+    {
+        // the budget estimate of a page, from that of the whole log
+        return PagedPacketGraphSource.estimateHeapBytes(file)
+            / index.getCheckpointCount();
+    }
+
+    @Test
+    public void testQueriesMatchFullLoad()
+    {
+        assertTrue(index.getCheckpointCount() > 10);
+
+        PacketGraph graph = new PacketGraph();
+        PagedPacketGraphSource source = new PagedPacketGraphSource(file,
+            graph, index, 3 * getPageBytes());
+        source.fetchAll();
+        assertEquals(1, source.getResidentPageCount());
+
+        // the time range is that of the whole log, whatever is resident
+        assertEquals(full.getFirstTime(), graph.getFirstTime());
+        assertEquals(full.getLastTime(), graph.getLastTime());
+        assertEquals(full.getFirstTime(), source.getFirstTime());
+        assertEquals(full.getLastTime(), source.getLastTime());
+
+        Random random = new Random(1);
+        long last = full.getLastTime();
+        for (int i = 0; i < 50; ++i)
+        {
+            long from = (long) (random.nextDouble() * last);
+            long to = from + random.nextInt(i % 2 == 0 ? 20 : 2000);
+            assertEquals("[" + from + ", " + to + "]", find(full, from, to),
+                find(graph, from, to));
+        }
+
+        // the ends of the log
+        assertEquals(find(full, 0, 10), find(graph, 0, 10));
+        assertEquals(find(full, last - 10, last), find(graph, last - 10, last));
+    }
+
+    @Test
+    public void testEviction()
+    {
+        long budget = 3 * getPageBytes();
+        PacketGraph graph = new PacketGraph();
+        PagedPacketGraphSource source = new PagedPacketGraphSource(file,
+            graph, index, budget);
+        long last = full.getLastTime();
+
+        // walking across the log keeps the resident pages within budget
+        for (long time = 0; time <= last; time += last / 20)
+        {
+            graph.findPackets(time, time);
+            assertTrue(source.getResidentBytes() <= budget
+                || source.getResidentPageCount() == 1);
+        }
+        assertTrue(source.getResidentPageCount() < index.getCheckpointCount());
+
+        // pages needed by a search are kept even over budget
+        assertEquals(find(full, 0, last), find(graph, 0, last));
+        assertEquals(index.getCheckpointCount(), source.getResidentPageCount());
+        assertEquals(full.getPackets().size(), graph.getPackets().size());
+
+        // and evicted by the next search, least recently used first
+        graph.findPackets(last, last);
+        assertTrue(source.getResidentBytes() <= budget);
+        assertTrue(graph.getPackets().size() < full.getPackets().size());
+        assertEquals(find(full, last - 10, last), find(graph, last - 10, last));
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * PacketViz packet visualization for the Java (TM) Platform
+ * Copyright (C) 2007 Newisys, Inc. or its licensors, as applicable.
+ * Java is a registered trademark of Sun Microsystems, Inc. in the U.S. or
+ * other countries.
+ *
+ * Licensed under the Open Software License version 3.0 (the "License"); you
+ * may not use this file except in compliance with the License. You should
+ * have received a copy of the License along with this software; if not, you
+ * may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/osl-3.0.php
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.newisys.apps.pktviz.logreader;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.newisys.apps.pktviz.model.PacketGraph;
+
+public class ParallelPacketLogReaderTest
+{
+    // written as ISO-8859-1, so that each char is one byte: the UTF-8
+    // encoding of an accented letter (\u00c3\u00a8), and stray high bytes
+    // that are malformed in UTF-8
+    private static final String[] RECORDS = {
+        "0,-4,1444,system.chip1.Cache3,system.chip0.Memory0,Cmd=SnoopLine; addr=48'hd9d4b5f30868; flag   # comment",
+        "1,-1,2887,system.chip3.Cache1,system.chip3.Memory1,Cmd=NotPresent; addr=48'h9da97cb1c23b",
+        "# comment line",
+        "",
+        "3,0,2867,syst\u00c3\u00a8me.chip1.Cache\u00fc,system.chip1.Memory0,Cmd=MemData; note=\u00c3\u00a9t\u00e9",
+        "4,0,2356,system.chip2.Cache0,syst\u00c3\u00a8me.chip0.Memory1,Cmd=ReadMem; addr=48'h7cb6e11760a5",
+        "5,5,3332,system.chip3.Cache0,system.chip0.Memory1,Cmd=MemData; data=32'hDEED",
+        "6,3,4233,system.chip1.Cache0,system.chip2.Memory1,Cmd=WrBack; addr=48'h36f046296448" };
+
+    private static final int[] CHUNK_SIZES = { 1, 2, 3, 5, 8, 13, 64, 1024 };
+
+    private File file;
+
+    @Before
+    public void setUp()
+        throws IOException
+    {
+        file = File.createTempFile("parallel", ".pkt");
+    }
+
+    @After
+    public void tearDown()
+    {
+        file.delete();
+    }
+
+    private void writeLog(
+        String headerTerminator,
+        String[] terminators,
+        boolean finalTerminator)
+        throws IOException
+    {
+        // both readers decode the bytes in the platform charset
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file),
+            "ISO-8859-1");
+        try
+        {
+            writer.write("# Packet Log Version 4");
+            writer.write(headerTerminator);
+            for (int i = 0; i < RECORDS.length; ++i)
+            {
+                writer.write(RECORDS[i]);
+                if (i + 1 < RECORDS.length || finalTerminator)
+                {
+                    writer.write(terminators[i % terminators.length]);
+                }
+            }
+        }
+        finally
+        {
+            writer.close();
+        }
+    }
+
+    private void checkSameAsSequential()
+        throws IOException
+    {
+        PacketGraph expected = new PacketGraph();
+        PacketLogReader sequential = new PacketLogReader(file, expected);
+        sequential.fetchAll();
+        sequential.close();
+        String expectedText = GraphText.describe(expected);
+        assertEquals(6, expected.getPackets().size());
+
+        for (int i = 0; i < CHUNK_SIZES.length; ++i)
+        {
+            PacketGraph actual = new PacketGraph();
+            ParallelPacketLogReader parallel = new ParallelPacketLogReader(
+                file, actual, 3);
+            parallel.setChunkSize(CHUNK_SIZES[i]);
+            parallel.fetchAll();
+            parallel.close();
+            assertEquals("chunk size " + CHUNK_SIZES[i], expectedText,
+                GraphText.describe(actual));
+        }
+    }
+
+    @Test
+    public void testCRHeader()
+        throws IOException
+    {
+        writeLog("\r", new String[] { "\r" }, true);
+        checkSameAsSequential();
+    }
+
+    @Test
+    public void testLF()
+        throws IOException
+    {
+        writeLog("\n", new String[] { "\n" }, true);
+        checkSameAsSequential();
+    }
+
+    @Test
+    public void testCRLF()
+        throws IOException
+    {
+        writeLog("\r\n", new String[] { "\r\n" }, true);
+        checkSameAsSequential();
+    }
+
+    @Test
+    public void testCR()
+        throws IOException
+    {
+        writeLog("\n", new String[] { "\r" }, true);
+        checkSameAsSequential();
+    }
+
+    @Test
+    public void testMixedWithoutFinalTerminator()
+        throws IOException
+    {
+        writeLog("\r\n", new String[] { "\r", "\n", "\r\n", "\r\r\n",
+            "\n\r" }, false);
+        checkSameAsSequential();
+    }
+}
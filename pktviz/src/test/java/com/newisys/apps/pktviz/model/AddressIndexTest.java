@@ -0,0 +1,171 @@
+/*
+ * PacketViz packet visualization for the Java (TM) Platform
+ * Copyright (C) 2007 Newisys, Inc. or its licensors, as applicable.
+ * Java is a registered trademark of Sun Microsystems, Inc. in the U.S. or
+ * other countries.
+ *
+ * Licensed under the Open Software License version 3.0 (the "License"); you
+ * may not use this file except in compliance with the License. You should
+ * have received a copy of the License along with this software; if not, you
+ * may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/osl-3.0.php
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.newisys.apps.pktviz.model;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class AddressIndexTest
+{
+    private static final long[] MASKS = { -1L, ~0x3FL, 0, 0x0F0F0F0F0F0F0F0FL,
+        0xFF00000000000000L, Long.MIN_VALUE, 0xFFFF0000FFFF0000L, 1 };
+
+    private PacketGraph graph;
+    private PacketNode from;
+    private PacketNode to;
+
+    @Before
+    public void setUp()
+    {
+        graph = new PacketGraph();
+        from = new PacketNode("from");
+        to = new PacketNode("to");
+        graph.addNode(from, true);
+        graph.addNode(to, true);
+    }
+
+    private void addPacket(TxnInfo txn)
+    {
+        int time = graph.getStore().size();
+        graph.addPacket(new PacketInfo(txn, from, time, to, time + 1, "Cmd",
+            null));
+    }
+
+    private TxnInfo addTxn(int txnID, long addr, int packets)
+    {
+        TxnInfo txn = new TxnInfo(txnID);
+        txn.setAddrValue(addr);
+        for (int i = 0; i < packets; ++i)
+        {
+            addPacket(txn);
+        }
+        return txn;
+    }
+
+    private int[] findExpected(long addr, long mask)
+    {
+        PacketStore store = graph.getStore();
+        int count = 0;
+        int[] result = new int[store.size()];
+        for (int i = 0; i < store.size(); ++i)
+        {
+            TxnInfo txn = store.get(i).getTxn();
+            if (txn.isAddrSet() && (txn.getAddrValue() & mask) == (addr & mask))
+            {
+                result[count++] = i;
+            }
+        }
+        int[] trimmed = new int[count];
+        System.arraycopy(result, 0, trimmed, 0, count);
+        return trimmed;
+    }
+
+    @Test
+    public void testExactAndLineMatches()
+    {
+        addTxn(1, 0x1000, 2);
+        addPacket(new TxnInfo(2));
+        addTxn(3, 0x1008, 1);
+        addTxn(4, 0x1040, 1);
+        TxnInfo txn = addTxn(5, 0x1000, 1);
+        addPacket(txn);
+
+        AddressIndex index = new AddressIndex(graph.getStore());
+        assertArrayEquals(new int[] { 0, 1, 5, 6 },
+            index.findPackets(0x1000, -1L));
+        assertArrayEquals(new int[] { 0, 1, 3, 5, 6 },
+            index.findPackets(0x1000, ~0x3FL));
+        assertArrayEquals(new int[] { 4 }, index.findPackets(0x1040, ~0x3FL));
+        assertEquals(0, index.findPackets(0x2000, -1L).length);
+        assertEquals(6, index.findPackets(0, 0).length);
+    }
+
+    @Test
+    public void testUnsignedOrder()
+    {
+        // addresses with the top bit set sort after the others
+        addTxn(1, -1L, 1);
+        addTxn(2, Long.MIN_VALUE, 1);
+        addTxn(3, 0, 1);
+        addTxn(4, Long.MAX_VALUE, 1);
+        addTxn(5, 0x8000000000000040L, 1);
+
+        AddressIndex index = new AddressIndex(graph.getStore());
+        for (int i = 0; i < MASKS.length; ++i)
+        {
+            long[] addrs = { -1L, Long.MIN_VALUE, 0, Long.MAX_VALUE,
+                0x8000000000000040L, 0x40 };
+            for (int j = 0; j < addrs.length; ++j)
+            {
+                assertArrayEquals(Long.toHexString(addrs[j]) + "/"
+                    + Long.toHexString(MASKS[i]), findExpected(addrs[j],
+                    MASKS[i]), index.findPackets(addrs[j], MASKS[i]));
+            }
+        }
+    }
+
+    @Test
+    public void testEmpty()
+    {
+        addPacket(new TxnInfo(1));
+        AddressIndex index = new AddressIndex(graph.getStore());
+        assertEquals(0, index.findPackets(0, 0).length);
+        assertEquals(0, index.findPackets(0, -1L).length);
+    }
+
+    @Test
+    public void testRandom()
+    {
+        // addresses in a few lines of a few regions, including ones with
+        // the top bit set, and packets of a transaction spread through the
+        // store
+        Random random = new Random(1);
+        TxnInfo[] txns = new TxnInfo[500];
+        for (int i = 0; i < txns.length; ++i)
+        {
+            txns[i] = new TxnInfo(i);
+            if (i % 10 != 0)
+            {
+                long region = (long) random.nextInt(4) << 62;
+                txns[i].setAddrValue(region | random.nextInt(64) << 4);
+            }
+        }
+        for (int i = 0; i < 3000; ++i)
+        {
+            addPacket(txns[random.nextInt(txns.length)]);
+        }
+
+        AddressIndex index = new AddressIndex(graph.getStore());
+        for (int i = 0; i < 200; ++i)
+        {
+            long addr = txns[random.nextInt(txns.length)].getAddrValue()
+                ^ (i % 3 == 0 ? random.nextInt(16) : 0);
+            for (int j = 0; j < MASKS.length; ++j)
+            {
+                assertArrayEquals(findExpected(addr, MASKS[j]),
+                    index.findPackets(addr, MASKS[j]));
+            }
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * PacketViz packet visualization for the Java (TM) Platform
+ * Copyright (C) 2007 Newisys, Inc. or its licensors, as applicable.
+ * Java is a registered trademark of Sun Microsystems, Inc. in the U.S. or
+ * other countries.
+ *
+ * Licensed under the Open Software License version 3.0 (the "License"); you
+ * may not use this file except in compliance with the License. You should
+ * have received a copy of the License along with this software; if not, you
+ * may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/osl-3.0.php
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.newisys.apps.pktviz.model;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.BitSet;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class PacketBitmapTest
+{
+    private static int[] toArray(BitSet bits)
+    {
+        int[] result = new int[bits.cardinality()];
+        int pos = 0;
+        for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1))
+        {
+            result[pos++] = i;
+        }
+        return result;
+    }
+
+    private static BitSet randomBits(Random random, int size, int density)
+    {
+        BitSet bits = new BitSet();
+        for (int i = 0; i < size; ++i)
+        {
+            if (random.nextInt(1000) < density) bits.set(i);
+        }
+        return bits;
+    }
+
+    private static PacketBitmap build(BitSet bits)
+    {
+        PacketBitmap bitmap = new PacketBitmap();
+        for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1))
+        {
+            bitmap.add(i);
+        }
+        return bitmap;
+    }
+
+    private static void check(BitSet expected, PacketBitmap actual)
+    {
+        assertEquals(expected.cardinality(), actual.cardinality());
+        assertArrayEquals(toArray(expected), actual.toArray());
+        for (int i = 0; i < expected.length() + 130; ++i)
+        {
+            assertEquals("ordinal " + i, expected.get(i), actual.contains(i));
+        }
+    }
+
+    @Test
+    public void testEmpty()
+    {
+        PacketBitmap bitmap = new PacketBitmap();
+        assertEquals(0, bitmap.cardinality());
+        assertEquals(0, bitmap.toArray().length);
+        assertFalse(bitmap.contains(0));
+        assertEquals(0, PacketBitmap.and(bitmap, bitmap).cardinality());
+        assertEquals(0, PacketBitmap.or(bitmap, bitmap).cardinality());
+    }
+
+    @Test
+    public void testSparse()
+    {
+        // ordinals far apart stay in the sorted form
+        PacketBitmap bitmap = new PacketBitmap();
+        int[] ordinals = { 3, 1000, 5000, 70000, 1000000, Integer.MAX_VALUE };
+        for (int i = 0; i < ordinals.length; ++i)
+        {
+            bitmap.add(ordinals[i]);
+        }
+        assertArrayEquals(ordinals, bitmap.toArray());
+        assertTrue(bitmap.contains(70000));
+        assertFalse(bitmap.contains(70001));
+        assertTrue(bitmap.contains(Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void testSparseToDense()
+    {
+        // consecutive ordinals switch to bits as the array fills up, and
+        // the switch keeps the ordinals added before it
+        for (int n = 1; n < 300; ++n)
+        {
+            BitSet expected = new BitSet();
+            PacketBitmap bitmap = new PacketBitmap();
+            for (int i = 0; i < n; ++i)
+            {
+                expected.set(i * 3 + 1);
+                bitmap.add(i * 3 + 1);
+            }
+            check(expected, bitmap);
+        }
+    }
+
+    @Test
+    public void testFromSorted()
+    {
+        int[] ordinals = { 0, 5, 63, 64, 65, 200 };
+        PacketBitmap bitmap = PacketBitmap.fromSorted(ordinals.clone());
+        assertArrayEquals(ordinals, bitmap.toArray());
+        bitmap.add(201);
+        assertEquals(7, bitmap.cardinality());
+        assertTrue(bitmap.contains(201));
+    }
+
+    @Test
+    public void testRandomSets()
+    {
+        Random random = new Random(1);
+        int[] densities = { 1, 10, 100, 500, 1000 };
+        for (int n = 0; n < 50; ++n)
+        {
+            int sizeA = random.nextInt(5000);
+            int sizeB = random.nextInt(5000);
+            BitSet a = randomBits(random, sizeA,
+                densities[random.nextInt(densities.length)]);
+            BitSet b = randomBits(random, sizeB,
+                densities[random.nextInt(densities.length)]);
+            PacketBitmap bitmapA = build(a);
+            PacketBitmap bitmapB = build(b);
+            check(a, bitmapA);
+            check(b, bitmapB);
+            check(a, PacketBitmap.fromSorted(toArray(a)));
+
+            BitSet and = (BitSet) a.clone();
+            and.and(b);
+            check(and, PacketBitmap.and(bitmapA, bitmapB));
+            check(and, PacketBitmap.and(bitmapB, bitmapA));
+
+            BitSet or = (BitSet) a.clone();
+            or.or(b);
+            check(or, PacketBitmap.or(bitmapA, bitmapB));
+            check(or, PacketBitmap.or(bitmapB, bitmapA));
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * PacketViz packet visualization for the Java (TM) Platform
+ * Copyright (C) 2007 Newisys, Inc. or its licensors, as applicable.
+ * Java is a registered trademark of Sun Microsystems, Inc. in the U.S. or
+ * other countries.
+ *
+ * Licensed under the Open Software License version 3.0 (the "License"); you
+ * may not use this file except in compliance with the License. You should
+ * have received a copy of the License along with this software; if not, you
+ * may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/osl-3.0.php
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.newisys.apps.pktviz.model;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class PacketFieldIndexTest
+{
+    private PacketGraph graph;
+    private PacketNode[] nodes;
+
+    @Before
+    public void setUp()
+    {
+        graph = new PacketGraph();
+        nodes = new PacketNode[3];
+        for (int i = 0; i < nodes.length; ++i)
+        {
+            nodes[i] = new PacketNode("node" + i);
+            graph.addNode(nodes[i], true);
+        }
+    }
+
+    private PacketInfo addPacket(int from, int to, String fields)
+    {
+        int time = graph.getStore().size();
+        PacketInfo packet = new PacketInfo(new TxnInfo(time), nodes[from],
+            time, nodes[to], time + 1, -1, false, (short) -1, null, null,
+            fields);
+        graph.addPacket(packet);
+        return packet;
+    }
+
+    @Test
+    public void testFieldValues()
+    {
+        addPacket(0, 1, "Cmd=Read; kind=a");
+        addPacket(0, 2, "Cmd=Write; kind=b");
+        addPacket(1, 2, "Cmd=Read");
+        addPacket(2, 0, "Cmd=Read; kind=a; flag");
+        addPacket(2, 1, "Cmd=Data; kind=c");
+
+        PacketStore store = graph.getStore();
+        PacketFieldIndex kind = new PacketFieldIndex(PacketFieldIndex.FIELD,
+            "kind", store);
+        assertFalse(kind.isOverflowed());
+        assertArrayEquals(new int[] { 0, 3 }, kind.getPackets("a").toArray());
+        assertArrayEquals(new int[] { 1 }, kind.getPackets("b").toArray());
+        assertEquals(0, kind.getPackets("d").cardinality());
+
+        PacketFieldIndex cmd = new PacketFieldIndex(PacketFieldIndex.FIELD,
+            "Cmd", store);
+        assertArrayEquals(new int[] { 0, 2, 3 },
+            cmd.getPackets("Read").toArray());
+
+        // packets appended to the store are added as they arrive
+        PacketInfo packet = addPacket(1, 0, "Cmd=Read; kind=b");
+        kind.add(packet, store.size() - 1);
+        cmd.add(packet, store.size() - 1);
+        assertArrayEquals(new int[] { 1, 5 }, kind.getPackets("b").toArray());
+        assertArrayEquals(new int[] { 0, 2, 3, 5 },
+            cmd.getPackets("Read").toArray());
+    }
+
+    @Test
+    public void testNodes()
+    {
+        addPacket(0, 1, "Cmd=Read");
+        addPacket(0, 2, "Cmd=Read");
+        addPacket(1, 2, "Cmd=Read");
+        addPacket(2, 0, "Cmd=Read");
+
+        PacketStore store = graph.getStore();
+        PacketFieldIndex from = new PacketFieldIndex(
+            PacketFieldIndex.FROM_NODE, null, store);
+        PacketFieldIndex to = new PacketFieldIndex(PacketFieldIndex.TO_NODE,
+            null, store);
+        assertArrayEquals(new int[] { 0, 1 }, from.getPackets("node0")
+            .toArray());
+        assertArrayEquals(new int[] { 3 }, to.getPackets("node0").toArray());
+        assertArrayEquals(new int[] { 1, 2 }, to.getPackets("node2")
+            .toArray());
+    }
+
+    @Test
+    public void testOverflow()
+    {
+        for (int i = 0; i < PacketFieldIndex.MAX_VALUES; ++i)
+        {
+            addPacket(0, 1, "Cmd=Read; id=" + i);
+        }
+        PacketStore store = graph.getStore();
+        PacketFieldIndex id = new PacketFieldIndex(PacketFieldIndex.FIELD,
+            "id", store);
+        assertFalse(id.isOverflowed());
+        assertEquals(1, id.getPackets("7").cardinality());
+
+        // a repeated value still fits
+        PacketInfo packet = addPacket(0, 1, "Cmd=Read; id=7");
+        id.add(packet, store.size() - 1);
+        assertFalse(id.isOverflowed());
+        assertEquals(2, id.getPackets("7").cardinality());
+
+        packet = addPacket(0, 1, "Cmd=Read; id=new");
+        id.add(packet, store.size() - 1);
+        assertTrue(id.isOverflowed());
+        try
+        {
+            id.getPackets("7");
+            fail("Returned packets from an overflowed index");
+        }
+        catch (IllegalStateException e)
+        {
+            // expected
+        }
+
+        // later packets are ignored, and a rebuild overflows again
+        id.add(addPacket(0, 1, "Cmd=Read; id=7"), store.size() - 1);
+        id.rebuild(store);
+        assertTrue(id.isOverflowed());
+    }
+}
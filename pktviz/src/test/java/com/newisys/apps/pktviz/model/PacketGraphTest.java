@@ -0,0 +1,403 @@
+/*
+ * PacketViz packet visualization for the Java (TM) Platform
+ * Copyright (C) 2007 Newisys, Inc. or its licensors, as applicable.
+ * Java is a registered trademark of Sun Microsystems, Inc. in the U.S. or
+ * other countries.
+ *
+ * Licensed under the Open Software License version 3.0 (the "License"); you
+ * may not use this file except in compliance with the License. You should
+ * have received a copy of the License along with this software; if not, you
+ * may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/osl-3.0.php
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.newisys.apps.pktviz.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.newisys.apps.pktviz.model.filter.AddrFilter;
+import com.newisys.apps.pktviz.model.filter.AndFilter;
+import com.newisys.apps.pktviz.model.filter.NodeFilter;
+import com.newisys.apps.pktviz.model.filter.PacketFilter;
+import com.newisys.apps.pktviz.model.filter.TxnIdFilter;
+import com.newisys.apps.pktviz.model.xform.ActualTimeTransform;
+import com.newisys.apps.pktviz.model.xform.PacketTimeTransform;
+
+public class PacketGraphTest
+{
+    private PacketGraph graph;
+    private PacketNode from;
+    private PacketNode to;
+
+    /**
+     * Displays the packets in the order the transform was given them, ten
+     * ticks apart, and counts how often it is reset, which the graph does
+     * only when it re-indexes or isolates packets.
+     */
+    private static final class RankTransform
+        implements PacketTimeTransform
+    {
+        final Map<PacketInfo, Integer> ranks = new HashMap<PacketInfo, Integer>();
+        int resetCount;
+
+        public void reset(Iterator<PacketInfo> packetIterator)
+        {
+            ++resetCount;
+            ranks.clear();
+            extend(packetIterator);
+        }
+
+        public boolean extend(Iterator<PacketInfo> packetIterator)
+        {
+            while (packetIterator.hasNext())
+            {
+                ranks.put(packetIterator.next(), ranks.size());
+            }
+            return true;
+        }
+
+        public void transform(PacketInfo packet)
+        {
+            long time = ranks.get(packet) * 10L;
+            packet.setFromTime(time);
+            packet.setToTime(time + 5);
+        }
+    }
+
+    @Before
+    public void setUp()
+    {
+        graph = new PacketGraph();
+        from = new PacketNode("from");
+        to = new PacketNode("to");
+        graph.addNode(from, true);
+        graph.addNode(to, true);
+    }
+
+    private PacketInfo newPacket(TxnInfo txn, PacketNode fromNode, long time)
+    {
+        PacketNode toNode = fromNode == from ? to : from;
+        return new PacketInfo(txn, fromNode, time, toNode, time + 1, "Cmd",
+            null);
+    }
+
+    /**
+     * Adds packets numbered from the store size, in transactions of two
+     * packets, without indexing them.
+     */
+    private void addTxnPackets(int count)
+    {
+        List<PacketInfo> list = new ArrayList<PacketInfo>();
+        int base = graph.getStore().size();
+        TxnInfo txn = null;
+        for (int i = base; i < base + count; ++i)
+        {
+            if (txn == null || i % 2 == 0) txn = new TxnInfo(i / 2);
+            list.add(newPacket(txn, i % 2 == 0 ? from : to, i));
+        }
+        graph.addPackets(list);
+    }
+
+    private void addPackets(PacketInfo... packets)
+    {
+        List<PacketInfo> list = new ArrayList<PacketInfo>();
+        Collections.addAll(list, packets);
+        graph.addPackets(list);
+        graph.packetsAddedEvent();
+    }
+
+    /**
+     * Returns the store indexes of the packets found over the whole graph.
+     */
+    private Set<Integer> findAll()
+    {
+        Set<Integer> found = new TreeSet<Integer>();
+        Collection<?> packets = graph.findPackets(Long.MIN_VALUE,
+            Long.MAX_VALUE);
+        for (Object packet : packets)
+        {
+            found.add(((PacketInfo) packet).getStoreIndex());
+        }
+        return found;
+    }
+
+    private static Set<Integer> indexes(Integer... indexes)
+    {
+        Set<Integer> set = new TreeSet<Integer>();
+        Collections.addAll(set, indexes);
+        return set;
+    }
+
+    /**
+     * Adds a transaction whose address is only known from its second
+     * packet, in a later batch, and checks that both packets are found,
+     * both incrementally and after a full re-index.
+     */
+    private void checkAddrSetLater(PacketFilter filter)
+    {
+        graph.setPacketFilter(filter);
+
+        TxnInfo other = new TxnInfo(2);
+        other.setAddrValue(0x80);
+        TxnInfo txn = new TxnInfo(1);
+        addPackets(newPacket(txn, from, 0), newPacket(other, from, 1));
+        assertEquals(indexes(), findAll());
+
+        txn.setAddrValue(0x40);
+        addPackets(newPacket(txn, to, 2), newPacket(other, to, 3));
+        assertEquals(indexes(0, 2), findAll());
+
+        graph.allPacketsAddedEvent();
+        assertEquals(indexes(0, 2), findAll());
+    }
+
+    @Test
+    public void testAddrFilterRematchesEarlierPackets()
+    {
+        checkAddrSetLater(new AddrFilter(0x40, -1));
+    }
+
+    @Test
+    public void testAddrFilterRematchesWithTimeTransform()
+    {
+        graph.setTimeTransform(new ActualTimeTransform());
+        checkAddrSetLater(new AddrFilter(0x40, -1));
+    }
+
+    @Test
+    public void testCompoundAddrFilterRematchesEarlierPackets()
+    {
+        checkAddrSetLater(new AndFilter(new PacketFilter[] {
+            new AddrFilter(0x40, -1),
+            new NodeFilter("from", NodeFilter.FROM_OR_TO) }));
+    }
+
+    @Test
+    public void testAddrFilterRematchesPendingPackets()
+    {
+        // the first packet has not been indexed when the address is set
+        graph.setPacketFilter(new AddrFilter(0x40, -1));
+        TxnInfo txn = new TxnInfo(1);
+        graph.addPacket(newPacket(txn, from, 0));
+        txn.setAddrValue(0x40);
+        graph.addPacket(newPacket(txn, to, 1));
+        graph.packetsAddedEvent();
+        assertEquals(indexes(0, 1), findAll());
+    }
+
+    @Test
+    public void testAddrFilterIgnoresCompletedTxnWithSameID()
+    {
+        graph.setPacketFilter(new AddrFilter(0x40, -1));
+        addPackets(newPacket(new TxnInfo(1), from, 0));
+        assertEquals(indexes(), findAll());
+
+        TxnInfo txn = new TxnInfo(1);
+        txn.setAddrValue(0x40);
+        addPackets(newPacket(txn, from, 1));
+        assertEquals(indexes(1), findAll());
+    }
+
+    /**
+     * Returns the displayed start time of each packet found over the whole
+     * graph, by store index.
+     */
+    private Map<Integer, Long> findAllTimes()
+    {
+        Map<Integer, Long> times = new HashMap<Integer, Long>();
+        Collection<?> packets = graph.findPackets(Long.MIN_VALUE,
+            Long.MAX_VALUE);
+        for (Object o : packets)
+        {
+            PacketInfo packet = (PacketInfo) o;
+            times.put(packet.getStoreIndex(), packet.getFromTime());
+        }
+        return times;
+    }
+
+    @Test
+    public void testPublishedPacketListsDoNotChange()
+    {
+        addTxnPackets(10);
+        graph.packetsAddedEvent();
+        Collection<PacketInfo> before = graph.getPackets();
+        Collection<?> found = graph.findPackets(0, 100);
+        assertEquals(10, found.size());
+
+        addTxnPackets(10);
+        graph.packetsAddedEvent();
+        assertEquals(10, before.size());
+        assertEquals(10, found.size());
+        assertEquals(20, graph.getPackets().size());
+
+        // found sets belong to the caller
+        found.clear();
+        assertEquals(20, graph.findPackets(0, 100).size());
+    }
+
+    @Test
+    public void testReadersSeeConsistentSnapshots()
+        throws InterruptedException
+    {
+        final int batches = 200;
+        final int batchSize = 100;
+        final Throwable[] failure = new Throwable[1];
+        Thread writer = new Thread()
+        {
+            public void run()
+            {
+                try
+                {
+                    for (int i = 0; i < batches; ++i)
+                    {
+                        addTxnPackets(batchSize);
+                        graph.packetsAddedEvent();
+                    }
+                }
+                catch (Throwable t)
+                {
+                    failure[0] = t;
+                }
+            }
+        };
+        graph.findPackets(0, 0);
+        writer.start();
+
+        // the writer only appends, so every snapshot holds at least the
+        // packets of the one before, and a found packet was published
+        int lastCount = 0;
+        while (writer.isAlive())
+        {
+            Collection<?> found = graph.findPackets(Long.MIN_VALUE,
+                Long.MAX_VALUE);
+            Collection<PacketInfo> packets = graph.getPackets();
+            assertTrue(found.size() <= packets.size());
+            assertTrue(packets.size() >= lastCount);
+            assertEquals(0, packets.size() % batchSize);
+            lastCount = packets.size();
+            for (Object o : found)
+            {
+                assertTrue(((PacketInfo) o).getStoreIndex() < lastCount);
+            }
+        }
+        writer.join();
+        assertEquals(null, failure[0]);
+        assertEquals(batches * batchSize, findAll().size());
+    }
+
+    @Test
+    public void testPacketsAddedEventIndexesIncrementally()
+    {
+        RankTransform transform = new RankTransform();
+        graph.setTimeTransform(transform);
+        addTxnPackets(10);
+        graph.packetsAddedEvent();
+        assertEquals(10, findAll().size());
+        assertEquals(1, transform.resetCount);
+
+        // added packets are not found until the event
+        addTxnPackets(10);
+        assertEquals(10, findAll().size());
+        graph.packetsAddedEvent();
+        Map<Integer, Long> times = findAllTimes();
+        assertEquals(20, times.size());
+        for (int i = 0; i < 20; ++i)
+        {
+            assertEquals(Long.valueOf(i * 10), times.get(i));
+        }
+
+        // enough batches to rebuild the index tree from its delta
+        for (int i = 0; i < 40; ++i)
+        {
+            addTxnPackets(1000);
+            graph.packetsAddedEvent();
+        }
+        assertEquals(40020, findAll().size());
+        assertEquals(1, transform.resetCount);
+        assertEquals(1, graph.findPackets(400000, 400004).size());
+
+        graph.allPacketsAddedEvent();
+        assertEquals(2, transform.resetCount);
+        assertEquals(40020, findAll().size());
+    }
+
+    @Test
+    public void testIsolateAndRestore()
+    {
+        RankTransform transform = new RankTransform();
+        graph.setTimeTransform(transform);
+        addTxnPackets(40);
+        graph.allPacketsAddedEvent();
+        Map<Integer, Long> fullTimes = findAllTimes();
+        assertEquals(40, fullTimes.size());
+        assertEquals(1, transform.resetCount);
+
+        // a transaction is isolated and re-timed on its own
+        graph.setPacketFilter(new TxnIdFilter(3));
+        Map<Integer, Long> txnTimes = findAllTimes();
+        assertEquals(2, txnTimes.size());
+        assertEquals(Long.valueOf(0), txnTimes.get(6));
+        assertEquals(Long.valueOf(10), txnTimes.get(7));
+        assertEquals(2, transform.resetCount);
+
+        // isolating another keeps the first index saved
+        graph.setPacketFilter(new TxnIdFilter(4));
+        assertEquals(indexes(8, 9), findAll());
+        assertEquals(3, transform.resetCount);
+
+        // restored with the packets' earlier times, without a reset
+        graph.setPacketFilter(null);
+        assertEquals(fullTimes, findAllTimes());
+        assertEquals(3, transform.resetCount);
+
+        // the transform is reset for the restored packets before it is
+        // extended to new ones
+        addTxnPackets(2);
+        graph.packetsAddedEvent();
+        Map<Integer, Long> times = findAllTimes();
+        assertEquals(42, times.size());
+        assertEquals(4, transform.resetCount);
+        assertEquals(Long.valueOf(410), times.get(41));
+        assertEquals(Long.valueOf(60), times.get(6));
+    }
+
+    @Test
+    public void testSavedIndexDiscardedAfterChange()
+    {
+        RankTransform transform = new RankTransform();
+        graph.setTimeTransform(transform);
+        addTxnPackets(40);
+        graph.allPacketsAddedEvent();
+        assertEquals(40, findAll().size());
+
+        graph.setPacketFilter(new TxnIdFilter(3));
+        assertEquals(indexes(6, 7), findAll());
+        addTxnPackets(2);
+        graph.packetsAddedEvent();
+        int resets = transform.resetCount;
+
+        // the saved index lacks the new packets, so the graph is re-indexed
+        graph.setPacketFilter(null);
+        assertEquals(42, findAll().size());
+        assertEquals(resets + 1, transform.resetCount);
+    }
+}